@@ -0,0 +1,81 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to draw a segment during a drag through a RasterHistory, at full
+ * quality and as a draft with adaptive quality on. The redraw at full
+ * quality happens in the background once drawing pauses and is not counted;
+ * the drafts of each stroke are dropped when it ends.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaptiveQualityBenchmark {
+  private static final int SEGMENTS = 10000;
+  private static final int STROKE = 200;
+
+  @Param({"false", "true"})
+  public boolean adaptive;
+
+  private SegmentStore segments;
+  private TiledRaster raster;
+  private RasterHistory history;
+  private DraftRenderer drafts;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    segments = Strokes.randomWalk(5, SEGMENTS, 2000, 2000);
+  }
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    raster = new TiledRaster(2000, 2000, 1024);
+    history = new RasterHistory(raster);
+    drafts = new DraftRenderer(history, raster, (minX, minY, maxX, maxY) -> {
+    }, DraftRenderer.DEFAULT_IDLE_DELAY);
+    segments.forEach(history::drawLine);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    drafts.cancel();
+    raster.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STROKE)
+  public void drag() {
+    int from = next;
+    next = (next + STROKE) % SEGMENTS;
+    if (adaptive) {
+      segments.forEach(from, STROKE, drafts::drawLine);
+      drafts.cancel();
+    } else {
+      segments.forEach(from, STROKE, history::drawLine);
+    }
+  }
+
+}
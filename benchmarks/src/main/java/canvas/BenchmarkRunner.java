@@ -0,0 +1,32 @@
+package canvas;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler turned on and writes the
+ * results as JSON, in the form of the baseline kept in benchmarks/results.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar [result file] [regex]
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException {
+    String resultFile = args.length > 0 ? args[0] : "jmh-result.json";
+    ChainedOptionsBuilder options = new OptionsBuilder()
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(resultFile)
+        .jvmArgsAppend("-Djava.awt.headless=true");
+    options.include(args.length > 1 ? args[1] : "canvas\\..*Benchmark");
+    new Runner(options.build()).run();
+  }
+
+}
@@ -0,0 +1,75 @@
+package canvas;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a CanvasView pays to paint one mouse move, by canvas size: blitting
+ * the whole canvas, as before dirty-region repaints, against blitting only
+ * the padded bounding box of the new segment.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlitBenchmark {
+
+  @Param({"600", "1200", "2400"})
+  public int size;
+
+  private TiledRaster raster;
+  private BufferedImage screen;
+  private Graphics2D graphics;
+  private Rectangle whole;
+  private Rectangle dirty;
+
+  @Setup
+  public void setUp() {
+    raster = new TiledRaster(size, size, 1024);
+    Strokes.randomWalk(3, 20000, size, size).forEach(raster::drawLine);
+    screen = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+    graphics = screen.createGraphics();
+    whole = new Rectangle(0, 0, size, size);
+    // a 6 pixel mouse move padded by 2 pixels on each side
+    dirty = new Rectangle(size / 2 - 2, size / 2 - 2, 10, 10);
+  }
+
+  @TearDown
+  public void tearDown() {
+    graphics.dispose();
+    raster.close();
+  }
+
+  @Benchmark
+  public void wholeCanvas() {
+    raster.paint(graphics, whole);
+  }
+
+  @Benchmark
+  public void dirtyRegion() {
+    graphics.setClip(dirty);
+    raster.paint(graphics, dirty);
+    graphics.setClip(null);
+  }
+
+}
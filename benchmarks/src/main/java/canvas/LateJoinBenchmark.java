@@ -0,0 +1,103 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time to register a listener with a model that has late join enabled, after
+ * sessions of different lengths that never clear the canvas, once the
+ * background compaction has caught up. Also the cost of drawing a segment
+ * with late join enabled, compactions included; that benchmark clears the
+ * canvas every DRAWN_BETWEEN_CLEARS segments only so that millions of calls
+ * fit in the heap.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LateJoinBenchmark {
+  private static final int DRAWN_BETWEEN_CLEARS = LateJoinState.COMPACT_EVERY * 8;
+
+  @Param({"10000", "100000", "1000000"})
+  public int sessionSegments;
+
+  private CanvasModel model;
+  private CanvasListener listener;
+  private int x;
+  private int drawn;
+
+  /**
+   * A listener that only hands the segments to the blackhole.
+   */
+  private static class SinkListener implements CanvasListener {
+    private final Blackhole blackhole;
+
+    SinkListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      blackhole.consume(endX);
+    }
+
+    public void linesDrawn(int[] coords, int count) {
+      blackhole.consume(coords[count * 4 - 1]);
+    }
+
+    public void clearCanvas() {
+    }
+  }
+
+  @Setup
+  public void setUp(Blackhole blackhole) throws InterruptedException {
+    model = new CanvasModel(600, 600);
+    model.enableLateJoin();
+    model.setStartPositions(0, 0);
+    for (int i = 0; i < sessionSegments; i++) {
+      model.setEndPositions(i % 600, (i / 600) % 600);
+    }
+    int tail = sessionSegments - LateJoinState.COMPACT_EVERY;
+    while (model.getJoinState().compactedSegments() <= tail) {
+      Thread.sleep(1);
+    }
+    listener = new SinkListener(blackhole);
+  }
+
+  @Benchmark
+  public void register() {
+    model.registerListener(listener);
+    model.deregisterListener(listener);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void setEndPositions() {
+    x = (x + 1) % 600;
+    model.setEndPositions(x, x);
+    if (++drawn == DRAWN_BETWEEN_CLEARS) {
+      drawn = 0;
+      model.clearCanvas();
+    }
+  }
+
+}
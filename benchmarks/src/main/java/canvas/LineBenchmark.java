@@ -0,0 +1,61 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Segments per second a TiledRaster draws in each LineMode: mouse strokes of
+ * short segments on a canvas whose tiles all stay in memory.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineBenchmark {
+  private static final int SEGMENTS = 10000;
+
+  @Param({"JAVA2D", "BRESENHAM", "WU"})
+  public LineMode lineMode;
+
+  private SegmentStore segments;
+  private TiledRaster raster;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    segments = Strokes.randomWalk(5, SEGMENTS, 2000, 2000);
+    raster = new TiledRaster(2000, 2000, 1024);
+    raster.setLineMode(lineMode);
+    segments.forEach(raster::drawLine);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    raster.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SEGMENTS)
+  public void drawSegments() {
+    segments.forEach(raster::drawLine);
+  }
+
+}
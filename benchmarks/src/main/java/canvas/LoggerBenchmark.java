@@ -0,0 +1,62 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of appending to a CanvasLogger and of reading back what it has
+ * logged.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+  private static final int LOGGED = 1000000;
+
+  private CanvasLogger appendLogger;
+  private CanvasLogger fullLogger;
+  private int x;
+
+  @Setup
+  public void setUp() {
+    // a ring log so that appending for the whole run keeps memory steady
+    appendLogger = new CanvasLogger(new CanvasModel(600, 600), LOGGED);
+    fullLogger = new CanvasLogger(new CanvasModel(600, 600));
+    Strokes.randomWalk(1, LOGGED, 600, 600).forEach(fullLogger::lineDrawn);
+  }
+
+  @Benchmark
+  public void append() {
+    x++;
+    appendLogger.lineDrawn(x, x, x + 1, x + 1);
+  }
+
+  @Benchmark
+  public CanvasLine secondLastLine() {
+    return fullLogger.getSecondLastLine();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void iterateAll(Blackhole blackhole) {
+    fullLogger.getSegments().forEach((startX, startY, endX, endY) -> blackhole.consume(endY));
+  }
+
+}
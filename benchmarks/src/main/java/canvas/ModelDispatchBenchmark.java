@@ -0,0 +1,75 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of one setEndPositions call fanned out to a number of listeners that
+ * do no work of their own.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelDispatchBenchmark {
+
+  @Param({"1", "10", "100", "1000", "10000"})
+  public int listeners;
+
+  private CanvasModel model;
+  private int x;
+
+  /**
+   * A listener that only hands the segment to the blackhole.
+   */
+  private static class SinkListener implements CanvasListener {
+    private final Blackhole blackhole;
+
+    SinkListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      blackhole.consume(endX);
+    }
+
+    public void clearCanvas() {
+    }
+  }
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    model = new CanvasModel(600, 600);
+    for (int i = 0; i < listeners; i++) {
+      model.registerListener(new SinkListener(blackhole));
+    }
+    model.setStartPositions(0, 0);
+  }
+
+  @Benchmark
+  public void setEndPositions() {
+    x = (x + 1) % 600;
+    model.setEndPositions(x, x);
+  }
+
+}
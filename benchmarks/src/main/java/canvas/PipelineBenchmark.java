@@ -0,0 +1,101 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of one segment passed through a CanvasPipeline of a number of
+ * operators that let every segment through, against calling the sink
+ * directly, for lone segments and for batches of 64.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+  private static final int BATCH = 64;
+
+  @Param({"0", "1", "5"})
+  public int operators;
+
+  private CanvasListener head;
+  private final int[] coords = new int[BATCH * 4];
+  private int x;
+
+  /**
+   * A listener that only hands the segments to the blackhole.
+   */
+  private static class SinkListener implements CanvasListener {
+    private final Blackhole blackhole;
+
+    SinkListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      blackhole.consume(endX);
+    }
+
+    public void linesDrawn(int[] coords, int count) {
+      blackhole.consume(coords[count * 4 - 2]);
+    }
+
+    public void clearCanvas() {
+    }
+  }
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    CanvasListener sink = new SinkListener(blackhole);
+    // no two operators of a kind next to each other, so none are fused
+    CanvasPipeline[] pipelines = {null, CanvasPipeline.create().region(0, 0, 599, 599),
+        CanvasPipeline.create().region(0, 0, 599, 599).transform(1, 1, 1, 1).sample(1)
+            .region(1, 1, 600, 600).transform(1, 1, -1, -1)};
+    head = operators == 0 ? sink : pipelines[operators == 1 ? 1 : 2].to(sink);
+    for (int i = 0; i < BATCH * 4; i++) {
+      coords[i] = (i * 7) % 600;
+    }
+  }
+
+  @Benchmark
+  public void lineDrawn() {
+    x = (x + 1) % 600;
+    head.lineDrawn(x, x, x + 1, x);
+    // keeps the region history from growing without end
+    if (x == 0) {
+      head.clearCanvas();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void linesDrawn() {
+    head.linesDrawn(coords, BATCH);
+    x = (x + 1) % 600;
+    if (x == 0) {
+      head.clearCanvas();
+    }
+  }
+
+}
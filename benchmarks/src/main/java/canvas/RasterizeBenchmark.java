@@ -0,0 +1,50 @@
+package canvas;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to render a recorded drawing headlessly with CanvasRasterizer.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class RasterizeBenchmark {
+  private static final int SIZE = 2048;
+
+  @Param({"100000", "1000000"})
+  public int segments;
+
+  private SegmentStore drawing;
+  private CanvasRasterizer rasterizer;
+
+  @Setup
+  public void setUp() {
+    drawing = Strokes.randomWalk(7, segments, SIZE, SIZE);
+    rasterizer = new CanvasRasterizer(SIZE, SIZE);
+  }
+
+  @Benchmark
+  public BufferedImage render() {
+    return rasterizer.render(drawing);
+  }
+
+}
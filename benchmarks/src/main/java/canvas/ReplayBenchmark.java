@@ -0,0 +1,69 @@
+package canvas;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to replay a recorded drawing session at full speed into a model with a
+ * CanvasLogger, from one or several replay threads at once.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+  private static final int SEGMENTS = 100000;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private List<InputRecording> recordings;
+  private ReplayDriver driver;
+
+  @Setup
+  public void setUp() throws IOException {
+    SegmentStore segments = Strokes.randomWalk(1, SEGMENTS, 600, 600);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputRecorder recorder = new InputRecorder(bytes, 600, 600)) {
+      for (int i = 0; i < segments.size(); i++) {
+        if (i == 0 || segments.getStartX(i) != segments.getEndX(i - 1)
+            || segments.getStartY(i) != segments.getEndY(i - 1)) {
+          recorder.recordStart(segments.getStartX(i), segments.getStartY(i));
+        }
+        recorder.recordEnd(segments.getEndX(i), segments.getEndY(i));
+      }
+    }
+    recordings = Collections.singletonList(
+        InputRecording.read(new ByteArrayInputStream(bytes.toByteArray())));
+    CanvasModel model = new CanvasModel(600, 600);
+    new CanvasLogger(model, SEGMENTS);
+    driver = new ReplayDriver(model, ReplayDriver.MAX_SPEED);
+  }
+
+  @Benchmark
+  public long replay() throws InterruptedException {
+    return driver.playAll(recordings, threads);
+  }
+
+}
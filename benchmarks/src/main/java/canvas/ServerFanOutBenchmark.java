@@ -0,0 +1,93 @@
+package canvas;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loopback latency from a segment drawn on a CanvasServer's model until every
+ * connected CanvasClient has received it.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ServerFanOutBenchmark {
+
+  @Param({"1", "100", "300"})
+  public int clients;
+
+  private CanvasModel model;
+  private CanvasServer server;
+  private CanvasClient[] connected;
+  private final AtomicInteger received = new AtomicInteger();
+  private int x;
+
+  /**
+   * Counts the segments a client receives.
+   */
+  private class CountingListener implements CanvasListener {
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      received.incrementAndGet();
+    }
+
+    public void clearCanvas() {
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException, InterruptedException {
+    model = new CanvasModel(600, 600);
+    server = new CanvasServer(model, 0);
+    server.start();
+    connected = new CanvasClient[clients];
+    for (int i = 0; i < clients; i++) {
+      connected[i] = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+      connected[i].registerListener(new CountingListener());
+    }
+    while (server.getClientCount() < clients) {
+      Thread.sleep(1);
+    }
+    model.setStartPositions(0, 0);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, InterruptedException {
+    for (CanvasClient client : connected) {
+      client.close();
+    }
+    server.close();
+  }
+
+  @Benchmark
+  public void fanOut() {
+    int target = received.get() + clients;
+    x = (x + 1) % 600;
+    model.setEndPositions(x, x);
+    while (received.get() < target) {
+      Thread.onSpinWait();
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of drawing through StrokeSessions on one shared model, from one
+ * drawer and from eight drawing at once. Each operation draws one position of
+ * a stroke of 100 segments.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+  private static final int STROKE = 100;
+
+  /**
+   * Counts the segments delivered, which the model does under its lock.
+   */
+  private static class Counter implements CanvasListener {
+    long segments;
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      segments++;
+    }
+
+    @Override
+    public void sessionLinesDrawn(int session, int[] coords, int count) {
+      segments += count;
+    }
+
+    public void clearCanvas() {
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Shared {
+    final AtomicInteger ids = new AtomicInteger();
+    CanvasModel model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      model = new CanvasModel(4000, 4000);
+      model.registerListener(new Counter());
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Drawer {
+    StrokeSession session;
+    int step;
+    int originX;
+
+    @Setup(Level.Trial)
+    public void setUp(Shared shared) {
+      int id = shared.ids.getAndIncrement();
+      session = shared.model.openSession(id);
+      originX = (id % 32) * 100;
+    }
+
+    int draw() {
+      if (step == 0) {
+        session.begin(originX, 0);
+      } else {
+        session.extend(originX + (step & 7), step * 10);
+      }
+      if (++step > STROKE) {
+        session.end();
+        step = 0;
+      }
+      return step;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int oneDrawer(Drawer drawer) {
+    return drawer.draw();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int eightDrawers(Drawer drawer) {
+    return drawer.draw();
+  }
+
+}
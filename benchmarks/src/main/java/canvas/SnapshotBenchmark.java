@@ -0,0 +1,73 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a segment fired at a SnapshotLog, and of taking a snapshot, while
+ * one thread draws and another takes snapshots as fast as it can, and of a
+ * segment with no one taking snapshots. The
+ * drawing thread undoes a stroke of 100 segments now and then, so drawing
+ * over slots the snapshots hold is included.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+  private static final int STROKE = 100;
+
+  private SnapshotLog log;
+  private int drawn;
+
+  @Setup
+  public void setUp() {
+    log = new SnapshotLog(new CanvasModel(600, 600));
+  }
+
+  @Benchmark
+  @Group("alone")
+  @GroupThreads(1)
+  public void lineDrawnAlone() {
+    lineDrawn();
+  }
+
+  @Benchmark
+  @Group("drawing")
+  @GroupThreads(1)
+  public void lineDrawn() {
+    int x = drawn % 600;
+    log.lineDrawn(x, x, x + 1, x);
+    drawn++;
+    if (drawn % 10000 == 0) {
+      log.clearCanvas();
+    } else if (drawn % 1000 == 0) {
+      log.linesUndone(STROKE);
+    }
+  }
+
+  @Benchmark
+  @Group("drawing")
+  @GroupThreads(1)
+  public int snapshot() {
+    return log.snapshot().size();
+  }
+
+}
@@ -0,0 +1,64 @@
+package canvas;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to save a drawing of a million segments as a stroke file and to load
+ * it into a model with one listener, both in memory so the disk is left out.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeFileBenchmark {
+  private static final int SEGMENTS = 1000000;
+
+  private SegmentStore segments;
+  private byte[] file;
+  private CanvasModel model;
+  private CanvasLogger logger;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    segments = Strokes.randomWalk(1, SEGMENTS, 4000, 4000);
+    file = save();
+    model = new CanvasModel(4000, 4000);
+    logger = new CanvasLogger(model, SEGMENTS);
+  }
+
+  @Benchmark
+  public byte[] save() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(SEGMENTS * 3);
+    try (StrokeFileWriter writer = new StrokeFileWriter(out, 4000, 4000)) {
+      segments.forEach(writer::lineDrawn);
+    }
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public long load() throws IOException {
+    logger.getSegments().clear();
+    return StrokeFileReader.read(new ByteArrayInputStream(file), logger);
+  }
+
+}
@@ -0,0 +1,48 @@
+package canvas;
+
+import java.util.SplittableRandom;
+
+/**
+ * Builds repeatable drawings for the benchmarks: strokes of short segments
+ * that wander over the canvas the way a dragged mouse does.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+final class Strokes {
+  private static final int SEGMENTS_PER_STROKE = 200;
+  private static final int STEP = 6;
+
+  private Strokes() {
+  }
+
+  /**
+   * Returns count segments in strokes of SEGMENTS_PER_STROKE, all inside a
+   * width by height canvas.
+   *
+   * @param seed
+   * @param count number of segments
+   * @param width
+   * @param height
+   * @return the segments
+   */
+  static SegmentStore randomWalk(long seed, int count, int width, int height) {
+    SplittableRandom random = new SplittableRandom(seed);
+    SegmentStore segments = new SegmentStore();
+    int x = 0;
+    int y = 0;
+    for (int i = 0; i < count; i++) {
+      if (i % SEGMENTS_PER_STROKE == 0) {
+        x = random.nextInt(width + 1);
+        y = random.nextInt(height + 1);
+      }
+      int nextX = Math.max(0, Math.min(width, x + random.nextInt(-STEP, STEP + 1)));
+      int nextY = Math.max(0, Math.min(height, y + random.nextInt(-STEP, STEP + 1)));
+      segments.add(x, y, nextX, nextY);
+      x = nextX;
+      y = nextY;
+    }
+    return segments;
+  }
+
+}
@@ -0,0 +1,130 @@
+package canvas;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per segment fired at a model with several views, by number of views:
+ * each view keeping and drawing its own raster, as views did before
+ * CanvasSurface, against one shared surface telling each view what to
+ * repaint. Strokes are drawn on the event dispatch thread, as views draw
+ * them, since a surface hands events from other threads to it.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SurfaceBenchmark {
+  private static final int STROKE = 1000;
+
+  @Param({"1", "4", "16"})
+  public int views;
+
+  @Param({"PER_VIEW", "SHARED"})
+  public String layout;
+
+  /**
+   * A view drawing its own raster, as CanvasView did.
+   */
+  private static class RasterView implements CanvasListener {
+    final TiledRaster raster = new TiledRaster(2000, 2000);
+    final RasterHistory history = new RasterHistory(raster);
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      history.drawLine(startX, startY, endX, endY);
+    }
+
+    public void clearCanvas() {
+      history.clear();
+    }
+  }
+
+  /**
+   * A view that only keeps the area to repaint, as a CanvasPaintArea does.
+   */
+  private static class DirtyView implements CanvasSurface.Observer {
+    int minX;
+    int maxX;
+
+    @Override
+    public void areaChanged(int minX, int minY, int maxX, int maxY) {
+      this.minX = Math.min(this.minX, minX);
+      this.maxX = Math.max(this.maxX, maxX);
+    }
+  }
+
+  private CanvasModel model;
+  private SegmentStore segments;
+  private final List<RasterView> rasterViews = new ArrayList<RasterView>();
+  private CanvasSurface surface;
+  private DirtyView first;
+
+  @Setup
+  public void setUp() {
+    model = new CanvasModel(2000, 2000);
+    segments = Strokes.randomWalk(9, STROKE, 2000, 2000);
+    for (int i = 0; i < views; i++) {
+      if (layout.equals("PER_VIEW")) {
+        RasterView view = new RasterView();
+        rasterViews.add(view);
+        model.registerListener(view);
+      } else {
+        DirtyView view = new DirtyView();
+        surface = CanvasSurface.acquire(model, view);
+        if (first == null) {
+          first = view;
+        }
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (RasterView view : rasterViews) {
+      view.raster.close();
+    }
+    if (surface != null) {
+      surface.getRaster().close();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STROKE)
+  public void drawStroke() throws InvocationTargetException, InterruptedException {
+    EventQueue.invokeAndWait(this::stroke);
+  }
+
+  private void stroke() {
+    model.setStartPositions(segments.getStartX(0), segments.getStartY(0));
+    for (int i = 0; i < STROKE; i++) {
+      model.setEndPositions(segments.getEndX(i), segments.getEndY(i));
+    }
+    model.endStroke();
+  }
+
+}
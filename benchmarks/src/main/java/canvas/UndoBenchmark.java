@@ -0,0 +1,60 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to undo the last stroke of a drawing of a million segments with a
+ * RasterHistory, and to draw it again so every invocation undoes the same
+ * stroke.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoBenchmark {
+  private static final int SEGMENTS = 1000000;
+  private static final int STROKE = 200;
+
+  private SegmentStore segments;
+  private TiledRaster raster;
+  private RasterHistory history;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    segments = Strokes.randomWalk(1, SEGMENTS, 4000, 4000);
+    raster = new TiledRaster(4000, 4000);
+    history = new RasterHistory(raster);
+    segments.forEach(history::drawLine);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    raster.close();
+  }
+
+  @Benchmark
+  public int undoStroke() {
+    history.undo(STROKE);
+    segments.forEach(SEGMENTS - STROKE, STROKE, history::drawLine);
+    return history.size();
+  }
+
+}
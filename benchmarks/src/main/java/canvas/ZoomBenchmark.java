@@ -0,0 +1,88 @@
+package canvas;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a view zoomed out to show a whole drawing pays per paint, by canvas
+ * size: painting the top level of a RasterPyramid against scaling the full
+ * raster down, and what one more segment costs to bring the pyramid up to
+ * date.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZoomBenchmark {
+
+  @Param({"2000", "8000"})
+  public int size;
+
+  private TiledRaster raster;
+  private RasterPyramid pyramid;
+  private BufferedImage screen;
+  private Graphics2D graphics;
+  private Rectangle overview;
+  private int step;
+
+  @Setup
+  public void setUp() {
+    raster = new TiledRaster(size, size, 2048);
+    raster.setLineMode(LineMode.WU);
+    pyramid = new RasterPyramid(raster);
+    Strokes.randomWalk(3, size * 50, size, size).forEach(raster::drawLine);
+    pyramid.refresh();
+    screen = new BufferedImage(TiledRaster.TILE_SIZE, TiledRaster.TILE_SIZE,
+        BufferedImage.TYPE_INT_RGB);
+    graphics = screen.createGraphics();
+    overview = new Rectangle(0, 0, TiledRaster.TILE_SIZE, TiledRaster.TILE_SIZE);
+  }
+
+  @TearDown
+  public void tearDown() {
+    graphics.dispose();
+    raster.close();
+  }
+
+  @Benchmark
+  public void pyramidOverview() {
+    pyramid.paint(graphics, pyramid.getTopLevel(), overview);
+  }
+
+  @Benchmark
+  public void scaledOverview() {
+    Graphics2D scaled = (Graphics2D) graphics.create();
+    double scale = 1.0 / (1 << pyramid.getTopLevel());
+    scaled.scale(scale, scale);
+    raster.paint(scaled, new Rectangle(0, 0, size + 1, size + 1));
+    scaled.dispose();
+  }
+
+  @Benchmark
+  public void segmentAndRefresh() {
+    int x = 100 + (step++ & 1023);
+    raster.drawLine(x, 100, x + 6, 104);
+    pyramid.refresh();
+  }
+
+}
@@ -0,0 +1,348 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wraps a CanvasListener so that it receives events on its own consumer
+ * thread instead of the thread that is drawing. Events are kept in a bounded
+ * ring buffer of ints, six per event, so queuing a segment does not create
+ * any objects. Events reach the wrapped listener in the order they were fired.
+ * When the buffer is full the OverflowPolicy decides what happens to new
+ * segments.
+ *
+ * Used by a CanvasModel in asynchronous dispatch mode. The wrapped listener is
+ * called from the consumer thread, so it must be safe to call from a thread
+ * other than the one drawing. CanvasView hands its own Swing work to the
+ * event dispatch thread when called from another thread; other listeners
+ * that touch Swing must do the same.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class AsyncCanvasListener implements CanvasListener {
+  private static final int READY = 0;
+  private static final int LINE = 1;
+  private static final int CLEAR = 2;
+  private static final int UNDO = 3;
+  private static final int SESSION_LINE = 4;
+  private static final int SLOT = 6;
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private final CanvasListener delegate;
+  private final OverflowPolicy policy;
+  private final int capacity;
+  private final int[] events;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition idle = lock.newCondition();
+  private final Thread consumer;
+  private int head;
+  private int count;
+  private boolean delivering;
+  private boolean running = true;
+  private final int[] delivered = new int[4];
+  private volatile CanvasMetrics metrics;
+
+  /**
+   * Creates the queue and starts its consumer thread.
+   *
+   * @param delegate the listener that receives the events
+   * @param capacity the number of events the queue can hold
+   * @param policy what to do with a new segment when the queue is full
+   * @throws NullPointerException if delegate or policy is null
+   * @throws IllegalArgumentException if capacity is less than 1
+   */
+  public AsyncCanvasListener(CanvasListener delegate, int capacity, OverflowPolicy policy) {
+    if (delegate == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    if (policy == null) {
+      throw new NullPointerException("policy cannot be null");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    this.delegate = delegate;
+    this.policy = policy;
+    this.capacity = capacity;
+    events = new int[capacity * SLOT];
+    consumer = new Thread(this::consume, "canvas-dispatch-" + threadCount.incrementAndGet());
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+   * Returns the listener that receives the events.
+   *
+   * @return the wrapped CanvasListener
+   */
+  public CanvasListener getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Sets the metrics that time each call to the wrapped listener, or stops
+   * timing them when null.
+   *
+   * @param metrics
+   */
+  void setMetrics(CanvasMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void canvasReady() {
+    enqueue(READY, 0, 0, 0, 0);
+  }
+
+  @Override
+  public void lineDrawn(int startX, int startY, int endX, int endY) {
+    enqueue(LINE, startX, startY, endX, endY);
+  }
+
+  /**
+   * queues each segment of the batch, keeping its session tag.
+   */
+  @Override
+  public void sessionLinesDrawn(int session, int[] coords, int count) {
+    for (int i = 0; i < count * 4; i += 4) {
+      enqueue(SESSION_LINE, coords[i], coords[i + 1], coords[i + 2], coords[i + 3], session);
+    }
+  }
+
+  @Override
+  public void linesUndone(int count) {
+    enqueue(UNDO, count, 0, 0, 0);
+  }
+
+  @Override
+  public void clearCanvas() {
+    enqueue(CLEAR, 0, 0, 0, 0);
+  }
+
+  /**
+   * Stops the consumer thread. Events still in the queue are not delivered.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      running = false;
+      count = 0;
+      notEmpty.signalAll();
+      notFull.signalAll();
+      idle.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until every queued event has been delivered to the wrapped listener.
+   *
+   * @param timeout the longest time to wait in milliseconds
+   * @return true if the queue drained, false if the time ran out
+   * @throws InterruptedException if the waiting thread is interrupted
+   */
+  boolean awaitIdle(long timeout) throws InterruptedException {
+    long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    lock.lock();
+    try {
+      while (count > 0 || delivering) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = idle.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of events waiting in the queue, not counting one that
+   * is being delivered.
+   *
+   * @return number of queued events
+   */
+  int queuedEvents() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(int type, int a, int b, int c, int d) {
+    enqueue(type, a, b, c, d, 0);
+  }
+
+  private void enqueue(int type, int a, int b, int c, int d, int session) {
+    lock.lock();
+    try {
+      while (running && count == capacity) {
+        if ((type == LINE || type == SESSION_LINE) && makeRoom(type, a, b, c, d, session)) {
+          return;
+        }
+        if (count < capacity) {
+          break;
+        }
+        notFull.awaitUninterruptibly();
+      }
+      if (!running) {
+        return;
+      }
+      int slot = ((head + count) % capacity) * SLOT;
+      events[slot] = type;
+      events[slot + 1] = a;
+      events[slot + 2] = b;
+      events[slot + 3] = c;
+      events[slot + 4] = d;
+      events[slot + 5] = session;
+      count++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Applies the overflow policy to a new segment when the queue is full, either
+   * merging it into the newest segment or dropping the oldest one.
+   *
+   * @return true if the segment was merged and does not need a slot
+   */
+  private boolean makeRoom(int type, int startX, int startY, int endX, int endY, int session) {
+    if (policy == OverflowPolicy.COALESCE) {
+      int last = ((head + count - 1) % capacity) * SLOT;
+      if (events[last] == type && events[last + 5] == session && events[last + 3] == startX
+          && events[last + 4] == startY
+          && continuesLine(events[last + 1], events[last + 2], startX, startY, endX, endY)) {
+        events[last + 3] = endX;
+        events[last + 4] = endY;
+        return true;
+      }
+    } else if (policy == OverflowPolicy.DROP_OLDEST
+        && (events[head * SLOT] == LINE || events[head * SLOT] == SESSION_LINE)) {
+      head = (head + 1) % capacity;
+      count--;
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the segment from x1, y1 to x2, y2 carries on from the one
+   * from x0, y0 to x1, y1 along the same line in the same direction, so that
+   * one segment from x0, y0 to x2, y2 covers both.
+   */
+  private static boolean continuesLine(int x0, int y0, int x1, int y1, int x2, int y2) {
+    long cross = (long) (x1 - x0) * (y2 - y1) - (long) (y1 - y0) * (x2 - x1);
+    long dot = (long) (x1 - x0) * (x2 - x1) + (long) (y1 - y0) * (y2 - y1);
+    return cross == 0 && dot >= 0;
+  }
+
+  private void consume() {
+    int type;
+    int a;
+    int b;
+    int c;
+    int d;
+    int session;
+    while (true) {
+      lock.lock();
+      try {
+        delivering = false;
+        if (count == 0) {
+          idle.signalAll();
+        }
+        while (running && count == 0) {
+          notEmpty.awaitUninterruptibly();
+        }
+        if (!running) {
+          return;
+        }
+        int slot = head * SLOT;
+        type = events[slot];
+        a = events[slot + 1];
+        b = events[slot + 2];
+        c = events[slot + 3];
+        d = events[slot + 4];
+        session = events[slot + 5];
+        head = (head + 1) % capacity;
+        count--;
+        delivering = true;
+        notFull.signal();
+      } finally {
+        lock.unlock();
+      }
+      CanvasMetrics current = metrics;
+      long start = current == null ? 0 : System.nanoTime();
+      deliver(type, a, b, c, d, session);
+      if (current != null) {
+        record(current, type, a, start);
+      }
+    }
+  }
+
+  /**
+   * Records a delivered event, unless the queue was closed meanwhile: the
+   * model drops the listener's figures once it has closed the queue, and
+   * they must not come back.
+   */
+  private void record(CanvasMetrics current, int type, int a, long start) {
+    int event;
+    int segments = 1;
+    if (type == LINE) {
+      event = CanvasMetrics.LINE_DRAWN;
+    } else if (type == SESSION_LINE) {
+      event = CanvasMetrics.LINES_DRAWN;
+    } else if (type == CLEAR) {
+      event = CanvasMetrics.CLEAR_CANVAS;
+      segments = 0;
+    } else if (type == UNDO) {
+      event = CanvasMetrics.LINES_UNDONE;
+      segments = a;
+    } else {
+      event = CanvasMetrics.CANVAS_READY;
+      segments = 0;
+    }
+    lock.lock();
+    try {
+      if (running) {
+        current.recordDelivery(delegate, event, start, segments);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void deliver(int type, int a, int b, int c, int d, int session) {
+    try {
+      if (type == LINE) {
+        delegate.lineDrawn(a, b, c, d);
+      } else if (type == SESSION_LINE) {
+        delivered[0] = a;
+        delivered[1] = b;
+        delivered[2] = c;
+        delivered[3] = d;
+        delegate.sessionLinesDrawn(session, delivered, 1);
+      } else if (type == CLEAR) {
+        delegate.clearCanvas();
+      } else if (type == UNDO) {
+        delegate.linesUndone(a);
+      } else {
+        delegate.canvasReady();
+      }
+    } catch (RuntimeException e) {
+      // a failing listener must not stop delivery of later events
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+package canvas;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Latency figures for one kind of call to one listener, as reported by
+ * CanvasMetrics over JMX. All times are in nanoseconds.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class CallStatistics {
+  private final String listener;
+  private final String event;
+  private final long count;
+  private final double meanNanos;
+  private final long p50Nanos;
+  private final long p99Nanos;
+  private final long maxNanos;
+
+  /**
+   * Constructor takes every figure of the statistics.
+   * 
+   * @param listener name of the listener
+   * @param event name of the listener method
+   * @param count number of calls
+   * @param meanNanos
+   * @param p50Nanos
+   * @param p99Nanos
+   * @param maxNanos
+   */
+  @ConstructorProperties({"listener", "event", "count", "meanNanos", "p50Nanos", "p99Nanos",
+      "maxNanos"})
+  public CallStatistics(String listener, String event, long count, double meanNanos,
+      long p50Nanos, long p99Nanos, long maxNanos) {
+    this.listener = listener;
+    this.event = event;
+    this.count = count;
+    this.meanNanos = meanNanos;
+    this.p50Nanos = p50Nanos;
+    this.p99Nanos = p99Nanos;
+    this.maxNanos = maxNanos;
+  }
+
+  /**
+   * Returns the name of the listener, its class and identity hash code,
+   * followed by (async) for a listener called on a consumer thread.
+   * 
+   * @return listener name
+   */
+  public String getListener() {
+    return listener;
+  }
+
+  /**
+   * Returns the name of the listener method called.
+   * 
+   * @return event name
+   */
+  public String getEvent() {
+    return event;
+  }
+
+  /**
+   * Returns the number of calls recorded.
+   * 
+   * @return number of calls
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the mean time of a call.
+   * 
+   * @return mean nanoseconds
+   */
+  public double getMeanNanos() {
+    return meanNanos;
+  }
+
+  /**
+   * Returns the median time of a call, rounded up to the top
+   * of its power of two bucket.
+   * 
+   * @return median nanoseconds
+   */
+  public long getP50Nanos() {
+    return p50Nanos;
+  }
+
+  /**
+   * Returns the time 99% of calls took at most, rounded up to the top
+   * of its power of two bucket.
+   * 
+   * @return 99th percentile nanoseconds
+   */
+  public long getP99Nanos() {
+    return p99Nanos;
+  }
+
+  /**
+   * Returns the longest time a call took.
+   * 
+   * @return maximum nanoseconds
+   */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+}
@@ -1,23 +1,101 @@
 package canvas;
 
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import javax.management.JMException;
+
 /**
  * Runs the canvas app. 
  * Creates a model for the canvas, two views of the same
- * canvas, and a logger for the canvas.
+ * canvas, and a logger for the canvas. Strokes are simplified to within half
+ * a pixel and segments are delivered to the views in batches, one per Swing
+ * event-loop tick. Running with
+ * -Dcanvas.metrics=true publishes CanvasMetrics over JMX, with
+ * -Dcanvas.record=file records the drawing to file for a ReplayDriver, with
+ * -Dcanvas.save=file saves the drawing to a stroke file on exit, with
+ * -Dcanvas.open=file loads a stroke file at startup and with
+ * -Dcanvas.lines=BRESENHAM or WU the views draw lines straight into their
+ * pixels instead of through Java2D. -Dcanvas.fps sets the most frames a
+ * second the views paint, and with -Dcanvas.adaptive=true lines are drawn
+ * without antialiasing while dragging and redrawn when drawing pauses.
  * 
  * @author sc2936@nyu.edu
  *
  */
 public class CanvasApp {
-  private void go() {
-    CanvasModel model = new CanvasModel(600, 600);
-    new CanvasView(model);
-    new CanvasView(model);
+  private void go() throws IOException {
+    CanvasModel model = createModel(600, 600);
+    model.enableBatching(EventQueue::invokeLater, 256);
+    model.enableSimplification(0.5);
+    model.enableUndo();
+    if (Boolean.getBoolean("canvas.metrics")) {
+      CanvasMetrics metrics = new CanvasMetrics();
+      try {
+        metrics.registerMBean();
+      } catch (JMException e) {
+        System.err.println("canvas metrics not registered: " + e);
+      }
+      model.setMetrics(metrics);
+    }
+    CanvasView first = new CanvasView(model);
+    CanvasView second = new CanvasView(model);
+    first.setFrameRate(Integer.getInteger("canvas.fps", FrameScheduler.DEFAULT_FRAME_RATE));
+    first.setAdaptiveQuality(Boolean.getBoolean("canvas.adaptive"));
+    String lines = System.getProperty("canvas.lines");
+    if (lines != null) {
+      LineMode lineMode = LineMode.valueOf(lines);
+      first.setLineMode(lineMode);
+      second.setLineMode(lineMode);
+    }
+    String save = System.getProperty("canvas.save");
+    if (save != null) {
+      StrokeFileWriter writer = StrokeFileWriter.attach(Paths.get(save), model);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          System.err.println("drawing not saved: " + e);
+        }
+      }));
+    }
 
     model.start();
+    String open = System.getProperty("canvas.open");
+    if (open != null) {
+      // read off the event dispatch thread, which the views paint it on
+      Thread loader = new Thread(() -> {
+        try {
+          StrokeFileReader.load(Paths.get(open), model);
+        } catch (IOException e) {
+          System.err.println("drawing not loaded: " + e);
+        }
+      }, "canvas-loader");
+      loader.setDaemon(true);
+      loader.start();
+    }
+  }
+
+  private CanvasModel createModel(int length, int height) throws IOException {
+    String file = System.getProperty("canvas.record");
+    if (file == null) {
+      return new CanvasModel(length, height);
+    }
+    InputRecorder recorder = new InputRecorder(Files.newOutputStream(Paths.get(file)),
+        length, height);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        recorder.close();
+      } catch (IOException e) {
+        System.err.println("input recording not saved: " + e);
+      }
+    }));
+    return new RecordingCanvasModel(length, height, recorder);
   }
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     new CanvasApp().go();
   }
 }
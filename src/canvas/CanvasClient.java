@@ -0,0 +1,316 @@
+package canvas;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+
+/**
+ * A CanvasModel that mirrors a model hosted by a CanvasServer in another
+ * process. Views and other listeners register with the client as with any
+ * model. Drawing on the client sends the positions to the server instead of
+ * drawing locally, and the events the server sends back, including the
+ * drawing of every other client, are fired at the local listeners.
+ *
+ * Sessions opened on the client draw on the server too: each StrokeSession
+ * sends its begin, extend and end to a session of its own on the server, so
+ * strokes drawn at the same time on one client stay apart there as well.
+ * What a session sends is buffered until it is flushed or its stroke ends.
+ *
+ * Server events are read on a reader thread and handed to a delivery
+ * Executor, for example EventQueue::invokeLater when the listeners are
+ * CanvasViews.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public class CanvasClient extends CanvasModel {
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final Executor delivery;
+  private final Thread reader;
+  private volatile boolean running = true;
+
+  /**
+   * A StrokeSession that sends what it draws to the server instead of
+   * drawing locally.
+   */
+  private static class RemoteSession extends StrokeSession {
+    private final CanvasClient client;
+
+    RemoteSession(CanvasClient client, int id) {
+      super(client, id, 1, -1);
+      this.client = client;
+    }
+
+    @Override
+    public void begin(int x, int y) {
+      client.sendSession(CanvasProtocol.SESSION_BEGIN, getId(), x, y);
+    }
+
+    @Override
+    public void extend(int x, int y) {
+      client.sendSession(CanvasProtocol.SESSION_EXTEND, getId(), x, y);
+    }
+
+    @Override
+    public void end() {
+      client.sendSessionEnd(getId());
+    }
+
+    @Override
+    public void flush() {
+      client.flushOut();
+    }
+  }
+
+  private CanvasClient(Socket socket, DataInputStream in, int length, int height,
+      Executor delivery) throws IOException {
+    super(length, height);
+    this.socket = socket;
+    this.in = in;
+    this.delivery = delivery;
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    reader = new Thread(this::receive, "canvas-client");
+    reader.setDaemon(true);
+  }
+
+  /**
+   * Connects to a CanvasServer and waits for the size of its canvas.
+   *
+   * @param host
+   * @param port
+   * @param delivery runs the delivery of server events to the listeners
+   * @return the connected client
+   * @throws NullPointerException if delivery is null
+   * @throws IOException if the server cannot be reached or does not answer
+   *           with a HELLO frame
+   */
+  public static CanvasClient connect(String host, int port, Executor delivery)
+      throws IOException {
+    if (delivery == null) {
+      throw new NullPointerException("executor cannot be null");
+    }
+    Socket socket = new Socket(host, port);
+    try {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      int length = in.readInt();
+      byte type = in.readByte();
+      if (length != 9 || type != CanvasProtocol.HELLO) {
+        throw new IOException("not a canvas server");
+      }
+      CanvasClient client = new CanvasClient(socket, in, in.readInt(), in.readInt(), delivery);
+      client.reader.start();
+      return client;
+    } catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Sends the start position to the server.
+   *
+   * @throws UncheckedIOException if the connection fails
+   */
+  @Override
+  public void setStartPositions(int x, int y) {
+    send(CanvasProtocol.START, x, y);
+  }
+
+  /**
+   * Sends the end position to the server, which draws the segment and sends
+   * it back to every client.
+   *
+   * @throws UncheckedIOException if the connection fails
+   */
+  @Override
+  public void setEndPositions(int x, int y) {
+    send(CanvasProtocol.END, x, y);
+  }
+
+  /**
+   * Asks the server to clear the canvas of every client.
+   *
+   * @throws UncheckedIOException if the connection fails
+   */
+  @Override
+  public void clearCanvas() {
+    sendEmpty(CanvasProtocol.CLEAR);
+  }
+
+  /**
+   * Tells the server that the stroke being drawn has ended.
+   *
+   * @throws UncheckedIOException if the connection fails
+   */
+  @Override
+  public void endStroke() {
+    sendEmpty(CanvasProtocol.STROKE_END);
+  }
+
+  /**
+   * Asks the server to undo its newest stroke on every client.
+   *
+   * @throws UncheckedIOException if the connection fails
+   */
+  @Override
+  public void undo() {
+    sendEmpty(CanvasProtocol.UNDO);
+  }
+
+  /**
+   * Asks the server to redo its newest undone stroke on every client.
+   *
+   * @throws UncheckedIOException if the connection fails
+   */
+  @Override
+  public void redo() {
+    sendEmpty(CanvasProtocol.REDO);
+  }
+
+  /**
+   * Opens a session that draws on a session of its own on the server.
+   *
+   * @param id the id the session is tagged with on the server
+   * @return the session
+   */
+  @Override
+  public StrokeSession openSession(int id) {
+    return new RemoteSession(this, id);
+  }
+
+  /**
+   * Opens a session that draws on a session of its own on the server. The
+   * server batches the segments itself, so maxBatch is only checked.
+   *
+   * @param id the id the session is tagged with on the server
+   * @param maxBatch
+   * @return the session
+   * @throws IllegalArgumentException if maxBatch is less than 1
+   */
+  @Override
+  public StrokeSession openSession(int id, int maxBatch) {
+    if (maxBatch < 1) {
+      throw new IllegalArgumentException("batch size must be at least 1");
+    }
+    return new RemoteSession(this, id);
+  }
+
+  /**
+   * Disconnects from the server.
+   *
+   * @throws IOException if the socket cannot be closed
+   */
+  public void close() throws IOException {
+    running = false;
+    socket.close();
+  }
+
+  private void sendEmpty(byte type) {
+    synchronized (out) {
+      try {
+        out.writeInt(1);
+        out.writeByte(type);
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException("canvas server connection failed", e);
+      }
+    }
+  }
+
+  private void sendSession(byte type, int id, int x, int y) {
+    synchronized (out) {
+      try {
+        out.writeInt(13);
+        out.writeByte(type);
+        out.writeInt(id);
+        out.writeInt(x);
+        out.writeInt(y);
+      } catch (IOException e) {
+        throw new UncheckedIOException("canvas server connection failed", e);
+      }
+    }
+  }
+
+  private void sendSessionEnd(int id) {
+    synchronized (out) {
+      try {
+        out.writeInt(5);
+        out.writeByte(CanvasProtocol.SESSION_END);
+        out.writeInt(id);
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException("canvas server connection failed", e);
+      }
+    }
+  }
+
+  private void flushOut() {
+    synchronized (out) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException("canvas server connection failed", e);
+      }
+    }
+  }
+
+  private void send(byte type, int x, int y) {
+    synchronized (out) {
+      try {
+        out.writeInt(9);
+        out.writeByte(type);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException("canvas server connection failed", e);
+      }
+    }
+  }
+
+  private void receive() {
+    try {
+      while (running) {
+        int length = in.readInt();
+        if (length < 1 || length > CanvasProtocol.MAX_FRAME) {
+          throw new IOException("bad frame length " + length);
+        }
+        byte type = in.readByte();
+        if (type == CanvasProtocol.SEGMENTS) {
+          int count = in.readInt();
+          if (count < 0 || CanvasProtocol.segmentsFrameSize(count) - 4 != length) {
+            throw new IOException("bad segments frame");
+          }
+          int[] coords = new int[count * 4];
+          for (int i = 0; i < coords.length; i++) {
+            coords[i] = in.readInt();
+          }
+          delivery.execute(() -> drawSegments(coords, count));
+        } else if (type == CanvasProtocol.UNDO && length == 5) {
+          int count = in.readInt();
+          delivery.execute(() -> undoSegments(count));
+        } else if (type == CanvasProtocol.CLEAR) {
+          delivery.execute(() -> super.clearCanvas());
+        } else if (type == CanvasProtocol.READY) {
+          delivery.execute(() -> start());
+        } else {
+          throw new IOException("unexpected frame " + type);
+        }
+      }
+    } catch (IOException e) {
+      if (running) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, e);
+      }
+    }
+  }
+
+}
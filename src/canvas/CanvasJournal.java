@@ -0,0 +1,274 @@
+package canvas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Implements the CanvasListener Interface. Appends every event of a
+ * CanvasModel to a memory-mapped journal file, so a drawing survives the
+ * process and can be restored at startup.
+ *
+ * The file starts with a 16 byte header: a magic number, a version and the
+ * number of records written. Each record is 20 bytes: the event type followed
+ * by four ints, the segment coordinates for a lineDrawn record, the number of
+ * segments undone followed by zeros for a linesUndone record and zero for
+ * canvasReady and clearCanvas records. Records are mapped in chunks, so the
+ * file can grow without remapping what was already written. Each chunk holds
+ * as many records as the journal already has, from a small first chunk up to
+ * a limit, and closing the journal cuts the file back to the records written.
+ *
+ * The journal keeps no stroke boundaries of its own. A stroke is a run of
+ * segments that each start where the one before ended, as the model draws
+ * them, and replaying delivers each such run as one stroke, so undo after a
+ * restore takes back the same strokes it would have before.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public class CanvasJournal implements CanvasListener {
+  static final int MAGIC = 0x434A4E4C;
+  static final int VERSION = 1;
+  static final int READY = 0;
+  static final int LINE = 1;
+  static final int CLEAR = 2;
+  static final int UNDO = 3;
+  static final int HEADER_SIZE = 16;
+  static final int RECORD_SIZE = 20;
+  private static final int FIRST_CHUNK_RECORDS = 1 << 12;
+  private static final int CHUNK_RECORDS = 1 << 22;
+  private static final int REPLAY_BATCH = 4096;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final CanvasModel model;
+  private MappedByteBuffer chunk;
+  private long chunkStart;
+  private long chunkEnd;
+  private long records;
+
+  private CanvasJournal(FileChannel channel, CanvasModel model) throws IOException {
+    this.channel = channel;
+    this.model = model;
+    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    if (header.getInt(0) == 0 && header.getLong(8) == 0) {
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+    }
+    records = readHeader(header);
+  }
+
+  /**
+   * Opens or creates a journal for a model. Events already in the journal are
+   * replayed into the model first, then the journal registers as a listener
+   * and appends every later event.
+   *
+   * @param file the journal file
+   * @param model
+   * @return the open journal
+   * @throws NullPointerException if file or model is null
+   * @throws IOException if the file cannot be read or written, or is not a
+   *           journal
+   */
+  public static CanvasJournal open(Path file, CanvasModel model) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("file cannot be null");
+    }
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      CanvasJournal journal = new CanvasJournal(channel, model);
+      replay(channel, journal.records, model);
+      model.registerListener(journal);
+      return journal;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Replays a journal into a model without keeping it open. Segments are
+   * delivered a stroke at a time through CanvasModel.drawSegments, clear
+   * records clear the model and ready records are skipped. No objects are
+   * created per record.
+   *
+   * @param file the journal file
+   * @param model
+   * @return the number of records replayed
+   * @throws IOException if the file cannot be read or is not a journal
+   */
+  public static long replay(Path file, CanvasModel model) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("not a canvas journal: " + file);
+      }
+      long records = readHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE));
+      replay(channel, records, model);
+      return records;
+    }
+  }
+
+  private static long readHeader(MappedByteBuffer header) throws IOException {
+    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+      throw new IOException("not a canvas journal");
+    }
+    return header.getLong(8);
+  }
+
+  private static void replay(FileChannel channel, long records, CanvasModel model)
+      throws IOException {
+    int[] batch = new int[REPLAY_BATCH * 4];
+    int count = 0;
+    long done = 0;
+    while (done < records) {
+      int length = (int) Math.min(CHUNK_RECORDS - done % CHUNK_RECORDS, records - done);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+          HEADER_SIZE + done * RECORD_SIZE, (long) length * RECORD_SIZE);
+      for (int i = 0; i < length * RECORD_SIZE; i += RECORD_SIZE) {
+        int type = buffer.getInt(i);
+        if (type == LINE) {
+          int startX = buffer.getInt(i + 4);
+          int startY = buffer.getInt(i + 8);
+          if (count > 0 && (batch[count * 4 - 2] != startX || batch[count * 4 - 1] != startY)) {
+            // the segment does not go on from the last one, so a new stroke
+            // starts with it
+            model.drawSegments(batch, count);
+            count = 0;
+          }
+          if (count * 4 == batch.length) {
+            batch = Arrays.copyOf(batch, batch.length * 2);
+          }
+          int slot = count * 4;
+          batch[slot] = startX;
+          batch[slot + 1] = startY;
+          batch[slot + 2] = buffer.getInt(i + 12);
+          batch[slot + 3] = buffer.getInt(i + 16);
+          count++;
+        } else if (type == CLEAR) {
+          if (count > 0) {
+            model.drawSegments(batch, count);
+            count = 0;
+          }
+          model.clearCanvas();
+        } else if (type == UNDO) {
+          int undone = buffer.getInt(i + 4);
+          int dropped = Math.min(undone, count);
+          count -= dropped;
+          if (undone > dropped) {
+            if (count > 0) {
+              model.drawSegments(batch, count);
+              count = 0;
+            }
+            model.undoSegments(undone - dropped);
+          }
+        }
+      }
+      done += length;
+    }
+    if (count > 0) {
+      model.drawSegments(batch, count);
+    }
+  }
+
+  /**
+   * Returns the number of records in the journal.
+   *
+   * @return number of records
+   */
+  public long getRecordCount() {
+    return records;
+  }
+
+  /**
+   * Writes the journal out to the storage device.
+   */
+  public void sync() {
+    header.force();
+    if (chunk != null) {
+      chunk.force();
+    }
+  }
+
+  /**
+   * Deregisters the journal from its model, writes it out, cuts off the part
+   * of the last chunk no record was written to and closes the file.
+   *
+   * @throws IOException if the file cannot be cut back or closed
+   */
+  public void close() throws IOException {
+    model.deregisterListener(this);
+    sync();
+    chunk = null;
+    try {
+      channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+    } finally {
+      channel.close();
+    }
+  }
+
+  @Override
+  public void canvasReady() {
+    append(READY, 0, 0, 0, 0);
+  }
+
+  @Override
+  public void lineDrawn(int startX, int startY, int endX, int endY) {
+    append(LINE, startX, startY, endX, endY);
+  }
+
+  @Override
+  public void linesDrawn(int[] coords, int count) {
+    for (int i = 0; i < count * 4; i += 4) {
+      append(LINE, coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  @Override
+  public void linesUndone(int count) {
+    append(UNDO, count, 0, 0, 0);
+  }
+
+  @Override
+  public void clearCanvas() {
+    append(CLEAR, 0, 0, 0, 0);
+  }
+
+  private void append(int type, int a, int b, int c, int d) {
+    if (chunk == null || records == chunkEnd) {
+      mapChunk();
+    }
+    int i = (int) (records - chunkStart) * RECORD_SIZE;
+    chunk.putInt(i, type);
+    chunk.putInt(i + 4, a);
+    chunk.putInt(i + 8, b);
+    chunk.putInt(i + 12, c);
+    chunk.putInt(i + 16, d);
+    records++;
+    header.putLong(8, records);
+  }
+
+  /**
+   * Maps the next chunk from the first unwritten record, as long as the
+   * records already written, so the file doubles as it fills.
+   */
+  private void mapChunk() {
+    long length = Math.max(FIRST_CHUNK_RECORDS, Math.min(records, CHUNK_RECORDS));
+    try {
+      chunk = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + records * RECORD_SIZE,
+          length * RECORD_SIZE);
+      chunkStart = records;
+      chunkEnd = records + length;
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot extend canvas journal", e);
+    }
+  }
+
+}
@@ -24,6 +24,46 @@ public interface CanvasListener {
    */
   void lineDrawn(int startX, int startY, int endX, int endY);
 
+  /**
+   * fired with a batch of line segments when the model gathers segments before
+   * delivering them. The coordinates are packed four per segment as startX,
+   * startY, endX, endY. The array is reused by the model, so it must not be
+   * kept after the call returns. By default each segment is passed to
+   * lineDrawn in order.
+   * 
+   * @param coords packed segment coordinates
+   * @param count number of segments in coords
+   */
+  default void linesDrawn(int[] coords, int count) {
+    for (int i = 0; i < count * 4; i += 4) {
+      lineDrawn(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  /**
+   * fired with a batch of line segments drawn by a StrokeSession, tagged with
+   * the session id. The array is reused as for linesDrawn. By default the
+   * batch is passed to linesDrawn.
+   * 
+   * @param session the id of the session that drew the segments
+   * @param coords packed segment coordinates
+   * @param count number of segments in coords
+   */
+  default void sessionLinesDrawn(int session, int[] coords, int count) {
+    linesDrawn(coords, count);
+  }
+
+  /**
+   * fired when the newest count segments are undone and should no longer be
+   * visible. Segments are counted back from the last one delivered, whether
+   * by lineDrawn or linesDrawn. Listeners that keep what was drawn must
+   * override this; by default it does nothing.
+   * 
+   * @param count number of segments undone
+   */
+  default void linesUndone(int count) {
+  }
+
   /**
    * fired when a canvas should be cleared, all previous line drawings are no
    * longer visible.
@@ -1,18 +1,18 @@
 package canvas;
 
-import java.util.Stack;
+import java.util.EmptyStackException;
 
 /**
  * Implements the CanvasListener Interface. Logs the line drawings made by the
- * CanvasModel. Saves line segments drawn as CanvasLine objects in a stack. The
- * last segments drawn can be used for testing. Multiple loggers can log the
- * same CanvasModel.
+ * CanvasModel. Saves line segments drawn in a SegmentStore, packed as ints
+ * rather than as CanvasLine objects. The last segments drawn can be used for
+ * testing. Multiple loggers can log the same CanvasModel.
  * 
  * @author sc2936@nyu.edu
  *
  */
 class CanvasLogger implements CanvasListener {
-  private Stack<CanvasLine> lineStack = new Stack<CanvasLine>();
+  private SegmentStore segments;
 
   /**
    * Registers the CanvasLogger as a listener of a non null CanvasModel
@@ -21,9 +21,26 @@ class CanvasLogger implements CanvasListener {
    * @throws NullPointerException if the model is null
    */
   public CanvasLogger(CanvasModel model) {
+    this(model, new SegmentStore());
+  }
+
+  /**
+   * Registers a CanvasLogger that keeps only the last capacity segments.
+   * 
+   * @param model
+   * @param capacity the number of segments kept
+   * @throws NullPointerException if the model is null
+   * @throws IllegalArgumentException if capacity is less than 1
+   */
+  public CanvasLogger(CanvasModel model, int capacity) {
+    this(model, new SegmentStore(capacity));
+  }
+
+  private CanvasLogger(CanvasModel model, SegmentStore segments) {
     if (model == null) {
       throw new NullPointerException("model cannot be null");
     }
+    this.segments = segments;
     model.registerListener(this);
   }
 
@@ -31,40 +48,56 @@ class CanvasLogger implements CanvasListener {
    * Returns the last line segment which was drawn
    * 
    * @return CanvasLine object
+   * @throws EmptyStackException if no segment is logged
    */
   public CanvasLine getLastLine() {
-    return lineStack.peek();
+    return getLineFromEnd(1);
   }
 
   /**
    * Returns the second to last line segment which was drawn.
    * 
    * @return CanvasLine object
+   * @throws EmptyStackException if fewer than two segments are logged
    */
   public CanvasLine getSecondLastLine() {
-    CanvasLine line1 = lineStack.pop();
-    CanvasLine line2 = lineStack.peek();
-    lineStack.push(line1);
-    return line2;
+    return getLineFromEnd(2);
+  }
+
+  /**
+   * Returns the logged segments. Reading them does not change the log.
+   * 
+   * @return the SegmentStore of this logger
+   */
+  SegmentStore getSegments() {
+    return segments;
+  }
+
+  private CanvasLine getLineFromEnd(int back) {
+    int index = segments.size() - back;
+    if (index < 0) {
+      throw new EmptyStackException();
+    }
+    return new CanvasLine(segments.getStartX(index), segments.getStartY(index),
+        segments.getEndX(index), segments.getEndY(index));
   }
 
   /**
    * Used to test if the clear function correctly works.
    * 
-   * @return true if the lineStack of CanvasLine objects is empty, otherwise false.
+   * @return true if no line segments are logged, otherwise false.
    */
   public boolean emptyCanvas() {
-    return lineStack.isEmpty();
+    return segments.isEmpty();
   }
 
   /**
    * Should make a canvas visible and perform setup as a result of start. The
-   * default position is added to the lineStack logger.
+   * default position is added to the logged segments.
    */
   @Override
   public void canvasReady() {
-    CanvasLine line = new CanvasLine(0, 0, 0, 0);
-    lineStack.push(line);
+    segments.add(0, 0, 0, 0);
   }
 
   /**
@@ -72,17 +105,32 @@ class CanvasLogger implements CanvasListener {
    */
   @Override
   public void lineDrawn(int startX, int startY, int endX, int endY) {
-    CanvasLine line = new CanvasLine(startX, startY, endX, endY);
-    lineStack.push(line);
+    segments.add(startX, startY, endX, endY);
+  }
+
+  /**
+   * logs a batch of line segments.
+   */
+  @Override
+  public void linesDrawn(int[] coords, int count) {
+    segments.addAll(coords, count);
+  }
+
+  /**
+   * removes the undone line segments from the log.
+   */
+  @Override
+  public void linesUndone(int count) {
+    segments.removeLast(Math.min(count, segments.size()));
   }
 
   /**
    * clears the canvas of so no previous drawing line segments are visible. Also
-   * clears the logged stack of previously drawn segments.
+   * clears the logged segments.
    */
   @Override
   public void clearCanvas() {
-    lineStack.clear();
+    segments.clear();
   }
 
 }
@@ -0,0 +1,294 @@
+package canvas;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.EventType;
+
+/**
+ * Records where time goes in the drawing pipeline: how long each listener of
+ * a CanvasModel takes for each kind of event, how many events are fired per
+ * second, how many segments each stroke has and how long views take to paint.
+ * The figures are readable over JMX once registerMBean is called, and each
+ * listener call and paint is also sent to Flight Recorder as a
+ * canvas.ListenerCall or canvas.Paint event while a recording has them
+ * enabled.
+ * 
+ * Calls are recorded under the listener that was registered, not the
+ * wrappers the model puts around it, and a listener's figures are dropped
+ * when it is deregistered. Listeners are told apart by identity, like in
+ * the model's ListenerRegistry, so two listeners that are equal still get
+ * figures of their own. The histograms are kept in a copy-on-write map, so
+ * recording a call does not take a lock once the listener has its entry.
+ * 
+ * A listener of a model in asynchronous dispatch mode is timed on its
+ * consumer thread, so its figures are the time the listener itself took,
+ * not the time to queue the event.
+ * 
+ * Every event the model fires counts once towards the event figures,
+ * whether it carries one segment, a batch of them or none.
+ * 
+ * Metrics are off until set on a model with CanvasModel.setMetrics. A model
+ * without metrics only checks a null field per listener call.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class CanvasMetrics implements CanvasMetricsMXBean {
+  static final int CANVAS_READY = 0;
+  static final int LINE_DRAWN = 1;
+  static final int LINES_DRAWN = 2;
+  static final int CLEAR_CANVAS = 3;
+  static final int LINES_UNDONE = 4;
+  private static final String[] EVENT_NAMES = {"canvasReady", "lineDrawn", "linesDrawn",
+      "clearCanvas", "linesUndone"};
+  private static final long SECOND = 1000000000L;
+  private static final AtomicInteger instances = new AtomicInteger();
+  private static final EventType CALL_EVENT = EventType.getEventType(ListenerCallEvent.class);
+  private static final EventType PAINT_EVENT = EventType.getEventType(PaintEvent.class);
+
+  /**
+   * The histograms of one listener, one per event.
+   */
+  private static class ListenerHistograms {
+    final String name;
+    final LatencyHistogram[] calls = new LatencyHistogram[EVENT_NAMES.length];
+
+    ListenerHistograms(String name) {
+      this.name = name;
+      for (int i = 0; i < calls.length; i++) {
+        calls[i] = new LatencyHistogram();
+      }
+    }
+  }
+
+  private volatile Map<CanvasListener, ListenerHistograms> listeners =
+      new IdentityHashMap<CanvasListener, ListenerHistograms>();
+  private final LatencyHistogram strokes = new LatencyHistogram();
+  private final LatencyHistogram paints = new LatencyHistogram();
+  private final AtomicLong events = new AtomicLong();
+  private final AtomicLong windowEvents = new AtomicLong();
+  private volatile long windowStart = System.nanoTime();
+  private volatile double eventsPerSecond;
+
+  /**
+   * Registers the metrics with the platform MBean server under
+   * canvas:type=CanvasMetrics with a unique id.
+   * 
+   * @return the name it was registered under
+   * @throws JMException if registration fails
+   */
+  public ObjectName registerMBean() throws JMException {
+    ObjectName name = new ObjectName("canvas:type=CanvasMetrics,id="
+        + instances.incrementAndGet());
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    return name;
+  }
+
+  /**
+   * Records one call to a listener entry of a model that started at
+   * startNanos and has just returned. A call to an asynchronous entry only
+   * queued the event, and is left for the entry to record once the event is
+   * delivered.
+   * 
+   * @param listener the listener entry that was called
+   * @param event one of CANVAS_READY, LINE_DRAWN, LINES_DRAWN, CLEAR_CANVAS or
+   *          LINES_UNDONE
+   * @param startNanos System.nanoTime() before the call
+   * @param segments number of segments passed in the call
+   */
+  void recordCall(CanvasListener listener, int event, long startNanos, int segments) {
+    if (listener instanceof CatchUpListener) {
+      listener = ((CatchUpListener) listener).getDelegate();
+    }
+    if (listener instanceof AsyncCanvasListener) {
+      return;
+    }
+    record(listener, "", event, startNanos, segments);
+  }
+
+  /**
+   * Records one call to the listener wrapped by an AsyncCanvasListener, made
+   * on its consumer thread, that started at startNanos and has just returned.
+   * 
+   * @param listener the wrapped listener
+   * @param event one of CANVAS_READY, LINE_DRAWN, LINES_DRAWN, CLEAR_CANVAS or
+   *          LINES_UNDONE
+   * @param startNanos System.nanoTime() before the call
+   * @param segments number of segments passed in the call
+   */
+  void recordDelivery(CanvasListener listener, int event, long startNanos, int segments) {
+    record(listener, " (async)", event, startNanos, segments);
+  }
+
+  /**
+   * Drops the figures of a listener that was deregistered.
+   * 
+   * @param listener the listener as it was registered
+   */
+  synchronized void removeListener(CanvasListener listener) {
+    if (listeners.containsKey(listener)) {
+      Map<CanvasListener, ListenerHistograms> copy =
+          new IdentityHashMap<CanvasListener, ListenerHistograms>(listeners);
+      copy.remove(listener);
+      listeners = copy;
+    }
+  }
+
+  private void record(CanvasListener listener, String suffix, int event, long startNanos,
+      int segments) {
+    long time = System.nanoTime() - startNanos;
+    ListenerHistograms histograms = listeners.get(listener);
+    if (histograms == null) {
+      histograms = addListener(listener, suffix);
+    }
+    histograms.calls[event].record(time);
+    if (CALL_EVENT.isEnabled()) {
+      ListenerCallEvent jfrEvent = new ListenerCallEvent();
+      jfrEvent.listener = histograms.name;
+      jfrEvent.event = EVENT_NAMES[event];
+      jfrEvent.segments = segments;
+      jfrEvent.time = time;
+      jfrEvent.commit();
+    }
+  }
+
+  private synchronized ListenerHistograms addListener(CanvasListener listener, String suffix) {
+    ListenerHistograms histograms = listeners.get(listener);
+    if (histograms == null) {
+      histograms = new ListenerHistograms(nameOf(listener) + suffix);
+      Map<CanvasListener, ListenerHistograms> copy =
+          new IdentityHashMap<CanvasListener, ListenerHistograms>(listeners);
+      copy.put(listener, histograms);
+      listeners = copy;
+    }
+    return histograms;
+  }
+
+  /**
+   * Counts an event fired by the model, whatever number of listeners got it
+   * and however many segments it carries.
+   */
+  void countEvent() {
+    events.incrementAndGet();
+    long now = System.nanoTime();
+    long start = windowStart;
+    if (now - start >= SECOND) {
+      synchronized (this) {
+        if (windowStart == start) {
+          eventsPerSecond = windowEvents.getAndSet(0) * (double) SECOND / (now - start);
+          windowStart = now;
+        }
+      }
+    }
+    windowEvents.incrementAndGet();
+  }
+
+  /**
+   * Records a finished stroke.
+   * 
+   * @param segments number of segments drawn in the stroke
+   */
+  void recordStroke(int segments) {
+    strokes.record(segments);
+  }
+
+  /**
+   * Records a paint of a view that started at startNanos and has just ended.
+   * 
+   * @param startNanos System.nanoTime() before painting
+   * @param pixels area painted
+   */
+  void recordPaint(long startNanos, long pixels) {
+    long time = System.nanoTime() - startNanos;
+    paints.record(time);
+    if (PAINT_EVENT.isEnabled()) {
+      PaintEvent jfrEvent = new PaintEvent();
+      jfrEvent.pixels = pixels;
+      jfrEvent.time = time;
+      jfrEvent.commit();
+    }
+  }
+
+  @Override
+  public long getEventCount() {
+    return events.get();
+  }
+
+  @Override
+  public double getEventsPerSecond() {
+    return System.nanoTime() - windowStart > 2 * SECOND ? 0 : eventsPerSecond;
+  }
+
+  @Override
+  public long getStrokeCount() {
+    return strokes.getCount();
+  }
+
+  @Override
+  public double getMeanSegmentsPerStroke() {
+    return strokes.getMean();
+  }
+
+  @Override
+  public long getMaxSegmentsPerStroke() {
+    return strokes.getMax();
+  }
+
+  @Override
+  public long getPaintCount() {
+    return paints.getCount();
+  }
+
+  @Override
+  public double getMeanPaintNanos() {
+    return paints.getMean();
+  }
+
+  @Override
+  public long getP99PaintNanos() {
+    return paints.getPercentile(0.99);
+  }
+
+  @Override
+  public List<CallStatistics> getListenerStatistics() {
+    List<CallStatistics> statistics = new ArrayList<CallStatistics>();
+    for (ListenerHistograms histograms : listeners.values()) {
+      for (int event = 0; event < EVENT_NAMES.length; event++) {
+        LatencyHistogram calls = histograms.calls[event];
+        if (calls.getCount() > 0) {
+          statistics.add(new CallStatistics(histograms.name, EVENT_NAMES[event],
+              calls.getCount(), calls.getMean(), calls.getPercentile(0.5),
+              calls.getPercentile(0.99), calls.getMax()));
+        }
+      }
+    }
+    return statistics;
+  }
+
+  @Override
+  public void reset() {
+    synchronized (this) {
+      listeners = new IdentityHashMap<CanvasListener, ListenerHistograms>();
+    }
+    strokes.reset();
+    paints.reset();
+    events.set(0);
+    windowEvents.set(0);
+    eventsPerSecond = 0;
+  }
+
+  private static String nameOf(CanvasListener listener) {
+    return listener.getClass().getName() + "@"
+        + Integer.toHexString(System.identityHashCode(listener));
+  }
+
+}
@@ -0,0 +1,64 @@
+package canvas;
+
+import java.util.List;
+
+/**
+ * The management interface of CanvasMetrics, as seen over JMX.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public interface CanvasMetricsMXBean {
+
+  /**
+   * @return number of events fired by the model, each counted once whatever
+   *         number of segments it carries
+   */
+  long getEventCount();
+
+  /**
+   * @return events fired during the last full second
+   */
+  double getEventsPerSecond();
+
+  /**
+   * @return number of finished strokes
+   */
+  long getStrokeCount();
+
+  /**
+   * @return mean number of segments in a stroke
+   */
+  double getMeanSegmentsPerStroke();
+
+  /**
+   * @return most segments in one stroke
+   */
+  long getMaxSegmentsPerStroke();
+
+  /**
+   * @return number of paints by views
+   */
+  long getPaintCount();
+
+  /**
+   * @return mean paint time in nanoseconds
+   */
+  double getMeanPaintNanos();
+
+  /**
+   * @return 99th percentile paint time in nanoseconds
+   */
+  long getP99PaintNanos();
+
+  /**
+   * @return latency figures per listener and listener method
+   */
+  List<CallStatistics> getListenerStatistics();
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  void reset();
+
+}
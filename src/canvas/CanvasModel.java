@@ -1,7 +1,6 @@
 package canvas;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Contains all of the logic necessary to draw lines on a canvas. Contains a
@@ -10,17 +9,76 @@ import java.util.List;
  * or continuous line can be drawn. The position of the line is not updated if
  * the drawer goes beyond the border of the canvas.
  * 
+ * By default listeners are called one after another on the drawing thread. A
+ * model created with a queue capacity and an OverflowPolicy dispatches
+ * asynchronously instead: every listener gets its own bounded queue and
+ * consumer thread, so a slow listener does not slow down drawing.
+ * 
+ * Listeners are kept in a copy-on-write ListenerRegistry, so they can be
+ * registered and deregistered from any thread, including from inside a
+ * listener while an event is being fired.
+ * 
+ * Segments can also be batched. Once batching is enabled the model gathers the
+ * segments drawn until its flush runs on the given Executor and delivers them
+ * to each listener with a single linesDrawn call.
+ * 
+ * Simplification can be enabled too. The segments of a stroke then pass
+ * through a StrokeSimplifier, which drops zero-length moves and merges runs
+ * of points that stay within a pixel tolerance of one segment, so that far
+ * fewer segments reach the listeners. A stroke ends with endStroke, a new
+ * start position or a clear.
+ * 
+ * The start and end positions above belong to a single pointer and are meant
+ * to be driven from one thread, such as the event dispatch thread. Drawers
+ * that draw at the same time each open a StrokeSession instead. A session
+ * keeps its own position, unshared, and delivers its segments in batches with
+ * sessionLinesDrawn, tagged with the session id. The work per segment of the
+ * sessions runs in parallel, and only their deliveries take turns.
+ * 
+ * Every event is fired holding the model's lock, whether it comes from the
+ * single pointer, a session, drawSegments, undo or clear, so listeners are
+ * never called concurrently, and the pointer's stroke is ended under the
+ * same lock.
+ * 
+ * With undo enabled the model logs the segments it fires by stroke, with a
+ * stroke open for the single pointer and for each session. undo takes the
+ * newest stroke back by firing linesUndone, and redo fires it again with
+ * linesDrawn. Clearing the canvas cannot be undone.
+ * 
+ * With late join enabled the model keeps the segments on the canvas in a
+ * LateJoinState, without those undone or cleared, and compacts the oldest of
+ * them in the background. A listener registered after drawing started is
+ * first given them with linesDrawn and then every event fired since, so it
+ * shows the same canvas as the others.
+ * 
+ * Setting a CanvasMetrics on the model times every listener call and counts
+ * events and strokes. Without one the model only checks for it per call.
+ * 
  * @author sc2936@nyu.edu
  *
  */
 public class CanvasModel {
-  private List<CanvasListener> listeners;
+  private final ListenerRegistry listeners = new ListenerRegistry();
   private int canvasLength;
   private int canvasHeight;
   private int startX;
   private int endX;
   private int startY;
   private int endY;
+  private int queueCapacity;
+  private OverflowPolicy overflowPolicy;
+  private Executor flushExecutor;
+  private int[] batch;
+  private int batchCount;
+  private boolean flushScheduled;
+  private StrokeSimplifier simplifier;
+  private volatile double tolerance = -1;
+  private volatile StrokeLog strokes;
+  private volatile LateJoinState joinState;
+  private volatile int clears;
+  private volatile CanvasMetrics metrics;
+  private CanvasSurface surface;
+  private int strokeSegments;
 
   /**
    * Constructor initializes the size of the canvas and set the default starting
@@ -30,12 +88,304 @@ public class CanvasModel {
    * @param height
    */
   public CanvasModel(int length, int height) {
-    listeners = new LinkedList<CanvasListener>();
     canvasLength = length;
     canvasHeight = height;
     defaultPosition();
   }
 
+  /**
+   * Constructor for a model that dispatches events asynchronously. Each
+   * registered listener gets a queue that holds queueCapacity events and a
+   * consumer thread of its own. Events reach each listener in order.
+   * 
+   * @param length
+   * @param height
+   * @param queueCapacity the number of events each listener queue can hold
+   * @param policy what to do with a new line segment when a queue is full
+   * @throws NullPointerException if policy is null
+   * @throws IllegalArgumentException if queueCapacity is less than 1
+   */
+  public CanvasModel(int length, int height, int queueCapacity, OverflowPolicy policy) {
+    this(length, height);
+    if (policy == null) {
+      throw new NullPointerException("policy cannot be null");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("queue capacity must be at least 1");
+    }
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = policy;
+  }
+
+  /**
+   * Turns on batched delivery of line segments. The first segment drawn after
+   * a flush schedules the next flush on flushExecutor, and every segment drawn
+   * until it runs is delivered in the same batch. Passing EventQueue::invokeLater
+   * gathers the segments of one Swing event-loop tick. A batch is also flushed
+   * when it holds maxBatch segments, and before canvasReady and clearCanvas
+   * events so that listeners see events in order.
+   * 
+   * @param flushExecutor runs the scheduled flushes
+   * @param maxBatch the most segments held before a flush is forced
+   * @throws NullPointerException if flushExecutor is null
+   * @throws IllegalArgumentException if maxBatch is less than 1
+   */
+  public synchronized void enableBatching(Executor flushExecutor, int maxBatch) {
+    if (flushExecutor == null) {
+      throw new NullPointerException("executor cannot be null");
+    }
+    if (maxBatch < 1) {
+      throw new IllegalArgumentException("batch size must be at least 1");
+    }
+    flush();
+    this.flushExecutor = flushExecutor;
+    batch = new int[maxBatch * 4];
+  }
+
+  /**
+   * Delivers any segments gathered for batching to the listeners now.
+   */
+  public synchronized void flush() {
+    flushScheduled = false;
+    if (batchCount > 0) {
+      int count = batchCount;
+      batchCount = 0;
+      fireLinesDrawnEvent(batch, count);
+    }
+  }
+
+  /**
+   * Turns on simplification of strokes. Segments drawn with setEndPositions
+   * are passed on only when needed to keep every drawn point within tolerance
+   * pixels of what the listeners draw, so the drawing looks the same within
+   * that tolerance. The last segment of a stroke is held back until the
+   * stroke ends. Segments given to drawSegments are not simplified.
+   * 
+   * @param tolerance the furthest in pixels a drawn point may be from the
+   *          simplified stroke, where 0 only merges collinear runs
+   * @throws IllegalArgumentException if tolerance is negative or not a number
+   */
+  public synchronized void enableSimplification(double tolerance) {
+    StrokeSimplifier replacement = new StrokeSimplifier(tolerance, this::emitSegment);
+    finishStroke();
+    simplifier = replacement;
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Opens a stroke session for one drawer, which delivers its segments in
+   * batches of StrokeSession.DEFAULT_BATCH. Sessions opened after
+   * simplification is enabled simplify their strokes too.
+   * 
+   * @param id the drawer or pointer id the session's events are tagged with
+   * @return the session
+   */
+  public StrokeSession openSession(int id) {
+    return new StrokeSession(this, id, StrokeSession.DEFAULT_BATCH, tolerance);
+  }
+
+  /**
+   * Opens a stroke session for one drawer.
+   * 
+   * @param id the drawer or pointer id the session's events are tagged with
+   * @param maxBatch the most segments the session holds before delivering
+   *          them
+   * @return the session
+   * @throws IllegalArgumentException if maxBatch is less than 1
+   */
+  public StrokeSession openSession(int id, int maxBatch) {
+    return new StrokeSession(this, id, maxBatch, tolerance);
+  }
+
+  /**
+   * Delivers a batch of segments drawn by a session, unless the canvas was
+   * cleared since they were drawn. The model's lock is taken once for the
+   * batch, to log and fire it in the same order as every other event.
+   * 
+   * @param session the session that drew them
+   * @param clearCount getClearCount() when they were drawn
+   * @param coords packed segment coordinates
+   * @param count number of segments in coords
+   */
+  void deliverSession(StrokeSession session, int clearCount, int[] coords, int count) {
+    if (count == 0) {
+      return;
+    }
+    synchronized (this) {
+      if (clearCount != clears) {
+        return;
+      }
+      StrokeLog log = strokes;
+      if (log != null) {
+        log.addAll(session, coords, count);
+      }
+      fireSessionLinesDrawnEvent(session.getId(), coords, count);
+    }
+  }
+
+  /**
+   * Ends the stroke a session is drawing. Fires nothing, so it does not take
+   * the model's lock.
+   * 
+   * @param session
+   * @param segments number of segments drawn in the stroke
+   */
+  void endSessionStroke(StrokeSession session, int segments) {
+    StrokeLog log = strokes;
+    if (log != null) {
+      log.endStroke(session);
+    }
+    CanvasMetrics current = metrics;
+    if (current != null && segments > 0) {
+      current.recordStroke(segments);
+    }
+  }
+
+  /**
+   * Returns the number of times the canvas was cleared.
+   * 
+   * @return clear count
+   */
+  int getClearCount() {
+    return clears;
+  }
+
+  /**
+   * Turns on undo and redo of strokes. From now on the model keeps every
+   * segment it fires until the canvas is cleared.
+   * 
+   * @throws IllegalStateException if the model dispatches asynchronously with
+   * COALESCE or DROP_OLDEST, which change the segments a listener sees so
+   * that the counts of linesUndone would take back the wrong ones
+   */
+  public synchronized void enableUndo() {
+    if (overflowPolicy != null && overflowPolicy != OverflowPolicy.BLOCK) {
+      throw new IllegalStateException("undo needs the BLOCK overflow policy");
+    }
+    if (strokes == null) {
+      strokes = new StrokeLog();
+    }
+  }
+
+  /**
+   * Turns on catching up of late listeners. From now on the model keeps the
+   * segments on the canvas, and a listener registered afterwards is first
+   * given them before the events fired since.
+   */
+  public synchronized void enableLateJoin() {
+    if (joinState == null) {
+      joinState = new LateJoinState(canvasLength, canvasHeight);
+    }
+  }
+
+  /**
+   * Returns the state late listeners are brought up to date from.
+   *
+   * @return null if late join is not enabled
+   */
+  LateJoinState getJoinState() {
+    return joinState;
+  }
+
+  /**
+   * Undoes the newest stroke: its segments are removed from the listeners
+   * with linesUndone. Segments of other strokes drawn after it started are
+   * removed with it and fired again with linesDrawn. Does nothing if undo is
+   * not enabled or there is no stroke left since the last clear.
+   */
+  public synchronized void undo() {
+    finishStroke();
+    flush();
+    if (strokes != null) {
+      int count = strokes.undo();
+      if (count > 0) {
+        fireLinesUndoneEvent(count);
+        // segments of strokes drawn at the same time, taken back with it
+        int[] redrawn = strokes.getRedrawn();
+        if (redrawn.length > 0) {
+          fireLinesDrawnEvent(redrawn, redrawn.length / 4);
+        }
+      }
+    }
+  }
+
+  /**
+   * Redoes the newest undone stroke, firing its segments with linesDrawn. Does
+   * nothing if no stroke was undone since the last new drawing.
+   */
+  public synchronized void redo() {
+    finishStroke();
+    flush();
+    if (strokes != null) {
+      int[] coords = strokes.redo();
+      if (coords != null) {
+        fireLinesDrawnEvent(coords, coords.length / 4);
+      }
+    }
+  }
+
+  /**
+   * Undoes the newest count segments whatever strokes they belong to, as when
+   * a journal or server reports an undo.
+   * 
+   * @param count number of segments
+   */
+  synchronized void undoSegments(int count) {
+    finishStroke();
+    flush();
+    if (strokes != null) {
+      strokes.removeLast(count);
+    }
+    fireLinesUndoneEvent(count);
+  }
+
+  /**
+   * Sets the metrics that record the events of this model, or turns metrics
+   * off when null.
+   * 
+   * @param metrics
+   */
+  public void setMetrics(CanvasMetrics metrics) {
+    this.metrics = metrics;
+    for (CanvasListener registered : listeners.snapshot()) {
+      if (registered instanceof CatchUpListener) {
+        registered = ((CatchUpListener) registered).getDelegate();
+      }
+      if (registered instanceof AsyncCanvasListener) {
+        ((AsyncCanvasListener) registered).setMetrics(metrics);
+      }
+    }
+  }
+
+  /**
+   * Returns the raster shared by the views of this model. Guarded by
+   * CanvasSurface, which creates and drops it.
+   * 
+   * @return the surface, or null if no view has one open
+   */
+  CanvasSurface getSurface() {
+    return surface;
+  }
+
+  /**
+   * Sets the raster shared by the views of this model. Guarded by
+   * CanvasSurface.
+   * 
+   * @param surface the surface, or null when the last view released it
+   */
+  void setSurface(CanvasSurface surface) {
+    this.surface = surface;
+  }
+
+  /**
+   * Returns the metrics of this model.
+   * 
+   * @return the metrics, or null if metrics are off
+   */
+  public CanvasMetrics getMetrics() {
+    return metrics;
+  }
+
   private void defaultPosition() {
     startX = 0;
     endX = 0;
@@ -46,7 +396,8 @@ public class CanvasModel {
   /**
    * Lets listeners know that a canvas has started.
    */
-  public void start() {
+  public synchronized void start() {
+    flush();
     fireCanvasReadyEvent();
   }
 
@@ -57,8 +408,9 @@ public class CanvasModel {
    * @param x
    * @param y
    */
-  public void setStartPositions(int x, int y) {
+  public synchronized void setStartPositions(int x, int y) {
     if (checkBounds(x, y)) {
+      finishStroke();
       startX = x;
       startY = y;
     }
@@ -73,24 +425,73 @@ public class CanvasModel {
    * @param x
    * @param y
    */
-  public void setEndPositions(int x, int y) {
+  public synchronized void setEndPositions(int x, int y) {
     if (checkBounds(x, y)) {
       endX = x;
       endY = y;
-      fireLineDrawnEvent(startX, startY, endX, endY);
+      strokeSegments++;
+      if (simplifier != null) {
+        simplifier.add(startX, startY, endX, endY);
+      } else {
+        emitSegment(startX, startY, endX, endY);
+      }
       startX = endX;
       startY = endY;
     }
   }
 
+  /**
+   * Draws segments that do not come from a drawer, such as a restored drawing,
+   * and delivers them to the listeners in one linesDrawn call. The start and
+   * end positions of the drawer are not changed.
+   * 
+   * @param coords segment coordinates packed as startX, startY, endX, endY
+   * @param count number of segments in coords
+   */
+  public synchronized void drawSegments(int[] coords, int count) {
+    flush();
+    if (strokes != null) {
+      strokes.addStroke(coords, count);
+    }
+    fireLinesDrawnEvent(coords, count);
+  }
+
   /**
    * Lets all listeners know to clear the canvas of previous line drawings.
    */
-  public void clearCanvas() {
+  public synchronized void clearCanvas() {
+    finishStroke();
+    flush();
+    clears++;
+    if (strokes != null) {
+      strokes.clear();
+    }
     defaultPosition();
     fireClearCanvasEvent();
   }
 
+  /**
+   * Ends the stroke being drawn, passing on the segment held back by
+   * simplification. Views call this when the mouse is released.
+   */
+  public synchronized void endStroke() {
+    finishStroke();
+  }
+
+  private void finishStroke() {
+    if (simplifier != null) {
+      simplifier.endStroke();
+    }
+    if (strokes != null) {
+      strokes.endStroke(this);
+    }
+    CanvasMetrics current = metrics;
+    if (current != null && strokeSegments > 0) {
+      current.recordStroke(strokeSegments);
+    }
+    strokeSegments = 0;
+  }
+
   /**
    * returns the int length of the canvas set by the constructor.
    * 
@@ -109,7 +510,7 @@ public class CanvasModel {
     return canvasHeight;
   }
 
-  private boolean checkBounds(int x, int y) {
+  boolean checkBounds(int x, int y) {
     if (x < 0 || x > canvasLength) {
       return false;
     }
@@ -120,25 +521,143 @@ public class CanvasModel {
   }
 
   private void fireCanvasReadyEvent() {
-    for (CanvasListener listener : listeners) {
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      current.countEvent();
+    }
+    for (CanvasListener listener : listeners.snapshot()) {
+      long start = current == null ? 0 : System.nanoTime();
       listener.canvasReady();
+      if (current != null) {
+        current.recordCall(listener, CanvasMetrics.CANVAS_READY, start, 0);
+      }
     }
   }
 
+  /**
+   * Logs a segment for undo and fires it.
+   */
+  private void emitSegment(int startX, int startY, int endX, int endY) {
+    StrokeLog log = strokes;
+    if (log != null) {
+      log.add(this, startX, startY, endX, endY);
+    }
+    fireLineDrawnEvent(startX, startY, endX, endY);
+  }
+
   private void fireLineDrawnEvent(int startX, int startY, int endX, int endY) {
-    for (CanvasListener listener : listeners) {
+    if (flushExecutor != null) {
+      addToBatch(startX, startY, endX, endY);
+      return;
+    }
+    LateJoinState state = joinState;
+    if (state != null) {
+      state.lineDrawn(startX, startY, endX, endY);
+    }
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      current.countEvent();
+    }
+    for (CanvasListener listener : listeners.snapshot()) {
+      long start = current == null ? 0 : System.nanoTime();
       listener.lineDrawn(startX, startY, endX, endY);
+      if (current != null) {
+        current.recordCall(listener, CanvasMetrics.LINE_DRAWN, start, 1);
+      }
+    }
+  }
+
+  private synchronized void addToBatch(int startX, int startY, int endX, int endY) {
+    int i = batchCount * 4;
+    batch[i] = startX;
+    batch[i + 1] = startY;
+    batch[i + 2] = endX;
+    batch[i + 3] = endY;
+    batchCount++;
+    if (batchCount * 4 == batch.length) {
+      flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      flushExecutor.execute(this::flush);
+    }
+  }
+
+  private void fireLinesDrawnEvent(int[] coords, int count) {
+    LateJoinState state = joinState;
+    if (state != null) {
+      state.linesDrawn(coords, count);
+    }
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      current.countEvent();
+    }
+    for (CanvasListener listener : listeners.snapshot()) {
+      long start = current == null ? 0 : System.nanoTime();
+      listener.linesDrawn(coords, count);
+      if (current != null) {
+        current.recordCall(listener, CanvasMetrics.LINES_DRAWN, start, count);
+      }
+    }
+  }
+
+  private void fireSessionLinesDrawnEvent(int session, int[] coords, int count) {
+    LateJoinState state = joinState;
+    if (state != null) {
+      state.linesDrawn(coords, count);
+    }
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      current.countEvent();
+    }
+    for (CanvasListener listener : listeners.snapshot()) {
+      long start = current == null ? 0 : System.nanoTime();
+      listener.sessionLinesDrawn(session, coords, count);
+      if (current != null) {
+        current.recordCall(listener, CanvasMetrics.LINES_DRAWN, start, count);
+      }
+    }
+  }
+
+  private void fireLinesUndoneEvent(int count) {
+    LateJoinState state = joinState;
+    if (state != null) {
+      state.linesUndone(count);
+    }
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      current.countEvent();
+    }
+    for (CanvasListener listener : listeners.snapshot()) {
+      long start = current == null ? 0 : System.nanoTime();
+      listener.linesUndone(count);
+      if (current != null) {
+        current.recordCall(listener, CanvasMetrics.LINES_UNDONE, start, count);
+      }
     }
   }
 
   private void fireClearCanvasEvent() {
-    for (CanvasListener listener : listeners) {
+    LateJoinState state = joinState;
+    if (state != null) {
+      state.clearCanvas();
+    }
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      current.countEvent();
+    }
+    for (CanvasListener listener : listeners.snapshot()) {
+      long start = current == null ? 0 : System.nanoTime();
       listener.clearCanvas();
+      if (current != null) {
+        current.recordCall(listener, CanvasMetrics.CLEAR_CANVAS, start, 0);
+      }
     }
   }
 
   /**
-   * Adds a CanvasListener to the list of listeners.
+   * Adds a CanvasListener to the list of listeners. With late join enabled
+   * the listener is given the segments on the canvas first, on the calling
+   * thread.
    * 
    * @param listener
    * @throws NullPointerException if a null is passed in
@@ -146,13 +665,51 @@ public class CanvasModel {
    * tries to register again.
    */
   public void registerListener(CanvasListener listener) {
+    register(listener, false);
+  }
+
+  /**
+   * Registers a listener the model's own machinery needs, such as the
+   * CanvasSurface its views share. It gets events like any other listener,
+   * but getNumberOfListeners does not count it.
+   * 
+   * @param listener
+   * @throws NullPointerException if a null is passed in
+   * @throws IllegalArgumentException if the listener is already registered
+   */
+  void registerInternalListener(CanvasListener listener) {
+    register(listener, true);
+  }
+
+  private void register(CanvasListener listener, boolean internal) {
     if (listener == null) {
       throw new NullPointerException("listener cannot be null");
     }
     if (listeners.contains(listener)) {
       throw new IllegalArgumentException("Listener is already registered");
     }
-    listeners.add(listener);
+    CanvasListener entry = listener;
+    if (overflowPolicy != null) {
+      AsyncCanvasListener async = new AsyncCanvasListener(listener, queueCapacity,
+          overflowPolicy);
+      async.setMetrics(metrics);
+      entry = async;
+    }
+    LateJoinState state = joinState;
+    CatchUpListener catchUp = state == null ? null : new CatchUpListener(entry, state);
+    CanvasListener registered = catchUp == null ? entry : catchUp;
+    if (!listeners.add(listener, registered, internal)) {
+      // registered by another thread since the check above
+      closeEntry(registered);
+      throw new IllegalArgumentException("Listener is already registered");
+    }
+    if (catchUp != null) {
+      // events fired from now on are held by catchUp until it is given the
+      // canvas, then it steps out of the way unless it has to count segments
+      if (state.catchUp(catchUp)) {
+        listeners.replace(listener, catchUp, entry);
+      }
+    }
   }
 
   /**
@@ -172,10 +729,68 @@ public class CanvasModel {
     if (listener == null) {
       throw new NullPointerException("listener cannot be null");
     }
-    if (!listeners.contains(listener)) {
+    deregister(listener);
+  }
+
+  /**
+   * Deregisters a listener registered with registerInternalListener.
+   * 
+   * @param listener
+   * @throws NullPointerException if a null is passed in
+   * @throws IllegalArgumentException if the listener is not registered
+   */
+  void deregisterInternalListener(CanvasListener listener) {
+    if (listener == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    deregister(listener);
+  }
+
+  private void deregister(CanvasListener listener) {
+    CanvasListener registered = listeners.remove(listener);
+    if (registered == null) {
       throw new IllegalArgumentException("listenr not registered");
     }
-    listeners.remove(listener);
+    closeEntry(registered);
+    CanvasMetrics current = metrics;
+    if (current != null) {
+      // not while an event is being fired, whose call would record the
+      // listener again
+      synchronized (this) {
+        current.removeListener(listener);
+      }
+    }
+  }
+
+  private void closeEntry(CanvasListener entry) {
+    if (entry instanceof CatchUpListener) {
+      ((CatchUpListener) entry).close();
+      entry = ((CatchUpListener) entry).getDelegate();
+    }
+    if (entry instanceof AsyncCanvasListener) {
+      ((AsyncCanvasListener) entry).close();
+    }
+  }
+
+  /**
+   * Waits until every queued event has reached its listener. Returns at once
+   * when the model dispatches synchronously.
+   * 
+   * @param timeout the longest time to wait in milliseconds for each listener
+   * @return true if all queues drained, false if the time ran out
+   * @throws InterruptedException if the waiting thread is interrupted
+   */
+  public boolean awaitDispatch(long timeout) throws InterruptedException {
+    for (CanvasListener registered : listeners.snapshot()) {
+      if (registered instanceof CatchUpListener) {
+        registered = ((CatchUpListener) registered).getDelegate();
+      }
+      if (registered instanceof AsyncCanvasListener
+          && !((AsyncCanvasListener) registered).awaitIdle(timeout)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
@@ -190,7 +805,8 @@ public class CanvasModel {
 
   /**
    * For testing only
-   * @return number of listeners that are registered
+   * @return number of listeners that are registered, not counting internal
+   *         ones such as the views' shared surface
    */
   public int getNumberOfListeners() {
     return listeners.size();
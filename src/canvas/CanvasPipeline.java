@@ -0,0 +1,753 @@
+package canvas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a filtered, sampled or transformed view of the events of a
+ * CanvasModel for one CanvasListener. Operators are added one after another,
+ * each returning a new pipeline, and to connects the pipeline to a sink as a
+ * single CanvasListener:
+ *
+ * <pre>
+ * CanvasListener head = CanvasPipeline.create().region(0, 0, 99, 99).sample(2)
+ *     .transform(0.5, 0.5, 0, 0).to(sink);
+ * model.registerListener(head);
+ * </pre>
+ *
+ * The model fans out to the head once, and the operators call each other
+ * with segment coordinates only, so a pipeline makes no objects per event
+ * and costs about one listener call however many operators it has. Segments
+ * that reach the sink together are passed to linesDrawn in one batch, a lone
+ * segment to lineDrawn. Adjacent transforms are composed into one and
+ * adjacent samplers into one when the pipeline is connected, so a composed
+ * transform rounds once.
+ *
+ * Undo counts are translated at each operator, so the sink is told how many
+ * of the segments it was given are undone. A region filter keeps one bit per
+ * segment since the last clear for this.
+ *
+ * Pipelines are immutable and can be connected any number of times. Like a
+ * listener written by hand, a connected pipeline expects events one at a
+ * time, as a CanvasModel fires them. A batch operator passes segments on
+ * from a timer thread, so a pipeline with one takes a lock for each event
+ * and its sink is called from that thread too. Session tags are not passed
+ * through.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public final class CanvasPipeline {
+  private static final int REGION = 0;
+  private static final int SAMPLE = 1;
+  private static final int TRANSFORM = 2;
+  private static final int BATCH = 3;
+  private static final int TEE = 4;
+  private static final CanvasPipeline EMPTY =
+      new CanvasPipeline(Collections.<Operator>emptyList());
+  private static final ScheduledExecutorService timer = createTimer();
+
+  private final List<Operator> operators;
+
+  private CanvasPipeline(List<Operator> operators) {
+    this.operators = operators;
+  }
+
+  /**
+   * Returns a pipeline with no operators, which passes every event on.
+   *
+   * @return the empty pipeline
+   */
+  public static CanvasPipeline create() {
+    return EMPTY;
+  }
+
+  /**
+   * Adds an operator that passes on only the segments whose bounding box
+   * overlaps a region.
+   *
+   * @param minX
+   * @param minY
+   * @param maxX
+   * @param maxY
+   * @return the longer pipeline
+   * @throws IllegalArgumentException if the region is empty
+   */
+  public CanvasPipeline region(int minX, int minY, int maxX, int maxY) {
+    if (minX > maxX || minY > maxY) {
+      throw new IllegalArgumentException("region cannot be empty");
+    }
+    return then(new Operator(REGION, new double[] {minX, minY, maxX, maxY}, null));
+  }
+
+  /**
+   * Adds an operator that passes on the first segment and every nth after
+   * it.
+   *
+   * @param n
+   * @return the longer pipeline
+   * @throws IllegalArgumentException if n is less than 1
+   */
+  public CanvasPipeline sample(int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be at least 1");
+    }
+    return then(new Operator(SAMPLE, new double[] {n}, null));
+  }
+
+  /**
+   * Adds an operator that scales and then moves every point, rounding to the
+   * nearest pixel.
+   *
+   * @param scaleX
+   * @param scaleY
+   * @param translateX
+   * @param translateY
+   * @return the longer pipeline
+   * @throws IllegalArgumentException if a value is not finite
+   */
+  public CanvasPipeline transform(double scaleX, double scaleY, double translateX,
+      double translateY) {
+    double[] args = {scaleX, scaleY, translateX, translateY};
+    for (double arg : args) {
+      if (Double.isNaN(arg) || Double.isInfinite(arg)) {
+        throw new IllegalArgumentException("transform must be finite");
+      }
+    }
+    return then(new Operator(TRANSFORM, args, null));
+  }
+
+  /**
+   * Adds an operator that holds segments back and passes them on together
+   * once window has passed since the first of them. Undo, clear and
+   * canvasReady pass the held segments on first.
+   *
+   * @param window
+   * @param unit
+   * @return the longer pipeline
+   * @throws NullPointerException if unit is null
+   * @throws IllegalArgumentException if window is less than 1
+   */
+  public CanvasPipeline batch(long window, TimeUnit unit) {
+    if (unit == null) {
+      throw new NullPointerException("unit cannot be null");
+    }
+    if (window < 1) {
+      throw new IllegalArgumentException("window must be at least 1");
+    }
+    return then(new Operator(BATCH, new double[] {unit.toNanos(window)}, null));
+  }
+
+  /**
+   * Adds an operator that also passes every event reaching it to another
+   * listener, as the sink of a pipeline would be.
+   *
+   * @param listener
+   * @return the longer pipeline
+   * @throws NullPointerException if listener is null
+   */
+  public CanvasPipeline tee(CanvasListener listener) {
+    if (listener == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    return then(new Operator(TEE, null, listener));
+  }
+
+  /**
+   * Connects the pipeline to a sink.
+   *
+   * @param sink the listener at the end of the pipeline
+   * @return the listener to register with a model
+   * @throws NullPointerException if sink is null
+   */
+  public CanvasListener to(CanvasListener sink) {
+    if (sink == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    List<Operator> fused = fuse(operators);
+    boolean batched = false;
+    for (Operator operator : fused) {
+      batched |= operator.kind == BATCH;
+    }
+    Head head = batched ? new LockedHead() : new Head();
+    Stage next = new Sink(sink);
+    for (int i = fused.size() - 1; i >= 0; i--) {
+      next = fused.get(i).build(next, head);
+    }
+    head.first = next;
+    return head;
+  }
+
+  /**
+   * Connects the pipeline to a sink and registers it with a model.
+   *
+   * @param model
+   * @param sink the listener at the end of the pipeline
+   * @return the registered listener, to deregister later
+   * @throws NullPointerException if model or sink is null
+   */
+  public CanvasListener attach(CanvasModel model, CanvasListener sink) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    CanvasListener head = to(sink);
+    model.registerListener(head);
+    return head;
+  }
+
+  /**
+   * Returns the number of operators left after fusing. For testing only.
+   *
+   * @return operator count
+   */
+  int getFusedLength() {
+    return fuse(operators).size();
+  }
+
+  private CanvasPipeline then(Operator operator) {
+    List<Operator> longer = new ArrayList<Operator>(operators);
+    longer.add(operator);
+    return new CanvasPipeline(Collections.unmodifiableList(longer));
+  }
+
+  /**
+   * Composes adjacent transforms and adjacent samplers.
+   */
+  private static List<Operator> fuse(List<Operator> operators) {
+    List<Operator> fused = new ArrayList<Operator>();
+    for (Operator operator : operators) {
+      Operator last = fused.isEmpty() ? null : fused.get(fused.size() - 1);
+      if (last != null && last.kind == TRANSFORM && operator.kind == TRANSFORM) {
+        double[] a = last.args;
+        double[] b = operator.args;
+        fused.set(fused.size() - 1, new Operator(TRANSFORM, new double[] {a[0] * b[0],
+            a[1] * b[1], a[2] * b[0] + b[2], a[3] * b[1] + b[3]}, null));
+      } else if (last != null && last.kind == SAMPLE && operator.kind == SAMPLE
+          && last.args[0] * operator.args[0] <= Integer.MAX_VALUE) {
+        fused.set(fused.size() - 1,
+            new Operator(SAMPLE, new double[] {last.args[0] * operator.args[0]}, null));
+      } else {
+        fused.add(operator);
+      }
+    }
+    return fused;
+  }
+
+  private static ScheduledExecutorService createTimer() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task -> {
+      Thread thread = new Thread(task, "canvas-pipeline-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  /**
+   * An operator as added to a pipeline, before it is connected.
+   */
+  private static final class Operator {
+    final int kind;
+    final double[] args;
+    final CanvasListener listener;
+
+    Operator(int kind, double[] args, CanvasListener listener) {
+      this.kind = kind;
+      this.args = args;
+      this.listener = listener;
+    }
+
+    Stage build(Stage next, Head head) {
+      switch (kind) {
+        case REGION:
+          return new Region(next, (int) args[0], (int) args[1], (int) args[2], (int) args[3]);
+        case SAMPLE:
+          return new Sample(next, (int) args[0]);
+        case TRANSFORM:
+          if (args[0] == 1 && args[1] == 1 && args[2] == (int) args[2]
+              && args[3] == (int) args[3]) {
+            return new Translate(next, (int) args[2], (int) args[3]);
+          }
+          return new Transform(next, args[0], args[1], args[2], args[3]);
+        case BATCH:
+          return new Batch(next, head, (long) args[0]);
+        default:
+          return new Tee(next, new Sink(listener));
+      }
+    }
+  }
+
+  /**
+   * One connected operator. Segments arrive one at a time, and endBatch
+   * follows the last segment of each event fired at the head.
+   */
+  private abstract static class Stage {
+    abstract void segment(int startX, int startY, int endX, int endY);
+
+    abstract void endBatch();
+
+    abstract void undone(int count);
+
+    abstract void cleared();
+
+    abstract void ready();
+  }
+
+  /**
+   * The listener a model fires at.
+   */
+  private static class Head implements CanvasListener {
+    Stage first;
+
+    @Override
+    public void canvasReady() {
+      first.ready();
+    }
+
+    @Override
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      first.segment(startX, startY, endX, endY);
+      first.endBatch();
+    }
+
+    @Override
+    public void linesDrawn(int[] coords, int count) {
+      Stage stage = first;
+      for (int i = 0; i < count * 4; i += 4) {
+        stage.segment(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+      }
+      stage.endBatch();
+    }
+
+    @Override
+    public void linesUndone(int count) {
+      first.undone(count);
+    }
+
+    @Override
+    public void clearCanvas() {
+      first.cleared();
+    }
+  }
+
+  /**
+   * The head of a pipeline with a batch operator, which holds its lock for
+   * each event so the timer flushes of the batch operators can take it too.
+   */
+  private static final class LockedHead extends Head {
+
+    @Override
+    public synchronized void canvasReady() {
+      super.canvasReady();
+    }
+
+    @Override
+    public synchronized void lineDrawn(int startX, int startY, int endX, int endY) {
+      super.lineDrawn(startX, startY, endX, endY);
+    }
+
+    @Override
+    public synchronized void linesDrawn(int[] coords, int count) {
+      super.linesDrawn(coords, count);
+    }
+
+    @Override
+    public synchronized void linesUndone(int count) {
+      super.linesUndone(count);
+    }
+
+    @Override
+    public synchronized void clearCanvas() {
+      super.clearCanvas();
+    }
+  }
+
+  /**
+   * Gathers the segments of a batch and fires them at a listener.
+   */
+  private static final class Sink extends Stage {
+    private final CanvasListener listener;
+    private int[] coords = new int[64];
+    private int count;
+
+    Sink(CanvasListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      if (count * 4 == coords.length) {
+        coords = Arrays.copyOf(coords, coords.length * 2);
+      }
+      int i = count * 4;
+      coords[i] = startX;
+      coords[i + 1] = startY;
+      coords[i + 2] = endX;
+      coords[i + 3] = endY;
+      count++;
+    }
+
+    @Override
+    void endBatch() {
+      if (count == 1) {
+        count = 0;
+        listener.lineDrawn(coords[0], coords[1], coords[2], coords[3]);
+      } else if (count > 1) {
+        int delivered = count;
+        count = 0;
+        listener.linesDrawn(coords, delivered);
+      }
+    }
+
+    @Override
+    void undone(int count) {
+      if (count > 0) {
+        listener.linesUndone(count);
+      }
+    }
+
+    @Override
+    void cleared() {
+      listener.clearCanvas();
+    }
+
+    @Override
+    void ready() {
+      listener.canvasReady();
+    }
+  }
+
+  /**
+   * Passes on segments overlapping a region, with a bit per segment seen
+   * recording which were passed.
+   */
+  private static final class Region extends Stage {
+    private final Stage next;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    private long[] passed = new long[16];
+    private int seen;
+
+    Region(Stage next, int minX, int minY, int maxX, int maxY) {
+      this.next = next;
+      this.minX = minX;
+      this.minY = minY;
+      this.maxX = maxX;
+      this.maxY = maxY;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      if (seen >> 6 == passed.length) {
+        passed = Arrays.copyOf(passed, passed.length * 2);
+      }
+      if (Math.max(startX, endX) >= minX && Math.min(startX, endX) <= maxX
+          && Math.max(startY, endY) >= minY && Math.min(startY, endY) <= maxY) {
+        passed[seen >> 6] |= 1L << seen;
+        next.segment(startX, startY, endX, endY);
+      } else {
+        passed[seen >> 6] &= ~(1L << seen);
+      }
+      seen++;
+    }
+
+    @Override
+    void endBatch() {
+      next.endBatch();
+    }
+
+    @Override
+    void undone(int count) {
+      int from = Math.max(0, seen - count);
+      int undone = 0;
+      for (int i = from; i < seen; i++) {
+        undone += (int) (passed[i >> 6] >>> i) & 1;
+      }
+      seen = from;
+      next.undone(undone);
+    }
+
+    @Override
+    void cleared() {
+      seen = 0;
+      next.cleared();
+    }
+
+    @Override
+    void ready() {
+      next.ready();
+    }
+  }
+
+  /**
+   * Passes on every nth segment. Which segments passed follows from how many
+   * were seen, so undo needs no history.
+   */
+  private static final class Sample extends Stage {
+    private final Stage next;
+    private final int n;
+    private long seen;
+
+    Sample(Stage next, int n) {
+      this.next = next;
+      this.n = n;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      if (seen++ % n == 0) {
+        next.segment(startX, startY, endX, endY);
+      }
+    }
+
+    @Override
+    void endBatch() {
+      next.endBatch();
+    }
+
+    @Override
+    void undone(int count) {
+      long from = Math.max(0, seen - count);
+      // segments 0, n, 2n and so on passed, that is ceil(seen / n) of them
+      long undone = (seen + n - 1) / n - (from + n - 1) / n;
+      seen = from;
+      next.undone((int) undone);
+    }
+
+    @Override
+    void cleared() {
+      seen = 0;
+      next.cleared();
+    }
+
+    @Override
+    void ready() {
+      next.ready();
+    }
+  }
+
+  private static final class Transform extends Stage {
+    private final Stage next;
+    private final double scaleX;
+    private final double scaleY;
+    private final double translateX;
+    private final double translateY;
+
+    Transform(Stage next, double scaleX, double scaleY, double translateX, double translateY) {
+      this.next = next;
+      this.scaleX = scaleX;
+      this.scaleY = scaleY;
+      this.translateX = translateX;
+      this.translateY = translateY;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      next.segment((int) Math.round(startX * scaleX + translateX),
+          (int) Math.round(startY * scaleY + translateY),
+          (int) Math.round(endX * scaleX + translateX),
+          (int) Math.round(endY * scaleY + translateY));
+    }
+
+    @Override
+    void endBatch() {
+      next.endBatch();
+    }
+
+    @Override
+    void undone(int count) {
+      next.undone(count);
+    }
+
+    @Override
+    void cleared() {
+      next.cleared();
+    }
+
+    @Override
+    void ready() {
+      next.ready();
+    }
+  }
+
+  /**
+   * A transform that only moves points by whole pixels.
+   */
+  private static final class Translate extends Stage {
+    private final Stage next;
+    private final int translateX;
+    private final int translateY;
+
+    Translate(Stage next, int translateX, int translateY) {
+      this.next = next;
+      this.translateX = translateX;
+      this.translateY = translateY;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      next.segment(startX + translateX, startY + translateY, endX + translateX,
+          endY + translateY);
+    }
+
+    @Override
+    void endBatch() {
+      next.endBatch();
+    }
+
+    @Override
+    void undone(int count) {
+      next.undone(count);
+    }
+
+    @Override
+    void cleared() {
+      next.cleared();
+    }
+
+    @Override
+    void ready() {
+      next.ready();
+    }
+  }
+
+  /**
+   * Holds segments for a time window. The first segment held schedules a
+   * flush on the timer, which takes the lock of the head like any event.
+   */
+  private static final class Batch extends Stage {
+    private final Stage next;
+    private final Head head;
+    private final long window;
+    private final Runnable timedFlush = this::timedFlush;
+    private int[] coords = new int[64];
+    private int count;
+    private long firstTime;
+    private boolean scheduled;
+
+    Batch(Stage next, Head head, long window) {
+      this.next = next;
+      this.head = head;
+      this.window = window;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      if (count * 4 == coords.length) {
+        coords = Arrays.copyOf(coords, coords.length * 2);
+      }
+      if (count == 0) {
+        firstTime = System.nanoTime();
+      }
+      int i = count * 4;
+      coords[i] = startX;
+      coords[i + 1] = startY;
+      coords[i + 2] = endX;
+      coords[i + 3] = endY;
+      count++;
+    }
+
+    @Override
+    void endBatch() {
+      if (count == 0) {
+        return;
+      }
+      long wait = firstTime + window - System.nanoTime();
+      if (wait <= 0) {
+        flush();
+      } else if (!scheduled) {
+        scheduled = true;
+        timer.schedule(timedFlush, wait, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    @Override
+    void undone(int count) {
+      flush();
+      next.undone(count);
+    }
+
+    @Override
+    void cleared() {
+      flush();
+      next.cleared();
+    }
+
+    @Override
+    void ready() {
+      flush();
+      next.ready();
+    }
+
+    private void flush() {
+      if (count == 0) {
+        return;
+      }
+      for (int i = 0; i < count * 4; i += 4) {
+        next.segment(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+      }
+      count = 0;
+      next.endBatch();
+    }
+
+    private void timedFlush() {
+      synchronized (head) {
+        scheduled = false;
+        // flushes if the window is over, or schedules again for segments
+        // held since an earlier flush
+        endBatch();
+      }
+    }
+  }
+
+  /**
+   * Passes every event to a branch as well as on down the pipeline.
+   */
+  private static final class Tee extends Stage {
+    private final Stage next;
+    private final Stage branch;
+
+    Tee(Stage next, Stage branch) {
+      this.next = next;
+      this.branch = branch;
+    }
+
+    @Override
+    void segment(int startX, int startY, int endX, int endY) {
+      branch.segment(startX, startY, endX, endY);
+      next.segment(startX, startY, endX, endY);
+    }
+
+    @Override
+    void endBatch() {
+      branch.endBatch();
+      next.endBatch();
+    }
+
+    @Override
+    void undone(int count) {
+      branch.undone(count);
+      next.undone(count);
+    }
+
+    @Override
+    void cleared() {
+      branch.cleared();
+      next.cleared();
+    }
+
+    @Override
+    void ready() {
+      branch.ready();
+      next.ready();
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package canvas;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol spoken between a CanvasServer and its CanvasClients.
+ * Every frame is an int length, counting the bytes after it, followed by a one
+ * byte frame type and the body of the frame. All numbers are big-endian ints.
+ *
+ * Server to client: HELLO with the canvas length and height, sent once on
+ * connection; READY; SEGMENTS with a segment count followed by four ints per
+ * segment; UNDO with the number of segments undone; and CLEAR.
+ *
+ * Client to server: START and END with an x and y position, mirroring
+ * setStartPositions and setEndPositions, STROKE_END for endStroke, UNDO and
+ * REDO with no body, and CLEAR. SESSION_BEGIN and SESSION_EXTEND with a
+ * session id and an x and y position, and SESSION_END with a session id,
+ * mirror begin, extend and end of a StrokeSession the client opened.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+final class CanvasProtocol {
+  static final byte HELLO = 0;
+  static final byte READY = 1;
+  static final byte SEGMENTS = 2;
+  static final byte CLEAR = 3;
+  static final byte START = 4;
+  static final byte END = 5;
+  static final byte STROKE_END = 6;
+  static final byte UNDO = 7;
+  static final byte REDO = 8;
+  static final byte SESSION_BEGIN = 9;
+  static final byte SESSION_EXTEND = 10;
+  static final byte SESSION_END = 11;
+
+  /**
+   * bytes of the length and type that start every frame
+   */
+  static final int FRAME_HEADER = 5;
+
+  /**
+   * largest frame body accepted from a server, bounding the memory it can make
+   * a client use
+   */
+  static final int MAX_FRAME = 1 << 20;
+
+  /**
+   * largest frame body a client sends, a SESSION_BEGIN or SESSION_EXTEND
+   * frame
+   */
+  static final int MAX_CLIENT_FRAME = 13;
+
+  private CanvasProtocol() {
+  }
+
+  /**
+   * Writes a frame with no body.
+   *
+   * @param out
+   * @param type
+   */
+  static void putEmpty(ByteBuffer out, byte type) {
+    out.putInt(1);
+    out.put(type);
+  }
+
+  /**
+   * Writes a frame whose body is one int, used for UNDO.
+   *
+   * @param out
+   * @param type
+   * @param a
+   */
+  static void putInt(ByteBuffer out, byte type, int a) {
+    out.putInt(5);
+    out.put(type);
+    out.putInt(a);
+  }
+
+  /**
+   * Writes a frame whose body is two ints, used for HELLO, START and END.
+   *
+   * @param out
+   * @param type
+   * @param a
+   * @param b
+   */
+  static void putPair(ByteBuffer out, byte type, int a, int b) {
+    out.putInt(9);
+    out.put(type);
+    out.putInt(a);
+    out.putInt(b);
+  }
+
+  /**
+   * Returns the size in bytes of a SEGMENTS frame holding count segments.
+   *
+   * @param count
+   * @return frame size including the header
+   */
+  static int segmentsFrameSize(int count) {
+    return FRAME_HEADER + 4 + count * 16;
+  }
+
+}
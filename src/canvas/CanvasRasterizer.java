@@ -0,0 +1,193 @@
+package canvas;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Turns logged line segments into an image without a window or the event
+ * dispatch thread, so drawings can be rendered and exported on a server or in
+ * CI. Segments are drawn the way a CanvasView draws them: black, antialiased,
+ * on white.
+ *
+ * The canvas is split into square tiles. A first pass sorts the segments into
+ * the tiles their bounding boxes cover, then the tiles are rendered in
+ * parallel on a ForkJoinPool, each into its own small image that is copied
+ * into the result.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class CanvasRasterizer {
+  static final int TILE_SIZE = 256;
+  private static final int WHITE = 0xFFFFFFFF;
+
+  private final int width;
+  private final int height;
+  private final ForkJoinPool pool;
+
+  /**
+   * Creates a rasterizer for a canvas that renders on the common pool.
+   *
+   * @param width width of the canvas in pixels
+   * @param height height of the canvas in pixels
+   */
+  public CanvasRasterizer(int width, int height) {
+    this(width, height, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a rasterizer for a canvas that renders on the given pool.
+   *
+   * @param width width of the canvas in pixels
+   * @param height height of the canvas in pixels
+   * @param pool runs the tile rendering
+   * @throws IllegalArgumentException if a size is less than 1
+   * @throws NullPointerException if the pool is null
+   */
+  public CanvasRasterizer(int width, int height, ForkJoinPool pool) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("size must be at least 1");
+    }
+    if (pool == null) {
+      throw new NullPointerException("pool cannot be null");
+    }
+    this.width = width;
+    this.height = height;
+    this.pool = pool;
+  }
+
+  /**
+   * Renders segments into a new TYPE_INT_RGB image the size of the canvas.
+   *
+   * @param segments the segments to draw, which must not change while
+   *          rendering
+   * @return the rendered image
+   */
+  public BufferedImage render(SegmentStore segments) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Arrays.fill(pixels, WHITE);
+    int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+    int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+    int[][] buckets = new int[columns * rows][];
+    int[] counts = new int[columns * rows];
+    sortIntoTiles(segments, columns, rows, buckets, counts);
+    pool.invoke(new TileTask(segments, pixels, columns, buckets, counts, 0, columns * rows));
+    return image;
+  }
+
+  /**
+   * Renders segments and writes them to a stream as a PNG image. The stream is
+   * not closed.
+   *
+   * @param segments the segments to draw
+   * @param out the stream to write to
+   * @throws IOException if the image cannot be written
+   */
+  public void writePng(SegmentStore segments, OutputStream out) throws IOException {
+    if (!ImageIO.write(render(segments), "png", out)) {
+      throw new IOException("no PNG writer available");
+    }
+  }
+
+  private void sortIntoTiles(SegmentStore segments, int columns, int rows, int[][] buckets,
+      int[] counts) {
+    int size = segments.size();
+    for (int id = 0; id < size; id++) {
+      int startX = segments.getStartX(id);
+      int startY = segments.getStartY(id);
+      int endX = segments.getEndX(id);
+      int endY = segments.getEndY(id);
+      // one pixel of padding for the antialiased edge of the stroke
+      int fromColumn = Math.max(0, (Math.min(startX, endX) - 1) / TILE_SIZE);
+      int toColumn = Math.min(columns - 1, (Math.max(startX, endX) + 1) / TILE_SIZE);
+      int fromRow = Math.max(0, (Math.min(startY, endY) - 1) / TILE_SIZE);
+      int toRow = Math.min(rows - 1, (Math.max(startY, endY) + 1) / TILE_SIZE);
+      for (int row = fromRow; row <= toRow; row++) {
+        for (int column = fromColumn; column <= toColumn; column++) {
+          int tile = row * columns + column;
+          if (buckets[tile] == null) {
+            buckets[tile] = new int[16];
+          } else if (counts[tile] == buckets[tile].length) {
+            buckets[tile] = Arrays.copyOf(buckets[tile], counts[tile] * 2);
+          }
+          buckets[tile][counts[tile]++] = id;
+        }
+      }
+    }
+  }
+
+  /**
+   * Renders a range of tiles, splitting the range in half until it is a single
+   * tile.
+   */
+  private class TileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final SegmentStore segments;
+    private final int[] pixels;
+    private final int columns;
+    private final int[][] buckets;
+    private final int[] counts;
+    private final int from;
+    private final int to;
+
+    TileTask(SegmentStore segments, int[] pixels, int columns, int[][] buckets, int[] counts,
+        int from, int to) {
+      this.segments = segments;
+      this.pixels = pixels;
+      this.columns = columns;
+      this.buckets = buckets;
+      this.counts = counts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new TileTask(segments, pixels, columns, buckets, counts, from, middle),
+            new TileTask(segments, pixels, columns, buckets, counts, middle, to));
+      } else if (counts[from] > 0) {
+        renderTile(from);
+      }
+    }
+
+    private void renderTile(int tile) {
+      int originX = (tile % columns) * TILE_SIZE;
+      int originY = (tile / columns) * TILE_SIZE;
+      int tileWidth = Math.min(TILE_SIZE, width - originX);
+      int tileHeight = Math.min(TILE_SIZE, height - originY);
+      BufferedImage image = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+      int[] tilePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      Arrays.fill(tilePixels, WHITE);
+      Graphics2D graphics = image.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+          RenderingHints.VALUE_ANTIALIAS_ON);
+      graphics.setPaint(Color.black);
+      graphics.translate(-originX, -originY);
+      int[] ids = buckets[tile];
+      for (int i = 0; i < counts[tile]; i++) {
+        int id = ids[i];
+        graphics.drawLine(segments.getStartX(id), segments.getStartY(id),
+            segments.getEndX(id), segments.getEndY(id));
+      }
+      graphics.dispose();
+      for (int y = 0; y < tileHeight; y++) {
+        System.arraycopy(tilePixels, y * tileWidth, pixels, (originY + y) * width + originX,
+            tileWidth);
+      }
+    }
+  }
+
+}
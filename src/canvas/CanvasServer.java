@@ -0,0 +1,525 @@
+package canvas;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements the CanvasListener Interface. Hosts a CanvasModel for
+ * CanvasClients in other processes, so users on different machines can draw
+ * on the same canvas. One selector thread accepts clients, applies the drawing
+ * they send to the model and sends every event of the model back to all of
+ * them, using the frames of CanvasProtocol.
+ *
+ * Each client draws through StrokeSessions of its own, so strokes drawn by
+ * different clients at the same time never join. START, END and STROKE_END
+ * drive a session opened for the client's pointer, tagged with the number of
+ * the connection, and the session frames drive sessions the client opened,
+ * tagged with the client's ids. What a client drew in one read is delivered
+ * before the server reads from the next client, and a client's strokes are
+ * ended when it disconnects.
+ *
+ * Events are coalesced: the segments fired between two turns of the selector
+ * thread are written to a shared outbox as a single SEGMENTS frame, and the
+ * outbox is copied to every client at once. Each client has its own output
+ * buffer. A client whose buffer grows past HIGH_WATER bytes is not read from
+ * until it catches up, and one whose buffer grows past MAX_PENDING bytes is
+ * disconnected, so a slow client cannot hold up the others.
+ *
+ * The server keeps the segments on the canvas, so a client that connects
+ * after drawing started is first sent READY, if the model started, and the
+ * canvas as it is, before the events fired since. The canvas is what was
+ * drawn since the server started, or all of it if the model has late join
+ * enabled. The canvas sent on connection does not count towards MAX_PENDING.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public class CanvasServer implements CanvasListener {
+  static final int HIGH_WATER = 256 * 1024;
+  static final int MAX_PENDING = 8 * 1024 * 1024;
+  private static final int MAX_SEGMENTS_PER_FRAME = 4096;
+  private static final int MAX_SESSIONS = 1024;
+
+  /**
+   * The buffers of one connected client.
+   */
+  private static class Connection {
+    final SocketChannel channel;
+    final ByteBuffer in = ByteBuffer.allocate(4096);
+    final StrokeSession pointer;
+    final Map<Integer, StrokeSession> sessions = new HashMap<Integer, StrokeSession>();
+    ByteBuffer out = ByteBuffer.allocate(4096);
+    long catchUp;
+
+    Connection(SocketChannel channel, StrokeSession pointer) {
+      this.channel = channel;
+      this.pointer = pointer;
+    }
+
+    /**
+     * Returns the session the client opened with an id, opening it on the
+     * model the first time, or null if the client has too many open.
+     */
+    StrokeSession session(CanvasModel model, int id) {
+      StrokeSession session = sessions.get(id);
+      if (session == null && sessions.size() < MAX_SESSIONS) {
+        session = model.openSession(id);
+        sessions.put(id, session);
+      }
+      return session;
+    }
+
+    /**
+     * Delivers what the client's sessions hold.
+     */
+    void flush() {
+      pointer.flush();
+      for (StrokeSession session : sessions.values()) {
+        session.flush();
+      }
+    }
+
+    /**
+     * Ends the strokes the client is drawing.
+     */
+    void end() {
+      pointer.end();
+      for (StrokeSession session : sessions.values()) {
+        session.end();
+      }
+      sessions.clear();
+    }
+  }
+
+  private final CanvasModel model;
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final List<Connection> connections = new ArrayList<Connection>();
+  private final Thread selectorThread;
+  private int connectionCount;
+  private final SegmentStore canvas = new SegmentStore();
+  private boolean ready;
+  private volatile boolean running;
+  private ByteBuffer outbox = ByteBuffer.allocate(64 * 1024);
+  private ByteBuffer sending = ByteBuffer.allocate(64 * 1024);
+  private int openFrame = -1;
+  private int openFrameCount;
+  private boolean wakeupPending;
+
+  /**
+   * Binds a server for a model. It does not accept clients until started.
+   *
+   * @param model the model to share
+   * @param port the port to listen on, or 0 for any free port
+   * @throws NullPointerException if the model is null
+   * @throws IOException if the port cannot be bound
+   */
+  public CanvasServer(CanvasModel model, int port) throws IOException {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    this.model = model;
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    selectorThread = new Thread(this::serve, "canvas-server");
+    selectorThread.setDaemon(true);
+  }
+
+  /**
+   * Registers the server as a listener of its model and starts accepting
+   * clients.
+   */
+  public void start() {
+    running = true;
+    model.registerListener(this);
+    selectorThread.start();
+  }
+
+  /**
+   * Returns the port the server listens on.
+   *
+   * @return port number
+   */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Returns the number of connected clients.
+   *
+   * @return number of clients
+   */
+  public synchronized int getClientCount() {
+    return connections.size();
+  }
+
+  /**
+   * Deregisters from the model, disconnects every client and stops listening.
+   *
+   * @throws IOException if the server socket cannot be closed
+   * @throws InterruptedException if interrupted while the selector thread stops
+   */
+  public void close() throws IOException, InterruptedException {
+    running = false;
+    model.deregisterListener(this);
+    selector.wakeup();
+    selectorThread.join();
+  }
+
+  @Override
+  public synchronized void canvasReady() {
+    ready = true;
+    closeFrame();
+    ensureOutbox(CanvasProtocol.FRAME_HEADER);
+    CanvasProtocol.putEmpty(outbox, CanvasProtocol.READY);
+    wakeup();
+  }
+
+  @Override
+  public synchronized void lineDrawn(int startX, int startY, int endX, int endY) {
+    canvas.add(startX, startY, endX, endY);
+    appendSegment(startX, startY, endX, endY);
+    wakeup();
+  }
+
+  @Override
+  public synchronized void linesDrawn(int[] coords, int count) {
+    canvas.addAll(coords, count);
+    for (int i = 0; i < count * 4; i += 4) {
+      appendSegment(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+    wakeup();
+  }
+
+  @Override
+  public synchronized void linesUndone(int count) {
+    canvas.removeLast(Math.min(count, canvas.size()));
+    closeFrame();
+    ensureOutbox(CanvasProtocol.FRAME_HEADER + 4);
+    CanvasProtocol.putInt(outbox, CanvasProtocol.UNDO, count);
+    wakeup();
+  }
+
+  @Override
+  public synchronized void clearCanvas() {
+    canvas.clear();
+    closeFrame();
+    ensureOutbox(CanvasProtocol.FRAME_HEADER);
+    CanvasProtocol.putEmpty(outbox, CanvasProtocol.CLEAR);
+    wakeup();
+  }
+
+  /**
+   * Adds a segment to the open SEGMENTS frame of the outbox, starting a new
+   * frame if none is open, and updates the frame length and count in place.
+   */
+  private void appendSegment(int startX, int startY, int endX, int endY) {
+    if (openFrame < 0) {
+      ensureOutbox(CanvasProtocol.segmentsFrameSize(0));
+      openFrame = outbox.position();
+      openFrameCount = 0;
+      outbox.putInt(0);
+      outbox.put(CanvasProtocol.SEGMENTS);
+      outbox.putInt(0);
+    }
+    ensureOutbox(16);
+    outbox.putInt(startX);
+    outbox.putInt(startY);
+    outbox.putInt(endX);
+    outbox.putInt(endY);
+    openFrameCount++;
+    outbox.putInt(openFrame, CanvasProtocol.segmentsFrameSize(openFrameCount) - 4);
+    outbox.putInt(openFrame + CanvasProtocol.FRAME_HEADER, openFrameCount);
+    if (openFrameCount == MAX_SEGMENTS_PER_FRAME) {
+      closeFrame();
+    }
+  }
+
+  private void closeFrame() {
+    openFrame = -1;
+  }
+
+  private void ensureOutbox(int bytes) {
+    if (outbox.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(outbox.capacity() * 2,
+          outbox.position() + bytes));
+      outbox.flip();
+      larger.put(outbox);
+      outbox = larger;
+    }
+  }
+
+  private void wakeup() {
+    if (!wakeupPending) {
+      wakeupPending = true;
+      selector.wakeup();
+    }
+  }
+
+  private void serve() {
+    try {
+      while (running) {
+        selector.select();
+        broadcast(null);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+              read(key, connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+              write(key, connection);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    } finally {
+      shutdown();
+    }
+  }
+
+  private void shutdown() {
+    synchronized (this) {
+      for (Connection connection : connections) {
+        closeQuietly(connection.channel);
+      }
+      connections.clear();
+    }
+    closeQuietly(serverChannel);
+    try {
+      selector.close();
+    } catch (IOException e) {
+      // nothing left to release
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    Connection connection = new Connection(channel, model.openSession(connectionCount++));
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+    CanvasProtocol.putPair(connection.out, CanvasProtocol.HELLO,
+        model.getCanvasLength(), model.getCanvasHeight());
+    broadcast(connection);
+    write(key, connection);
+  }
+
+  /**
+   * Takes the outbox and queues its frames on every client. A joining client
+   * is given the canvas instead, in the same step, so it gets every event
+   * exactly once: those already on the canvas with it, and the later ones
+   * from the outbox.
+   *
+   * @param joining a client just accepted, or null
+   */
+  private void broadcast(Connection joining) {
+    List<Connection> receivers = null;
+    synchronized (this) {
+      wakeupPending = false;
+      if (outbox.position() > 0) {
+        ByteBuffer full = outbox;
+        outbox = sending;
+        outbox.clear();
+        sending = full;
+        closeFrame();
+        receivers = new ArrayList<Connection>(connections);
+      }
+      if (joining != null) {
+        catchUp(joining);
+        connections.add(joining);
+      }
+    }
+    if (receivers == null) {
+      return;
+    }
+    sending.flip();
+    for (Connection connection : receivers) {
+      SelectionKey key = connection.channel.keyFor(selector);
+      if (key == null || !key.isValid()) {
+        continue;
+      }
+      if (connection.out.position() - connection.catchUp + sending.remaining() > MAX_PENDING) {
+        disconnect(key, connection);
+        continue;
+      }
+      ensureOut(connection, sending.remaining());
+      connection.out.put(sending.duplicate());
+      write(key, connection);
+    }
+  }
+
+  /**
+   * Queues READY, if the model started, and the segments on the canvas on a
+   * joining client.
+   */
+  private void catchUp(Connection connection) {
+    int start = connection.out.position();
+    if (ready) {
+      ensureOut(connection, CanvasProtocol.FRAME_HEADER);
+      CanvasProtocol.putEmpty(connection.out, CanvasProtocol.READY);
+    }
+    for (int from = 0; from < canvas.size(); from += MAX_SEGMENTS_PER_FRAME) {
+      int count = Math.min(MAX_SEGMENTS_PER_FRAME, canvas.size() - from);
+      ensureOut(connection, CanvasProtocol.segmentsFrameSize(count));
+      ByteBuffer out = connection.out;
+      out.putInt(CanvasProtocol.segmentsFrameSize(count) - 4);
+      out.put(CanvasProtocol.SEGMENTS);
+      out.putInt(count);
+      canvas.forEach(from, count, (startX, startY, endX, endY) -> {
+        out.putInt(startX);
+        out.putInt(startY);
+        out.putInt(endX);
+        out.putInt(endY);
+      });
+    }
+    connection.catchUp = connection.out.position() - start;
+  }
+
+  private static void ensureOut(Connection connection, int bytes) {
+    if (connection.out.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(connection.out.capacity() * 2,
+          connection.out.position() + bytes));
+      connection.out.flip();
+      larger.put(connection.out);
+      connection.out = larger;
+    }
+  }
+
+  private void read(SelectionKey key, Connection connection) {
+    try {
+      if (connection.channel.read(connection.in) < 0) {
+        disconnect(key, connection);
+        return;
+      }
+    } catch (IOException e) {
+      disconnect(key, connection);
+      return;
+    }
+    ByteBuffer in = connection.in;
+    in.flip();
+    while (in.remaining() >= 4) {
+      int length = in.getInt(in.position());
+      if (length < 1 || length > CanvasProtocol.MAX_CLIENT_FRAME) {
+        disconnect(key, connection);
+        return;
+      }
+      if (in.remaining() < 4 + length) {
+        break;
+      }
+      in.getInt();
+      byte type = in.get();
+      if (type == CanvasProtocol.START && length == 9) {
+        connection.pointer.begin(in.getInt(), in.getInt());
+      } else if (type == CanvasProtocol.END && length == 9) {
+        connection.pointer.extend(in.getInt(), in.getInt());
+      } else if (type == CanvasProtocol.STROKE_END && length == 1) {
+        connection.pointer.end();
+      } else if (type == CanvasProtocol.SESSION_BEGIN && length == 13) {
+        StrokeSession session = connection.session(model, in.getInt());
+        if (session == null) {
+          disconnect(key, connection);
+          return;
+        }
+        session.begin(in.getInt(), in.getInt());
+      } else if (type == CanvasProtocol.SESSION_EXTEND && length == 13) {
+        StrokeSession session = connection.session(model, in.getInt());
+        if (session == null) {
+          disconnect(key, connection);
+          return;
+        }
+        session.extend(in.getInt(), in.getInt());
+      } else if (type == CanvasProtocol.SESSION_END && length == 5) {
+        StrokeSession session = connection.sessions.remove(in.getInt());
+        if (session != null) {
+          session.end();
+        }
+      } else if (type == CanvasProtocol.CLEAR && length == 1) {
+        connection.flush();
+        model.clearCanvas();
+      } else if (type == CanvasProtocol.UNDO && length == 1) {
+        connection.flush();
+        model.undo();
+      } else if (type == CanvasProtocol.REDO && length == 1) {
+        connection.flush();
+        model.redo();
+      } else {
+        disconnect(key, connection);
+        return;
+      }
+    }
+    connection.flush();
+    in.compact();
+  }
+
+  private void write(SelectionKey key, Connection connection) {
+    ByteBuffer out = connection.out;
+    out.flip();
+    try {
+      int written = connection.channel.write(out);
+      connection.catchUp = Math.max(0, connection.catchUp - written);
+    } catch (IOException e) {
+      disconnect(key, connection);
+      return;
+    } finally {
+      out.compact();
+    }
+    int ops = SelectionKey.OP_READ;
+    if (out.position() > 0) {
+      ops = SelectionKey.OP_WRITE;
+      if (out.position() < HIGH_WATER) {
+        ops |= SelectionKey.OP_READ;
+      }
+    }
+    if (key.isValid()) {
+      key.interestOps(ops);
+    }
+  }
+
+  private void disconnect(SelectionKey key, Connection connection) {
+    key.cancel();
+    closeQuietly(connection.channel);
+    synchronized (this) {
+      connections.remove(connection);
+    }
+    connection.end();
+  }
+
+  private static void closeQuietly(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // the peer is gone either way
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+package canvas;
+
+/**
+ * The segments on a canvas at one point in time, taken from a SnapshotLog.
+ * A snapshot never changes, whatever is drawn, undone or cleared after it
+ * was taken, and can be read from any thread. Segments are indexed from 0,
+ * the oldest, to size() - 1, the newest.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class CanvasSnapshot {
+  private final int[][] chunks;
+  private final int size;
+  private final long version;
+
+  CanvasSnapshot(int[][] chunks, int size, long version) {
+    this.chunks = chunks;
+    this.size = size;
+    this.version = version;
+  }
+
+  /**
+   * Returns the number of events the log had taken in when the snapshot was
+   * taken. A later snapshot of the same log has a higher version unless
+   * nothing happened in between.
+   *
+   * @return version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the number of segments on the canvas.
+   *
+   * @return number of segments
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the canvas was empty.
+   *
+   * @return true if size() is 0
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Getter for the starting x coordinate of a segment
+   *
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return startX
+   * @throws IndexOutOfBoundsException if index is not in the snapshot
+   */
+  public int getStartX(int index) {
+    return chunk(index)[offset(index)];
+  }
+
+  /**
+   * Getter for the starting y coordinate of a segment
+   *
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return startY
+   * @throws IndexOutOfBoundsException if index is not in the snapshot
+   */
+  public int getStartY(int index) {
+    return chunk(index)[offset(index) + 1];
+  }
+
+  /**
+   * Getter for the ending x coordinate of a segment
+   *
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return endX
+   * @throws IndexOutOfBoundsException if index is not in the snapshot
+   */
+  public int getEndX(int index) {
+    return chunk(index)[offset(index) + 2];
+  }
+
+  /**
+   * Getter for the ending y coordinate of a segment
+   *
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return endY
+   * @throws IndexOutOfBoundsException if index is not in the snapshot
+   */
+  public int getEndY(int index) {
+    return chunk(index)[offset(index) + 3];
+  }
+
+  /**
+   * Passes every segment to the visitor, oldest first.
+   *
+   * @param visitor
+   */
+  public void forEach(SegmentVisitor visitor) {
+    for (int first = 0; first < size; first += SnapshotLog.CHUNK_SIZE) {
+      int[] chunk = chunks[first >> SnapshotLog.CHUNK_SHIFT];
+      int end = Math.min(size - first, SnapshotLog.CHUNK_SIZE) * 4;
+      for (int i = 0; i < end; i += 4) {
+        visitor.visit(chunk[i], chunk[i + 1], chunk[i + 2], chunk[i + 3]);
+      }
+    }
+  }
+
+  /**
+   * Passes count segments starting at index from to the visitor, oldest first.
+   *
+   * @param from index of the first segment visited
+   * @param count number of segments visited
+   * @param visitor
+   * @throws IndexOutOfBoundsException if the range is not inside the snapshot
+   */
+  public void forEach(int from, int count, SegmentVisitor visitor) {
+    if (from < 0 || count < 0 || from + count > size) {
+      throw new IndexOutOfBoundsException("segments " + from + " to " + (from + count));
+    }
+    for (int index = from; index < from + count; index++) {
+      int[] chunk = chunks[index >> SnapshotLog.CHUNK_SHIFT];
+      int i = offset(index);
+      visitor.visit(chunk[i], chunk[i + 1], chunk[i + 2], chunk[i + 3]);
+    }
+  }
+
+  /**
+   * Copies the segments into a new SegmentStore, for code that takes one.
+   *
+   * @return a store holding the segments
+   */
+  public SegmentStore toSegmentStore() {
+    SegmentStore store = new SegmentStore();
+    forEach(store::add);
+    return store;
+  }
+
+  private int[] chunk(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("segment " + index + ", size " + size);
+    }
+    return chunks[index >> SnapshotLog.CHUNK_SHIFT];
+  }
+
+  private static int offset(int index) {
+    return (index & (SnapshotLog.CHUNK_SIZE - 1)) * 4;
+  }
+
+}
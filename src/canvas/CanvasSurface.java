@@ -0,0 +1,429 @@
+package canvas;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Implements the CanvasListener Interface. The one raster shared by every
+ * view of a CanvasModel: it draws each segment the model fires once, through
+ * a RasterHistory so undo restores checkpoints, and keeps a RasterPyramid of
+ * it for zoomed out views. Observers, the paint areas of the views, are told
+ * which area changed and paint from the shared raster. A view opened late
+ * shows the current drawing straight away.
+ *
+ * With a frame rate set, segments fired at the surface are only queued, and
+ * a FrameScheduler draws everything queued and tells the observers once per
+ * frame, so input handling never waits for drawing or painting. Undo draws
+ * the queue first and clear throws it away.
+ *
+ * Events fired on another thread, by a StrokeSession or a CanvasServer, are
+ * queued too, undo and clear included, under the queue's lock, and drawn in
+ * the order they came on the event dispatch thread: in the next frame, or
+ * straight away without a frame rate.
+ *
+ * With adaptive quality on, segments are drawn as cheap drafts by a
+ * DraftRenderer while drawing goes on, and redrawn at full quality in the
+ * background once it pauses.
+ *
+ * The first acquire for a model creates its surface, keeps it on the model
+ * and registers it as an internal listener, so it is not counted among the
+ * model's listeners; the last release deregisters it and frees its tiles.
+ * Apart from the events it is fired, a surface is used on the event dispatch
+ * thread, like the raster it holds.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class CanvasSurface implements CanvasListener {
+  private static final Object surfaces = new Object();
+  private static final int CLEARED = -1;
+
+  /**
+   * Told about every change to the shared raster.
+   */
+  interface Observer {
+
+    /**
+     * Called after pixels in an area of the canvas changed.
+     *
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     */
+    void areaChanged(int minX, int minY, int maxX, int maxY);
+  }
+
+  private final CanvasModel model;
+  private final TiledRaster raster;
+  private final RasterHistory history;
+  private final RasterPyramid pyramid;
+  private final DraftRenderer drafts;
+  private final List<Observer> observers = new CopyOnWriteArrayList<Observer>();
+  private SegmentStore queued = new SegmentStore();
+  private SegmentStore drawing = new SegmentStore();
+  private int[] operations = new int[16];
+  private int operationCount;
+  private boolean drainPending;
+  private volatile FrameScheduler scheduler;
+  private boolean adaptiveQuality;
+  private volatile boolean released;
+  private long segmentsDrawn;
+
+  private CanvasSurface(CanvasModel model) {
+    this.model = model;
+    raster = new TiledRaster(model.getCanvasLength(), model.getCanvasHeight());
+    history = new RasterHistory(raster);
+    pyramid = new RasterPyramid(raster);
+    drafts = new DraftRenderer(history, raster, this::changed, DraftRenderer.DEFAULT_IDLE_DELAY);
+  }
+
+  /**
+   * Returns the surface of a model, creating and registering it if the model
+   * has none, and adds an observer to it.
+   *
+   * @param model
+   * @param observer
+   * @return the model's surface
+   * @throws NullPointerException if model or observer is null
+   */
+  static CanvasSurface acquire(CanvasModel model, Observer observer) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    if (observer == null) {
+      throw new NullPointerException("observer cannot be null");
+    }
+    synchronized (surfaces) {
+      CanvasSurface surface = model.getSurface();
+      if (surface == null) {
+        surface = new CanvasSurface(model);
+        model.setSurface(surface);
+        model.registerInternalListener(surface);
+      }
+      surface.observers.add(observer);
+      return surface;
+    }
+  }
+
+  /**
+   * Removes an observer. When the last one is gone the surface deregisters
+   * from its model and throws its tiles away.
+   *
+   * @param observer
+   */
+  void release(Observer observer) {
+    synchronized (surfaces) {
+      if (!observers.remove(observer) || !observers.isEmpty()) {
+        return;
+      }
+      model.setSurface(null);
+    }
+    model.deregisterInternalListener(this);
+    released = true;
+    drafts.cancel();
+    if (scheduler != null) {
+      scheduler.stop();
+    }
+    raster.close();
+  }
+
+  /**
+   * Queues segments and draws them once per frame from now on.
+   *
+   * @param framesPerSecond the most frames a second
+   * @throws IllegalArgumentException if framesPerSecond is not between 1 and
+   *           FrameScheduler.MAX_FRAME_RATE
+   */
+  void setFrameRate(int framesPerSecond) {
+    if (scheduler == null) {
+      scheduler = new FrameScheduler(framesPerSecond, this::drawQueued);
+    } else {
+      scheduler.setFrameRate(framesPerSecond);
+    }
+  }
+
+  /**
+   * Turns adaptive quality on or off. Turning it off redraws any drafts at
+   * full quality straight away.
+   *
+   * @param adaptive true to draft segments while drawing goes on
+   */
+  void setAdaptiveQuality(boolean adaptive) {
+    adaptiveQuality = adaptive;
+    if (!adaptive && drafts.finish()) {
+      changedAll();
+    }
+  }
+
+  /**
+   * Returns true if segments are drafted while drawing goes on.
+   *
+   * @return adaptive quality
+   */
+  boolean isAdaptiveQuality() {
+    return adaptiveQuality;
+  }
+
+  /**
+   * Getter for the renderer that drafts segments with adaptive quality on
+   *
+   * @return drafts
+   */
+  DraftRenderer getDrafts() {
+    return drafts;
+  }
+
+  /**
+   * Returns the scheduler that paces drawing, or null if segments are drawn
+   * as they are fired.
+   *
+   * @return scheduler
+   */
+  FrameScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Getter for the shared raster
+   *
+   * @return raster
+   */
+  TiledRaster getRaster() {
+    return raster;
+  }
+
+  /**
+   * Getter for the pyramid of the shared raster
+   *
+   * @return pyramid
+   */
+  RasterPyramid getPyramid() {
+    return pyramid;
+  }
+
+  /**
+   * Returns the number of segments drawn on the raster, counting those
+   * redrawn by undo only once.
+   *
+   * @return segment count
+   */
+  long getSegmentsDrawn() {
+    return segmentsDrawn;
+  }
+
+  @Override
+  public void canvasReady() {
+  }
+
+  @Override
+  public void lineDrawn(int startX, int startY, int endX, int endY) {
+    if (scheduler != null || !SwingUtilities.isEventDispatchThread()) {
+      synchronized (this) {
+        queued.add(startX, startY, endX, endY);
+      }
+      requestDraw();
+      return;
+    }
+    drawQueued();
+    draw(startX, startY, endX, endY);
+    segmentsDrawn++;
+    changed(Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX),
+        Math.max(startY, endY));
+  }
+
+  @Override
+  public void linesDrawn(int[] coords, int count) {
+    if (count == 0) {
+      return;
+    }
+    if (scheduler != null || !SwingUtilities.isEventDispatchThread()) {
+      synchronized (this) {
+        queued.addAll(coords, count);
+      }
+      requestDraw();
+      return;
+    }
+    drawQueued();
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
+    for (int i = 0; i < count * 4; i += 4) {
+      draw(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+      minX = Math.min(minX, Math.min(coords[i], coords[i + 2]));
+      minY = Math.min(minY, Math.min(coords[i + 1], coords[i + 3]));
+      maxX = Math.max(maxX, Math.max(coords[i], coords[i + 2]));
+      maxY = Math.max(maxY, Math.max(coords[i + 1], coords[i + 3]));
+    }
+    segmentsDrawn += count;
+    changed(minX, minY, maxX, maxY);
+  }
+
+  @Override
+  public void linesUndone(int count) {
+    if (!SwingUtilities.isEventDispatchThread()) {
+      synchronized (this) {
+        addOperation(count);
+      }
+      requestDraw();
+      return;
+    }
+    drawQueued();
+    undo(count);
+  }
+
+  @Override
+  public void clearCanvas() {
+    if (!SwingUtilities.isEventDispatchThread()) {
+      synchronized (this) {
+        // whatever was queued before would be cleared anyway
+        queued.clear();
+        operationCount = 0;
+        addOperation(CLEARED);
+      }
+      requestDraw();
+      return;
+    }
+    synchronized (this) {
+      queued.clear();
+      operationCount = 0;
+    }
+    clear();
+  }
+
+  /**
+   * Draws the queued segments, undoing and clearing in between where those
+   * were queued, and tells the observers the area the segments cover.
+   */
+  private void drawQueued() {
+    SegmentStore segments;
+    int[] pending = null;
+    int pendingCount;
+    synchronized (this) {
+      drainPending = false;
+      if (queued.isEmpty() && operationCount == 0) {
+        return;
+      }
+      segments = queued;
+      queued = drawing;
+      drawing = segments;
+      pendingCount = operationCount;
+      if (pendingCount > 0) {
+        pending = Arrays.copyOf(operations, pendingCount * 2);
+        operationCount = 0;
+      }
+    }
+    if (released) {
+      segments.clear();
+      return;
+    }
+    int count = segments.size();
+    int from = 0;
+    for (int i = 0; i < pendingCount; i++) {
+      int at = pending[i * 2];
+      drawRange(segments, from, at);
+      from = at;
+      if (pending[i * 2 + 1] == CLEARED) {
+        clear();
+      } else {
+        undo(pending[i * 2 + 1]);
+      }
+    }
+    drawRange(segments, from, count);
+    segments.clear();
+  }
+
+  /**
+   * Draws queued segments from index from up to index to and tells the
+   * observers the area they cover.
+   */
+  private void drawRange(SegmentStore segments, int from, int to) {
+    if (from == to) {
+      return;
+    }
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
+    for (int i = from; i < to; i++) {
+      int startX = segments.getStartX(i);
+      int startY = segments.getStartY(i);
+      int endX = segments.getEndX(i);
+      int endY = segments.getEndY(i);
+      draw(startX, startY, endX, endY);
+      minX = Math.min(minX, Math.min(startX, endX));
+      minY = Math.min(minY, Math.min(startY, endY));
+      maxX = Math.max(maxX, Math.max(startX, endX));
+      maxY = Math.max(maxY, Math.max(startY, endY));
+    }
+    segmentsDrawn += to - from;
+    changed(minX, minY, maxX, maxY);
+  }
+
+  /**
+   * Queues an undo of count segments, or a clear, after the segments queued
+   * so far. Called holding the queue's lock.
+   */
+  private void addOperation(int count) {
+    if (operationCount * 2 == operations.length) {
+      operations = Arrays.copyOf(operations, operations.length * 2);
+    }
+    operations[operationCount * 2] = queued.size();
+    operations[operationCount * 2 + 1] = count;
+    operationCount++;
+  }
+
+  /**
+   * Has the queue drawn on the event dispatch thread: in the next frame, or
+   * as soon as possible without a frame rate.
+   */
+  private void requestDraw() {
+    FrameScheduler current = scheduler;
+    if (current != null) {
+      current.request();
+      return;
+    }
+    synchronized (this) {
+      if (drainPending) {
+        return;
+      }
+      drainPending = true;
+    }
+    SwingUtilities.invokeLater(this::drawQueued);
+  }
+
+  private void undo(int count) {
+    drafts.cancel();
+    history.undo(count);
+    changedAll();
+  }
+
+  private void clear() {
+    drafts.cancel();
+    history.clear();
+    changedAll();
+  }
+
+  private void draw(int startX, int startY, int endX, int endY) {
+    if (adaptiveQuality) {
+      drafts.drawLine(startX, startY, endX, endY);
+    } else {
+      history.drawLine(startX, startY, endX, endY);
+    }
+  }
+
+  private void changedAll() {
+    changed(0, 0, raster.getWidth(), raster.getHeight());
+  }
+
+  private void changed(int minX, int minY, int maxX, int maxY) {
+    for (Observer observer : observers) {
+      observer.areaChanged(minX, minY, maxX, maxY);
+    }
+  }
+
+}
@@ -3,18 +3,28 @@ package canvas;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.RenderingHints;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.event.MouseEvent;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
+import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
@@ -27,7 +37,14 @@ import java.awt.event.WindowEvent;
  * The CanvasPaintArea is a panel object which is instantiated once the main frame is 
  * set up.
  * Mainframe also contains a control panel which houses control buttons. 
- * Currently the only control button is to clear the drawing. 
+ * The control buttons clear the drawing and undo or redo the last stroke,
+ * which Ctrl+Z and Ctrl+Y also do.
+ * The canvas scrolls in its frame and zooms by powers of two with Ctrl and
+ * the mouse wheel, Ctrl+plus and Ctrl+minus, and back to 1:1 with Ctrl+0.
+ * Mouse input goes straight to the model, while drawing and painting happen
+ * once per display frame, FrameScheduler.DEFAULT_FRAME_RATE times a second
+ * unless setFrameRate is called. With setAdaptiveQuality, lines are drawn
+ * without antialiasing during a drag and redrawn once it pauses.
  * All drawings are by default in black, but the control buttons could be expanded.
  * 
  * @author sc2936@nyu.edu
@@ -39,6 +56,7 @@ public class CanvasView implements CanvasListener {
   private JPanel controlPanel = new JPanel(new BorderLayout());
   private JPanel messagePanel = new JPanel(new BorderLayout());
   private JLabel statusLabel = new JLabel("Start Painting");
+  private JScrollPane scrollPane;
   private CanvasModel model;
 
   /**
@@ -58,6 +76,9 @@ public class CanvasView implements CanvasListener {
     this.model = model;
     model.registerListener(this);
     setupMainFrame();
+    if (paintPanel.surface.getScheduler() == null) {
+      paintPanel.surface.setFrameRate(FrameScheduler.DEFAULT_FRAME_RATE);
+    }
     startMouseListeners();
     startMouseMotionListener();
   }
@@ -70,21 +91,59 @@ public class CanvasView implements CanvasListener {
 
     paintPanel = new CanvasPaintArea();
     paintPanel.setBorder(BorderFactory.createLineBorder(Color.black));
-    mainFrame.getContentPane().add(paintPanel, BorderLayout.CENTER);
+    scrollPane = new JScrollPane(paintPanel);
+    mainFrame.getContentPane().add(scrollPane, BorderLayout.CENTER);
 
     mainFrame.getContentPane().add(messagePanel, BorderLayout.SOUTH);
     messagePanel.add(statusLabel, BorderLayout.CENTER);
 
-    mainFrame.setSize(model.getCanvasLength(), model.getCanvasHeight());
-    mainFrame.setResizable(false);
+    Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+    mainFrame.setSize(Math.min(model.getCanvasLength(), screen.width),
+        Math.min(model.getCanvasHeight(), screen.height));
     setupClose();
   }
 
   /**
-   * Setup of control panel buttons. Could be expanded beyond clear.
+   * Setup of control panel buttons.
    */
   private void setupControls() {
     setupClear();
+    setupUndo();
+    setupZoom();
+  }
+
+  private void setupZoom() {
+    ActionListener zoomIn = event -> setZoom(paintPanel.zoom + 1);
+    ActionListener zoomOut = event -> setZoom(paintPanel.zoom - 1);
+    registerKey(zoomIn, KeyEvent.VK_EQUALS);
+    registerKey(zoomIn, KeyEvent.VK_PLUS);
+    registerKey(zoomIn, KeyEvent.VK_ADD);
+    registerKey(zoomOut, KeyEvent.VK_MINUS);
+    registerKey(zoomOut, KeyEvent.VK_SUBTRACT);
+    registerKey(event -> setZoom(0), KeyEvent.VK_0);
+  }
+
+  private void registerKey(ActionListener action, int key) {
+    mainFrame.getRootPane().registerKeyboardAction(action,
+        KeyStroke.getKeyStroke(key, InputEvent.CTRL_DOWN_MASK),
+        JComponent.WHEN_IN_FOCUSED_WINDOW);
+  }
+
+  private void setupUndo() {
+    JButton undoButton = new JButton("Undo");
+    JButton redoButton = new JButton("Redo");
+    controlPanel.add(undoButton, BorderLayout.WEST);
+    controlPanel.add(redoButton, BorderLayout.EAST);
+    ActionListener undo = event -> model.undo();
+    ActionListener redo = event -> model.redo();
+    undoButton.addActionListener(undo);
+    redoButton.addActionListener(redo);
+    mainFrame.getRootPane().registerKeyboardAction(undo,
+        KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK),
+        JComponent.WHEN_IN_FOCUSED_WINDOW);
+    mainFrame.getRootPane().registerKeyboardAction(redo,
+        KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK),
+        JComponent.WHEN_IN_FOCUSED_WINDOW);
   }
 
   private void setupClear() {
@@ -107,21 +166,110 @@ public class CanvasView implements CanvasListener {
       @Override
       public void windowClosing(WindowEvent e) {
         model.deregisterListener(toRemove);
+        paintPanel.surface.release(paintPanel);
         mainFrame.dispose();   
       }
     });
   }
 
+  /**
+   * Sets how lines drawn from now on are drawn, for every view of the model
+   * since they share one raster.
+   * 
+   * @param lineMode
+   * @throws NullPointerException if lineMode is null
+   */
+  public void setLineMode(LineMode lineMode) {
+    paintPanel.raster.setLineMode(lineMode);
+  }
+
+  /**
+   * Turns adaptive quality on or off for every view of the model. With it on,
+   * segments are drawn without antialiasing while drawing goes on, and the
+   * area they cover is redrawn in the line mode on a background thread once
+   * the pointer stops or the stroke ends.
+   * 
+   * @param adaptive true to draw fast while dragging
+   */
+  public void setAdaptiveQuality(boolean adaptive) {
+    paintPanel.surface.setAdaptiveQuality(adaptive);
+  }
+
+  /**
+   * Sets the most frames a second the views of the model draw and paint.
+   * 
+   * @param framesPerSecond
+   * @throws IllegalArgumentException if framesPerSecond is not between 1 and
+   *           FrameScheduler.MAX_FRAME_RATE
+   */
+  public void setFrameRate(int framesPerSecond) {
+    paintPanel.surface.setFrameRate(framesPerSecond);
+  }
+
+  /**
+   * Zooms the view to 2 to the power of zoom, keeping the middle of what is
+   * shown in the middle. Zooming out goes as far as the whole canvas fitting
+   * in a tile of the view's RasterPyramid, and in to MAX_ZOOM.
+   * 
+   * @param zoom the power of two to scale by, negative to zoom out
+   */
+  public void setZoom(int zoom) {
+    zoom = Math.max(-paintPanel.pyramid.getTopLevel(),
+        Math.min(CanvasPaintArea.MAX_ZOOM, zoom));
+    if (zoom == paintPanel.zoom) {
+      return;
+    }
+    JViewport viewport = scrollPane.getViewport();
+    Rectangle shown = viewport.getViewRect();
+    int centerX = paintPanel.toCanvas(shown.x + shown.width / 2);
+    int centerY = paintPanel.toCanvas(shown.y + shown.height / 2);
+    paintPanel.zoom = zoom;
+    Dimension size = paintPanel.getPreferredSize();
+    viewport.setViewSize(size);
+    int x = paintPanel.toView(centerX) - shown.width / 2;
+    int y = paintPanel.toView(centerY) - shown.height / 2;
+    viewport.setViewPosition(new Point(
+        Math.max(0, Math.min(x, size.width - shown.width)),
+        Math.max(0, Math.min(y, size.height - shown.height))));
+    paintPanel.revalidate();
+    paintPanel.repaint();
+    statusLabel.setText("Zoom " + (zoom >= 0 ? 100 << zoom : 100 >> -zoom) + "%");
+  }
+
+  /**
+   * Returns the power of two the view is zoomed by.
+   * 
+   * @return zoom, negative when zoomed out
+   */
+  public int getZoom() {
+    return paintPanel.zoom;
+  }
+
   /**
    * Listens for the mouse listeners and updates the model with the starting
    * positions of each line.
    */
   public void startMouseListeners() {
-    paintPanel.addMouseListener(new MouseAdapter() {
+    MouseAdapter mouse = new MouseAdapter() {
       public void mousePressed(MouseEvent e) {
-        model.setStartPositions(e.getX(), e.getY());
+        model.setStartPositions(paintPanel.toCanvas(e.getX()), paintPanel.toCanvas(e.getY()));
       }
-    });
+
+      public void mouseReleased(MouseEvent e) {
+        model.endStroke();
+      }
+
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        if (e.isControlDown()) {
+          setZoom(paintPanel.zoom - e.getWheelRotation());
+        } else {
+          // the panel would otherwise keep wheel events from scrolling
+          scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(paintPanel, e, scrollPane));
+        }
+      }
+    };
+    paintPanel.addMouseListener(mouse);
+    paintPanel.addMouseWheelListener(mouse);
   }
 
   /**
@@ -131,62 +279,193 @@ public class CanvasView implements CanvasListener {
   public void startMouseMotionListener() {
     paintPanel.addMouseMotionListener(new MouseAdapter() {
       public void mouseDragged(MouseEvent e) {
-        model.setEndPositions(e.getX(), e.getY());
+        model.setEndPositions(paintPanel.toCanvas(e.getX()), paintPanel.toCanvas(e.getY()));
       }
     });
   }
 
+  /**
+   * Shows the frame, on the event dispatch thread when called from another
+   * thread, as by an asynchronous model.
+   */
   @Override
   public void canvasReady() {
-    mainFrame.setVisible(true);
+    onEventDispatchThread(() -> mainFrame.setVisible(true));
   }
 
+  /**
+   * Does nothing: the model's CanvasSurface draws the segment once for all
+   * views and tells the paint area what to repaint.
+   */
   @Override
   public void lineDrawn(int startX, int startY, int endX, int endY) {
-    paintPanel.graphics.drawLine(startX, startY, endX, endY);
-    paintPanel.repaint();
   }
 
+  /**
+   * Does nothing, as for lineDrawn.
+   */
+  @Override
+  public void linesDrawn(int[] coords, int count) {
+  }
+
+  /**
+   * Clears the status line, on the event dispatch thread as for canvasReady.
+   */
   @Override
   public void clearCanvas() {
-    statusLabel.setText("");
-    paintPanel.clearCanvas();
+    onEventDispatchThread(() -> statusLabel.setText(""));
+  }
+
+  private static void onEventDispatchThread(Runnable task) {
+    if (SwingUtilities.isEventDispatchThread()) {
+      task.run();
+    } else {
+      SwingUtilities.invokeLater(task);
+    }
   }
 
   /**
    * The canvas paint area object This is where the actual drawing can be
    * rendered. Uses a default constructor.
    * 
+   * The drawing is kept in a TiledRaster the size of the model's canvas, so
+   * only the tiles drawn on use memory and the panel can be scrolled over
+   * canvases much larger than the screen. The raster belongs to the model's
+   * CanvasSurface and is shared with every other view of the model, which
+   * draws each segment once and reports the areas it changed.
+   * 
+   * Keeps, on the event dispatch thread, the union of the bounding boxes of
+   * segments drawn since the last paint, widened by DIRTY_PAD pixels for the
+   * stroke and antialiasing, and repaints only that rectangle rather than the
+   * whole image.
+   * 
+   * Zoomed in, the raster is painted scaled up. Zoomed out, a level of a
+   * RasterPyramid is painted at 1:1, so the cost of a paint depends on the
+   * size of the window, not of the drawing.
+   * 
    * @author sc2936@nyu.edu
    *
    */
-  private class CanvasPaintArea extends JPanel {
-    Graphics2D graphics;
-    Image image;
+  private class CanvasPaintArea extends JPanel implements CanvasSurface.Observer {
+    private static final int DIRTY_PAD = 2;
+    static final int MAX_ZOOM = 3;
+    CanvasSurface surface = CanvasSurface.acquire(model, this);
+    TiledRaster raster = surface.getRaster();
+    RasterPyramid pyramid = surface.getPyramid();
+    int zoom;
+    private boolean dirty;
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+
+    /**
+     * adds the bounding box of a segment to the dirty region
+     */
+    void addDirty(int startX, int startY, int endX, int endY) {
+      int minX = Math.min(startX, endX) - DIRTY_PAD;
+      int minY = Math.min(startY, endY) - DIRTY_PAD;
+      int maxX = Math.max(startX, endX) + DIRTY_PAD;
+      int maxY = Math.max(startY, endY) + DIRTY_PAD;
+      if (!dirty) {
+        dirty = true;
+        dirtyMinX = minX;
+        dirtyMinY = minY;
+        dirtyMaxX = maxX;
+        dirtyMaxY = maxY;
+      } else {
+        dirtyMinX = Math.min(dirtyMinX, minX);
+        dirtyMinY = Math.min(dirtyMinY, minY);
+        dirtyMaxX = Math.max(dirtyMaxX, maxX);
+        dirtyMaxY = Math.max(dirtyMaxY, maxY);
+      }
+    }
+
+    /**
+     * asks Swing to repaint the dirty region
+     */
+    void repaintDirty() {
+      if (dirty) {
+        repaint(dirtyArea());
+      }
+    }
+
+    /**
+     * returns the dirty region in view coordinates
+     */
+    private Rectangle dirtyArea() {
+      int x = toView(dirtyMinX);
+      int y = toView(dirtyMinY);
+      return new Rectangle(x, y, toView(dirtyMaxX + 1) - x + 1, toView(dirtyMaxY + 1) - y + 1);
+    }
+
+    /**
+     * converts a view coordinate to the canvas
+     */
+    int toCanvas(int position) {
+      return zoom >= 0 ? position >> zoom : position << -zoom;
+    }
+
+    /**
+     * converts a canvas coordinate to the view, rounding down
+     */
+    int toView(int position) {
+      return zoom >= 0 ? position << zoom : position >> -zoom;
+    }
    
     /**
-     * will clear the canvas
-     * // could have paint panel size increased to match when window is expanded
-     * // currently expansion is not made available
+     * the panel is as large as the logical canvas and scrolls in its frame
+     */
+    @Override
+    public Dimension getPreferredSize() {
+      return new Dimension(toView(raster.getWidth()) + 1, toView(raster.getHeight()) + 1);
+    }
+
+    /**
+     * repaints an area the surface changed, during the frame when called on
+     * the event dispatch thread so the frame scheduler sees the paint cost.
+     * The dirty region is only touched on that thread, so a call from another
+     * thread is posted to it and repainted later.
      */
-    public void clearCanvas() {
-      graphics.setPaint(Color.white);
-      graphics.fillRect(0, 0, paintPanel.getSize().width, paintPanel.getSize().height);
-      graphics.setPaint(Color.black);
-      paintPanel.repaint();
+    @Override
+    public void areaChanged(int minX, int minY, int maxX, int maxY) {
+      if (!SwingUtilities.isEventDispatchThread()) {
+        SwingUtilities.invokeLater(() -> {
+          addDirty(minX, minY, maxX, maxY);
+          repaintDirty();
+        });
+        return;
+      }
+      addDirty(minX, minY, maxX, maxY);
+      paintImmediately(dirtyArea());
     }
 
     /**
-     * will render the image of the drawing
+     * will render the visible part of the drawing
      */
     public void paintComponent(Graphics g) {
-      if (image == null) {
-        image = createImage(getSize().width, getSize().height);
-        graphics = (Graphics2D) image.getGraphics();
-        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-            RenderingHints.VALUE_ANTIALIAS_ON);
+      dirty = false;
+      Rectangle clip = g.getClipBounds();
+      if (clip == null) {
+        clip = new Rectangle(0, 0, getWidth(), getHeight());
+      }
+      CanvasMetrics metrics = model.getMetrics();
+      long start = metrics == null ? 0 : System.nanoTime();
+      if (zoom == 0) {
+        raster.paint(g, clip);
+      } else if (zoom < 0) {
+        pyramid.refresh();
+        pyramid.paint(g, -zoom, clip);
+      } else {
+        Graphics2D scaled = (Graphics2D) g.create();
+        scaled.scale(1 << zoom, 1 << zoom);
+        raster.paint(scaled, new Rectangle(clip.x >> zoom, clip.y >> zoom,
+            (clip.width >> zoom) + 2, (clip.height >> zoom) + 2));
+        scaled.dispose();
+      }
+      if (metrics != null) {
+        metrics.recordPaint(start, (long) clip.width * clip.height);
       }
-      g.drawImage(image, 0, 0, null);
     }
   }
 
@@ -0,0 +1,254 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Wraps a CanvasListener registered with a CanvasModel that keeps a
+ * LateJoinState, while the listener is brought up to date. Events fired
+ * during catching up are held with the version of the log they brought it
+ * to, as ints like in AsyncCanvasListener. After the listener is given the
+ * canvas as of a snapshot, the held events newer than the snapshot are
+ * passed on, and then events go straight through until the model puts the
+ * listener itself in place of the wrapper.
+ *
+ * A listener given some of the oldest segments as runs of pixels keeps the
+ * wrapper, which counts the segments on its canvas. An undo that would take
+ * back more than the segments given as drawn is not passed on: the listener
+ * is cleared and given the log in full instead, and from then on needs no
+ * counting.
+ *
+ * Drawing never waits for catching up: an event fired meanwhile only takes
+ * the wrapper's lock to be held.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class CatchUpListener implements CanvasListener {
+  private static final int READY = 0;
+  private static final int LINE = 1;
+  private static final int SESSION_LINE = 2;
+  private static final int UNDO = 3;
+  private static final int CLEAR = 4;
+  private static final int SLOT = 6;
+
+  private final CanvasListener delegate;
+  private final LateJoinState state;
+  private final SnapshotLog log;
+  private int[] events = new int[64 * SLOT];
+  private long[] versions = new long[64];
+  private int count;
+  private boolean live;
+  private boolean closed;
+  private int approximate;
+  private int segments;
+
+  /**
+   * Creates a wrapper that holds events until caughtUp.
+   *
+   * @param delegate the listener being brought up to date
+   * @param state the state the model fires at before its listeners
+   */
+  CatchUpListener(CanvasListener delegate, LateJoinState state) {
+    this.delegate = delegate;
+    this.state = state;
+    this.log = state.getLog();
+  }
+
+  /**
+   * Returns the listener being brought up to date.
+   *
+   * @return the wrapped CanvasListener
+   */
+  CanvasListener getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Passes on the events held since the listener was given the canvas as of
+   * version, and lets events through from then on.
+   *
+   * @param version the version of the snapshot the listener was given
+   * @param approximate how many of the oldest segments it was given as runs
+   *        of pixels
+   * @param segments the number of segments in the snapshot
+   */
+  void caughtUp(long version, int approximate, int segments) {
+    // only this thread uses the counts until live is set under the lock
+    this.approximate = approximate;
+    this.segments = segments;
+    int[] held = new int[0];
+    long[] heldVersions = new long[0];
+    while (true) {
+      int heldCount;
+      synchronized (this) {
+        if (count == 0 || closed) {
+          live = true;
+          return;
+        }
+        if (heldVersions.length < count) {
+          held = new int[count * SLOT];
+          heldVersions = new long[count];
+        }
+        System.arraycopy(events, 0, held, 0, count * SLOT);
+        System.arraycopy(versions, 0, heldVersions, 0, count);
+        heldCount = count;
+        count = 0;
+      }
+      // delivered without the lock, so drawing goes on holding new events
+      for (int i = 0; i < heldCount; i++) {
+        if (held[i * SLOT] == READY || heldVersions[i] > version) {
+          if (held[i * SLOT] == UNDO && reachesApproximate(held[i * SLOT + 1])) {
+            version = resync();
+          } else {
+            deliver(held, i * SLOT);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops passing events on, when the listener is deregistered while
+   * catching up.
+   */
+  synchronized void close() {
+    closed = true;
+    count = 0;
+  }
+
+  @Override
+  public synchronized void canvasReady() {
+    if (!hold(READY, 0, 0, 0, 0, 0)) {
+      delegate.canvasReady();
+    }
+  }
+
+  @Override
+  public synchronized void lineDrawn(int startX, int startY, int endX, int endY) {
+    if (!hold(LINE, 0, startX, startY, endX, endY)) {
+      segments++;
+      delegate.lineDrawn(startX, startY, endX, endY);
+    }
+  }
+
+  @Override
+  public synchronized void linesDrawn(int[] coords, int count) {
+    if (live) {
+      segments += count;
+      delegate.linesDrawn(coords, count);
+      return;
+    }
+    for (int i = 0; i < count * 4; i += 4) {
+      hold(LINE, 0, coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  @Override
+  public synchronized void sessionLinesDrawn(int session, int[] coords, int count) {
+    if (live) {
+      segments += count;
+      delegate.sessionLinesDrawn(session, coords, count);
+      return;
+    }
+    for (int i = 0; i < count * 4; i += 4) {
+      hold(SESSION_LINE, session, coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  @Override
+  public synchronized void linesUndone(int count) {
+    if (!hold(UNDO, count, 0, 0, 0, 0)) {
+      if (reachesApproximate(count)) {
+        // the model fired this undo at the log first, so the log is the
+        // canvas after it
+        resync();
+      } else {
+        delegate.linesUndone(count);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void clearCanvas() {
+    if (!hold(CLEAR, 0, 0, 0, 0, 0)) {
+      segments = 0;
+      approximate = 0;
+      delegate.clearCanvas();
+    }
+  }
+
+  /**
+   * Counts an undo, and tells whether it takes back segments the listener
+   * was given as runs of pixels.
+   */
+  private boolean reachesApproximate(int count) {
+    segments -= Math.min(count, segments);
+    return segments < approximate;
+  }
+
+  /**
+   * Clears the listener and gives it every segment on the canvas as drawn.
+   *
+   * @return the version of the log it was brought up to
+   */
+  private long resync() {
+    delegate.clearCanvas();
+    CanvasSnapshot snapshot = state.replay(delegate);
+    segments = snapshot.size();
+    approximate = 0;
+    return snapshot.getVersion();
+  }
+
+  /**
+   * Holds an event unless catching up is over.
+   *
+   * @return false if the event should be passed on now
+   */
+  private boolean hold(int type, int value, int startX, int startY, int endX, int endY) {
+    if (live) {
+      return false;
+    }
+    if (closed) {
+      return true;
+    }
+    if (count == versions.length) {
+      events = Arrays.copyOf(events, events.length * 2);
+      versions = Arrays.copyOf(versions, versions.length * 2);
+    }
+    int i = count * SLOT;
+    events[i] = type;
+    events[i + 1] = value;
+    events[i + 2] = startX;
+    events[i + 3] = startY;
+    events[i + 4] = endX;
+    events[i + 5] = endY;
+    // the model fired this event at the log just before this listener
+    versions[count] = log.getVersion();
+    count++;
+    return true;
+  }
+
+  private void deliver(int[] held, int i) {
+    switch (held[i]) {
+      case READY:
+        delegate.canvasReady();
+        break;
+      case LINE:
+        segments++;
+        delegate.lineDrawn(held[i + 2], held[i + 3], held[i + 4], held[i + 5]);
+        break;
+      case SESSION_LINE:
+        segments++;
+        delegate.sessionLinesDrawn(held[i + 1], Arrays.copyOfRange(held, i + 2, i + 6), 1);
+        break;
+      case UNDO:
+        delegate.linesUndone(held[i + 1]);
+        break;
+      default:
+        segments = 0;
+        approximate = 0;
+        delegate.clearCanvas();
+    }
+  }
+
+}
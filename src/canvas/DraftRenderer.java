@@ -0,0 +1,298 @@
+package canvas;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Draws segments on the raster of a RasterHistory as cheap BRESENHAM drafts
+ * while drawing goes on, and redraws them in the raster's own LineMode once
+ * it pauses. Before a draft first touches a tile, the tile's pixels are
+ * saved. When no segment has come for the idle delay, a background thread
+ * draws the drafted segments over the saved tiles in a TiledRaster of its
+ * own, and the event dispatch thread puts the redrawn tiles in place, so the
+ * canvas ends up with the same pixels as if every segment had been drawn at
+ * full quality.
+ *
+ * Drafts are logged by the history as usual, but checkpoints are held back
+ * while there are draft pixels on the raster, so an undo never restores
+ * them: undo and clear cancel the drafts, and undo redraws from the last
+ * checkpoint in the raster's LineMode anyway.
+ *
+ * Like the history it draws through, the renderer is used on the event
+ * dispatch thread; only the redrawing of a pause's drafts runs elsewhere.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class DraftRenderer {
+  static final int DEFAULT_IDLE_DELAY = 100;
+  private static final ExecutorService refiner = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "canvas-draft-refiner");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final RasterHistory history;
+  private final TiledRaster raster;
+  private final CanvasSurface.Observer observer;
+  private final Timer idle;
+  private final int idleDelay;
+  private final Set<Long> under = new HashSet<Long>();
+  private SegmentStore drafts = new SegmentStore();
+  private Map<Long, int[]> saved = new HashMap<Long, int[]>();
+  private int minX;
+  private int minY;
+  private int maxX;
+  private int maxY;
+  private long lastDraft;
+  private boolean armed;
+  private boolean refining;
+  private int generation;
+  private long refines;
+
+  /**
+   * Creates a renderer that drafts through history and tells observer about
+   * the areas it redraws.
+   *
+   * @param history the history of the raster drawn on
+   * @param raster the raster of the history
+   * @param observer told about every area redrawn in the background
+   * @param idleDelay milliseconds without a segment after which drafts are
+   *          redrawn
+   * @throws NullPointerException if history, raster or observer is null
+   * @throws IllegalArgumentException if idleDelay is negative
+   */
+  DraftRenderer(RasterHistory history, TiledRaster raster, CanvasSurface.Observer observer,
+      int idleDelay) {
+    if (history == null) {
+      throw new NullPointerException("history cannot be null");
+    }
+    if (raster == null) {
+      throw new NullPointerException("raster cannot be null");
+    }
+    if (observer == null) {
+      throw new NullPointerException("observer cannot be null");
+    }
+    if (idleDelay < 0) {
+      throw new IllegalArgumentException("idle delay cannot be negative");
+    }
+    this.history = history;
+    this.raster = raster;
+    this.observer = observer;
+    this.idleDelay = idleDelay;
+    idle = new Timer(idleDelay, event -> idleElapsed());
+    idle.setRepeats(false);
+  }
+
+  /**
+   * Draws a segment as a draft and restarts the idle delay. When the raster
+   * draws BRESENHAM lines already there is nothing cheaper, and the segment
+   * is just drawn.
+   *
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  void drawLine(int startX, int startY, int endX, int endY) {
+    LineMode quality = raster.getLineMode();
+    if (quality == LineMode.BRESENHAM) {
+      history.drawLine(startX, startY, endX, endY);
+      return;
+    }
+    raster.addTilesUnder(startX, startY, endX, endY, under);
+    for (Long key : under) {
+      if (!saved.containsKey(key)) {
+        saved.put(key, raster.getTilePixels(key));
+      }
+    }
+    under.clear();
+    history.setCheckpointsHeld(true);
+    raster.setLineMode(LineMode.BRESENHAM);
+    try {
+      history.drawLine(startX, startY, endX, endY);
+    } finally {
+      raster.setLineMode(quality);
+    }
+    if (drafts.isEmpty()) {
+      minX = Integer.MAX_VALUE;
+      minY = Integer.MAX_VALUE;
+      maxX = Integer.MIN_VALUE;
+      maxY = Integer.MIN_VALUE;
+    }
+    drafts.add(startX, startY, endX, endY);
+    minX = Math.min(minX, Math.min(startX, endX));
+    minY = Math.min(minY, Math.min(startY, endY));
+    maxX = Math.max(maxX, Math.max(startX, endX));
+    maxY = Math.max(maxY, Math.max(startY, endY));
+    // restarting a Swing timer costs more than drawing a draft, so the timer
+    // is started once and waits again if drafts came while it ran
+    lastDraft = System.nanoTime();
+    if (!armed) {
+      armed = true;
+      idle.setInitialDelay(idleDelay);
+      idle.restart();
+    }
+  }
+
+  /**
+   * Hands the drafts drawn so far to the background thread to be redrawn,
+   * without waiting for the idle delay. If drafts from before are still being
+   * redrawn, these follow once they are in place.
+   */
+  void refine() {
+    stopIdle();
+    if (drafts.isEmpty() || refining) {
+      return;
+    }
+    SegmentStore segments = drafts;
+    Map<Long, int[]> tiles = saved;
+    int[] area = {minX, minY, maxX, maxY};
+    LineMode quality = raster.getLineMode();
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    int refineGeneration = generation;
+    drafts = new SegmentStore();
+    saved = new HashMap<Long, int[]>();
+    refining = true;
+    refiner.execute(() -> {
+      Map<Long, int[]> redrawn = redraw(width, height, quality, tiles, segments);
+      SwingUtilities.invokeLater(() -> apply(refineGeneration, redrawn, area));
+    });
+  }
+
+  /**
+   * Forgets the drafts, and throws away any being redrawn, before an undo or
+   * clear replaces the pixels they are on.
+   */
+  void cancel() {
+    stopIdle();
+    generation++;
+    drafts = new SegmentStore();
+    saved = new HashMap<Long, int[]>();
+    refining = false;
+    history.setCheckpointsHeld(false);
+  }
+
+  /**
+   * Redraws every draft at full quality now, on the calling thread, by
+   * redrawing the history from its last checkpoint.
+   *
+   * @return true if there were drafts to redraw
+   */
+  boolean finish() {
+    if (isSettled()) {
+      return false;
+    }
+    cancel();
+    history.undo(0);
+    return true;
+  }
+
+  /**
+   * Returns true if every segment on the raster is drawn at full quality.
+   *
+   * @return true if there are no drafts
+   */
+  boolean isSettled() {
+    return drafts.isEmpty() && !refining;
+  }
+
+  /**
+   * Returns the number of times drafts were redrawn in the background and put
+   * in place.
+   *
+   * @return refine count
+   */
+  long getRefineCount() {
+    return refines;
+  }
+
+  /**
+   * Refines the drafts if none came for the idle delay, or waits for the rest
+   * of it.
+   */
+  private void idleElapsed() {
+    if (!armed) {
+      return;
+    }
+    long wait = lastDraft + TimeUnit.MILLISECONDS.toNanos(idleDelay) - System.nanoTime();
+    if (wait > 0) {
+      // round up so the timer never fires early
+      idle.setInitialDelay((int) ((wait + 999999) / 1000000));
+      idle.restart();
+      return;
+    }
+    refine();
+  }
+
+  private void stopIdle() {
+    armed = false;
+    idle.stop();
+  }
+
+  /**
+   * Puts redrawn tiles in place, unless the drafts were cancelled meanwhile.
+   */
+  private void apply(int refineGeneration, Map<Long, int[]> redrawn, int[] area) {
+    if (refineGeneration != generation) {
+      return;
+    }
+    refining = false;
+    refines++;
+    for (Map.Entry<Long, int[]> tile : redrawn.entrySet()) {
+      raster.setTilePixels(tile.getKey(), tile.getValue());
+      if (saved.containsKey(tile.getKey())) {
+        // drafts drawn meanwhile saved the tile with the old drafts on it
+        saved.put(tile.getKey(), tile.getValue());
+      }
+    }
+    if (!drafts.isEmpty()) {
+      // drafts drawn meanwhile were on tiles just replaced; their pixels are
+      // plain black, so drawing them again over anything gives the same result
+      LineMode quality = raster.getLineMode();
+      raster.setLineMode(LineMode.BRESENHAM);
+      try {
+        drafts.forEach(raster::drawLine);
+      } finally {
+        raster.setLineMode(quality);
+      }
+      if (!armed) {
+        refine();
+      }
+    }
+    if (isSettled()) {
+      history.setCheckpointsHeld(false);
+    }
+    observer.areaChanged(area[0], area[1], area[2], area[3]);
+  }
+
+  /**
+   * Draws segments over copies of the tiles under them in a raster of their
+   * own and returns the pixels of the tiles.
+   */
+  private static Map<Long, int[]> redraw(int width, int height, LineMode quality,
+      Map<Long, int[]> tiles, SegmentStore segments) {
+    TiledRaster scratch = new TiledRaster(width, height, Math.max(1, tiles.size()));
+    scratch.setLineMode(quality);
+    for (Map.Entry<Long, int[]> tile : tiles.entrySet()) {
+      scratch.setTilePixels(tile.getKey(), tile.getValue());
+    }
+    segments.forEach(scratch::drawLine);
+    Map<Long, int[]> redrawn = new HashMap<Long, int[]>();
+    for (Long key : tiles.keySet()) {
+      redrawn.put(key, scratch.getTilePixels(key));
+    }
+    scratch.close();
+    return redrawn;
+  }
+
+}
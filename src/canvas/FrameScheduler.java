@@ -0,0 +1,147 @@
+package canvas;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.Timer;
+
+/**
+ * Runs a frame task on the event dispatch thread at most once per display
+ * frame. Callers request a frame whenever they have something to show, as
+ * often as they like; requests made before the next frame runs are served
+ * by that one frame.
+ *
+ * Frames start at most framesPerSecond times a second. When frames take
+ * long, the scheduler spaces them further apart: the period is at least
+ * twice a moving average of the frame cost, so at least half of the event
+ * dispatch thread stays free for input.
+ *
+ * The scheduler is thread safe.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class FrameScheduler {
+  static final int DEFAULT_FRAME_RATE = 60;
+  static final int MAX_FRAME_RATE = 1000;
+
+  private final Runnable frame;
+  private final Timer timer;
+  private int frameRate;
+  private long period;
+  private long averageCost;
+  private long lastStart;
+  private long frames;
+  private boolean pending;
+
+  /**
+   * Creates a scheduler for a frame task. No frame runs until one is
+   * requested.
+   *
+   * @param framesPerSecond the most frames a second
+   * @param frame the task to run once per frame
+   * @throws IllegalArgumentException if framesPerSecond is not between 1 and
+   *           MAX_FRAME_RATE
+   * @throws NullPointerException if frame is null
+   */
+  FrameScheduler(int framesPerSecond, Runnable frame) {
+    if (frame == null) {
+      throw new NullPointerException("frame cannot be null");
+    }
+    this.frame = frame;
+    setFrameRate(framesPerSecond);
+    timer = new Timer(0, event -> runFrame());
+    timer.setRepeats(false);
+    // a request made while a frame runs must not be merged into that frame;
+    // pending already keeps one frame per request
+    timer.setCoalesce(false);
+    lastStart = System.nanoTime() - period;
+  }
+
+  /**
+   * Sets the most frames a second.
+   *
+   * @param framesPerSecond
+   * @throws IllegalArgumentException if framesPerSecond is not between 1 and
+   *           MAX_FRAME_RATE
+   */
+  synchronized void setFrameRate(int framesPerSecond) {
+    if (framesPerSecond < 1 || framesPerSecond > MAX_FRAME_RATE) {
+      throw new IllegalArgumentException("frame rate must be between 1 and " + MAX_FRAME_RATE);
+    }
+    frameRate = framesPerSecond;
+    period = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+  }
+
+  /**
+   * Returns the most frames a second.
+   *
+   * @return frame rate
+   */
+  synchronized int getFrameRate() {
+    return frameRate;
+  }
+
+  /**
+   * Returns the time between frame starts the scheduler keeps to now: the
+   * frame period, or twice the average frame cost if that is longer.
+   *
+   * @return period in nanoseconds
+   */
+  synchronized long getEffectivePeriod() {
+    return Math.max(period, averageCost * 2);
+  }
+
+  /**
+   * Returns the number of frames run.
+   *
+   * @return frame count
+   */
+  synchronized long getFrameCount() {
+    return frames;
+  }
+
+  /**
+   * Asks for a frame. It runs as soon as the effective period has passed
+   * since the last frame started, unless one is already waiting.
+   */
+  synchronized void request() {
+    if (pending) {
+      return;
+    }
+    pending = true;
+    long wait = lastStart + getEffectivePeriod() - System.nanoTime();
+    // round up so a frame never starts early
+    timer.setInitialDelay((int) Math.max(0, (wait + 999999) / 1000000));
+    timer.restart();
+  }
+
+  /**
+   * Cancels a requested frame.
+   */
+  synchronized void stop() {
+    pending = false;
+    timer.stop();
+  }
+
+  private void runFrame() {
+    long start = System.nanoTime();
+    synchronized (this) {
+      if (!pending) {
+        return;
+      }
+      pending = false;
+      lastStart = start;
+      frames++;
+    }
+    try {
+      frame.run();
+    } finally {
+      long cost = System.nanoTime() - start;
+      synchronized (this) {
+        // moving average over about eight frames
+        averageCost += (cost - averageCost) / 8;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+package canvas;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the drawing calls made on a model to a stream in the format read by
+ * InputRecording, stamping each with System.nanoTime(). Calls are buffered
+ * until flush or close. A RecordingCanvasModel records its own calls.
+ * 
+ * The recorder is thread safe.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class InputRecorder implements Closeable {
+  private final DataOutputStream out;
+  private long lastTime;
+  private boolean first = true;
+
+  /**
+   * Writes the header of a recording of a length by height canvas.
+   * 
+   * @param out the stream to record to, closed by close
+   * @param length
+   * @param height
+   * @throws NullPointerException if out is null
+   * @throws IOException if the header cannot be written
+   */
+  public InputRecorder(OutputStream out, int length, int height) throws IOException {
+    if (out == null) {
+      throw new NullPointerException("stream cannot be null");
+    }
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.out.writeInt(InputRecording.MAGIC);
+    this.out.writeInt(InputRecording.VERSION);
+    this.out.writeInt(length);
+    this.out.writeInt(height);
+  }
+
+  /**
+   * Records a setStartPositions call.
+   * 
+   * @param x
+   * @param y
+   * @throws IOException if the call cannot be written
+   */
+  public synchronized void recordStart(int x, int y) throws IOException {
+    writeCall(InputRecording.START);
+    writePosition(x, y);
+  }
+
+  /**
+   * Records a setEndPositions call.
+   * 
+   * @param x
+   * @param y
+   * @throws IOException if the call cannot be written
+   */
+  public synchronized void recordEnd(int x, int y) throws IOException {
+    writeCall(InputRecording.END);
+    writePosition(x, y);
+  }
+
+  /**
+   * Records an endStroke call.
+   * 
+   * @throws IOException if the call cannot be written
+   */
+  public synchronized void recordEndStroke() throws IOException {
+    writeCall(InputRecording.STROKE_END);
+  }
+
+  /**
+   * Records a clearCanvas call.
+   * 
+   * @throws IOException if the call cannot be written
+   */
+  public synchronized void recordClear() throws IOException {
+    writeCall(InputRecording.CLEAR);
+  }
+
+  /**
+   * Records an undo call.
+   * 
+   * @throws IOException if the call cannot be written
+   */
+  public synchronized void recordUndo() throws IOException {
+    writeCall(InputRecording.UNDO);
+  }
+
+  /**
+   * Records a redo call.
+   * 
+   * @throws IOException if the call cannot be written
+   */
+  public synchronized void recordRedo() throws IOException {
+    writeCall(InputRecording.REDO);
+  }
+
+  /**
+   * Writes the buffered calls to the stream.
+   * 
+   * @throws IOException if they cannot be written
+   */
+  public synchronized void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  private void writeCall(byte type) throws IOException {
+    long now = System.nanoTime();
+    long elapsed = first ? 0 : Math.max(0, now - lastTime);
+    first = false;
+    lastTime = now;
+    out.writeByte(type);
+    Varint.writeUnsigned(out, elapsed);
+  }
+
+  private void writePosition(int x, int y) throws IOException {
+    Varint.writeUnsigned(out, Varint.zigzag(x) & 0xFFFFFFFFL);
+    Varint.writeUnsigned(out, Varint.zigzag(y) & 0xFFFFFFFFL);
+  }
+
+}
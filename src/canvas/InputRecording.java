@@ -0,0 +1,176 @@
+package canvas;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A drawing session recorded by an InputRecorder: every setStartPositions,
+ * setEndPositions, endStroke, clearCanvas, undo and redo call made on a model,
+ * in order, with the time it was made. A ReplayDriver plays it back into a
+ * model.
+ * 
+ * The file starts with a header of four ints: MAGIC, VERSION and the length and
+ * height of the canvas. Version 1 files, from before undo and redo were
+ * recorded, are read too. Each call follows as a type byte, the nanoseconds
+ * since the previous call as a varint, and for START and END the x and y
+ * position as zigzag varints. Mouse positions are small numbers, so most calls
+ * take five to seven bytes.
+ * 
+ * A recording is read into memory as a whole.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class InputRecording {
+  static final int MAGIC = 0x43524543;
+  static final int VERSION = 2;
+  static final byte START = 0;
+  static final byte END = 1;
+  static final byte CLEAR = 2;
+  static final byte STROKE_END = 3;
+  static final byte UNDO = 4;
+  static final byte REDO = 5;
+
+  private final int canvasLength;
+  private final int canvasHeight;
+  private byte[] types = new byte[1024];
+  private long[] times = new long[1024];
+  private int[] xs = new int[1024];
+  private int[] ys = new int[1024];
+  private int size;
+
+  private InputRecording(int canvasLength, int canvasHeight) {
+    this.canvasLength = canvasLength;
+    this.canvasHeight = canvasHeight;
+  }
+
+  /**
+   * Reads a recording from a file.
+   * 
+   * @param file
+   * @return the recording
+   * @throws IOException if the file cannot be read or is not a recording
+   */
+  public static InputRecording read(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return read(in);
+    }
+  }
+
+  /**
+   * Reads a recording from a stream up to its end. The stream is not closed.
+   * 
+   * @param in
+   * @return the recording
+   * @throws IOException if the stream cannot be read or is not a recording
+   */
+  public static InputRecording read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not an input recording");
+    }
+    int version = data.readInt();
+    if (version < 1 || version > VERSION) {
+      throw new IOException("unsupported recording version");
+    }
+    InputRecording recording = new InputRecording(data.readInt(), data.readInt());
+    long time = 0;
+    int type;
+    while ((type = data.read()) >= 0) {
+      try {
+        time += Varint.readUnsigned(data);
+        if (type == START || type == END) {
+          int x = Varint.unzigzag((int) Varint.readUnsigned(data));
+          int y = Varint.unzigzag((int) Varint.readUnsigned(data));
+          recording.add((byte) type, time, x, y);
+        } else if (type == CLEAR || type == STROKE_END || type == UNDO || type == REDO) {
+          recording.add((byte) type, time, 0, 0);
+        } else {
+          throw new IOException("bad call type " + type);
+        }
+      } catch (EOFException e) {
+        // the recorder stopped part way through a call
+        break;
+      }
+    }
+    return recording;
+  }
+
+  private void add(byte type, long time, int x, int y) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      times = Arrays.copyOf(times, capacity);
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+    }
+    types[size] = type;
+    times[size] = time;
+    xs[size] = x;
+    ys[size] = y;
+    size++;
+  }
+
+  /**
+   * returns the length of the canvas that was recorded.
+   * 
+   * @return canvasLength
+   */
+  public int getCanvasLength() {
+    return canvasLength;
+  }
+
+  /**
+   * returns the height of the canvas that was recorded.
+   * 
+   * @return canvasHeight
+   */
+  public int getCanvasHeight() {
+    return canvasHeight;
+  }
+
+  /**
+   * Returns the number of calls recorded.
+   * 
+   * @return size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the time the recording lasts, from its first call to its last.
+   * 
+   * @return duration in nanoseconds
+   */
+  public long getDurationNanos() {
+    return size == 0 ? 0 : times[size - 1] - times[0];
+  }
+
+  byte getType(int i) {
+    return types[i];
+  }
+
+  /**
+   * Returns when a call was made, in nanoseconds from the start of the
+   * recording.
+   */
+  long getTime(int i) {
+    return times[i];
+  }
+
+  int getX(int i) {
+    return xs[i];
+  }
+
+  int getY(int i) {
+    return ys[i];
+  }
+
+}
@@ -0,0 +1,313 @@
+package canvas;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The state of a canvas kept by a CanvasModel so that listeners registered
+ * after drawing started can be brought up to date. The model fires every
+ * event at the state before its listeners. Its SnapshotLog applies undo and
+ * clear as they come, by lowering its count, so it holds only the segments
+ * on the canvas and never the history of the session.
+ *
+ * The canvas can still hold any number of segments, so the state also keeps
+ * a compaction: the oldest segments drawn as pixels on a bit raster the size
+ * of the canvas, plus the position in the log where they end. Once
+ * COMPACT_EVERY segments have been drawn past the last compaction scheduled,
+ * the firing thread takes a snapshot of the log for a new one, and a
+ * background thread makes them in order by drawing only the segments added
+ * since the previous one. Drawing never waits for it. Undo or clear reaching
+ * below a compaction makes it invalid, and the next one starts from an empty
+ * raster.
+ *
+ * A listener catching up is given the compaction as one horizontal segment
+ * per run of pixels in a row, then the segments of the log after it. What
+ * that costs depends on the size of the canvas and COMPACT_EVERY, not on how
+ * long the session is. Segments after the compaction are passed on as drawn,
+ * so undo counts fired later mean the same to the listener as to the others
+ * as long as they stay among them; the CatchUpListener clears the listener
+ * and gives it the log in full when one reaches further.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class LateJoinState implements CanvasListener {
+  static final int COMPACT_EVERY = 1 << 15;
+  private static final int BATCH = SnapshotLog.CHUNK_SIZE;
+  private static final ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "canvas-late-join-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * The first prefix segments of the log at one version, as runs of pixels.
+   * runs is written by the compactor before the compaction is published.
+   */
+  private static class Compaction {
+    final int prefix;
+    CanvasSnapshot base;
+    int[] runs;
+    int runCount;
+    // cleared by the firing thread when undo or clear goes below prefix
+    volatile boolean valid = true;
+    volatile boolean done;
+
+    Compaction(CanvasSnapshot base) {
+      this.base = base;
+      this.prefix = base.size();
+    }
+  }
+
+  private final SnapshotLog log = new SnapshotLog();
+  private final int width;
+  private final int height;
+  private volatile Compaction compacted;
+
+  // used by the firing thread only
+  private final ArrayDeque<Compaction> scheduled = new ArrayDeque<Compaction>();
+  private int scheduledPrefix;
+
+  // used by the compactor only
+  private final long[] pixels;
+  private Compaction drawn;
+
+  /**
+   * Creates the state of a canvas of the given size.
+   *
+   * @param width
+   * @param height
+   */
+  LateJoinState(int width, int height) {
+    this.width = width + 1;
+    this.height = height + 1;
+    pixels = new long[(this.width * this.height + 63) >> 6];
+  }
+
+  /**
+   * Returns the log the model fires its events at.
+   *
+   * @return log
+   */
+  SnapshotLog getLog() {
+    return log;
+  }
+
+  @Override
+  public void canvasReady() {
+  }
+
+  @Override
+  public void lineDrawn(int startX, int startY, int endX, int endY) {
+    log.lineDrawn(startX, startY, endX, endY);
+    compactIfDue();
+  }
+
+  @Override
+  public void linesDrawn(int[] coords, int count) {
+    log.linesDrawn(coords, count);
+    compactIfDue();
+  }
+
+  @Override
+  public void linesUndone(int count) {
+    // invalidated before the log publishes, so a reader that sees the undo
+    // in a snapshot also sees the compaction gone
+    cut(log.size() - Math.min(count, log.size()));
+    log.linesUndone(count);
+  }
+
+  @Override
+  public void clearCanvas() {
+    cut(0);
+    log.clearCanvas();
+  }
+
+  /**
+   * Returns how many of the oldest segments a listener catching up now would
+   * be given as runs of pixels.
+   *
+   * @return 0 if there is no valid compaction
+   */
+  int compactedSegments() {
+    Compaction current = compacted;
+    return current != null && current.valid ? current.prefix : 0;
+  }
+
+  /**
+   * Fires the canvas at the listener being brought up to date by a
+   * CatchUpListener, and tells the wrapper what it was given.
+   *
+   * @param wrapper
+   * @return true if the listener was given every segment as drawn, false if
+   *         some were given as runs of pixels
+   */
+  boolean catchUp(CatchUpListener wrapper) {
+    CanvasListener listener = wrapper.getDelegate();
+    // read before the snapshot, so the compaction is not newer than it
+    Compaction current = compacted;
+    CanvasSnapshot snapshot = log.snapshot();
+    int first = 0;
+    if (current != null && current.valid) {
+      for (int i = 0; i < current.runCount; i += BATCH) {
+        int count = Math.min(BATCH, current.runCount - i);
+        listener.linesDrawn(Arrays.copyOfRange(current.runs, i * 4, (i + count) * 4), count);
+      }
+      first = current.prefix;
+    }
+    fire(snapshot, first, listener);
+    wrapper.caughtUp(snapshot.getVersion(), first, snapshot.size());
+    return first == 0;
+  }
+
+  /**
+   * Fires every segment on the canvas now at a listener, as drawn.
+   *
+   * @param listener
+   * @return the snapshot the listener was given
+   */
+  CanvasSnapshot replay(CanvasListener listener) {
+    CanvasSnapshot snapshot = log.snapshot();
+    fire(snapshot, 0, listener);
+    return snapshot;
+  }
+
+  private static void fire(CanvasSnapshot snapshot, int from, CanvasListener listener) {
+    int[] batch = new int[BATCH * 4];
+    int[] filled = new int[1];
+    for (int first = from; first < snapshot.size(); first += BATCH) {
+      int count = Math.min(BATCH, snapshot.size() - first);
+      filled[0] = 0;
+      snapshot.forEach(first, count, (startX, startY, endX, endY) -> {
+        int i = filled[0]++ * 4;
+        batch[i] = startX;
+        batch[i + 1] = startY;
+        batch[i + 2] = endX;
+        batch[i + 3] = endY;
+      });
+      listener.linesDrawn(batch, count);
+    }
+  }
+
+  private void cut(int size) {
+    if (size >= scheduledPrefix) {
+      return;
+    }
+    scheduledPrefix = 0;
+    for (Compaction next : scheduled) {
+      if (size < next.prefix) {
+        next.valid = false;
+      } else if (next.valid) {
+        scheduledPrefix = Math.max(scheduledPrefix, next.prefix);
+      }
+    }
+    Compaction current = compacted;
+    if (current != null && size < current.prefix) {
+      current.valid = false;
+    }
+    scheduledPrefix = Math.max(scheduledPrefix, compactedSegments());
+  }
+
+  private void compactIfDue() {
+    if (log.size() - scheduledPrefix < COMPACT_EVERY) {
+      return;
+    }
+    while (!scheduled.isEmpty() && scheduled.peekFirst().done) {
+      scheduled.pollFirst();
+    }
+    Compaction next = new Compaction(log.snapshot());
+    scheduled.addLast(next);
+    scheduledPrefix = next.prefix;
+    compactor.execute(() -> compact(next));
+  }
+
+  /**
+   * Draws the compaction's segments on the pixels, starting from those of
+   * the previous compaction if it is still valid, and publishes it.
+   */
+  private void compact(Compaction next) {
+    int from = 0;
+    if (drawn != null && drawn.valid && drawn.prefix <= next.prefix) {
+      from = drawn.prefix;
+    } else {
+      Arrays.fill(pixels, 0);
+    }
+    next.base.forEach(from, next.prefix - from, this::draw);
+    drawn = next;
+    next.base = null;
+    collectRuns(next);
+    if (next.valid) {
+      compacted = next;
+    }
+    next.done = true;
+  }
+
+  private void collectRuns(Compaction next) {
+    int[] runs = new int[256];
+    int count = 0;
+    for (int y = 0; y < height; y++) {
+      int x = 0;
+      while (x < width) {
+        if (!isSet(x, y)) {
+          x++;
+          continue;
+        }
+        int start = x;
+        while (x + 1 < width && isSet(x + 1, y)) {
+          x++;
+        }
+        if (count * 4 == runs.length) {
+          runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        runs[count * 4] = start;
+        runs[count * 4 + 1] = y;
+        runs[count * 4 + 2] = x;
+        runs[count * 4 + 3] = y;
+        count++;
+        x++;
+      }
+    }
+    next.runs = runs;
+    next.runCount = count;
+  }
+
+  /**
+   * Sets the pixels of a segment with Bresenham's algorithm, as
+   * TiledRaster does in LineMode.BRESENHAM.
+   */
+  private void draw(int startX, int startY, int endX, int endY) {
+    int dx = Math.abs(endX - startX);
+    int dy = -Math.abs(endY - startY);
+    int stepX = startX < endX ? 1 : -1;
+    int stepY = startY < endY ? 1 : -1;
+    int error = dx + dy;
+    int x = startX;
+    int y = startY;
+    while (true) {
+      if (x >= 0 && x < width && y >= 0 && y < height) {
+        int bit = y * width + x;
+        pixels[bit >> 6] |= 1L << bit;
+      }
+      if (x == endX && y == endY) {
+        return;
+      }
+      int doubled = error * 2;
+      if (doubled >= dy) {
+        error += dy;
+        x += stepX;
+      }
+      if (doubled <= dx) {
+        error += dx;
+        y += stepY;
+      }
+    }
+  }
+
+  private boolean isSet(int x, int y) {
+    int bit = y * width + x;
+    return (pixels[bit >> 6] & 1L << bit) != 0;
+  }
+
+}
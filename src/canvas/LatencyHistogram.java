@@ -0,0 +1,100 @@
+package canvas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in
+ * nanoseconds, with one bucket per power of two. Recording a value is a few
+ * atomic additions, and percentiles are reported as the upper bound of the
+ * bucket they fall in, so within a factor of two.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+class LatencyHistogram {
+  private final AtomicLongArray buckets = new AtomicLongArray(64);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Adds a value. Negative values count as zero.
+   * 
+   * @param value
+   */
+  void record(long value) {
+    long v = Math.max(0, value);
+    buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+    count.incrementAndGet();
+    sum.addAndGet(v);
+    long seen = max.get();
+    while (v > seen && !max.compareAndSet(seen, v)) {
+      seen = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of values recorded.
+   * 
+   * @return count
+   */
+  long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the largest value recorded.
+   * 
+   * @return max
+   */
+  long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   * 
+   * @return mean, or 0 if nothing was recorded
+   */
+  double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given fraction of the
+   * values, or 0 if nothing was recorded.
+   * 
+   * @param fraction between 0 and 1, for example 0.99
+   * @return the percentile value
+   */
+  long getPercentile(double fraction) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(fraction * n);
+    long seen = 0;
+    for (int i = 0; i < 64; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return i == 0 ? 0 : Math.min(max.get(), (1L << i) - 1);
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets every value recorded.
+   */
+  void reset() {
+    for (int i = 0; i < 64; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+}
@@ -0,0 +1,30 @@
+package canvas;
+
+/**
+ * How a TiledRaster draws the one pixel wide black lines of a drawing.
+ * BRESENHAM and WU write straight into the int pixels of the tiles, with no
+ * Graphics2D call and nothing allocated per segment once the tiles exist.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public enum LineMode {
+
+  /**
+   * Graphics2D.drawLine with antialiasing on, the default.
+   */
+  JAVA2D,
+
+  /**
+   * an integer Bresenham line, one fully black pixel per step, without
+   * antialiasing.
+   */
+  BRESENHAM,
+
+  /**
+   * a Wu antialiased line, split between the two pixels nearest the line at
+   * each step in proportion to their distance from it.
+   */
+  WU
+
+}
@@ -0,0 +1,32 @@
+package canvas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one call from a CanvasModel to a listener.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+@Name("canvas.ListenerCall")
+@Label("Canvas Listener Call")
+@Category("Canvas")
+@Description("A CanvasModel event delivered to one listener")
+class ListenerCallEvent extends jdk.jfr.Event {
+  @Label("Listener")
+  String listener;
+
+  @Label("Event")
+  String event;
+
+  @Label("Segments")
+  int segments;
+
+  @Label("Time Taken")
+  @Timespan(Timespan.NANOSECONDS)
+  long time;
+}
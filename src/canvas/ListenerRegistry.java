@@ -0,0 +1,137 @@
+package canvas;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The listeners of a CanvasModel, kept as an array that is copied on every
+ * registration and deregistration. Firing an event reads the current array
+ * without locking, so listeners can be added or removed from any thread, even
+ * while an event is being fired; that event still reaches the listeners of the
+ * array it started with. Duplicates are found by identity through a map from
+ * each listener to its entry in the array, which is the listener itself or
+ * the asynchronous queue wrapping it.
+ * 
+ * Listeners registered as internal, those the model's own machinery needs,
+ * are fired at like any other but are not counted by size.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+class ListenerRegistry {
+  private static final CanvasListener[] EMPTY = new CanvasListener[0];
+
+  private final IdentityHashMap<CanvasListener, CanvasListener> entries =
+      new IdentityHashMap<CanvasListener, CanvasListener>();
+  private final IdentityHashMap<CanvasListener, Boolean> internal =
+      new IdentityHashMap<CanvasListener, Boolean>();
+  private volatile CanvasListener[] snapshot = EMPTY;
+  private volatile int size;
+
+  /**
+   * Returns the registered entries at this moment. The array must not be
+   * changed.
+   * 
+   * @return the current entries
+   */
+  CanvasListener[] snapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Returns the number of registered listeners, not counting internal ones.
+   * 
+   * @return number of listeners
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the listener is registered.
+   * 
+   * @param listener
+   * @return true if registered
+   */
+  synchronized boolean contains(CanvasListener listener) {
+    return entries.containsKey(listener);
+  }
+
+  /**
+   * Registers a listener and the entry that events are fired at.
+   * 
+   * @param listener
+   * @param entry the listener itself or a wrapper around it
+   * @param internal true if the listener is not to be counted by size
+   * @return false if the listener was already registered
+   */
+  synchronized boolean add(CanvasListener listener, CanvasListener entry, boolean internal) {
+    if (entries.containsKey(listener)) {
+      return false;
+    }
+    entries.put(listener, entry);
+    if (internal) {
+      this.internal.put(listener, Boolean.TRUE);
+    } else {
+      size++;
+    }
+    CanvasListener[] current = snapshot;
+    CanvasListener[] next = new CanvasListener[current.length + 1];
+    System.arraycopy(current, 0, next, 0, current.length);
+    next[current.length] = entry;
+    snapshot = next;
+    return true;
+  }
+
+  /**
+   * Deregisters a listener.
+   * 
+   * @param listener
+   * @return the entry that was registered for it, or null if it was not
+   *         registered
+   */
+  synchronized CanvasListener remove(CanvasListener listener) {
+    CanvasListener entry = entries.remove(listener);
+    if (entry == null) {
+      return null;
+    }
+    if (internal.remove(listener) == null) {
+      size--;
+    }
+    CanvasListener[] current = snapshot;
+    CanvasListener[] next = new CanvasListener[current.length - 1];
+    int j = 0;
+    for (CanvasListener registered : current) {
+      if (registered != entry) {
+        next[j++] = registered;
+      }
+    }
+    snapshot = next;
+    return entry;
+  }
+
+  /**
+   * Puts a new entry in place of the one registered for a listener, keeping
+   * its place in the firing order.
+   * 
+   * @param listener
+   * @param expected the entry registered now
+   * @param replacement the new entry
+   * @return false if expected is not the entry of the listener any more
+   */
+  synchronized boolean replace(CanvasListener listener, CanvasListener expected,
+      CanvasListener replacement) {
+    if (entries.get(listener) != expected) {
+      return false;
+    }
+    entries.put(listener, replacement);
+    CanvasListener[] next = snapshot.clone();
+    for (int i = 0; i < next.length; i++) {
+      if (next[i] == expected) {
+        next[i] = replacement;
+      }
+    }
+    snapshot = next;
+    return true;
+  }
+
+}
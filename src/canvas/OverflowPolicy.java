@@ -0,0 +1,35 @@
+package canvas;
+
+/**
+ * What an asynchronous listener queue does when a lineDrawn event arrives and
+ * the queue is already full. canvasReady and clearCanvas events are never
+ * dropped or merged; when the queue is full they always wait for room.
+ * COALESCE and DROP_OLDEST change the number of segments a listener sees, so
+ * linesUndone counts only match it under BLOCK, and a CanvasModel refuses to
+ * enable undo with either of them.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public enum OverflowPolicy {
+
+  /**
+   * the drawing thread waits until the listener has made room in its queue.
+   */
+  BLOCK,
+
+  /**
+   * the new segment is merged into the newest queued segment when it carries
+   * on from it along the same line in the same direction, so the listener
+   * sees one longer segment covering the same pixels. Waits if they cannot be
+   * merged, as when the stroke turns.
+   */
+  COALESCE,
+
+  /**
+   * the oldest queued segment is thrown away to make room for the new one.
+   * Waits if the oldest queued event is not a segment.
+   */
+  DROP_OLDEST
+
+}
@@ -0,0 +1,26 @@
+package canvas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one paint of a CanvasView.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+@Name("canvas.Paint")
+@Label("Canvas Paint")
+@Category("Canvas")
+@Description("A CanvasView painting part of its canvas")
+class PaintEvent extends jdk.jfr.Event {
+  @Label("Pixels")
+  long pixels;
+
+  @Label("Time Taken")
+  @Timespan(Timespan.NANOSECONDS)
+  long time;
+}
@@ -0,0 +1,246 @@
+package canvas;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Draws segments on a TiledRaster and keeps what is needed to take the newest
+ * of them back off again without redrawing the whole drawing.
+ * 
+ * Every segment drawn is logged, and after every interval segments a
+ * checkpoint saves the tiles drawn on since the one before. Tiles are saved
+ * run-length encoded, which shrinks a mostly white tile of line drawing to a
+ * few kilobytes, and only tiles that changed are saved, so a checkpoint costs
+ * memory in proportion to the area drawn on since the last one.
+ * 
+ * Undoing segments restores the tiles drawn on since the newest checkpoint
+ * before the undone segments to how that checkpoint saved them, then redraws
+ * the segments logged between the checkpoint and the undone ones. An undo
+ * therefore costs at most interval segments redrawn plus the tiles under them
+ * and the undone segments, however long the drawing is.
+ * 
+ * The history is not thread safe.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+class RasterHistory {
+  static final int DEFAULT_INTERVAL = 4096;
+  private static final int TILE_PIXELS = TiledRaster.TILE_SIZE * TiledRaster.TILE_SIZE;
+
+  /**
+   * The saved versions of one tile, oldest first, each with the number of the
+   * checkpoint that saved it.
+   */
+  private static class TileVersions {
+    int[] checkpoints = new int[4];
+    int[][] runs = new int[4][];
+    int count;
+
+    void add(int checkpoint, int[] encoded) {
+      if (count == checkpoints.length) {
+        checkpoints = Arrays.copyOf(checkpoints, count * 2);
+        runs = Arrays.copyOf(runs, count * 2);
+      }
+      checkpoints[count] = checkpoint;
+      runs[count] = encoded;
+      count++;
+    }
+  }
+
+  private final TiledRaster raster;
+  private final int interval;
+  private final SegmentStore segments = new SegmentStore();
+  private final Map<Long, TileVersions> versions = new HashMap<Long, TileVersions>();
+  private int[] checkpointAt = new int[16];
+  private int checkpoints = 1;
+  private boolean checkpointsHeld;
+  private long savedInts;
+  private final int[] scratch = new int[TILE_PIXELS * 2];
+
+  /**
+   * Keeps the history of a raster with a checkpoint every DEFAULT_INTERVAL
+   * segments.
+   * 
+   * @param raster
+   */
+  public RasterHistory(TiledRaster raster) {
+    this(raster, DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Keeps the history of a raster with a checkpoint every interval segments.
+   * The raster must be empty.
+   * 
+   * @param raster
+   * @param interval segments drawn between checkpoints
+   * @throws NullPointerException if the raster is null
+   * @throws IllegalArgumentException if interval is less than 1
+   */
+  public RasterHistory(TiledRaster raster, int interval) {
+    if (raster == null) {
+      throw new NullPointerException("raster cannot be null");
+    }
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval must be at least 1");
+    }
+    this.raster = raster;
+    this.interval = interval;
+    raster.takeChangedTiles();
+  }
+
+  /**
+   * Draws a segment on the raster and logs it.
+   * 
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  public void drawLine(int startX, int startY, int endX, int endY) {
+    raster.drawLine(startX, startY, endX, endY);
+    segments.add(startX, startY, endX, endY);
+    if (!checkpointsHeld && segments.size() - checkpointAt[checkpoints - 1] >= interval) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * Takes the newest count segments off the raster.
+   * 
+   * @param count number of segments, at most size()
+   */
+  public void undo(int count) {
+    int size = segments.size();
+    int target = size - Math.min(count, size);
+    int checkpoint = checkpoints - 1;
+    while (checkpointAt[checkpoint] > target) {
+      checkpoint--;
+    }
+    int from = checkpointAt[checkpoint];
+    Set<Long> restore = new HashSet<Long>();
+    segments.forEach(from, size - from,
+        (startX, startY, endX, endY) -> raster.addTilesUnder(startX, startY, endX, endY,
+            restore));
+    int[] pixels = new int[TILE_PIXELS];
+    for (Long key : restore) {
+      TileVersions tile = versions.get(key);
+      int version = -1;
+      if (tile != null) {
+        while (tile.count > 0 && tile.checkpoints[tile.count - 1] > checkpoint) {
+          tile.count--;
+          savedInts -= tile.runs[tile.count].length;
+          tile.runs[tile.count] = null;
+        }
+        version = tile.count - 1;
+        if (tile.count == 0) {
+          versions.remove(key);
+        }
+      }
+      if (version < 0) {
+        raster.setTilePixels(key, null);
+      } else {
+        decode(tile.runs[version], pixels);
+        raster.setTilePixels(key, pixels);
+      }
+    }
+    checkpoints = checkpoint + 1;
+    segments.removeLast(size - target);
+    raster.takeChangedTiles();
+    segments.forEach(from, target - from, raster::drawLine);
+  }
+
+  /**
+   * Holds back checkpoints while held is true, so none saves pixels that are
+   * about to be replaced. The first segment drawn after they are let go takes
+   * the checkpoint that is due, and an undo meanwhile redraws from the last
+   * checkpoint taken.
+   * 
+   * @param held
+   */
+  void setCheckpointsHeld(boolean held) {
+    checkpointsHeld = held;
+  }
+
+  /**
+   * Clears the raster and forgets the history.
+   */
+  public void clear() {
+    raster.clear();
+    segments.clear();
+    versions.clear();
+    checkpoints = 1;
+    savedInts = 0;
+  }
+
+  /**
+   * Returns the number of segments drawn.
+   * 
+   * @return size
+   */
+  public int size() {
+    return segments.size();
+  }
+
+  /**
+   * Returns the number of checkpoints kept, not counting the empty raster.
+   * 
+   * @return checkpoints
+   */
+  int getCheckpointCount() {
+    return checkpoints - 1;
+  }
+
+  /**
+   * Returns the memory used by saved tiles.
+   * 
+   * @return bytes
+   */
+  long getSavedBytes() {
+    return savedInts * 4;
+  }
+
+  private void checkpoint() {
+    if (checkpoints == checkpointAt.length) {
+      checkpointAt = Arrays.copyOf(checkpointAt, checkpoints * 2);
+    }
+    int checkpoint = checkpoints;
+    for (long key : raster.takeChangedTiles()) {
+      int[] encoded = encode(raster.getTilePixels(key));
+      versions.computeIfAbsent(key, k -> new TileVersions()).add(checkpoint, encoded);
+      savedInts += encoded.length;
+    }
+    checkpointAt[checkpoints++] = segments.size();
+  }
+
+  /**
+   * Run-length encodes pixels as pairs of a run length and a pixel value.
+   */
+  private int[] encode(int[] pixels) {
+    int length = 0;
+    int i = 0;
+    while (i < pixels.length) {
+      int value = pixels[i];
+      int run = 1;
+      while (i + run < pixels.length && pixels[i + run] == value) {
+        run++;
+      }
+      scratch[length++] = run;
+      scratch[length++] = value;
+      i += run;
+    }
+    return Arrays.copyOf(scratch, length);
+  }
+
+  private static void decode(int[] runs, int[] pixels) {
+    int position = 0;
+    for (int i = 0; i < runs.length; i += 2) {
+      Arrays.fill(pixels, position, position + runs[i], runs[i + 1]);
+      position += runs[i];
+    }
+  }
+
+}
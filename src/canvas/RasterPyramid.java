@@ -0,0 +1,260 @@
+package canvas;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Smaller copies of a TiledRaster for painting it zoomed out. Level 1 is half
+ * the size of the raster, level 2 a quarter and so on up to getTopLevel, the
+ * first level that fits in a single tile. Each pixel of a level is the
+ * average of the four pixels under it on the level below.
+ *
+ * Levels are split into tiles like the raster, and a tile is only allocated
+ * once something other than white is drawn under it. The raster tells the
+ * pyramid which pixels it changed, and refresh averages again only the
+ * level pixels above them, so painting a zoomed out view costs the same
+ * however much is drawn.
+ *
+ * The pyramid is not thread safe and is used with its raster.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class RasterPyramid {
+  private static final int TILE_SIZE = TiledRaster.TILE_SIZE;
+  private static final int WHITE = 0xFFFFFF;
+
+  private final TiledRaster raster;
+  private final int topLevel;
+  private final List<Map<Long, BufferedImage>> levels = new ArrayList<Map<Long, BufferedImage>>();
+  private final Map<Long, int[]> dirty = new HashMap<Long, int[]>();
+
+  /**
+   * Creates an empty pyramid over a raster and attaches it, so the raster
+   * reports what it draws from now on.
+   *
+   * @param raster
+   * @throws NullPointerException if raster is null
+   */
+  public RasterPyramid(TiledRaster raster) {
+    if (raster == null) {
+      throw new NullPointerException("raster cannot be null");
+    }
+    this.raster = raster;
+    int size = Math.max(raster.getWidth(), raster.getHeight());
+    int top = 0;
+    while ((size >> top) >= TILE_SIZE) {
+      top++;
+    }
+    topLevel = top;
+    for (int level = 0; level <= topLevel; level++) {
+      levels.add(new HashMap<Long, BufferedImage>());
+    }
+    raster.setPyramid(this);
+  }
+
+  /**
+   * Returns the smallest level, which fits in a single tile.
+   *
+   * @return top level, 0 if the raster itself fits in a tile
+   */
+  public int getTopLevel() {
+    return topLevel;
+  }
+
+  /**
+   * Marks raster pixels as changed. Called by the raster.
+   *
+   * @param minX
+   * @param minY
+   * @param maxX
+   * @param maxY
+   */
+  void markDirty(int minX, int minY, int maxX, int maxY) {
+    if (topLevel == 0) {
+      return;
+    }
+    minX = Math.max(0, minX);
+    minY = Math.max(0, minY);
+    maxX = Math.min(raster.getWidth(), maxX);
+    maxY = Math.min(raster.getHeight(), maxY);
+    for (int tileY = minY / TILE_SIZE; tileY <= maxY / TILE_SIZE; tileY++) {
+      for (int tileX = minX / TILE_SIZE; tileX <= maxX / TILE_SIZE; tileX++) {
+        int fromX = Math.max(minX, tileX * TILE_SIZE);
+        int fromY = Math.max(minY, tileY * TILE_SIZE);
+        int toX = Math.min(maxX, tileX * TILE_SIZE + TILE_SIZE - 1);
+        int toY = Math.min(maxY, tileY * TILE_SIZE + TILE_SIZE - 1);
+        long key = key(tileX, tileY);
+        int[] area = dirty.get(key);
+        if (area == null) {
+          dirty.put(key, new int[] {fromX, fromY, toX, toY});
+        } else {
+          area[0] = Math.min(area[0], fromX);
+          area[1] = Math.min(area[1], fromY);
+          area[2] = Math.max(area[2], toX);
+          area[3] = Math.max(area[3], toY);
+        }
+      }
+    }
+  }
+
+  /**
+   * Averages again every level pixel above the raster pixels changed since
+   * the last refresh.
+   */
+  public void refresh() {
+    for (int[] area : dirty.values()) {
+      for (int level = 1; level <= topLevel; level++) {
+        downsample(level, area[0] >> level, area[1] >> level, area[2] >> level,
+            area[3] >> level);
+      }
+    }
+    dirty.clear();
+  }
+
+  /**
+   * Throws away every level tile. Called by the raster when it is cleared.
+   */
+  void clear() {
+    for (Map<Long, BufferedImage> tiles : levels) {
+      tiles.clear();
+    }
+    dirty.clear();
+  }
+
+  /**
+   * Returns the number of level tiles allocated, over all levels.
+   *
+   * @return tile count
+   */
+  int getTileCount() {
+    int count = 0;
+    for (Map<Long, BufferedImage> tiles : levels) {
+      count += tiles.size();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the colour of a level pixel as 0xRRGGBB. For testing only.
+   *
+   * @param level from 1 to getTopLevel
+   * @param x in level pixels
+   * @param y in level pixels
+   * @return the pixel colour
+   */
+  int getRGB(int level, int x, int y) {
+    int[] pixels = pixels(level, x / TILE_SIZE, y / TILE_SIZE);
+    if (pixels == null) {
+      return WHITE;
+    }
+    return pixels[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE] & WHITE;
+  }
+
+  /**
+   * Paints the part of a level inside clip, with level 0 being the raster.
+   * Call refresh first for the level to show the latest drawing.
+   *
+   * @param g the graphics to paint on, in level coordinates
+   * @param level from 0 to getTopLevel
+   * @param clip the area to paint, in level coordinates
+   * @throws IllegalArgumentException if there is no such level
+   */
+  public void paint(Graphics g, int level, Rectangle clip) {
+    if (level < 0 || level > topLevel) {
+      throw new IllegalArgumentException("no level " + level);
+    }
+    if (level == 0) {
+      raster.paint(g, clip);
+      return;
+    }
+    int columns = (raster.getWidth() >> level) / TILE_SIZE + 1;
+    int rows = (raster.getHeight() >> level) / TILE_SIZE + 1;
+    int fromX = Math.max(0, clip.x / TILE_SIZE);
+    int fromY = Math.max(0, clip.y / TILE_SIZE);
+    int toX = Math.min(columns - 1, (clip.x + clip.width - 1) / TILE_SIZE);
+    int toY = Math.min(rows - 1, (clip.y + clip.height - 1) / TILE_SIZE);
+    Map<Long, BufferedImage> tiles = levels.get(level);
+    for (int tileY = fromY; tileY <= toY; tileY++) {
+      for (int tileX = fromX; tileX <= toX; tileX++) {
+        BufferedImage image = tiles.get(key(tileX, tileY));
+        if (image == null) {
+          g.setColor(Color.white);
+          g.fillRect(tileX * TILE_SIZE, tileY * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        } else {
+          g.drawImage(image, tileX * TILE_SIZE, tileY * TILE_SIZE, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Averages a rectangle of level pixels, all in one tile, from the level
+   * below. The pixels under it are all in one tile of that level too.
+   */
+  private void downsample(int level, int minX, int minY, int maxX, int maxY) {
+    int tileX = minX / TILE_SIZE;
+    int tileY = minY / TILE_SIZE;
+    int[] below = pixels(level - 1, (minX * 2) / TILE_SIZE, (minY * 2) / TILE_SIZE);
+    long key = key(tileX, tileY);
+    Map<Long, BufferedImage> tiles = levels.get(level);
+    BufferedImage image = tiles.get(key);
+    if (image == null && below == null) {
+      return;
+    }
+    if (image == null) {
+      image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+      int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      Arrays.fill(pixels, WHITE);
+      tiles.put(key, image);
+    }
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    for (int y = minY; y <= maxY; y++) {
+      int row = (y % TILE_SIZE) * TILE_SIZE;
+      int belowRow = ((y * 2) % TILE_SIZE) * TILE_SIZE;
+      for (int x = minX; x <= maxX; x++) {
+        int color = WHITE;
+        if (below != null) {
+          int i = belowRow + (x * 2) % TILE_SIZE;
+          color = average(below[i], below[i + 1], below[i + TILE_SIZE],
+              below[i + TILE_SIZE + 1]);
+        }
+        pixels[row + x % TILE_SIZE] = color;
+      }
+    }
+  }
+
+  /**
+   * Returns the live pixels of a tile of a level, or null if it is white.
+   */
+  private int[] pixels(int level, int tileX, int tileY) {
+    if (level == 0) {
+      return raster.peekTilePixels(tileX, tileY);
+    }
+    BufferedImage image = levels.get(level).get(key(tileX, tileY));
+    return image == null ? null : ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+
+  /**
+   * Averages four pixels channel by channel, red and blue together in the
+   * gaps between them.
+   */
+  private static int average(int a, int b, int c, int d) {
+    int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF);
+    int green = (a & 0xFF00) + (b & 0xFF00) + (c & 0xFF00) + (d & 0xFF00);
+    return (((redBlue + 0x20002) >> 2) & 0xFF00FF) | (((green + 0x200) >> 2) & 0xFF00);
+  }
+
+  private static long key(int tileX, int tileY) {
+    return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+  }
+
+}
@@ -0,0 +1,148 @@
+package canvas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A CanvasModel that records every setStartPositions, setEndPositions,
+ * endStroke, clearCanvas, undo and redo call made on it to an InputRecorder,
+ * including positions out of bounds, before handling the call as any model
+ * does. A call is recorded and handled holding the model's lock, so calls from
+ * several threads are recorded in the order they took effect. The recording can
+ * be played back into another model with a ReplayDriver.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class RecordingCanvasModel extends CanvasModel {
+  private final InputRecorder recorder;
+
+  /**
+   * Constructor initializes the size of the canvas and the recorder the calls
+   * are written to.
+   * 
+   * @param length
+   * @param height
+   * @param recorder
+   * @throws NullPointerException if the recorder is null
+   */
+  public RecordingCanvasModel(int length, int height, InputRecorder recorder) {
+    super(length, height);
+    if (recorder == null) {
+      throw new NullPointerException("recorder cannot be null");
+    }
+    this.recorder = recorder;
+  }
+
+  /**
+   * Records the start position and sets it.
+   * 
+   * @throws UncheckedIOException if the call cannot be recorded
+   */
+  @Override
+  public void setStartPositions(int x, int y) {
+    synchronized (this) {
+      try {
+        recorder.recordStart(x, y);
+      } catch (IOException e) {
+        throw new UncheckedIOException("input recording failed", e);
+      }
+      super.setStartPositions(x, y);
+    }
+  }
+
+  /**
+   * Records the end position and sets it.
+   * 
+   * @throws UncheckedIOException if the call cannot be recorded
+   */
+  @Override
+  public void setEndPositions(int x, int y) {
+    synchronized (this) {
+      try {
+        recorder.recordEnd(x, y);
+      } catch (IOException e) {
+        throw new UncheckedIOException("input recording failed", e);
+      }
+      super.setEndPositions(x, y);
+    }
+  }
+
+  /**
+   * Records the end of the stroke and ends it.
+   * 
+   * @throws UncheckedIOException if the call cannot be recorded
+   */
+  @Override
+  public void endStroke() {
+    synchronized (this) {
+      try {
+        recorder.recordEndStroke();
+      } catch (IOException e) {
+        throw new UncheckedIOException("input recording failed", e);
+      }
+      super.endStroke();
+    }
+  }
+
+  /**
+   * Records the clear and clears the canvas.
+   * 
+   * @throws UncheckedIOException if the call cannot be recorded
+   */
+  @Override
+  public void clearCanvas() {
+    synchronized (this) {
+      try {
+        recorder.recordClear();
+      } catch (IOException e) {
+        throw new UncheckedIOException("input recording failed", e);
+      }
+      super.clearCanvas();
+    }
+  }
+
+  /**
+   * Records the undo and undoes the newest stroke.
+   * 
+   * @throws UncheckedIOException if the call cannot be recorded
+   */
+  @Override
+  public void undo() {
+    synchronized (this) {
+      try {
+        recorder.recordUndo();
+      } catch (IOException e) {
+        throw new UncheckedIOException("input recording failed", e);
+      }
+      super.undo();
+    }
+  }
+
+  /**
+   * Records the redo and redoes the newest undone stroke.
+   * 
+   * @throws UncheckedIOException if the call cannot be recorded
+   */
+  @Override
+  public void redo() {
+    synchronized (this) {
+      try {
+        recorder.recordRedo();
+      } catch (IOException e) {
+        throw new UncheckedIOException("input recording failed", e);
+      }
+      super.redo();
+    }
+  }
+
+  /**
+   * Returns the recorder of this model.
+   * 
+   * @return recorder
+   */
+  public InputRecorder getRecorder() {
+    return recorder;
+  }
+
+}
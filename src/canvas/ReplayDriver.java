@@ -0,0 +1,206 @@
+package canvas;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays InputRecordings back into a CanvasModel. Every replay draws through a
+ * StrokeSession of its own, which begins, extends and ends its strokes where
+ * the recording set the start position, set the end position and ended a
+ * stroke; recorded clears, undos and redos are made on the model. Calls are
+ * paced by their recorded times divided by a speed: REAL_TIME keeps the
+ * recorded timing, 10 plays ten times faster and MAX_SPEED makes the calls as
+ * fast as the model takes them. Paced replays deliver every segment as it is
+ * drawn, and MAX_SPEED ones in the session's default batches.
+ * 
+ * playAll replays several recordings, or several copies of one, at the same
+ * time from a thread each, the way several drawers share a model. As with any
+ * sessions, their strokes never join and only their deliveries take turns on
+ * the model's lock.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class ReplayDriver {
+  public static final double REAL_TIME = 1;
+  public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+  private final CanvasModel model;
+  private final double speed;
+  private final AtomicInteger sessions = new AtomicInteger();
+
+  /**
+   * Constructor takes the model to replay into and the speed of replay.
+   * 
+   * @param model
+   * @param speed how many times faster than recorded to play, or MAX_SPEED
+   * @throws NullPointerException if the model is null
+   * @throws IllegalArgumentException if speed is not positive
+   */
+  public ReplayDriver(CanvasModel model, double speed) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("speed must be positive");
+    }
+    this.model = model;
+    this.speed = speed;
+  }
+
+  /**
+   * Plays a recording on the calling thread, through a session of its own, and
+   * returns when it is done.
+   * 
+   * @param recording
+   * @throws InterruptedException if the thread is interrupted while playing
+   */
+  public void play(InputRecording recording) throws InterruptedException {
+    int id = sessions.getAndIncrement();
+    StrokeSession session = speed == MAX_SPEED ? model.openSession(id)
+        : model.openSession(id, 1);
+    try {
+      play(recording, session);
+    } finally {
+      session.end();
+    }
+  }
+
+  private void play(InputRecording recording, StrokeSession session)
+      throws InterruptedException {
+    long origin = System.nanoTime();
+    long first = recording.size() == 0 ? 0 : recording.getTime(0);
+    for (int i = 0; i < recording.size(); i++) {
+      if (speed != MAX_SPEED) {
+        long due = origin + (long) ((recording.getTime(i) - first) / speed);
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+      } else if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      switch (recording.getType(i)) {
+        case InputRecording.START:
+          session.begin(recording.getX(i), recording.getY(i));
+          break;
+        case InputRecording.END:
+          session.extend(recording.getX(i), recording.getY(i));
+          break;
+        case InputRecording.STROKE_END:
+          session.end();
+          break;
+        case InputRecording.UNDO:
+          session.end();
+          model.undo();
+          break;
+        case InputRecording.REDO:
+          session.end();
+          model.redo();
+          break;
+        default:
+          session.end();
+          model.clearCanvas();
+      }
+    }
+  }
+
+  /**
+   * Plays copies of every recording at once, each on its own thread, and
+   * returns when all of them are done. The threads are started together.
+   * 
+   * @param recordings
+   * @param copies how many times each recording is played concurrently
+   * @return the number of calls made on the model
+   * @throws IllegalArgumentException if copies is less than 1
+   * @throws InterruptedException if interrupted while waiting, which stops the
+   *           replay threads
+   * @throws RuntimeException the first exception thrown by a replay thread
+   */
+  public long playAll(List<InputRecording> recordings, int copies) throws InterruptedException {
+    if (copies < 1) {
+      throw new IllegalArgumentException("copies must be at least 1");
+    }
+    CountDownLatch ready = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    List<Throwable> failures = new ArrayList<Throwable>();
+    long calls = 0;
+    for (InputRecording recording : recordings) {
+      calls += (long) recording.size() * copies;
+      for (int copy = 0; copy < copies; copy++) {
+        Thread thread = new Thread(() -> {
+          try {
+            ready.await();
+            play(recording);
+          } catch (InterruptedException e) {
+            // stopped by playAll
+          } catch (RuntimeException | Error e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+          }
+        }, "canvas-replay-" + threads.size());
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+      }
+    }
+    ready.countDown();
+    try {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } finally {
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+    }
+    synchronized (failures) {
+      if (!failures.isEmpty()) {
+        Throwable failure = failures.get(0);
+        if (failure instanceof Error) {
+          throw (Error) failure;
+        }
+        throw (RuntimeException) failure;
+      }
+    }
+    return calls;
+  }
+
+  /**
+   * Soak test: replays recordings into a model with a CanvasLogger and prints
+   * the rate of calls.
+   * 
+   * Usage: ReplayDriver speed|max copies recording...
+   * 
+   * @param args
+   * @throws Exception if a recording cannot be read or replay fails
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("usage: ReplayDriver speed|max copies recording...");
+      System.exit(2);
+    }
+    double speed = args[0].equals("max") ? MAX_SPEED : Double.parseDouble(args[0]);
+    int copies = Integer.parseInt(args[1]);
+    List<InputRecording> recordings = new ArrayList<InputRecording>();
+    for (int i = 2; i < args.length; i++) {
+      recordings.add(InputRecording.read(Paths.get(args[i])));
+    }
+    CanvasModel model = new CanvasModel(recordings.get(0).getCanvasLength(),
+        recordings.get(0).getCanvasHeight());
+    new CanvasLogger(model, 1 << 20);
+    long start = System.nanoTime();
+    long calls = new ReplayDriver(model, speed).playAll(recordings, copies);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d calls in %.3f s, %.0f calls/s%n", calls, seconds, calls / seconds);
+  }
+
+}
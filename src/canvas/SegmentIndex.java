@@ -0,0 +1,421 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Implements the CanvasListener Interface. Indexes the line segments drawn on
+ * a CanvasModel in a uniform grid, so that the segments crossing a rectangle,
+ * or the segment nearest to a point, can be found by looking at a few grid
+ * cells instead of every segment drawn.
+ *
+ * Each segment is added to the cells it passes through as it is drawn. Cells
+ * hold segment numbers in int arrays and are only created when a segment
+ * first crosses them. Clearing takes constant time: the index moves to a new
+ * generation and cells from older generations count as empty until they are
+ * reused.
+ *
+ * A search remembers the segments it has looked at, since a segment is held
+ * by every cell it crosses, in a small hash set that is emptied slot by slot
+ * when the search ends. Its size follows the number of segments one search
+ * looks at, not the number drawn.
+ *
+ * The index is not thread safe.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class SegmentIndex implements CanvasListener {
+  private static final int MIN_CELL_SIZE = 32;
+  private static final int MAX_CELLS_PER_SIDE = 1024;
+
+  /**
+   * The segment numbers of one grid cell.
+   */
+  private static class Cell {
+    int generation;
+    int[] ids = new int[8];
+    int count;
+  }
+
+  private final SegmentStore segments = new SegmentStore();
+  private final int cellSize;
+  private final int columns;
+  private final int rows;
+  private final Cell[] cells;
+  private int generation;
+  // open addressing set of segment numbers plus one, 0 for an empty slot
+  private int[] visited = new int[64];
+  private int[] visitedSlots = new int[32];
+  private int visitedCount;
+  private int[] touched = new int[16];
+
+  /**
+   * Registers an index with a cell size chosen from the canvas size.
+   *
+   * @param model
+   * @throws NullPointerException if the model is null
+   */
+  public SegmentIndex(CanvasModel model) {
+    this(model, defaultCellSize(model));
+  }
+
+  /**
+   * Registers an index with square cells of cellSize pixels.
+   *
+   * @param model
+   * @param cellSize the side of a grid cell in pixels
+   * @throws NullPointerException if the model is null
+   * @throws IllegalArgumentException if cellSize is less than 1
+   */
+  public SegmentIndex(CanvasModel model, int cellSize) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    if (cellSize < 1) {
+      throw new IllegalArgumentException("cell size must be at least 1");
+    }
+    this.cellSize = cellSize;
+    columns = model.getCanvasLength() / cellSize + 1;
+    rows = model.getCanvasHeight() / cellSize + 1;
+    cells = new Cell[columns * rows];
+    model.registerListener(this);
+  }
+
+  private static int defaultCellSize(CanvasModel model) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    int side = Math.max(model.getCanvasLength(), model.getCanvasHeight());
+    return Math.max(MIN_CELL_SIZE, side / MAX_CELLS_PER_SIDE + 1);
+  }
+
+  /**
+   * Returns the indexed segments. The numbers given by query and nearest are
+   * indexes into this store.
+   *
+   * @return the SegmentStore of this index
+   */
+  public SegmentStore getSegments() {
+    return segments;
+  }
+
+  /**
+   * Finds every segment that crosses or touches a rectangle, visiting each one
+   * once.
+   *
+   * @param x left edge of the rectangle
+   * @param y top edge of the rectangle
+   * @param width
+   * @param height
+   * @param visitor receives the segments found
+   * @return the number of segments found
+   */
+  public int query(int x, int y, int width, int height, SegmentVisitor visitor) {
+    int right = x + width;
+    int bottom = y + height;
+    int fromColumn = clampColumn(x / cellSize);
+    int toColumn = clampColumn(right / cellSize);
+    int fromRow = clampRow(y / cellSize);
+    int toRow = clampRow(bottom / cellSize);
+    int found = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int column = fromColumn; column <= toColumn; column++) {
+        Cell cell = cells[row * columns + column];
+        if (cell == null || cell.generation != generation) {
+          continue;
+        }
+        for (int i = 0; i < cell.count; i++) {
+          int id = cell.ids[i];
+          if (!visit(id)) {
+            continue;
+          }
+          int startX = segments.getStartX(id);
+          int startY = segments.getStartY(id);
+          int endX = segments.getEndX(id);
+          int endY = segments.getEndY(id);
+          if (crosses(startX, startY, endX, endY, x, y, right, bottom)) {
+            visitor.visit(startX, startY, endX, endY);
+            found++;
+          }
+        }
+      }
+    }
+    clearVisited();
+    return found;
+  }
+
+  /**
+   * Finds the segment closest to a point, looking no further than maxDistance
+   * pixels away. Cells are searched in rings around the cell of the point,
+   * clamped to the grid, stopping as soon as the distance from the point to
+   * the nearest unsearched cell is at least that of the closest segment found,
+   * or more than maxDistance. The point may lie off the canvas.
+   *
+   * @param x
+   * @param y
+   * @param maxDistance the furthest a segment may be from the point
+   * @return the index of the closest segment in getSegments(), or -1 if there
+   *         is none within maxDistance
+   */
+  public int nearest(int x, int y, int maxDistance) {
+    int column = clampColumn(x / cellSize);
+    int row = clampRow(y / cellSize);
+    long best = (long) maxDistance * maxDistance;
+    int bestId = -1;
+    for (int ring = 0;; ring++) {
+      for (int r = row - ring; r <= row + ring; r++) {
+        if (r < 0 || r >= rows) {
+          continue;
+        }
+        boolean edgeRow = r == row - ring || r == row + ring;
+        int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+        for (int c = column - ring; c <= column + ring; c += step) {
+          if (c < 0 || c >= columns) {
+            continue;
+          }
+          Cell cell = cells[r * columns + c];
+          if (cell == null || cell.generation != generation) {
+            continue;
+          }
+          for (int i = 0; i < cell.count; i++) {
+            int id = cell.ids[i];
+            if (!visit(id)) {
+              continue;
+            }
+            long distance = distanceSquared(x, y, id);
+            if (distance <= best) {
+              best = distance;
+              bestId = id;
+            }
+          }
+        }
+      }
+      long reach = distanceOutside(x, y, column - ring, row - ring, column + ring, row + ring);
+      // every unsearched cell is at least reach away
+      if (reach > maxDistance || (bestId >= 0 && best <= reach * reach)) {
+        break;
+      }
+    }
+    clearVisited();
+    return bestId;
+  }
+
+  @Override
+  public void canvasReady() {
+  }
+
+  @Override
+  public void lineDrawn(int startX, int startY, int endX, int endY) {
+    int id = segments.size();
+    segments.add(startX, startY, endX, endY);
+    int count = touchedCells(startX, startY, endX, endY);
+    for (int i = 0; i < count; i++) {
+      addToCell(touched[i], id);
+    }
+  }
+
+  /**
+   * removes the undone segments from the index. Their numbers are the last
+   * ones added to each of their cells.
+   */
+  @Override
+  public void linesUndone(int count) {
+    int size = segments.size();
+    for (int id = size - 1; id >= size - Math.min(count, size); id--) {
+      int cellCount = touchedCells(segments.getStartX(id), segments.getStartY(id),
+          segments.getEndX(id), segments.getEndY(id));
+      for (int i = 0; i < cellCount; i++) {
+        Cell cell = cells[touched[i]];
+        if (cell.generation == generation && cell.count > 0 && cell.ids[cell.count - 1] == id) {
+          cell.count--;
+        }
+      }
+      segments.removeLast(1);
+    }
+  }
+
+  /**
+   * clears the index in constant time.
+   */
+  @Override
+  public void clearCanvas() {
+    segments.clear();
+    generation++;
+  }
+
+  private void addToCell(int index, int id) {
+    Cell cell = cells[index];
+    if (cell == null) {
+      cell = new Cell();
+      cell.generation = generation;
+      cells[index] = cell;
+    } else if (cell.generation != generation) {
+      cell.generation = generation;
+      cell.count = 0;
+    }
+    if (cell.count == cell.ids.length) {
+      cell.ids = Arrays.copyOf(cell.ids, cell.count * 2);
+    }
+    cell.ids[cell.count++] = id;
+  }
+
+  /**
+   * Collects the cells a segment passes through into touched, walking the
+   * segment in steps of half a cell.
+   *
+   * @return the number of cells collected
+   */
+  private int touchedCells(int startX, int startY, int endX, int endY) {
+    int count = 0;
+    int half = Math.max(1, cellSize / 2);
+    int steps = Math.max(Math.abs(endX - startX), Math.abs(endY - startY)) / half + 1;
+    int lastX = startX;
+    int lastY = startY;
+    for (int step = 1; step <= steps; step++) {
+      int x = startX + (int) ((long) (endX - startX) * step / steps);
+      int y = startY + (int) ((long) (endY - startY) * step / steps);
+      int fromColumn = clampColumn(Math.min(lastX, x) / cellSize);
+      int toColumn = clampColumn(Math.max(lastX, x) / cellSize);
+      int fromRow = clampRow(Math.min(lastY, y) / cellSize);
+      int toRow = clampRow(Math.max(lastY, y) / cellSize);
+      for (int row = fromRow; row <= toRow; row++) {
+        for (int column = fromColumn; column <= toColumn; column++) {
+          int index = row * columns + column;
+          boolean seen = false;
+          for (int i = count - 1; i >= 0 && !seen; i--) {
+            seen = touched[i] == index;
+          }
+          if (!seen) {
+            if (count == touched.length) {
+              touched = Arrays.copyOf(touched, count * 2);
+            }
+            touched[count++] = index;
+          }
+        }
+      }
+      lastX = x;
+      lastY = y;
+    }
+    return count;
+  }
+
+  /**
+   * Returns how far a point is from the grid cells outside the columns left
+   * to right and rows top to bottom, or Long.MAX_VALUE if there are none.
+   */
+  private long distanceOutside(int x, int y, int left, int top, int right, int bottom) {
+    long reach = Long.MAX_VALUE;
+    if (left > 0) {
+      reach = Math.min(reach, Math.max(0, x - (long) left * cellSize));
+    }
+    if (right < columns - 1) {
+      reach = Math.min(reach, Math.max(0, (long) (right + 1) * cellSize - x));
+    }
+    if (top > 0) {
+      reach = Math.min(reach, Math.max(0, y - (long) top * cellSize));
+    }
+    if (bottom < rows - 1) {
+      reach = Math.min(reach, Math.max(0, (long) (bottom + 1) * cellSize - y));
+    }
+    return reach;
+  }
+
+  /**
+   * Adds a segment to the ones the current search has looked at.
+   *
+   * @return false if it was there already
+   */
+  private boolean visit(int id) {
+    if (visitedCount * 2 >= visited.length) {
+      growVisited();
+    }
+    int mask = visited.length - 1;
+    int hash = id * 0x9E3779B9;
+    int slot = (hash ^ hash >>> 16) & mask;
+    while (visited[slot] != 0) {
+      if (visited[slot] == id + 1) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    visited[slot] = id + 1;
+    if (visitedCount == visitedSlots.length) {
+      visitedSlots = Arrays.copyOf(visitedSlots, visitedCount * 2);
+    }
+    visitedSlots[visitedCount++] = slot;
+    return true;
+  }
+
+  private void growVisited() {
+    int[] ids = new int[visitedCount];
+    for (int i = 0; i < visitedCount; i++) {
+      ids[i] = visited[visitedSlots[i]] - 1;
+    }
+    visited = new int[visited.length * 2];
+    visitedCount = 0;
+    for (int id : ids) {
+      visit(id);
+    }
+  }
+
+  private void clearVisited() {
+    for (int i = 0; i < visitedCount; i++) {
+      visited[visitedSlots[i]] = 0;
+    }
+    visitedCount = 0;
+  }
+
+  private int clampColumn(int column) {
+    return Math.max(0, Math.min(columns - 1, column));
+  }
+
+  private int clampRow(int row) {
+    return Math.max(0, Math.min(rows - 1, row));
+  }
+
+  private long distanceSquared(int x, int y, int id) {
+    long startX = segments.getStartX(id);
+    long startY = segments.getStartY(id);
+    long dx = segments.getEndX(id) - startX;
+    long dy = segments.getEndY(id) - startY;
+    long px = x - startX;
+    long py = y - startY;
+    long length = dx * dx + dy * dy;
+    long dot = px * dx + py * dy;
+    if (length == 0 || dot <= 0) {
+      return px * px + py * py;
+    }
+    if (dot >= length) {
+      long ex = x - startX - dx;
+      long ey = y - startY - dy;
+      return ex * ex + ey * ey;
+    }
+    // squared distance to the line, |cross|^2 / length, rounded up
+    long cross = px * dy - py * dx;
+    double distance = (double) cross * cross / length;
+    return (long) Math.ceil(distance);
+  }
+
+  /**
+   * Tests whether a segment crosses or touches a rectangle. Their bounding
+   * boxes must overlap, and the corners of the rectangle must not all lie
+   * strictly on one side of the line through the segment.
+   */
+  private static boolean crosses(int startX, int startY, int endX, int endY,
+      int left, int top, int right, int bottom) {
+    if (Math.max(startX, endX) < left || Math.min(startX, endX) > right
+        || Math.max(startY, endY) < top || Math.min(startY, endY) > bottom) {
+      return false;
+    }
+    long dx = endX - startX;
+    long dy = endY - startY;
+    long topLeft = dx * (top - startY) - dy * (left - startX);
+    long topRight = dx * (top - startY) - dy * (right - startX);
+    long bottomLeft = dx * (bottom - startY) - dy * (left - startX);
+    long bottomRight = dx * (bottom - startY) - dy * (right - startX);
+    boolean allAbove = topLeft > 0 && topRight > 0 && bottomLeft > 0 && bottomRight > 0;
+    boolean allBelow = topLeft < 0 && topRight < 0 && bottomLeft < 0 && bottomRight < 0;
+    return !allAbove && !allBelow;
+  }
+
+}
@@ -0,0 +1,213 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Stores line segments packed into an int array, four ints (16 bytes) per
+ * segment, instead of one CanvasLine object per segment. Segments are indexed
+ * from 0, the oldest kept segment, to size() - 1, the newest.
+ * 
+ * A store made with a fixed capacity works as a ring: once full, every new
+ * segment overwrites the oldest one, so memory stays bounded in long sessions.
+ * Otherwise the array grows as needed. Clearing only resets the count.
+ * 
+ * The store is not thread safe.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+class SegmentStore {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private int[] coords;
+  private final boolean ring;
+  private int head;
+  private int size;
+
+  /**
+   * Creates a store that grows as segments are added.
+   */
+  public SegmentStore() {
+    coords = new int[INITIAL_CAPACITY * 4];
+    ring = false;
+  }
+
+  /**
+   * Creates a ring store that keeps at most the last capacity segments.
+   * 
+   * @param capacity the number of segments kept
+   * @throws IllegalArgumentException if capacity is less than 1
+   */
+  public SegmentStore(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    coords = new int[capacity * 4];
+    ring = true;
+  }
+
+  /**
+   * Adds a segment as the newest one.
+   * 
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  public void add(int startX, int startY, int endX, int endY) {
+    int capacity = coords.length / 4;
+    int slot;
+    if (size < capacity) {
+      slot = (head + size) % capacity;
+      size++;
+    } else if (ring) {
+      slot = head;
+      head = (head + 1) % capacity;
+    } else {
+      coords = Arrays.copyOf(coords, coords.length * 2);
+      slot = size;
+      size++;
+    }
+    int i = slot * 4;
+    coords[i] = startX;
+    coords[i + 1] = startY;
+    coords[i + 2] = endX;
+    coords[i + 3] = endY;
+  }
+
+  /**
+   * Adds segments packed four ints each, as given to linesDrawn.
+   * 
+   * @param packed segment coordinates
+   * @param count number of segments in packed
+   */
+  public void addAll(int[] packed, int count) {
+    if (!ring && size + count > coords.length / 4) {
+      coords = Arrays.copyOf(coords, Math.max(coords.length * 2, (size + count) * 4));
+    }
+    for (int i = 0; i < count * 4; i += 4) {
+      add(packed[i], packed[i + 1], packed[i + 2], packed[i + 3]);
+    }
+  }
+
+  /**
+   * Returns the number of segments kept.
+   * 
+   * @return number of segments
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if no segments are kept.
+   * 
+   * @return true if size() is 0
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes the newest count segments.
+   * 
+   * @param count number of segments removed
+   * @throws IndexOutOfBoundsException if count is negative or more than size()
+   */
+  public void removeLast(int count) {
+    if (count < 0 || count > size) {
+      throw new IndexOutOfBoundsException("remove " + count + ", size " + size);
+    }
+    size -= count;
+  }
+
+  /**
+   * Removes all segments. The backing array is kept for reuse.
+   */
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * Getter for the starting x coordinate of a segment
+   * 
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return startX
+   * @throws IndexOutOfBoundsException if index is not a kept segment
+   */
+  public int getStartX(int index) {
+    return coords[offset(index)];
+  }
+
+  /**
+   * Getter for the starting y coordinate of a segment
+   * 
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return startY
+   * @throws IndexOutOfBoundsException if index is not a kept segment
+   */
+  public int getStartY(int index) {
+    return coords[offset(index) + 1];
+  }
+
+  /**
+   * Getter for the ending x coordinate of a segment
+   * 
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return endX
+   * @throws IndexOutOfBoundsException if index is not a kept segment
+   */
+  public int getEndX(int index) {
+    return coords[offset(index) + 2];
+  }
+
+  /**
+   * Getter for the ending y coordinate of a segment
+   * 
+   * @param index from 0, the oldest segment, to size() - 1
+   * @return endY
+   * @throws IndexOutOfBoundsException if index is not a kept segment
+   */
+  public int getEndY(int index) {
+    return coords[offset(index) + 3];
+  }
+
+  /**
+   * Passes every kept segment to the visitor, oldest first.
+   * 
+   * @param visitor
+   */
+  public void forEach(SegmentVisitor visitor) {
+    forEach(0, size, visitor);
+  }
+
+  /**
+   * Passes count segments starting at index from to the visitor, oldest first.
+   * 
+   * @param from index of the first segment visited
+   * @param count number of segments visited
+   * @param visitor
+   * @throws IndexOutOfBoundsException if the range is not inside the store
+   */
+  public void forEach(int from, int count, SegmentVisitor visitor) {
+    if (from < 0 || count < 0 || from + count > size) {
+      throw new IndexOutOfBoundsException("segments " + from + " to " + (from + count));
+    }
+    int capacity = coords.length / 4;
+    int slot = (head + from) % capacity;
+    for (int n = 0; n < count; n++) {
+      int i = slot * 4;
+      visitor.visit(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+      slot = slot + 1 == capacity ? 0 : slot + 1;
+    }
+  }
+
+  private int offset(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("segment " + index + ", size " + size);
+    }
+    return ((head + index) % (coords.length / 4)) * 4;
+  }
+
+}
@@ -0,0 +1,23 @@
+package canvas;
+
+/**
+ * Receives line segments one at a time as primitive coordinates, so segments
+ * can be walked without creating a CanvasLine for each one.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+@FunctionalInterface
+interface SegmentVisitor {
+
+  /**
+   * called once for each visited line segment
+   * 
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  void visit(int startX, int startY, int endX, int endY);
+
+}
@@ -0,0 +1,200 @@
+package canvas;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Implements the CanvasListener Interface. Keeps the segments on the canvas
+ * of a CanvasModel so that other threads, such as exporters, thumbnailers and
+ * network sync, can take a consistent CanvasSnapshot of them at any time
+ * while drawing goes on. Taking a snapshot never blocks drawing, and drawing
+ * never waits for readers.
+ *
+ * Segments are kept in chunks of CHUNK_SIZE, packed as ints. A snapshot is
+ * the chunk table and segment count at one moment, and shares the chunks
+ * with the log: appending only writes past the end of every snapshot taken,
+ * so nothing a snapshot can see is written again. Undo and clear just lower
+ * the count; the first segment drawn over slots a snapshot may still see
+ * copies the chunk it goes into and starts a new table, leaving the old ones
+ * to the snapshots.
+ *
+ * The table and count are published after each event through a sequence
+ * lock: the sequence is odd while they are being written, and a reader that
+ * sees it odd, or changed once it has read them, reads them again. Writes
+ * are two ordered stores and a reader allocates only the snapshot.
+ *
+ * Like a CanvasLogger, the log expects events one at a time, as a
+ * CanvasModel fires them.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class SnapshotLog implements CanvasListener {
+  static final int CHUNK_SHIFT = 10;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final VarHandle SEQUENCE;
+
+  static {
+    try {
+      SEQUENCE = MethodHandles.lookup().findVarHandle(SnapshotLog.class, "sequence", long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // written by the thread firing events only
+  private int[][] chunks = new int[16][];
+  private int size;
+  private int shared;
+  private long version;
+
+  // published for readers under the sequence lock
+  private volatile long sequence;
+  private int[][] publishedChunks = chunks;
+  private int publishedSize;
+  private long publishedVersion;
+
+  /**
+   * Registers the SnapshotLog as a listener of a non null CanvasModel
+   *
+   * @param model
+   * @throws NullPointerException if the model is null
+   */
+  public SnapshotLog(CanvasModel model) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    model.registerListener(this);
+  }
+
+  /**
+   * Creates a log that is not registered with a model, for an owner that
+   * fires events at it directly.
+   */
+  SnapshotLog() {
+  }
+
+  /**
+   * Returns the number of events taken in so far. Only for the thread that
+   * fires events at the log; other threads read the version of a snapshot.
+   *
+   * @return version
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the number of segments on the canvas. Only for the thread that
+   * fires events at the log.
+   *
+   * @return number of segments
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the segments on the canvas now. Can be called from any thread.
+   *
+   * @return a snapshot that never changes
+   */
+  public CanvasSnapshot snapshot() {
+    while (true) {
+      long before = (long) SEQUENCE.getAcquire(this);
+      if ((before & 1) == 0) {
+        int[][] table = publishedChunks;
+        int count = publishedSize;
+        long at = publishedVersion;
+        VarHandle.loadLoadFence();
+        if ((long) SEQUENCE.getOpaque(this) == before) {
+          return new CanvasSnapshot(table, count, at);
+        }
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  @Override
+  public void canvasReady() {
+  }
+
+  @Override
+  public void lineDrawn(int startX, int startY, int endX, int endY) {
+    append(startX, startY, endX, endY);
+    publish();
+  }
+
+  @Override
+  public void linesDrawn(int[] coords, int count) {
+    for (int i = 0; i < count * 4; i += 4) {
+      append(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+    publish();
+  }
+
+  @Override
+  public void linesUndone(int count) {
+    size -= Math.min(count, size);
+    publish();
+  }
+
+  @Override
+  public void clearCanvas() {
+    size = 0;
+    publish();
+  }
+
+  private void append(int startX, int startY, int endX, int endY) {
+    if (size < shared) {
+      copyOnWrite();
+    }
+    int index = size >> CHUNK_SHIFT;
+    if (index == chunks.length) {
+      // the old table stays with the snapshots that have it
+      chunks = Arrays.copyOf(chunks, index * 2);
+    }
+    int[] chunk = chunks[index];
+    if (chunk == null) {
+      chunk = new int[CHUNK_SIZE * 4];
+      chunks[index] = chunk;
+    }
+    int i = (size & (CHUNK_SIZE - 1)) * 4;
+    chunk[i] = startX;
+    chunk[i + 1] = startY;
+    chunk[i + 2] = endX;
+    chunk[i + 3] = endY;
+    size++;
+  }
+
+  /**
+   * Starts a new chunk table in which the chunk being appended to is a copy
+   * and the chunks after it are not allocated yet, so nothing from size on
+   * is shared with a snapshot.
+   */
+  private void copyOnWrite() {
+    int index = size >> CHUNK_SHIFT;
+    int[][] table = new int[chunks.length][];
+    System.arraycopy(chunks, 0, table, 0, index);
+    if (chunks[index] != null) {
+      table[index] = new int[CHUNK_SIZE * 4];
+      System.arraycopy(chunks[index], 0, table[index], 0, (size & (CHUNK_SIZE - 1)) * 4);
+    }
+    chunks = table;
+    shared = size;
+  }
+
+  private void publish() {
+    version++;
+    long next = sequence + 1;
+    SEQUENCE.setOpaque(this, next);
+    VarHandle.storeStoreFence();
+    publishedChunks = chunks;
+    publishedSize = size;
+    publishedVersion = version;
+    SEQUENCE.setRelease(this, next + 1);
+    shared = Math.max(shared, size);
+  }
+
+}
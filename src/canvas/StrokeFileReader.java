@@ -0,0 +1,391 @@
+package canvas;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a drawing saved by a StrokeFileWriter, as a whole or a range of
+ * blocks at a time, into a CanvasModel or straight into a CanvasListener. One
+ * block is held in memory at a time, however large the drawing.
+ *
+ * The file starts with a header of four ints: MAGIC, VERSION and the length
+ * and height of the canvas. Blocks follow, each an int byte count and that
+ * many bytes of records, then an int 0 that ends the blocks. Records are:
+ * STROKE, a run of connected segments, as a varint segment count, the start
+ * point and then every following point as zigzag varint deltas from the
+ * point before; CLEAR; and UNDO with a varint segment count. The first point
+ * of a block is a delta from 0, 0, so every block decodes on its own. Most
+ * points of a mouse stroke take two bytes instead of the sixteen of a raw
+ * segment record.
+ *
+ * After the blocks comes the index: an int block count and, for each block,
+ * its long file offset, int byte count, long number of the first segment in
+ * it and int segment count. The file ends with the long offset of the index
+ * and MAGIC again.
+ *
+ * A reader is not thread safe.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public class StrokeFileReader implements Closeable {
+  static final int MAGIC = 0x4353544B;
+  static final int VERSION = 1;
+  static final byte STROKE = 0;
+  static final byte CLEAR = 1;
+  static final byte UNDO = 2;
+  static final int HEADER_SIZE = 16;
+  static final int INDEX_ENTRY_SIZE = 24;
+  static final int TRAILER_SIZE = 12;
+
+  /**
+   * most segments in one STROKE record
+   */
+  static final int MAX_RUN = 1024;
+
+  /**
+   * largest block accepted, bounding the memory a file can make a reader use
+   */
+  static final int MAX_BLOCK = 1 << 20;
+
+  private final FileChannel channel;
+  private final int canvasLength;
+  private final int canvasHeight;
+  private final long[] offsets;
+  private final int[] sizes;
+  private final long[] firstSegments;
+  private final int[] segmentCounts;
+  private final int[] coords = new int[MAX_RUN * 4];
+  private ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+
+  private StrokeFileReader(FileChannel channel) throws IOException {
+    this.channel = channel;
+    long size = channel.size();
+    if (size < HEADER_SIZE + 8 + TRAILER_SIZE) {
+      throw new IOException("not a stroke file");
+    }
+    ByteBuffer header = readAt(HEADER_SIZE, 0);
+    checkHeader(header.getInt(), header.getInt());
+    canvasLength = header.getInt();
+    canvasHeight = header.getInt();
+    ByteBuffer trailer = readAt(TRAILER_SIZE, size - TRAILER_SIZE);
+    long indexOffset = trailer.getLong();
+    if (trailer.getInt() != MAGIC || indexOffset < HEADER_SIZE + 4
+        || indexOffset > size - TRAILER_SIZE - 4) {
+      throw new IOException("stroke file has no index");
+    }
+    int blocks = readAt(4, indexOffset).getInt();
+    if (blocks < 0
+        || indexOffset + 4 + (long) blocks * INDEX_ENTRY_SIZE != size - TRAILER_SIZE) {
+      throw new IOException("bad stroke file index");
+    }
+    offsets = new long[blocks];
+    sizes = new int[blocks];
+    firstSegments = new long[blocks];
+    segmentCounts = new int[blocks];
+    ByteBuffer index = readAt(blocks * INDEX_ENTRY_SIZE, indexOffset + 4);
+    for (int i = 0; i < blocks; i++) {
+      offsets[i] = index.getLong();
+      sizes[i] = index.getInt();
+      firstSegments[i] = index.getLong();
+      segmentCounts[i] = index.getInt();
+      if (sizes[i] < 1 || sizes[i] > MAX_BLOCK || offsets[i] + 4 + sizes[i] > indexOffset) {
+        throw new IOException("bad stroke file index");
+      }
+    }
+  }
+
+  /**
+   * Opens a stroke file and reads its index.
+   *
+   * @param file
+   * @return the open reader
+   * @throws NullPointerException if file is null
+   * @throws IOException if the file cannot be read, is not a stroke file or
+   *           was not closed by its writer
+   */
+  public static StrokeFileReader open(Path file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("file cannot be null");
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      return new StrokeFileReader(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Loads a whole stroke file into a model, reading it front to back without
+   * the index.
+   *
+   * @param file
+   * @param model
+   * @return the number of segments drawn
+   * @throws IOException if the file cannot be read or is not a stroke file
+   */
+  public static long load(Path file, CanvasModel model) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return read(in, into(model));
+    }
+  }
+
+  /**
+   * Reads the blocks of a stroke file from a stream and fires their records
+   * at a listener: linesDrawn for each run of segments, clearCanvas and
+   * linesUndone. The stream is read up to the end of the blocks and not
+   * closed.
+   *
+   * @param in
+   * @param listener
+   * @return the number of segments fired
+   * @throws NullPointerException if listener is null
+   * @throws IOException if the stream cannot be read or is not a stroke file
+   */
+  public static long read(InputStream in, CanvasListener listener) throws IOException {
+    if (listener == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    checkHeader(data.readInt(), data.readInt());
+    data.readInt();
+    data.readInt();
+    byte[] bytes = new byte[64 * 1024];
+    int[] coords = new int[MAX_RUN * 4];
+    long segments = 0;
+    int size;
+    while ((size = data.readInt()) != 0) {
+      if (size < 0 || size > MAX_BLOCK) {
+        throw new IOException("bad stroke file block");
+      }
+      if (size > bytes.length) {
+        bytes = new byte[size];
+      }
+      data.readFully(bytes, 0, size);
+      segments += decode(ByteBuffer.wrap(bytes, 0, size), coords, listener);
+    }
+    return segments;
+  }
+
+  /**
+   * Returns the length of the canvas the drawing was made on.
+   *
+   * @return length in pixels
+   */
+  public int getCanvasLength() {
+    return canvasLength;
+  }
+
+  /**
+   * Returns the height of the canvas the drawing was made on.
+   *
+   * @return height in pixels
+   */
+  public int getCanvasHeight() {
+    return canvasHeight;
+  }
+
+  /**
+   * Returns the number of blocks in the file.
+   *
+   * @return block count
+   */
+  public int getBlockCount() {
+    return offsets.length;
+  }
+
+  /**
+   * Returns the number of segments in the file, counting those later undone
+   * or cleared.
+   *
+   * @return segment count
+   */
+  public long getSegmentCount() {
+    int last = offsets.length - 1;
+    return last < 0 ? 0 : firstSegments[last] + segmentCounts[last];
+  }
+
+  /**
+   * Returns the number of the first segment in a block.
+   *
+   * @param block
+   * @return segment number
+   * @throws IndexOutOfBoundsException if there is no such block
+   */
+  public long getFirstSegment(int block) {
+    return firstSegments[block];
+  }
+
+  /**
+   * Returns the block holding a segment.
+   *
+   * @param segment segment number, counting from 0
+   * @return the block, or -1 if segment is not in the file
+   */
+  public int findBlock(long segment) {
+    if (segment < 0 || segment >= getSegmentCount()) {
+      return -1;
+    }
+    int found = Arrays.binarySearch(firstSegments, segment);
+    if (found < 0) {
+      return -found - 2;
+    }
+    // blocks holding no segments share their first segment number
+    while (segmentCounts[found] == 0) {
+      found++;
+    }
+    return found;
+  }
+
+  /**
+   * Reads the whole file into a model.
+   *
+   * @param model
+   * @return the number of segments drawn
+   * @throws IOException if the file cannot be read or is corrupt
+   */
+  public long load(CanvasModel model) throws IOException {
+    return readBlocks(0, offsets.length, into(model));
+  }
+
+  /**
+   * Reads a range of blocks and fires their records at a listener, as read
+   * does.
+   *
+   * @param from first block to read
+   * @param to block after the last block to read
+   * @param listener
+   * @return the number of segments fired
+   * @throws IndexOutOfBoundsException if the range is not within the blocks
+   * @throws NullPointerException if listener is null
+   * @throws IOException if the file cannot be read or is corrupt
+   */
+  public long readBlocks(int from, int to, CanvasListener listener) throws IOException {
+    if (from < 0 || to > offsets.length || from > to) {
+      throw new IndexOutOfBoundsException("blocks " + from + " to " + to);
+    }
+    if (listener == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    long segments = 0;
+    for (int i = from; i < to; i++) {
+      segments += decode(readAt(sizes[i], offsets[i] + 4), coords, listener);
+    }
+    return segments;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Reads bytes from a file position into the reused block buffer.
+   */
+  private ByteBuffer readAt(int count, long position) throws IOException {
+    if (block.capacity() < count) {
+      block = ByteBuffer.allocate(count);
+    }
+    block.clear().limit(count);
+    while (block.hasRemaining()) {
+      if (channel.read(block, position + block.position()) < 0) {
+        throw new EOFException("stroke file truncated");
+      }
+    }
+    block.flip();
+    return block;
+  }
+
+  private static void checkHeader(int magic, int version) throws IOException {
+    if (magic != MAGIC) {
+      throw new IOException("not a stroke file");
+    }
+    if (version != VERSION) {
+      throw new IOException("unsupported stroke file version");
+    }
+  }
+
+  private static long decode(ByteBuffer in, int[] coords, CanvasListener listener)
+      throws IOException {
+    long segments = 0;
+    int x = 0;
+    int y = 0;
+    while (in.hasRemaining()) {
+      byte type = in.get();
+      if (type == STROKE) {
+        long count = Varint.getUnsigned(in);
+        if (count < 1 || count > MAX_RUN) {
+          throw new IOException("bad stroke length " + count);
+        }
+        x += Varint.unzigzag((int) Varint.getUnsigned(in));
+        y += Varint.unzigzag((int) Varint.getUnsigned(in));
+        for (int i = 0; i < count * 4; i += 4) {
+          coords[i] = x;
+          coords[i + 1] = y;
+          x += Varint.unzigzag((int) Varint.getUnsigned(in));
+          y += Varint.unzigzag((int) Varint.getUnsigned(in));
+          coords[i + 2] = x;
+          coords[i + 3] = y;
+        }
+        listener.linesDrawn(coords, (int) count);
+        segments += count;
+      } else if (type == CLEAR) {
+        listener.clearCanvas();
+      } else if (type == UNDO) {
+        listener.linesUndone((int) Varint.getUnsigned(in));
+      } else {
+        throw new IOException("bad stroke file record " + type);
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Returns a listener that draws what it is fired into a model: each run as
+   * one stroke with drawSegments, clears with clearCanvas and undone segments
+   * with undoSegments.
+   */
+  private static CanvasListener into(CanvasModel model) {
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    return new CanvasListener() {
+      @Override
+      public void canvasReady() {
+      }
+
+      @Override
+      public void lineDrawn(int startX, int startY, int endX, int endY) {
+        model.drawSegments(new int[] {startX, startY, endX, endY}, 1);
+      }
+
+      @Override
+      public void linesDrawn(int[] coords, int count) {
+        model.drawSegments(coords, count);
+      }
+
+      @Override
+      public void linesUndone(int count) {
+        model.undoSegments(count);
+      }
+
+      @Override
+      public void clearCanvas() {
+        model.clearCanvas();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,296 @@
+package canvas;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Implements the CanvasListener Interface. Saves the drawing fired at it to a
+ * stream in the block format read by StrokeFileReader. Segments that follow
+ * on from each other are gathered into runs and stored as deltas, runs are
+ * packed into blocks of about BLOCK_SIZE bytes and each full block is written
+ * out at once, so the writer uses the same memory however long the drawing
+ * grows. The index is written by close.
+ *
+ * A drawing already in a CanvasLogger is saved by passing its segments to
+ * lineDrawn. The writer is thread safe; events fired after close are
+ * ignored. A listener call cannot throw the IOException of a failed write
+ * without cutting short the model's other listeners, so the first failure
+ * is kept instead: the writer stops writing, getError returns it and close
+ * throws it.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+public class StrokeFileWriter implements CanvasListener, Closeable {
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  private final DataOutputStream out;
+  private final CanvasModel model;
+  private final ByteBuffer block;
+  private final int[] run = new int[(StrokeFileReader.MAX_RUN + 1) * 2];
+  private int runPoints;
+  private int lastX;
+  private int lastY;
+  private long written;
+  private long segments;
+  private long blockFirstSegment;
+  private long[] offsets = new long[16];
+  private int[] sizes = new int[16];
+  private long[] firstSegments = new long[16];
+  private int[] segmentCounts = new int[16];
+  private int blocks;
+  private boolean closed;
+  private IOException error;
+
+  /**
+   * Writes the header of a stroke file for a length by height canvas.
+   *
+   * @param out the stream to save to, closed by close
+   * @param length
+   * @param height
+   * @throws NullPointerException if out is null
+   * @throws IOException if the header cannot be written
+   */
+  public StrokeFileWriter(OutputStream out, int length, int height) throws IOException {
+    this(out, length, height, null);
+  }
+
+  private StrokeFileWriter(OutputStream out, int length, int height, CanvasModel model)
+      throws IOException {
+    if (out == null) {
+      throw new NullPointerException("stream cannot be null");
+    }
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.model = model;
+    // room for a full block plus the longest record that can end it
+    block = ByteBuffer.allocate(BLOCK_SIZE + 16 + run.length * 5);
+    this.out.writeInt(StrokeFileReader.MAGIC);
+    this.out.writeInt(StrokeFileReader.VERSION);
+    this.out.writeInt(length);
+    this.out.writeInt(height);
+    written = StrokeFileReader.HEADER_SIZE;
+  }
+
+  /**
+   * Creates a stroke file and registers a writer for it with a model, so
+   * everything drawn from then on is saved. close deregisters the writer.
+   *
+   * @param file the file to create or replace
+   * @param model
+   * @return the registered writer
+   * @throws NullPointerException if file or model is null
+   * @throws IOException if the file cannot be created
+   */
+  public static StrokeFileWriter attach(Path file, CanvasModel model) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("file cannot be null");
+    }
+    if (model == null) {
+      throw new NullPointerException("model cannot be null");
+    }
+    OutputStream stream = Files.newOutputStream(file);
+    try {
+      StrokeFileWriter writer = new StrokeFileWriter(stream, model.getCanvasLength(),
+          model.getCanvasHeight(), model);
+      model.registerListener(writer);
+      return writer;
+    } catch (IOException | RuntimeException e) {
+      stream.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the number of segments saved so far.
+   *
+   * @return segment count
+   */
+  public synchronized long getSegmentCount() {
+    return segments + Math.max(0, runPoints - 1);
+  }
+
+  /**
+   * Returns the first write that failed, after which nothing more was saved.
+   *
+   * @return the failure, or null if every write so far succeeded
+   */
+  public synchronized IOException getError() {
+    return error;
+  }
+
+  @Override
+  public void canvasReady() {
+  }
+
+  @Override
+  public synchronized void lineDrawn(int startX, int startY, int endX, int endY) {
+    if (writing()) {
+      add(startX, startY, endX, endY);
+    }
+  }
+
+  @Override
+  public synchronized void linesDrawn(int[] coords, int count) {
+    if (writing()) {
+      for (int i = 0; i < count * 4; i += 4) {
+        add(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void linesUndone(int count) {
+    if (writing()) {
+      endRun();
+      block.put(StrokeFileReader.UNDO);
+      Varint.putUnsigned(block, count);
+      endRecord();
+    }
+  }
+
+  @Override
+  public synchronized void clearCanvas() {
+    if (writing()) {
+      endRun();
+      block.put(StrokeFileReader.CLEAR);
+      endRecord();
+    }
+  }
+
+  /**
+   * Writes out the last block and the index, deregisters the writer from the
+   * model it was attached to and closes the stream.
+   *
+   * @throws IOException if the file cannot be written, now or by an earlier
+   *           event
+   */
+  @Override
+  public void close() throws IOException {
+    if (model != null) {
+      model.deregisterListener(this);
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (error != null) {
+          throw error;
+        }
+        endRun();
+        writeBlock();
+        if (error != null) {
+          throw error;
+        }
+        out.writeInt(0);
+        long indexOffset = written + 4;
+        out.writeInt(blocks);
+        for (int i = 0; i < blocks; i++) {
+          out.writeLong(offsets[i]);
+          out.writeInt(sizes[i]);
+          out.writeLong(firstSegments[i]);
+          out.writeInt(segmentCounts[i]);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(StrokeFileReader.MAGIC);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  private boolean writing() {
+    return !closed && error == null;
+  }
+
+  /**
+   * Adds a segment to the open run if it starts where the run ends, or ends
+   * the run and starts a new one.
+   */
+  private void add(int startX, int startY, int endX, int endY) {
+    if (runPoints > 0 && runPoints <= StrokeFileReader.MAX_RUN
+        && run[runPoints * 2 - 2] == startX && run[runPoints * 2 - 1] == startY) {
+      run[runPoints * 2] = endX;
+      run[runPoints * 2 + 1] = endY;
+      runPoints++;
+      return;
+    }
+    endRun();
+    run[0] = startX;
+    run[1] = startY;
+    run[2] = endX;
+    run[3] = endY;
+    runPoints = 2;
+  }
+
+  /**
+   * Encodes the open run as a STROKE record.
+   */
+  private void endRun() {
+    if (runPoints == 0) {
+      return;
+    }
+    block.put(StrokeFileReader.STROKE);
+    Varint.putUnsigned(block, runPoints - 1);
+    for (int i = 0; i < runPoints * 2; i += 2) {
+      Varint.putUnsigned(block, Varint.zigzag(run[i] - lastX) & 0xFFFFFFFFL);
+      Varint.putUnsigned(block, Varint.zigzag(run[i + 1] - lastY) & 0xFFFFFFFFL);
+      lastX = run[i];
+      lastY = run[i + 1];
+    }
+    segments += runPoints - 1;
+    runPoints = 0;
+    endRecord();
+  }
+
+  private void endRecord() {
+    if (block.position() >= BLOCK_SIZE) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Writes the records gathered so far as a block and starts the next one
+   * from 0, 0. Keeps the failure if the block cannot be written.
+   */
+  private void writeBlock() {
+    int size = block.position();
+    if (size == 0 || error != null) {
+      block.clear();
+      return;
+    }
+    if (blocks == offsets.length) {
+      offsets = Arrays.copyOf(offsets, blocks * 2);
+      sizes = Arrays.copyOf(sizes, blocks * 2);
+      firstSegments = Arrays.copyOf(firstSegments, blocks * 2);
+      segmentCounts = Arrays.copyOf(segmentCounts, blocks * 2);
+    }
+    offsets[blocks] = written;
+    sizes[blocks] = size;
+    firstSegments[blocks] = blockFirstSegment;
+    segmentCounts[blocks] = (int) (segments - blockFirstSegment);
+    blocks++;
+    try {
+      out.writeInt(size);
+      out.write(block.array(), 0, size);
+    } catch (IOException e) {
+      error = e;
+      block.clear();
+      return;
+    }
+    written += 4 + size;
+    blockFirstSegment = segments;
+    block.clear();
+    lastX = 0;
+    lastY = 0;
+  }
+
+}
@@ -0,0 +1,266 @@
+package canvas;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The segments a CanvasModel has fired since the canvas was last cleared,
+ * grouped into strokes, together with the strokes undone since the last new
+ * drawing so they can be redone.
+ *
+ * Each stroke has an owner, the model itself for its single pointer or a
+ * StrokeSession, and every owner has an open stroke of its own, so strokes
+ * of sessions drawing at the same time stay whole however their segments
+ * are interleaved. The segments are kept in the order they were fired, each
+ * with the stroke it belongs to. Undoing a stroke takes back every segment
+ * from its first one on, since linesUndone takes back the newest segments,
+ * and leaves those of other strokes among them to be drawn again. The log is
+ * thread safe.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class StrokeLog {
+  private static final int[] NONE = new int[0];
+
+  private final SegmentStore drawn = new SegmentStore();
+  private int[] strokeOf = new int[64];
+  private int[] strokeIds = new int[64];
+  private int[] strokeStarts = new int[64];
+  private int strokes;
+  private int nextId;
+  private final Map<Object, Integer> open = new IdentityHashMap<Object, Integer>();
+  private final SegmentStore undone = new SegmentStore();
+  private int[] undoneStarts = new int[64];
+  private int undoneStrokes;
+  private int[] redrawn = NONE;
+
+  /**
+   * Adds a segment to the owner's open stroke, starting a stroke if the owner
+   * has none open. Forgets the undone strokes.
+   *
+   * @param owner who draws the stroke
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  synchronized void add(Object owner, int startX, int startY, int endX, int endY) {
+    append(openStroke(owner), startX, startY, endX, endY);
+  }
+
+  /**
+   * Adds segments to the owner's open stroke, as add does for each.
+   *
+   * @param owner who draws the stroke
+   * @param coords packed segment coordinates
+   * @param count number of segments in coords
+   */
+  synchronized void addAll(Object owner, int[] coords, int count) {
+    if (count == 0) {
+      return;
+    }
+    int id = openStroke(owner);
+    for (int i = 0; i < count * 4; i += 4) {
+      append(id, coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  /**
+   * Adds segments as a stroke of their own. Forgets the undone strokes.
+   *
+   * @param coords packed segment coordinates
+   * @param count number of segments in coords
+   */
+  synchronized void addStroke(int[] coords, int count) {
+    if (count == 0) {
+      return;
+    }
+    forgetUndone();
+    int id = pushStroke();
+    for (int i = 0; i < count * 4; i += 4) {
+      append(id, coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  /**
+   * Closes the open stroke of every owner.
+   */
+  synchronized void endStroke() {
+    open.clear();
+  }
+
+  /**
+   * Closes the open stroke of owner.
+   *
+   * @param owner
+   */
+  synchronized void endStroke(Object owner) {
+    open.remove(owner);
+  }
+
+  /**
+   * Moves the newest stroke to the undone strokes. The segments of other
+   * strokes drawn after its first one are taken back with it, and are left
+   * for getRedrawn.
+   *
+   * @return the number of newest segments to take back, or 0 if there is no
+   *         stroke
+   */
+  synchronized int undo() {
+    endStroke();
+    redrawn = NONE;
+    if (strokes == 0) {
+      return 0;
+    }
+    strokes--;
+    int id = strokeIds[strokes];
+    int start = strokeStarts[strokes];
+    int count = drawn.size() - start;
+    if (undoneStrokes == undoneStarts.length) {
+      undoneStarts = Arrays.copyOf(undoneStarts, undoneStrokes * 2);
+    }
+    undoneStarts[undoneStrokes++] = undone.size();
+    int[] kept = new int[count * 4];
+    int[] keptOf = new int[count];
+    int keptCount = 0;
+    for (int index = start; index < start + count; index++) {
+      if (strokeOf[index] == id) {
+        undone.add(drawn.getStartX(index), drawn.getStartY(index), drawn.getEndX(index),
+            drawn.getEndY(index));
+      } else {
+        int i = keptCount * 4;
+        kept[i] = drawn.getStartX(index);
+        kept[i + 1] = drawn.getStartY(index);
+        kept[i + 2] = drawn.getEndX(index);
+        kept[i + 3] = drawn.getEndY(index);
+        keptOf[keptCount++] = strokeOf[index];
+      }
+    }
+    drawn.removeLast(count);
+    // the strokes these belong to started before the undone one, so their
+    // starts do not move
+    for (int i = 0; i < keptCount; i++) {
+      append(keptOf[i], kept[i * 4], kept[i * 4 + 1], kept[i * 4 + 2], kept[i * 4 + 3]);
+    }
+    redrawn = Arrays.copyOf(kept, keptCount * 4);
+    return count;
+  }
+
+  /**
+   * Returns the segments of other strokes the last undo took back along with
+   * its stroke, which should be drawn again.
+   *
+   * @return packed segment coordinates, empty if there are none
+   */
+  synchronized int[] getRedrawn() {
+    return redrawn;
+  }
+
+  /**
+   * Moves the newest undone stroke back to the drawn strokes.
+   *
+   * @return the packed coordinates of the stroke, or null if there is none
+   */
+  synchronized int[] redo() {
+    endStroke();
+    if (undoneStrokes == 0) {
+      return null;
+    }
+    int start = undoneStarts[--undoneStrokes];
+    int count = undone.size() - start;
+    int[] coords = new int[count * 4];
+    for (int i = 0; i < count; i++) {
+      coords[i * 4] = undone.getStartX(start + i);
+      coords[i * 4 + 1] = undone.getStartY(start + i);
+      coords[i * 4 + 2] = undone.getEndX(start + i);
+      coords[i * 4 + 3] = undone.getEndY(start + i);
+    }
+    undone.removeLast(count);
+    int id = pushStroke();
+    for (int i = 0; i < count * 4; i += 4) {
+      append(id, coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+    return coords;
+  }
+
+  /**
+   * Removes the newest count segments, closing the open strokes and dropping
+   * strokes left empty. Forgets the undone strokes.
+   *
+   * @param count number of segments
+   */
+  synchronized void removeLast(int count) {
+    endStroke();
+    forgetUndone();
+    drawn.removeLast(Math.min(count, drawn.size()));
+    while (strokes > 0 && strokeStarts[strokes - 1] >= drawn.size()) {
+      strokes--;
+    }
+  }
+
+  /**
+   * Forgets everything.
+   */
+  synchronized void clear() {
+    drawn.clear();
+    strokes = 0;
+    open.clear();
+    forgetUndone();
+  }
+
+  /**
+   * Returns the number of strokes that can be undone.
+   *
+   * @return strokes
+   */
+  synchronized int getStrokeCount() {
+    return strokes;
+  }
+
+  /**
+   * Returns the number of strokes that can be redone.
+   *
+   * @return undone strokes
+   */
+  synchronized int getUndoneCount() {
+    return undoneStrokes;
+  }
+
+  private int openStroke(Object owner) {
+    Integer id = open.get(owner);
+    if (id != null) {
+      return id;
+    }
+    forgetUndone();
+    int started = pushStroke();
+    open.put(owner, started);
+    return started;
+  }
+
+  private int pushStroke() {
+    if (strokes == strokeStarts.length) {
+      strokeStarts = Arrays.copyOf(strokeStarts, strokes * 2);
+      strokeIds = Arrays.copyOf(strokeIds, strokes * 2);
+    }
+    strokeStarts[strokes] = drawn.size();
+    strokeIds[strokes++] = nextId;
+    return nextId++;
+  }
+
+  private void append(int id, int startX, int startY, int endX, int endY) {
+    int index = drawn.size();
+    if (index == strokeOf.length) {
+      strokeOf = Arrays.copyOf(strokeOf, index * 2);
+    }
+    strokeOf[index] = id;
+    drawn.add(startX, startY, endX, endY);
+  }
+
+  private void forgetUndone() {
+    undone.clear();
+    undoneStrokes = 0;
+  }
+
+}
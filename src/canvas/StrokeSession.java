@@ -0,0 +1,137 @@
+package canvas;
+
+/**
+ * The stroke of one drawer on a CanvasModel shared with other drawers, such as
+ * one pointer of a multi-touch screen or one remote user. A session keeps its
+ * own position, so strokes of different sessions never join, and gathers the
+ * segments it draws into a batch of its own. Full batches are delivered to
+ * the model's listeners with sessionLinesDrawn, tagged with the session id,
+ * as are partial ones when the stroke ends or the session is flushed.
+ * 
+ * Nothing is shared between sessions until a batch is delivered, so drawers
+ * on different threads only meet on the model's lock once per batch. A
+ * session itself is not thread safe and must be used by one thread at a
+ * time. Positions off the canvas are ignored, as with setEndPositions.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+public class StrokeSession {
+  public static final int DEFAULT_BATCH = 64;
+
+  private final CanvasModel model;
+  private final int id;
+  private final int[] batch;
+  private final StrokeSimplifier simplifier;
+  private int batchCount;
+  private int batchClearCount;
+  private boolean drawing;
+  private int lastX;
+  private int lastY;
+  private int strokeSegments;
+
+  StrokeSession(CanvasModel model, int id, int maxBatch, double tolerance) {
+    if (maxBatch < 1) {
+      throw new IllegalArgumentException("batch size must be at least 1");
+    }
+    this.model = model;
+    this.id = id;
+    batch = new int[maxBatch * 4];
+    simplifier = tolerance < 0 ? null : new StrokeSimplifier(tolerance, this::addToBatch);
+  }
+
+  /**
+   * Returns the id the session's events are tagged with.
+   * 
+   * @return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Ends any stroke being drawn and starts a new one at x, y.
+   * 
+   * @param x
+   * @param y
+   */
+  public void begin(int x, int y) {
+    if (!model.checkBounds(x, y)) {
+      return;
+    }
+    end();
+    drawing = true;
+    lastX = x;
+    lastY = y;
+  }
+
+  /**
+   * Draws a segment from the last position to x, y. Starts a stroke at x, y
+   * if none was begun.
+   * 
+   * @param x
+   * @param y
+   */
+  public void extend(int x, int y) {
+    if (!model.checkBounds(x, y)) {
+      return;
+    }
+    if (drawing) {
+      strokeSegments++;
+      if (simplifier != null) {
+        simplifier.add(lastX, lastY, x, y);
+      } else {
+        addToBatch(lastX, lastY, x, y);
+      }
+    }
+    drawing = true;
+    lastX = x;
+    lastY = y;
+  }
+
+  /**
+   * Ends the stroke and delivers the segments the session holds.
+   */
+  public void end() {
+    if (simplifier != null) {
+      simplifier.endStroke();
+    }
+    flush();
+    if (drawing) {
+      model.endSessionStroke(this, strokeSegments);
+    }
+    drawing = false;
+    strokeSegments = 0;
+  }
+
+  /**
+   * Delivers the segments the session holds without ending the stroke.
+   */
+  public void flush() {
+    if (batchCount > 0) {
+      int count = batchCount;
+      batchCount = 0;
+      model.deliverSession(this, batchClearCount, batch, count);
+    }
+  }
+
+  private void addToBatch(int startX, int startY, int endX, int endY) {
+    int clearCount = model.getClearCount();
+    if (batchCount > 0 && clearCount != batchClearCount) {
+      // cleared since the batch was started, so what it holds is gone
+      batchCount = 0;
+    }
+    if (batchCount == 0) {
+      batchClearCount = clearCount;
+    }
+    int i = batchCount * 4;
+    batch[i] = startX;
+    batch[i + 1] = startY;
+    batch[i + 2] = endX;
+    batch[i + 3] = endY;
+    if (++batchCount * 4 == batch.length) {
+      flush();
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+package canvas;
+
+/**
+ * Thins out the segments of a stroke before they are fired, passing on fewer,
+ * longer segments that stay within a pixel tolerance of the drawn path.
+ * 
+ * Points come in one segment at a time. Zero-length segments are dropped. The
+ * simplifier then holds back a run of points after the last point it passed
+ * on, the anchor, for as long as every point in the run lies within tolerance
+ * of the single segment from the anchor to the newest point. When a point
+ * breaks the run, the segment from the anchor to the point before it is
+ * passed on and that point becomes the anchor. This is the streaming form of
+ * Ramer-Douglas-Peucker simplification: every drawn point, and so every drawn
+ * segment, is within tolerance of the simplified path. With a tolerance of 0
+ * only exactly collinear runs are merged.
+ * 
+ * A run is also passed on once it holds MAX_RUN points, so that a long
+ * straight drag does not hold back drawing for long, and when the stroke ends.
+ * 
+ * The simplifier is not thread safe.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+class StrokeSimplifier {
+  static final int MAX_RUN = 16;
+
+  private final double toleranceSquared;
+  private final SegmentVisitor sink;
+  private final int[] runX = new int[MAX_RUN];
+  private final int[] runY = new int[MAX_RUN];
+  private int runLength;
+  private int anchorX;
+  private int anchorY;
+
+  /**
+   * Constructor takes the tolerance and where simplified segments go.
+   * 
+   * @param tolerance the furthest in pixels a drawn point may be from the
+   *          simplified path
+   * @param sink receives the simplified segments
+   * @throws IllegalArgumentException if tolerance is negative or not a number
+   * @throws NullPointerException if sink is null
+   */
+  StrokeSimplifier(double tolerance, SegmentVisitor sink) {
+    if (!(tolerance >= 0)) {
+      throw new IllegalArgumentException("tolerance cannot be negative");
+    }
+    if (sink == null) {
+      throw new NullPointerException("sink cannot be null");
+    }
+    this.toleranceSquared = tolerance * tolerance;
+    this.sink = sink;
+  }
+
+  /**
+   * Adds a drawn segment. A segment that does not start where the last one
+   * ended starts a new stroke.
+   * 
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  void add(int startX, int startY, int endX, int endY) {
+    if (startX != lastX() || startY != lastY()) {
+      endStroke();
+      anchorX = startX;
+      anchorY = startY;
+    }
+    if (endX == lastX() && endY == lastY()) {
+      return;
+    }
+    if (runLength > 0 && (runLength == MAX_RUN || !fits(endX, endY))) {
+      int lastX = lastX();
+      int lastY = lastY();
+      sink.visit(anchorX, anchorY, lastX, lastY);
+      anchorX = lastX;
+      anchorY = lastY;
+      runLength = 0;
+    }
+    runX[runLength] = endX;
+    runY[runLength] = endY;
+    runLength++;
+  }
+
+  /**
+   * Passes on the segment held back, if any.
+   */
+  void endStroke() {
+    if (runLength > 0) {
+      sink.visit(anchorX, anchorY, lastX(), lastY());
+      anchorX = lastX();
+      anchorY = lastY();
+      runLength = 0;
+    }
+  }
+
+  /**
+   * Returns the number of points held back.
+   * 
+   * @return run length
+   */
+  int getRunLength() {
+    return runLength;
+  }
+
+  private int lastX() {
+    return runLength == 0 ? anchorX : runX[runLength - 1];
+  }
+
+  private int lastY() {
+    return runLength == 0 ? anchorY : runY[runLength - 1];
+  }
+
+  /**
+   * Tests whether every point of the run is within tolerance of the segment
+   * from the anchor to x, y.
+   */
+  private boolean fits(int x, int y) {
+    long dx = x - anchorX;
+    long dy = y - anchorY;
+    long length = dx * dx + dy * dy;
+    for (int i = 0; i < runLength; i++) {
+      long px = runX[i] - anchorX;
+      long py = runY[i] - anchorY;
+      long dot = px * dx + py * dy;
+      double distance;
+      if (dot <= 0) {
+        distance = px * px + py * py;
+      } else if (dot >= length) {
+        long ex = px - dx;
+        long ey = py - dy;
+        distance = ex * ex + ey * ey;
+      } else {
+        long cross = px * dy - py * dx;
+        distance = (double) cross * cross / length;
+      }
+      if (distance > toleranceSquared) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
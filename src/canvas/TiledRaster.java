@@ -0,0 +1,656 @@
+package canvas;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The pixels of a canvas, split into square tiles of TILE_SIZE pixels. A tile
+ * is only allocated when a line is first drawn on it; tiles never drawn on are
+ * painted as white background. At most a budget of tiles is kept in memory,
+ * and the least recently used tiles beyond it are spilled to a temporary file
+ * and read back when needed. Memory therefore depends on the area actually
+ * drawn on rather than on the size of the canvas.
+ *
+ * The raster remembers which tiles were drawn on since takeChangedTiles was
+ * last called, so a RasterHistory can checkpoint just those tiles.
+ *
+ * Lines are drawn with Graphics2D unless another LineMode is set. The direct
+ * modes walk the line once across the canvas and write the tile pixels
+ * themselves, looking a tile up only when the line crosses into it.
+ *
+ * The raster is not thread safe. A CanvasView uses it on the event dispatch
+ * thread only.
+ *
+ * @author sc2936@nyu.edu
+ *
+ */
+class TiledRaster {
+  static final int TILE_SIZE = 256;
+  static final int DEFAULT_TILE_BUDGET = 256;
+  private static final int TILE_SHIFT = 8;
+  private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+  private static final int WHITE = 0xFFFFFF;
+
+  /**
+   * A tile held in memory together with the graphics used to draw on it.
+   */
+  private static class Tile {
+    final BufferedImage image;
+    final int[] pixels;
+    final Graphics2D graphics;
+    boolean modified;
+
+    Tile() {
+      image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+      pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      graphics = image.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+          RenderingHints.VALUE_ANTIALIAS_ON);
+      graphics.setPaint(Color.black);
+    }
+  }
+
+  private final int width;
+  private final int height;
+  private final int tileBudget;
+  private final LinkedHashMap<Long, Tile> resident = new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+  private final Map<Long, Long> spilled = new HashMap<Long, Long>();
+  private final Set<Long> changed = new HashSet<Long>();
+  private long[] touched = new long[64];
+  private FileChannel spillFile;
+  private Path spillPath;
+  private ByteBuffer transfer;
+  private long spillSlots;
+  private LineMode lineMode = LineMode.JAVA2D;
+  private RasterPyramid pyramid;
+  private Tile cachedTile;
+  private int cachedTileX;
+  private int cachedTileY;
+
+  /**
+   * Creates an empty raster with the default tile budget.
+   *
+   * @param width width of the canvas in pixels
+   * @param height height of the canvas in pixels
+   */
+  public TiledRaster(int width, int height) {
+    this(width, height, DEFAULT_TILE_BUDGET);
+  }
+
+  /**
+   * Creates an empty raster that keeps at most tileBudget tiles in memory.
+   *
+   * @param width width of the canvas in pixels
+   * @param height height of the canvas in pixels
+   * @param tileBudget the number of tiles kept in memory
+   * @throws IllegalArgumentException if a size is negative or the budget is
+   *           less than 1
+   */
+  public TiledRaster(int width, int height, int tileBudget) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("size cannot be negative");
+    }
+    if (tileBudget < 1) {
+      throw new IllegalArgumentException("tile budget must be at least 1");
+    }
+    this.width = width;
+    this.height = height;
+    this.tileBudget = tileBudget;
+  }
+
+  /**
+   * Getter for the width of the canvas in pixels
+   *
+   * @return width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Getter for the height of the canvas in pixels
+   *
+   * @return height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Sets how lines drawn from now on are drawn. Lines already drawn keep
+   * their pixels.
+   *
+   * @param lineMode
+   * @throws NullPointerException if lineMode is null
+   */
+  public void setLineMode(LineMode lineMode) {
+    if (lineMode == null) {
+      throw new NullPointerException("line mode cannot be null");
+    }
+    this.lineMode = lineMode;
+  }
+
+  /**
+   * Getter for the way lines are drawn
+   *
+   * @return line mode
+   */
+  public LineMode getLineMode() {
+    return lineMode;
+  }
+
+  /**
+   * Draws a line segment in black on every tile it passes through, allocating
+   * the tiles that are touched for the first time.
+   *
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   */
+  public void drawLine(int startX, int startY, int endX, int endY) {
+    if (pyramid != null) {
+      pyramid.markDirty(Math.min(startX, endX) - 1, Math.min(startY, endY) - 1,
+          Math.max(startX, endX) + 1, Math.max(startY, endY) + 1);
+    }
+    if (lineMode == LineMode.BRESENHAM) {
+      drawBresenham(startX, startY, endX, endY);
+      return;
+    }
+    if (lineMode == LineMode.WU) {
+      drawWu(startX, startY, endX, endY);
+      return;
+    }
+    int count = touchedTiles(startX, startY, endX, endY);
+    for (int i = 0; i < count; i++) {
+      int tileX = (int) (touched[i] >> 32);
+      int tileY = (int) touched[i];
+      Tile tile = tile(tileX, tileY, true);
+      tile.graphics.drawLine(startX - tileX * TILE_SIZE, startY - tileY * TILE_SIZE,
+          endX - tileX * TILE_SIZE, endY - tileY * TILE_SIZE);
+      tile.modified = true;
+      changed.add(touched[i]);
+    }
+  }
+
+  /**
+   * Adds the keys of the tiles drawLine draws a segment on to a set.
+   *
+   * @param startX
+   * @param startY
+   * @param endX
+   * @param endY
+   * @param keys the set to add to
+   */
+  void addTilesUnder(int startX, int startY, int endX, int endY, Set<Long> keys) {
+    int count = touchedTiles(startX, startY, endX, endY);
+    for (int i = 0; i < count; i++) {
+      keys.add(touched[i]);
+    }
+  }
+
+  /**
+   * Returns the keys of the tiles drawn on since the last call, and forgets
+   * them.
+   *
+   * @return tile keys
+   */
+  long[] takeChangedTiles() {
+    // the next direct draw on the cached tile must mark it changed again
+    cachedTile = null;
+    long[] keys = new long[changed.size()];
+    int i = 0;
+    for (Long key : changed) {
+      keys[i++] = key;
+    }
+    changed.clear();
+    return keys;
+  }
+
+  /**
+   * Returns a copy of the pixels of a tile, TILE_SIZE rows of TILE_SIZE
+   * pixels, or null if the tile was never drawn on.
+   *
+   * @param key a key from takeChangedTiles or addTilesUnder
+   * @return the pixels, or null for a white tile
+   */
+  int[] getTilePixels(long key) {
+    Tile tile = tile((int) (key >> 32), (int) key, false);
+    return tile == null ? null : tile.pixels.clone();
+  }
+
+  /**
+   * Replaces the pixels of a tile.
+   *
+   * @param key a key from takeChangedTiles or addTilesUnder
+   * @param pixels TILE_SIZE rows of TILE_SIZE pixels, or null for white
+   */
+  void setTilePixels(long key, int[] pixels) {
+    Tile tile = tile((int) (key >> 32), (int) key, pixels != null);
+    if (tile == null) {
+      return;
+    }
+    if (pixels == null) {
+      Arrays.fill(tile.pixels, WHITE);
+    } else {
+      System.arraycopy(pixels, 0, tile.pixels, 0, tile.pixels.length);
+    }
+    tile.modified = true;
+    if (pyramid != null) {
+      int x = (int) (key >> 32) * TILE_SIZE;
+      int y = (int) key * TILE_SIZE;
+      pyramid.markDirty(x, y, x + TILE_SIZE - 1, y + TILE_SIZE - 1);
+    }
+  }
+
+  /**
+   * Returns the live pixels of a tile, reading it back if it was spilled, or
+   * null if the tile was never drawn on. The array is only valid until the
+   * next call on the raster.
+   *
+   * @param tileX
+   * @param tileY
+   * @return the pixels, or null for a white tile
+   */
+  int[] peekTilePixels(int tileX, int tileY) {
+    Tile tile = tile(tileX, tileY, false);
+    return tile == null ? null : tile.pixels;
+  }
+
+  /**
+   * Attaches the pyramid that is told about every pixel the raster changes.
+   *
+   * @param pyramid
+   */
+  void setPyramid(RasterPyramid pyramid) {
+    this.pyramid = pyramid;
+  }
+
+  /**
+   * Paints the part of the canvas inside clip. Tiles never drawn on are filled
+   * with white.
+   *
+   * @param g the graphics to paint on, in canvas coordinates
+   * @param clip the area to paint
+   */
+  public void paint(Graphics g, Rectangle clip) {
+    int fromX = Math.max(0, clip.x / TILE_SIZE);
+    int fromY = Math.max(0, clip.y / TILE_SIZE);
+    int toX = Math.min(tileColumns() - 1, (clip.x + clip.width - 1) / TILE_SIZE);
+    int toY = Math.min(tileRows() - 1, (clip.y + clip.height - 1) / TILE_SIZE);
+    for (int tileY = fromY; tileY <= toY; tileY++) {
+      for (int tileX = fromX; tileX <= toX; tileX++) {
+        Tile tile = tile(tileX, tileY, false);
+        if (tile == null) {
+          g.setColor(Color.white);
+          g.fillRect(tileX * TILE_SIZE, tileY * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        } else {
+          g.drawImage(tile.image, tileX * TILE_SIZE, tileY * TILE_SIZE, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Throws away every tile, in memory and spilled, so the whole canvas is
+   * white again.
+   */
+  public void clear() {
+    for (Tile tile : resident.values()) {
+      tile.graphics.dispose();
+    }
+    resident.clear();
+    spilled.clear();
+    changed.clear();
+    cachedTile = null;
+    spillSlots = 0;
+    if (pyramid != null) {
+      pyramid.clear();
+    }
+    if (spillFile != null) {
+      try {
+        spillFile.truncate(0);
+      } catch (IOException e) {
+        throw new UncheckedIOException("cannot clear spilled tiles", e);
+      }
+    }
+  }
+
+  /**
+   * Clears the raster and deletes its spill file.
+   */
+  public void close() {
+    clear();
+    if (spillFile != null) {
+      try {
+        spillFile.close();
+        Files.deleteIfExists(spillPath);
+      } catch (IOException e) {
+        throw new UncheckedIOException("cannot delete spilled tiles", e);
+      } finally {
+        spillFile = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tiles held in memory.
+   *
+   * @return number of resident tiles
+   */
+  int getResidentTileCount() {
+    return resident.size();
+  }
+
+  /**
+   * Returns the number of tiles drawn on, in memory or spilled.
+   *
+   * @return number of allocated tiles
+   */
+  int getAllocatedTileCount() {
+    int count = resident.size();
+    for (Long key : spilled.keySet()) {
+      if (!resident.containsKey(key)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the colour of a pixel as 0xRRGGBB, reading a spilled tile back if
+   * necessary. For testing only.
+   *
+   * @param x
+   * @param y
+   * @return the pixel colour
+   */
+  int getRGB(int x, int y) {
+    Tile tile = tile(x / TILE_SIZE, y / TILE_SIZE, false);
+    if (tile == null) {
+      return WHITE;
+    }
+    return tile.pixels[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE] & WHITE;
+  }
+
+  private int tileColumns() {
+    return (width + TILE_SIZE) / TILE_SIZE;
+  }
+
+  private int tileRows() {
+    return (height + TILE_SIZE) / TILE_SIZE;
+  }
+
+  /**
+   * Collects the tiles a segment passes through into touched. The segment is
+   * walked in steps of half a tile, and each step adds the tiles under its
+   * bounding box padded by one pixel for the stroke, so long diagonal segments
+   * do not allocate the tiles of their whole bounding box.
+   *
+   * @return the number of tiles collected
+   */
+  private int touchedTiles(int startX, int startY, int endX, int endY) {
+    int count = 0;
+    int steps = Math.max(1, Math.max(Math.abs(endX - startX), Math.abs(endY - startY))
+        / (TILE_SIZE / 2) + 1);
+    int lastX = startX;
+    int lastY = startY;
+    for (int step = 1; step <= steps; step++) {
+      int x = startX + (int) ((long) (endX - startX) * step / steps);
+      int y = startY + (int) ((long) (endY - startY) * step / steps);
+      int fromX = Math.max(0, Math.min(lastX, x) - 1) / TILE_SIZE;
+      int fromY = Math.max(0, Math.min(lastY, y) - 1) / TILE_SIZE;
+      int toX = Math.min(tileColumns() - 1, (Math.max(lastX, x) + 1) / TILE_SIZE);
+      int toY = Math.min(tileRows() - 1, (Math.max(lastY, y) + 1) / TILE_SIZE);
+      for (int tileY = fromY; tileY <= toY; tileY++) {
+        for (int tileX = fromX; tileX <= toX; tileX++) {
+          long key = key(tileX, tileY);
+          boolean seen = false;
+          for (int i = count - 1; i >= 0 && !seen; i--) {
+            seen = touched[i] == key;
+          }
+          if (!seen) {
+            if (count == touched.length) {
+              touched = Arrays.copyOf(touched, count * 2);
+            }
+            touched[count++] = key;
+          }
+        }
+      }
+      lastX = x;
+      lastY = y;
+    }
+    return count;
+  }
+
+  /**
+   * Draws a line with Bresenham's algorithm, stepping one pixel along the
+   * longer axis at a time and across the shorter one whenever the error term
+   * passes half a pixel.
+   */
+  private void drawBresenham(int startX, int startY, int endX, int endY) {
+    int dx = Math.abs(endX - startX);
+    int dy = -Math.abs(endY - startY);
+    int stepX = startX < endX ? 1 : -1;
+    int stepY = startY < endY ? 1 : -1;
+    int error = dx + dy;
+    int x = startX;
+    int y = startY;
+    while (true) {
+      plot(x, y, 255);
+      if (x == endX && y == endY) {
+        return;
+      }
+      int doubled = error * 2;
+      if (doubled >= dy) {
+        error += dy;
+        x += stepX;
+      }
+      if (doubled <= dx) {
+        error += dx;
+        y += stepY;
+      }
+    }
+  }
+
+  /**
+   * Draws a line with Wu's algorithm in the integer form: a 16 bit fraction
+   * accumulates the distance of the line from the pixel row or column it is
+   * on, and its top 8 bits split the ink between that pixel and the next.
+   * Horizontal, vertical and diagonal lines fall on whole pixels.
+   */
+  private void drawWu(int startX, int startY, int endX, int endY) {
+    if (startY > endY) {
+      int swap = startX;
+      startX = endX;
+      endX = swap;
+      swap = startY;
+      startY = endY;
+      endY = swap;
+    }
+    int dx = endX - startX;
+    int dy = endY - startY;
+    int stepX = dx < 0 ? -1 : 1;
+    dx = Math.abs(dx);
+    if (dx == 0 || dy == 0 || dx == dy) {
+      drawBresenham(startX, startY, endX, endY);
+      return;
+    }
+    plot(startX, startY, 255);
+    int fraction = 0;
+    if (dy > dx) {
+      int step = (int) (((long) dx << 16) / dy);
+      for (int y = startY + 1; y < endY; y++) {
+        fraction += step;
+        if (fraction > 0xFFFF) {
+          fraction &= 0xFFFF;
+          startX += stepX;
+        }
+        int weight = fraction >>> 8;
+        plot(startX, y, 255 - weight);
+        plot(startX + stepX, y, weight);
+      }
+    } else {
+      int step = (int) (((long) dy << 16) / dx);
+      for (int x = startX + stepX; x != endX; x += stepX) {
+        fraction += step;
+        if (fraction > 0xFFFF) {
+          fraction &= 0xFFFF;
+          startY++;
+        }
+        int weight = fraction >>> 8;
+        plot(x, startY, 255 - weight);
+        plot(x, startY + 1, weight);
+      }
+    }
+    plot(endX, endY, 255);
+  }
+
+  /**
+   * Darkens a pixel by ink out of 255, keeping the tile the last pixel fell
+   * on so most pixels need no lookup. Pixels off the raster are skipped.
+   */
+  private void plot(int x, int y, int ink) {
+    if (x < 0 || y < 0 || ink == 0) {
+      return;
+    }
+    int tileX = x >> TILE_SHIFT;
+    int tileY = y >> TILE_SHIFT;
+    Tile tile = cachedTile;
+    if (tile == null || tileX != cachedTileX || tileY != cachedTileY) {
+      if (tileX >= tileColumns() || tileY >= tileRows()) {
+        return;
+      }
+      tile = tile(tileX, tileY, true);
+      tile.modified = true;
+      changed.add(key(tileX, tileY));
+      cachedTile = tile;
+      cachedTileX = tileX;
+      cachedTileY = tileY;
+    }
+    int i = ((y & (TILE_SIZE - 1)) << TILE_SHIFT) | (x & (TILE_SIZE - 1));
+    if (ink == 255) {
+      tile.pixels[i] = 0;
+      return;
+    }
+    int keep = 255 - ink;
+    int rgb = tile.pixels[i];
+    int red = ((rgb >> 16) & 0xFF) * keep;
+    int green = ((rgb >> 8) & 0xFF) * keep;
+    int blue = (rgb & 0xFF) * keep;
+    // divides by 255 with rounding
+    red = (red + 128 + ((red + 128) >> 8)) >> 8;
+    green = (green + 128 + ((green + 128) >> 8)) >> 8;
+    blue = (blue + 128 + ((blue + 128) >> 8)) >> 8;
+    tile.pixels[i] = (red << 16) | (green << 8) | blue;
+  }
+
+  private static long key(int tileX, int tileY) {
+    return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns a tile from memory or from the spill file, or a new white tile if
+   * create is true and the tile was never drawn on.
+   */
+  private Tile tile(int tileX, int tileY, boolean create) {
+    Long key = key(tileX, tileY);
+    Tile tile = resident.get(key);
+    if (tile != null) {
+      return tile;
+    }
+    Long slot = spilled.get(key);
+    if (slot == null && !create) {
+      return null;
+    }
+    tile = new Tile();
+    if (slot == null) {
+      Arrays.fill(tile.pixels, WHITE);
+      tile.modified = true;
+    } else {
+      readTile(slot, tile);
+    }
+    resident.put(key, tile);
+    evict();
+    return tile;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Long, Tile>> eldest = resident.entrySet().iterator();
+    while (resident.size() > tileBudget) {
+      Map.Entry<Long, Tile> entry = eldest.next();
+      Tile tile = entry.getValue();
+      if (tile.modified || !spilled.containsKey(entry.getKey())) {
+        Long slot = spilled.get(entry.getKey());
+        if (slot == null) {
+          slot = spillSlots++;
+          spilled.put(entry.getKey(), slot);
+        }
+        writeTile(slot, tile);
+      }
+      tile.graphics.dispose();
+      if (tile == cachedTile) {
+        cachedTile = null;
+      }
+      eldest.remove();
+    }
+  }
+
+  private void writeTile(long slot, Tile tile) {
+    try {
+      if (spillFile == null) {
+        spillPath = Files.createTempFile("canvas-tiles", ".bin");
+        spillPath.toFile().deleteOnExit();
+        spillFile = FileChannel.open(spillPath, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        transfer = ByteBuffer.allocateDirect(TILE_BYTES);
+      }
+      transfer.clear();
+      transfer.asIntBuffer().put(tile.pixels);
+      long position = slot * TILE_BYTES;
+      while (transfer.hasRemaining()) {
+        position += spillFile.write(transfer, position);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot spill tile", e);
+    }
+  }
+
+  private void readTile(long slot, Tile tile) {
+    try {
+      transfer.clear();
+      long position = slot * TILE_BYTES;
+      while (transfer.hasRemaining()) {
+        int read = spillFile.read(transfer, position);
+        if (read < 0) {
+          throw new IOException("spill file is truncated");
+        }
+        position += read;
+      }
+      transfer.flip();
+      transfer.asIntBuffer().get(tile.pixels);
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot read spilled tile", e);
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+package canvas;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes variable length integers: seven bits per byte, low bits
+ * first, with the high bit set on every byte but the last. Small values take
+ * one byte. Signed values are zigzag encoded first so that small negative
+ * numbers stay small.
+ * 
+ * @author sc2936@nyu.edu
+ *
+ */
+final class Varint {
+
+  private Varint() {
+  }
+
+  /**
+   * Writes a value as an unsigned varint.
+   * 
+   * @param out
+   * @param value treated as unsigned
+   * @throws IOException if the value cannot be written
+   */
+  static void writeUnsigned(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Reads an unsigned varint.
+   * 
+   * @param in
+   * @return the value
+   * @throws IOException if the varint is longer than ten bytes or cannot be
+   *           read
+   */
+  static long readUnsigned(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("varint too long");
+  }
+
+  /**
+   * Puts a value into a buffer as an unsigned varint.
+   * 
+   * @param out
+   * @param value treated as unsigned
+   * @throws java.nio.BufferOverflowException if the buffer is too small
+   */
+  static void putUnsigned(ByteBuffer out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  /**
+   * Gets an unsigned varint from a buffer.
+   * 
+   * @param in
+   * @return the value
+   * @throws IOException if the varint is longer than ten bytes or runs past
+   *           the end of the buffer
+   */
+  static long getUnsigned(ByteBuffer in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!in.hasRemaining()) {
+        throw new IOException("truncated varint");
+      }
+      int b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("varint too long");
+  }
+
+  /**
+   * Maps a signed int to an unsigned one: 0, -1, 1, -2 become 0, 1, 2, 3.
+   * 
+   * @param value
+   * @return the zigzag encoding
+   */
+  static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  /**
+   * Reverses zigzag.
+   * 
+   * @param value
+   * @return the signed value
+   */
+  static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+}
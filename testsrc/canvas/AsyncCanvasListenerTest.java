@@ -0,0 +1,187 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AsyncCanvasListenerTest {
+
+  // a listener that holds up the consumer thread until it is released
+  private static class GatedLogger implements CanvasListener {
+    final SegmentList lines = new SegmentList();
+    final CountDownLatch gate = new CountDownLatch(1);
+    int clears;
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      lines.add(startX, startY, endX, endY);
+    }
+
+    public void clearCanvas() {
+      clears++;
+    }
+  }
+
+  // plain record of delivered segments, four ints each
+  private static class SegmentList {
+    int[] coords = new int[64];
+    int size;
+
+    void add(int startX, int startY, int endX, int endY) {
+      coords[size * 4] = startX;
+      coords[size * 4 + 1] = startY;
+      coords[size * 4 + 2] = endX;
+      coords[size * 4 + 3] = endY;
+      size++;
+    }
+  }
+
+  @Test
+  public void keepsOrder() throws InterruptedException {
+    GatedLogger logger = new GatedLogger();
+    logger.gate.countDown();
+    AsyncCanvasListener async = new AsyncCanvasListener(logger, 4, OverflowPolicy.BLOCK);
+    for (int i = 0; i < 10; i++) {
+      async.lineDrawn(i, i, i + 1, i + 1);
+    }
+    assertTrue(async.awaitIdle(5000));
+    assertEquals(10, logger.lines.size);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, logger.lines.coords[i * 4]);
+    }
+    async.close();
+  }
+
+  // the first segment is taken by the consumer and held at the gate, the next
+  // two fill the queue, and the last two are merged into the newest one
+  @Test
+  public void coalesce() throws InterruptedException {
+    GatedLogger logger = new GatedLogger();
+    AsyncCanvasListener async = new AsyncCanvasListener(logger, 2, OverflowPolicy.COALESCE);
+    async.lineDrawn(0, 0, 1, 1);
+    while (async.queuedEvents() > 0) {
+      Thread.yield();
+    }
+    async.lineDrawn(1, 1, 2, 2);
+    async.lineDrawn(2, 2, 3, 3);
+    async.lineDrawn(3, 3, 4, 4);
+    async.lineDrawn(4, 4, 5, 5);
+    logger.gate.countDown();
+    assertTrue(async.awaitIdle(5000));
+    assertEquals(3, logger.lines.size);
+    assertEquals(2, logger.lines.coords[8]);
+    assertEquals(5, logger.lines.coords[10]);
+    async.close();
+  }
+
+  // segments that turn, or go back along the line, are not merged, since one
+  // segment would not cover the same pixels; the drawing thread waits instead
+  @Test
+  public void coalesceOnlyStraight() throws InterruptedException {
+    GatedLogger logger = new GatedLogger();
+    AsyncCanvasListener async = new AsyncCanvasListener(logger, 2, OverflowPolicy.COALESCE);
+    async.lineDrawn(0, 0, 1, 1);
+    while (async.queuedEvents() > 0) {
+      Thread.yield();
+    }
+    async.lineDrawn(1, 1, 2, 2);
+    async.lineDrawn(2, 2, 4, 4);
+    Thread opener = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      logger.gate.countDown();
+    });
+    opener.start();
+    async.lineDrawn(4, 4, 6, 3);
+    async.lineDrawn(6, 3, 2, 5);
+    assertTrue(async.awaitIdle(5000));
+    assertEquals(5, logger.lines.size);
+    assertEquals(6, logger.lines.coords[14]);
+    assertEquals(3, logger.lines.coords[15]);
+    assertEquals(2, logger.lines.coords[18]);
+    async.close();
+  }
+
+  @Test
+  public void dropOldest() throws InterruptedException {
+    GatedLogger logger = new GatedLogger();
+    AsyncCanvasListener async = new AsyncCanvasListener(logger, 2, OverflowPolicy.DROP_OLDEST);
+    async.lineDrawn(0, 0, 1, 1);
+    while (async.queuedEvents() > 0) {
+      Thread.yield();
+    }
+    async.lineDrawn(1, 1, 2, 2);
+    async.lineDrawn(2, 2, 3, 3);
+    async.lineDrawn(3, 3, 4, 4);
+    logger.gate.countDown();
+    assertTrue(async.awaitIdle(5000));
+    assertEquals(3, logger.lines.size);
+    assertEquals(0, logger.lines.coords[0]);
+    assertEquals(2, logger.lines.coords[4]);
+    assertEquals(3, logger.lines.coords[8]);
+    async.close();
+  }
+
+  @Test
+  public void asyncModel() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600, 16, OverflowPolicy.BLOCK);
+    CanvasLogger logger = new CanvasLogger(model);
+    model.start();
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(4, 3);
+    assertTrue(model.awaitDispatch(5000));
+    CanvasLine line = logger.getLastLine();
+    assertEquals(2, line.getStartX());
+    assertEquals(3, line.getEndY());
+    model.deregisterListener(logger);
+    assertEquals(0, model.getNumberOfListeners());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void asyncDuplicate() {
+    CanvasModel model = new CanvasModel(600, 600, 16, OverflowPolicy.BLOCK);
+    CanvasLogger logger = new CanvasLogger(model);
+    model.registerListener(logger);
+  }
+
+  // merged or dropped segments would make undo counts take back the wrong
+  // ones
+  @Test(expected = IllegalStateException.class)
+  public void undoWithCoalesce() {
+    new CanvasModel(600, 600, 16, OverflowPolicy.COALESCE).enableUndo();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void undoWithDropOldest() {
+    new CanvasModel(600, 600, 16, OverflowPolicy.DROP_OLDEST).enableUndo();
+  }
+
+  @Test
+  public void undoWithBlock() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600, 16, OverflowPolicy.BLOCK);
+    model.enableUndo();
+    CanvasLogger logger = new CanvasLogger(model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(4, 3);
+    model.endStroke();
+    model.undo();
+    assertTrue(model.awaitDispatch(5000));
+    assertTrue(logger.emptyCanvas());
+    model.deregisterListener(logger);
+  }
+
+}
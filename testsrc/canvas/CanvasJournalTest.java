@@ -0,0 +1,139 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CanvasJournalTest {
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("canvas", ".journal");
+    Files.delete(file);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void restore() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasJournal journal = CanvasJournal.open(file, model);
+    model.start();
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(4, 3);
+    assertEquals(3, journal.getRecordCount());
+    journal.close();
+
+    CanvasModel restored = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(restored);
+    CanvasJournal reopened = CanvasJournal.open(file, restored);
+    assertEquals(2, logger.getSegments().size());
+    CanvasLine line = logger.getLastLine();
+    assertEquals(2, line.getStartX());
+    assertEquals(3, line.getEndY());
+
+    restored.setStartPositions(10, 10);
+    restored.setEndPositions(20, 20);
+    assertEquals(4, reopened.getRecordCount());
+    reopened.close();
+  }
+
+  // undone segments stay undone when the journal is replayed
+  @Test
+  public void replayUndo() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    CanvasJournal journal = CanvasJournal.open(file, model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setStartPositions(5, 5);
+    model.setEndPositions(6, 6);
+    model.setEndPositions(7, 7);
+    model.undo();
+    journal.close();
+
+    CanvasModel restored = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(restored);
+    CanvasJournal.open(file, restored).close();
+    assertEquals(1, logger.getSegments().size());
+    assertEquals(2, logger.getLastLine().getEndX());
+  }
+
+  // each stroke is replayed as a stroke of its own, so undo after a restore
+  // takes back the last stroke drawn, however long the strokes are
+  @Test
+  public void undoAfterRestore() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasJournal journal = CanvasJournal.open(file, model);
+    model.setStartPositions(0, 0);
+    for (int i = 1; i <= 5000; i++) {
+      model.setEndPositions(i % 600, i / 600);
+    }
+    model.setStartPositions(300, 300);
+    model.setEndPositions(301, 301);
+    model.setEndPositions(302, 303);
+    journal.close();
+
+    CanvasModel restored = new CanvasModel(600, 600);
+    restored.enableUndo();
+    CanvasLogger logger = new CanvasLogger(restored);
+    CanvasJournal.open(file, restored).close();
+    assertEquals(5002, logger.getSegments().size());
+    restored.undo();
+    assertEquals(5000, logger.getSegments().size());
+    restored.undo();
+    assertEquals(0, logger.getSegments().size());
+  }
+
+  // the file grows with the records, and is cut back to them when closed
+  @Test
+  public void fileSize() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasJournal journal = CanvasJournal.open(file, model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    assertTrue(Files.size(file) < 1 << 20);
+    for (int i = 0; i < 10000; i++) {
+      model.setEndPositions(i % 600, 3);
+    }
+    assertTrue(Files.size(file) < 1 << 20);
+    journal.close();
+    assertEquals(CanvasJournal.HEADER_SIZE + 10001 * CanvasJournal.RECORD_SIZE,
+        Files.size(file));
+  }
+
+  @Test
+  public void replayClear() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasJournal journal = CanvasJournal.open(file, model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.clearCanvas();
+    model.setEndPositions(5, 5);
+    journal.close();
+
+    CanvasModel restored = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(restored);
+    assertEquals(3, CanvasJournal.replay(file, restored));
+    assertEquals(1, logger.getSegments().size());
+    assertEquals(5, logger.getLastLine().getEndX());
+  }
+
+  @Test(expected = IOException.class)
+  public void notAJournal() throws IOException {
+    Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+    CanvasJournal.open(file, new CanvasModel(600, 600));
+  }
+
+}
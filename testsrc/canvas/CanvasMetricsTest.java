@@ -0,0 +1,200 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class CanvasMetricsTest {
+
+  @Test
+  public void histogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(100, histogram.getMax());
+    assertEquals(50.5, histogram.getMean(), 1e-9);
+    // 50 falls in the bucket 32..63 and 99 in 64..127, capped at the max
+    assertEquals(63, histogram.getPercentile(0.5));
+    assertEquals(100, histogram.getPercentile(0.99));
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(0.5));
+  }
+
+  @Test
+  public void modelWithoutMetrics() {
+    CanvasModel model = new CanvasModel(100, 100);
+    assertNull(model.getMetrics());
+    new CanvasLogger(model);
+    model.setEndPositions(10, 10);
+  }
+
+  @Test
+  public void listenerCallsRecorded() {
+    CanvasModel model = new CanvasModel(100, 100);
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    new CanvasLogger(model);
+    model.start();
+    model.setEndPositions(10, 10);
+    model.setEndPositions(20, 20);
+    model.drawSegments(new int[] {1, 1, 2, 2, 3, 3, 4, 4}, 2);
+    // a batch of segments is one event
+    assertEquals(4, metrics.getEventCount());
+    List<CallStatistics> statistics = metrics.getListenerStatistics();
+    assertEquals(3, statistics.size());
+    for (CallStatistics call : statistics) {
+      assertTrue(call.getListener().startsWith("canvas.CanvasLogger@"));
+      if (call.getEvent().equals("lineDrawn")) {
+        assertEquals(2, call.getCount());
+      } else {
+        assertEquals(1, call.getCount());
+      }
+      assertTrue(call.getMaxNanos() >= call.getP50Nanos());
+    }
+  }
+
+  // a stroke ends when a new one starts or the canvas is cleared
+  @Test
+  public void strokesCounted() {
+    CanvasModel model = new CanvasModel(100, 100);
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    model.setStartPositions(0, 0);
+    model.setEndPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(3, 3);
+    model.setStartPositions(50, 50);
+    model.setEndPositions(51, 51);
+    model.clearCanvas();
+    model.setStartPositions(5, 5);
+    assertEquals(2, metrics.getStrokeCount());
+    assertEquals(3, metrics.getMaxSegmentsPerStroke());
+    assertEquals(2.0, metrics.getMeanSegmentsPerStroke(), 1e-9);
+  }
+
+  @Test
+  public void paintsAndReset() {
+    CanvasMetrics metrics = new CanvasMetrics();
+    metrics.recordPaint(System.nanoTime(), 100);
+    assertEquals(1, metrics.getPaintCount());
+    metrics.reset();
+    assertEquals(0, metrics.getPaintCount());
+    assertEquals(0, metrics.getEventCount());
+  }
+
+  @Test
+  public void asyncListenerNamed() throws InterruptedException {
+    CanvasModel model = new CanvasModel(100, 100, 16, OverflowPolicy.BLOCK);
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    new CanvasLogger(model);
+    model.setEndPositions(10, 10);
+    assertTrue(model.awaitDispatch(5000));
+    assertTrue(metrics.getListenerStatistics().get(0).getListener().endsWith(" (async)"));
+  }
+
+  // an asynchronous listener is timed on its consumer thread, so its figures
+  // include the time it takes, not just the queuing
+  @Test
+  public void asyncListenerTimed() throws InterruptedException {
+    CanvasModel model = new CanvasModel(100, 100, 16, OverflowPolicy.BLOCK);
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    model.registerListener(new CanvasLogger(new CanvasModel(100, 100)) {
+      @Override
+      public void lineDrawn(int startX, int startY, int endX, int endY) {
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    model.setEndPositions(10, 10);
+    assertTrue(model.awaitDispatch(5000));
+    CallStatistics call = metrics.getListenerStatistics().get(0);
+    assertEquals("lineDrawn", call.getEvent());
+    assertTrue(call.getMeanNanos() >= 4000000);
+  }
+
+  // figures are kept under the listener registered, not the wrapper that
+  // brings it up to date
+  @Test
+  public void catchUpUnwrapped() {
+    CanvasMetrics metrics = new CanvasMetrics();
+    CanvasLogger logger = new CanvasLogger(new CanvasModel(100, 100));
+    metrics.recordCall(new CatchUpListener(logger, new LateJoinState(100, 100)),
+        CanvasMetrics.LINE_DRAWN, System.nanoTime(), 1);
+    metrics.recordCall(logger, CanvasMetrics.LINE_DRAWN, System.nanoTime(), 1);
+    List<CallStatistics> statistics = metrics.getListenerStatistics();
+    assertEquals(1, statistics.size());
+    assertEquals(2, statistics.get(0).getCount());
+    assertTrue(statistics.get(0).getListener().startsWith("canvas.CanvasLogger@"));
+  }
+
+  @Test
+  public void deregisteredDropped() {
+    CanvasModel model = new CanvasModel(100, 100);
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    CanvasLogger logger = new CanvasLogger(model);
+    model.setEndPositions(10, 10);
+    assertEquals(1, metrics.getListenerStatistics().size());
+    model.deregisterListener(logger);
+    assertTrue(metrics.getListenerStatistics().isEmpty());
+  }
+
+  // listeners are told apart by identity, as the model tells them apart
+  @Test
+  public void equalListenersSeparate() {
+    CanvasModel model = new CanvasModel(100, 100);
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    CanvasLogger first = new EqualLogger();
+    CanvasLogger second = new EqualLogger();
+    model.registerListener(first);
+    model.registerListener(second);
+    model.setEndPositions(10, 10);
+    assertEquals(2, metrics.getListenerStatistics().size());
+    model.deregisterListener(first);
+    List<CallStatistics> statistics = metrics.getListenerStatistics();
+    assertEquals(1, statistics.size());
+    assertTrue(statistics.get(0).getListener().endsWith(
+        Integer.toHexString(System.identityHashCode(second))));
+  }
+
+  // each event counts once, undo and clear included
+  @Test
+  public void eventsCountedOnce() {
+    CanvasModel model = new CanvasModel(100, 100);
+    model.enableUndo();
+    CanvasMetrics metrics = new CanvasMetrics();
+    model.setMetrics(metrics);
+    model.drawSegments(new int[100 * 4], 100);
+    model.undo();
+    model.clearCanvas();
+    assertEquals(3, metrics.getEventCount());
+  }
+
+  private static class EqualLogger extends CanvasLogger {
+    EqualLogger() {
+      super(new CanvasModel(100, 100));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof EqualLogger;
+    }
+
+    @Override
+    public int hashCode() {
+      return 1;
+    }
+  }
+
+}
@@ -2,6 +2,9 @@ package canvas;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -152,4 +155,93 @@ public class CanvasModelTest {
     assertEquals(model.toString(), canvasString);
   }
 
+  // segments drawn before the scheduled flush runs arrive in one batch, and
+  // a logger without its own linesDrawn still sees each segment
+  @Test
+  public void batchedSegments() {
+    List<Runnable> scheduled = new ArrayList<Runnable>();
+    model.enableBatching(scheduled::add, 64);
+    int[] batches = new int[2];
+    model.registerListener(new CanvasListener() {
+      public void canvasReady() {
+      }
+
+      public void lineDrawn(int startX, int startY, int endX, int endY) {
+      }
+
+      public void linesDrawn(int[] coords, int count) {
+        batches[0]++;
+        batches[1] += count;
+      }
+
+      public void clearCanvas() {
+      }
+    });
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(4, 3);
+    model.setEndPositions(5, 6);
+    assertEquals(0, batches[0]);
+    assertEquals(1, scheduled.size());
+    scheduled.get(0).run();
+    assertEquals(1, batches[0]);
+    assertEquals(3, batches[1]);
+    CanvasLine line = logger.getLastLine();
+    assertEquals(4, line.getStartX());
+    assertEquals(6, line.getEndY());
+  }
+
+  @Test
+  public void batchFlushedBeforeClear() {
+    List<Runnable> scheduled = new ArrayList<Runnable>();
+    model.enableBatching(scheduled::add, 64);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.clearCanvas();
+    assertTrue(logger.emptyCanvas());
+    model.setEndPositions(3, 3);
+    model.flush();
+    assertEquals(3, logger.getLastLine().getEndX());
+  }
+
+  // a listener that deregisters itself while an event is being fired must not
+  // stop the event from reaching the listeners after it
+  @Test
+  public void deregisterWhileFiring() {
+    model.deregisterListener(logger);
+    model.registerListener(new CanvasListener() {
+      public void canvasReady() {
+      }
+
+      public void lineDrawn(int startX, int startY, int endX, int endY) {
+        model.deregisterListener(this);
+      }
+
+      public void clearCanvas() {
+      }
+    });
+    model.registerListener(logger);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    assertEquals(1, model.getNumberOfListeners());
+    assertEquals(2, logger.getLastLine().getEndX());
+  }
+
+  @Test
+  public void registerFromManyThreads() throws InterruptedException {
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100; i++) {
+          new CanvasLogger(model);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(801, model.getNumberOfListeners());
+  }
+
 }
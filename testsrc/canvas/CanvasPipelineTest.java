@@ -0,0 +1,188 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CanvasPipelineTest {
+
+  /**
+   * Writes down every event it is fired as a string.
+   */
+  private static class Events implements CanvasListener {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public synchronized void canvasReady() {
+      events.add("ready");
+    }
+
+    @Override
+    public synchronized void lineDrawn(int startX, int startY, int endX, int endY) {
+      events.add("line " + startX + " " + startY + " " + endX + " " + endY);
+    }
+
+    @Override
+    public synchronized void linesDrawn(int[] coords, int count) {
+      events.add("lines " + Arrays.toString(Arrays.copyOf(coords, count * 4)));
+    }
+
+    @Override
+    public synchronized void linesUndone(int count) {
+      events.add("undo " + count);
+    }
+
+    @Override
+    public synchronized void clearCanvas() {
+      events.add("clear");
+    }
+
+    synchronized List<String> get() {
+      return new ArrayList<String>(events);
+    }
+  }
+
+  @Test
+  public void empty() {
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().to(sink);
+    head.canvasReady();
+    head.lineDrawn(1, 2, 3, 4);
+    head.linesDrawn(new int[] {1, 1, 2, 2, 2, 2, 3, 3, 9}, 2);
+    head.linesUndone(2);
+    head.clearCanvas();
+    assertEquals(Arrays.asList("ready", "line 1 2 3 4", "lines [1, 1, 2, 2, 2, 2, 3, 3]",
+        "undo 2", "clear"), sink.get());
+  }
+
+  // undo counts only the segments that got through the region
+  @Test
+  public void region() {
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().region(0, 0, 9, 9).to(sink);
+    head.linesDrawn(new int[] {0, 0, 5, 5, 20, 20, 30, 30, 30, 30, 5, 5, 5, 5, 1, 1}, 4);
+    head.lineDrawn(50, 50, 60, 60);
+    assertEquals(Arrays.asList("lines [0, 0, 5, 5, 30, 30, 5, 5, 5, 5, 1, 1]"), sink.get());
+    head.linesUndone(3);
+    head.linesUndone(1);
+    head.linesUndone(5);
+    assertEquals(Arrays.asList("lines [0, 0, 5, 5, 30, 30, 5, 5, 5, 5, 1, 1]", "undo 2",
+        "undo 1"), sink.get());
+  }
+
+  // 2000 segments need more bits than the region starts with
+  @Test
+  public void regionHistoryGrows() {
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().region(0, 0, 9, 9).to(sink);
+    for (int i = 0; i < 2000; i++) {
+      int x = i % 3 == 0 ? 1 : 100;
+      head.lineDrawn(x, x, x, x);
+    }
+    head.linesUndone(1500);
+    assertEquals("undo 500", sink.get().get(sink.get().size() - 1));
+  }
+
+  @Test
+  public void sample() {
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().sample(3).to(sink);
+    for (int i = 0; i < 7; i++) {
+      head.lineDrawn(i, i, i, i);
+    }
+    assertEquals(Arrays.asList("line 0 0 0 0", "line 3 3 3 3", "line 6 6 6 6"), sink.get());
+    // undoing segments 4 to 6 takes away 6
+    head.linesUndone(3);
+    head.lineDrawn(7, 7, 7, 7);
+    head.lineDrawn(8, 8, 8, 8);
+    // segment 5 was not passed on, so nothing is undone
+    head.linesUndone(1);
+    // 9 takes the place of 5 and 10 of 6
+    head.lineDrawn(9, 9, 9, 9);
+    head.lineDrawn(10, 10, 10, 10);
+    assertEquals(Arrays.asList("line 0 0 0 0", "line 3 3 3 3", "line 6 6 6 6", "undo 1",
+        "line 10 10 10 10"), sink.get());
+  }
+
+  @Test
+  public void fused() {
+    CanvasPipeline pipeline = CanvasPipeline.create().transform(2, 2, 1, 1)
+        .transform(0.5, 0.5, 10, 20).sample(2).sample(3).region(0, 0, 100, 100)
+        .tee(new Events()).sample(2);
+    assertEquals(5, pipeline.getFusedLength());
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().transform(2, 2, 1, 1)
+        .transform(0.5, 0.5, 10, 20).to(sink);
+    head.lineDrawn(0, 0, 4, 6);
+    assertEquals(Arrays.asList("line 11 21 15 27"), sink.get());
+  }
+
+  // the tee sees segments before the region filter and the sink after it
+  @Test
+  public void tee() {
+    Events branch = new Events();
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().transform(1, 1, 5, 0).tee(branch)
+        .region(0, 0, 9, 9).to(sink);
+    head.lineDrawn(0, 0, 1, 1);
+    head.lineDrawn(10, 0, 11, 1);
+    head.linesUndone(2);
+    head.clearCanvas();
+    assertEquals(Arrays.asList("line 5 0 6 1", "line 15 0 16 1", "undo 2", "clear"),
+        branch.get());
+    assertEquals(Arrays.asList("line 5 0 6 1", "undo 1", "clear"), sink.get());
+  }
+
+  @Test
+  public void batch() throws InterruptedException {
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().batch(100, TimeUnit.MILLISECONDS).to(sink);
+    head.lineDrawn(1, 1, 2, 2);
+    head.linesDrawn(new int[] {2, 2, 3, 3, 3, 3, 4, 4}, 2);
+    assertTrue(sink.get().isEmpty());
+    Thread.sleep(300);
+    assertEquals(Arrays.asList("lines [1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4]"), sink.get());
+    // undo passes held segments on first
+    head.lineDrawn(4, 4, 5, 5);
+    head.linesUndone(2);
+    assertEquals(Arrays.asList("lines [1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4]", "line 4 4 5 5",
+        "undo 2"), sink.get());
+    Thread.sleep(200);
+    assertEquals(3, sink.get().size());
+  }
+
+  @Test
+  public void attach() {
+    CanvasModel model = new CanvasModel(600, 600);
+    Events sink = new Events();
+    CanvasListener head = CanvasPipeline.create().sample(2).attach(model, sink);
+    model.setStartPositions(0, 0);
+    for (int x = 1; x <= 4; x++) {
+      model.setEndPositions(x, 0);
+    }
+    model.deregisterListener(head);
+    model.setEndPositions(5, 0);
+    assertEquals(Arrays.asList("line 0 0 1 0", "line 2 0 3 0"), sink.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyRegion() {
+    CanvasPipeline.create().region(5, 0, 4, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void badSample() {
+    CanvasPipeline.create().sample(0);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void nullSink() {
+    CanvasPipeline.create().to(null);
+  }
+
+}
@@ -0,0 +1,41 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class CanvasRasterizerTest {
+
+  // a line across several tiles is drawn in each of them
+  @Test
+  public void renderAcrossTiles() {
+    SegmentStore segments = new SegmentStore();
+    segments.add(10, 300, 1000, 300);
+    segments.add(700, 10, 700, 10);
+    BufferedImage image = new CanvasRasterizer(1024, 600).render(segments);
+    assertEquals(0, image.getRGB(100, 300) & 0xFFFFFF);
+    assertEquals(0, image.getRGB(600, 300) & 0xFFFFFF);
+    assertEquals(0, image.getRGB(999, 300) & 0xFFFFFF);
+    assertEquals(0xFFFFFF, image.getRGB(600, 100) & 0xFFFFFF);
+  }
+
+  @Test
+  public void exportPng() throws IOException {
+    SegmentStore segments = new SegmentStore();
+    segments.add(0, 5, 99, 5);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new CanvasRasterizer(100, 10).writePng(segments, out);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(100, image.getWidth());
+    assertEquals(0, image.getRGB(50, 5) & 0xFFFFFF);
+    assertEquals(0xFFFFFF, image.getRGB(50, 1) & 0xFFFFFF);
+  }
+
+}
@@ -0,0 +1,200 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CanvasServerTest {
+  private CanvasModel model;
+  private CanvasLogger logger;
+  private CanvasServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    model = new CanvasModel(600, 600);
+    logger = new CanvasLogger(model);
+    server = new CanvasServer(model, 0);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws IOException, InterruptedException {
+    server.close();
+  }
+
+  // drawing on a client draws on the hosted model, and the segment comes back
+  // to every client
+  @Test
+  public void drawThroughServer() throws IOException, InterruptedException {
+    CanvasClient first = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    CanvasClient second = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    assertEquals(600, first.getCanvasLength());
+    CanvasLogger firstLogger = new CanvasLogger(first);
+    CanvasLogger secondLogger = new CanvasLogger(second);
+    waitFor(() -> server.getClientCount() == 2);
+
+    first.setStartPositions(1, 1);
+    first.setEndPositions(2, 2);
+    first.setEndPositions(4, 3);
+    waitFor(() -> secondLogger.getSegments().size() == 2);
+    assertEquals(2, logger.getSegments().size());
+    assertEquals(2, logger.getLastLine().getStartX());
+    assertEquals(3, secondLogger.getLastLine().getEndY());
+    waitFor(() -> firstLogger.getSegments().size() == 2);
+
+    second.clearCanvas();
+    waitFor(() -> firstLogger.emptyCanvas());
+    assertTrue(logger.emptyCanvas());
+    first.close();
+    second.close();
+  }
+
+  // drawing on the hosting side reaches the clients too
+  @Test
+  public void serverDrawing() throws IOException, InterruptedException {
+    CanvasClient client = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    CanvasLogger clientLogger = new CanvasLogger(client);
+    waitFor(() -> server.getClientCount() == 1);
+    model.setStartPositions(10, 10);
+    for (int i = 11; i < 500; i++) {
+      model.setEndPositions(i, i);
+    }
+    waitFor(() -> clientLogger.getSegments().size() == 489);
+    assertEquals(499, clientLogger.getLastLine().getEndX());
+    client.close();
+    waitFor(() -> server.getClientCount() == 0);
+  }
+
+  // an undo asked for by one client takes the stroke off every client
+  @Test
+  public void undoThroughServer() throws IOException, InterruptedException {
+    model.enableUndo();
+    CanvasClient first = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    CanvasClient second = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    CanvasLogger secondLogger = new CanvasLogger(second);
+    waitFor(() -> server.getClientCount() == 2);
+    first.setStartPositions(1, 1);
+    first.setEndPositions(2, 2);
+    first.setStartPositions(5, 5);
+    first.setEndPositions(6, 6);
+    waitFor(() -> secondLogger.getSegments().size() == 2);
+    first.undo();
+    waitFor(() -> secondLogger.getSegments().size() == 1);
+    assertEquals(1, logger.getSegments().size());
+    first.redo();
+    waitFor(() -> secondLogger.getSegments().size() == 2);
+    assertEquals(6, secondLogger.getLastLine().getEndX());
+    first.close();
+    second.close();
+  }
+
+  // two clients drawing at the same time draw two strokes, not one joined
+  // through a shared position
+  @Test
+  public void clientsDoNotJoin() throws IOException, InterruptedException {
+    CanvasClient first = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    CanvasClient second = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    waitFor(() -> server.getClientCount() == 2);
+    first.setStartPositions(1, 1);
+    second.setStartPositions(100, 100);
+    first.setEndPositions(2, 2);
+    second.setEndPositions(101, 101);
+    first.setEndPositions(3, 3);
+    second.setEndPositions(102, 102);
+    waitFor(() -> logger.getSegments().size() == 4);
+    SegmentStore segments = logger.getSegments();
+    for (int i = 0; i < segments.size(); i++) {
+      assertEquals(segments.getStartX(i) + 1, segments.getEndX(i));
+      assertEquals(segments.getStartY(i) + 1, segments.getEndY(i));
+    }
+    first.close();
+    second.close();
+  }
+
+  // a session opened on a client draws on a session of its own on the server
+  @Test
+  public void clientSession() throws IOException, InterruptedException {
+    List<Integer> tags = Collections.synchronizedList(new ArrayList<Integer>());
+    model.registerListener(new CanvasLogger(new CanvasModel(600, 600)) {
+      @Override
+      public void sessionLinesDrawn(int session, int[] coords, int count) {
+        for (int i = 0; i < count; i++) {
+          tags.add(session);
+        }
+      }
+    });
+    CanvasClient client = CanvasClient.connect("localhost", server.getPort(), Runnable::run);
+    CanvasLogger clientLogger = new CanvasLogger(client);
+    waitFor(() -> server.getClientCount() == 1);
+    StrokeSession first = client.openSession(5);
+    StrokeSession second = client.openSession(6);
+    first.begin(10, 10);
+    second.begin(200, 200);
+    first.extend(20, 10);
+    second.extend(200, 220);
+    first.extend(30, 10);
+    first.end();
+    second.end();
+    waitFor(() -> clientLogger.getSegments().size() == 3);
+    assertEquals(3, logger.getSegments().size());
+    assertEquals(3, tags.size());
+    assertEquals(2, Collections.frequency(tags, 5));
+    client.close();
+  }
+
+  // a client that connects after drawing started is sent READY and the
+  // canvas first, without the undone stroke, and then the events fired since;
+  // the logger counts READY as a segment
+  @Test
+  public void lateClient() throws IOException, InterruptedException {
+    model.enableUndo();
+    model.start();
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(3, 4);
+    model.setStartPositions(50, 50);
+    model.setEndPositions(60, 60);
+    model.undo();
+    CountDownLatch registered = new CountDownLatch(1);
+    CanvasClient client = CanvasClient.connect("localhost", server.getPort(), task -> {
+      try {
+        registered.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      task.run();
+    });
+    CanvasLogger clientLogger = new CanvasLogger(client);
+    registered.countDown();
+    waitFor(() -> clientLogger.getSegments().size() == 3);
+    assertEquals(4, clientLogger.getLastLine().getEndY());
+    model.setStartPositions(7, 7);
+    model.setEndPositions(8, 9);
+    waitFor(() -> clientLogger.getSegments().size() == 4);
+    assertEquals(9, clientLogger.getLastLine().getEndY());
+    client.close();
+  }
+
+  private interface Condition {
+    boolean met();
+  }
+
+  private static void waitFor(Condition condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.met()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("timed out");
+      }
+      Thread.sleep(5);
+    }
+  }
+
+}
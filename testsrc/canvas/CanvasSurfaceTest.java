@@ -0,0 +1,217 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CanvasSurfaceTest {
+
+  /**
+   * Keeps the areas it is told about.
+   */
+  private static class Areas implements CanvasSurface.Observer {
+    final List<int[]> changed = new ArrayList<int[]>();
+
+    @Override
+    public void areaChanged(int minX, int minY, int maxX, int maxY) {
+      changed.add(new int[] {minX, minY, maxX, maxY});
+    }
+  }
+
+  /**
+   * Runs a task on the event dispatch thread and waits for it.
+   */
+  private static void onEdt(Runnable task)
+      throws InvocationTargetException, InterruptedException {
+    EventQueue.invokeAndWait(task);
+  }
+
+  // many observers of one model share a surface that draws each segment once
+  @Test
+  public void drawnOnce() throws InvocationTargetException, InterruptedException {
+    onEdt(() -> drawnOnceOnEdt());
+  }
+
+  private void drawnOnceOnEdt() {
+    CanvasModel model = new CanvasModel(600, 600);
+    List<Areas> observers = new ArrayList<Areas>();
+    CanvasSurface surface = null;
+    for (int i = 0; i < 8; i++) {
+      Areas areas = new Areas();
+      observers.add(areas);
+      CanvasSurface acquired = CanvasSurface.acquire(model, areas);
+      assertTrue(surface == null || surface == acquired);
+      surface = acquired;
+    }
+    model.setStartPositions(10, 20);
+    model.setEndPositions(30, 5);
+    model.drawSegments(new int[] {100, 100, 110, 110, 50, 300, 60, 310}, 2);
+    assertEquals(3, surface.getSegmentsDrawn());
+    for (Areas areas : observers) {
+      assertEquals(2, areas.changed.size());
+      assertArrayEquals(new int[] {10, 5, 30, 20}, areas.changed.get(0));
+      assertArrayEquals(new int[] {50, 100, 110, 310}, areas.changed.get(1));
+    }
+    assertTrue(surface.getRaster().getRGB(105, 105) != 0xFFFFFF);
+  }
+
+  // an observer that comes late sees what is already drawn
+  @Test
+  public void lateObserver() throws InvocationTargetException, InterruptedException {
+    onEdt(() -> lateObserverOnEdt());
+  }
+
+  private void lateObserverOnEdt() {
+    CanvasModel model = new CanvasModel(600, 600);
+    Areas first = new Areas();
+    CanvasSurface surface = CanvasSurface.acquire(model, first);
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 10);
+    Areas late = new Areas();
+    assertSame(surface, CanvasSurface.acquire(model, late));
+    assertEquals(0, surface.getRaster().getRGB(15, 10));
+    assertTrue(late.changed.isEmpty());
+  }
+
+  @Test
+  public void undoAndClearChangeEverything()
+      throws InvocationTargetException, InterruptedException {
+    onEdt(() -> undoAndClearOnEdt());
+  }
+
+  private void undoAndClearOnEdt() {
+    CanvasModel model = new CanvasModel(600, 400);
+    model.enableUndo();
+    Areas areas = new Areas();
+    CanvasSurface surface = CanvasSurface.acquire(model, areas);
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 10);
+    model.undo();
+    assertArrayEquals(new int[] {0, 0, 600, 400}, areas.changed.get(1));
+    assertEquals(0xFFFFFF, surface.getRaster().getRGB(15, 10));
+    model.clearCanvas();
+    assertEquals(3, areas.changed.size());
+  }
+
+  // the last release deregisters the surface, so the next one starts empty
+  @Test
+  public void release() throws InvocationTargetException, InterruptedException {
+    onEdt(() -> releaseOnEdt());
+  }
+
+  private void releaseOnEdt() {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    Areas first = new Areas();
+    Areas second = new Areas();
+    CanvasSurface surface = CanvasSurface.acquire(model, first);
+    CanvasSurface.acquire(model, second);
+    surface.release(first);
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 10);
+    assertEquals(1, surface.getSegmentsDrawn());
+    surface.release(second);
+    model.setEndPositions(30, 10);
+    assertEquals(1, surface.getSegmentsDrawn());
+    assertEquals(1, first.changed.size() + second.changed.size());
+    CanvasSurface next = CanvasSurface.acquire(model, first);
+    assertNotSame(surface, next);
+    assertEquals(0xFFFFFF, next.getRaster().getRGB(15, 10));
+    assertEquals(2, logger.getSegments().size());
+    next.release(first);
+  }
+
+  // with a frame rate, segments wait for the next frame and are drawn together
+  @Test
+  public void paced() throws InterruptedException, InvocationTargetException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    Areas areas = new Areas();
+    CanvasSurface[] surface = new CanvasSurface[1];
+    EventQueue.invokeAndWait(() -> {
+      surface[0] = CanvasSurface.acquire(model, areas);
+      surface[0].setFrameRate(50);
+      model.setStartPositions(10, 10);
+      for (int x = 11; x <= 40; x++) {
+        model.setEndPositions(x, 10 + x % 3);
+      }
+      assertEquals(0, surface[0].getSegmentsDrawn());
+    });
+    Thread.sleep(200);
+    EventQueue.invokeAndWait(() -> {
+      assertEquals(30, surface[0].getSegmentsDrawn());
+      assertEquals(1, areas.changed.size());
+      assertArrayEquals(new int[] {10, 10, 40, 12}, areas.changed.get(0));
+      assertEquals(1, surface[0].getScheduler().getFrameCount());
+      // undo draws what is queued before taking the stroke off
+      model.endStroke();
+      model.setStartPositions(100, 100);
+      model.setEndPositions(110, 100);
+      model.undo();
+      assertEquals(31, surface[0].getSegmentsDrawn());
+      assertEquals(0xFFFFFF, surface[0].getRaster().getRGB(105, 100));
+      surface[0].release(areas);
+    });
+  }
+
+  // events fired on another thread are drawn on the event dispatch thread,
+  // undo and clear in the order they came
+  @Test
+  public void offEdt() throws InvocationTargetException, InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    Areas areas = new Areas();
+    CanvasSurface[] surface = new CanvasSurface[1];
+    onEdt(() -> surface[0] = CanvasSurface.acquire(model, areas));
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 10);
+    model.setStartPositions(10, 50);
+    model.setEndPositions(20, 50);
+    model.undo();
+    model.setStartPositions(10, 90);
+    model.setEndPositions(20, 90);
+    // the queued events are drawn before anything posted after them
+    onEdt(() -> {
+      TiledRaster raster = surface[0].getRaster();
+      assertEquals(0, raster.getRGB(15, 10));
+      assertEquals(0xFFFFFF, raster.getRGB(15, 50));
+      assertEquals(0, raster.getRGB(15, 90));
+    });
+    model.clearCanvas();
+    model.setStartPositions(10, 130);
+    model.setEndPositions(20, 130);
+    onEdt(() -> {
+      TiledRaster raster = surface[0].getRaster();
+      assertEquals(0xFFFFFF, raster.getRGB(15, 10));
+      assertEquals(0xFFFFFF, raster.getRGB(15, 90));
+      assertEquals(0, raster.getRGB(15, 130));
+      surface[0].release(areas);
+    });
+    assertEquals(0, model.getNumberOfListeners());
+  }
+
+  // the surface is an internal listener of its model, left out of the count
+  @Test
+  public void notCounted() throws InvocationTargetException, InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    Areas areas = new Areas();
+    onEdt(() -> {
+      CanvasSurface surface = CanvasSurface.acquire(model, areas);
+      assertEquals(1, model.getNumberOfListeners());
+      model.deregisterListener(logger);
+      assertEquals(0, model.getNumberOfListeners());
+      model.setStartPositions(10, 10);
+      model.setEndPositions(20, 10);
+      assertEquals(1, surface.getSegmentsDrawn());
+      surface.release(areas);
+      assertNull(model.getSurface());
+    });
+  }
+
+}
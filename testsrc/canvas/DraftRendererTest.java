@@ -0,0 +1,244 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DraftRendererTest {
+  private static final int SIZE = 600;
+
+  private final TiledRaster raster = new TiledRaster(SIZE, SIZE);
+  private final List<int[]> areas = new ArrayList<int[]>();
+
+  private DraftRenderer renderer(RasterHistory history, int idleDelay) {
+    return new DraftRenderer(history, raster, (minX, minY, maxX, maxY) -> areas.add(
+        new int[] {minX, minY, maxX, maxY}), idleDelay);
+  }
+
+  /**
+   * Runs a task on the event dispatch thread and waits for it.
+   */
+  private static void onEdt(Runnable task)
+      throws InvocationTargetException, InterruptedException {
+    EventQueue.invokeAndWait(task);
+  }
+
+  /**
+   * Waits until the background redraw of the drafts is in place.
+   */
+  private static void settle(DraftRenderer renderer)
+      throws InvocationTargetException, InterruptedException {
+    boolean[] settled = new boolean[1];
+    for (int i = 0; i < 1000 && !settled[0]; i++) {
+      Thread.sleep(5);
+      onEdt(() -> settled[0] = renderer.isSettled());
+    }
+    assertTrue(settled[0]);
+  }
+
+  /**
+   * Returns the segments of a stroke that zigzags across several tiles at
+   * angles where antialiased and Bresenham lines differ.
+   */
+  private static int[] stroke(int offset, int count) {
+    int[] coords = new int[count * 4];
+    int x = 20 + offset;
+    int y = 30;
+    for (int i = 0; i < count; i++) {
+      int nextX = 20 + offset + (i * 37) % 540;
+      int nextY = 30 + (i * i * 13) % 540;
+      coords[i * 4] = x;
+      coords[i * 4 + 1] = y;
+      coords[i * 4 + 2] = nextX;
+      coords[i * 4 + 3] = nextY;
+      x = nextX;
+      y = nextY;
+    }
+    return coords;
+  }
+
+  private static void draw(int[] coords, int count, SegmentVisitor visitor) {
+    for (int i = 0; i < count * 4; i += 4) {
+      visitor.visit(coords[i], coords[i + 1], coords[i + 2], coords[i + 3]);
+    }
+  }
+
+  /**
+   * Returns a raster with segments drawn straight on at full quality.
+   */
+  private static TiledRaster reference(int[] coords, int count) {
+    TiledRaster reference = new TiledRaster(SIZE, SIZE);
+    draw(coords, count, reference::drawLine);
+    return reference;
+  }
+
+  private void assertSamePixels(TiledRaster expected) {
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), raster.getRGB(x, y));
+      }
+    }
+  }
+
+  private boolean differs(TiledRaster expected) {
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        if (expected.getRGB(x, y) != raster.getRGB(x, y)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // drafts differ from antialiased lines until they are redrawn
+  @Test
+  public void refined() throws Exception {
+    RasterHistory history = new RasterHistory(raster);
+    DraftRenderer renderer = renderer(history, 10000);
+    int[] coords = stroke(0, 40);
+    onEdt(() -> {
+      draw(coords, 40, renderer::drawLine);
+      assertTrue(differs(reference(coords, 40)));
+      renderer.refine();
+    });
+    settle(renderer);
+    assertSamePixels(reference(coords, 40));
+    assertEquals(1, renderer.getRefineCount());
+    assertEquals(1, areas.size());
+    assertEquals(LineMode.JAVA2D, raster.getLineMode());
+  }
+
+  @Test
+  public void idle() throws Exception {
+    RasterHistory history = new RasterHistory(raster);
+    DraftRenderer renderer = renderer(history, 20);
+    int[] coords = stroke(0, 10);
+    onEdt(() -> draw(coords, 10, renderer::drawLine));
+    settle(renderer);
+    assertSamePixels(reference(coords, 10));
+    assertEquals(1, renderer.getRefineCount());
+  }
+
+  // drafts drawn over tiles while the tiles are redrawn are kept, and
+  // refined once drawing pauses
+  @Test
+  public void drawnWhileRefining() throws Exception {
+    RasterHistory history = new RasterHistory(raster);
+    DraftRenderer renderer = renderer(history, 50);
+    int[] coords = stroke(0, 60);
+    onEdt(() -> {
+      draw(coords, 30, renderer::drawLine);
+      renderer.refine();
+      for (int i = 30; i < 60; i++) {
+        renderer.drawLine(coords[i * 4], coords[i * 4 + 1], coords[i * 4 + 2],
+            coords[i * 4 + 3]);
+      }
+    });
+    settle(renderer);
+    assertSamePixels(reference(coords, 60));
+    assertEquals(2, renderer.getRefineCount());
+  }
+
+  // checkpoints are held while drafts are on the raster, so undo never
+  // brings draft pixels back
+  @Test
+  public void undo() throws Exception {
+    RasterHistory history = new RasterHistory(raster, 4);
+    DraftRenderer renderer = renderer(history, 10000);
+    int[] coords = stroke(0, 20);
+    onEdt(() -> {
+      draw(coords, 20, renderer::drawLine);
+      assertEquals(0, history.getCheckpointCount());
+      renderer.cancel();
+      history.undo(5);
+    });
+    assertSamePixels(reference(coords, 15));
+    assertTrue(renderer.isSettled());
+  }
+
+  // a redraw still running when the drafts are cancelled is thrown away
+  @Test
+  public void cancelWhileRefining() throws Exception {
+    RasterHistory history = new RasterHistory(raster);
+    DraftRenderer renderer = renderer(history, 10000);
+    int[] coords = stroke(0, 20);
+    onEdt(() -> {
+      draw(coords, 20, renderer::drawLine);
+      renderer.refine();
+      renderer.cancel();
+      history.clear();
+    });
+    // lets the redraw finish and its result reach the event dispatch thread
+    Thread.sleep(100);
+    onEdt(() -> {
+    });
+    assertEquals(0, renderer.getRefineCount());
+    assertEquals(0xFFFFFF, raster.getRGB(20, 30));
+  }
+
+  @Test
+  public void finish() throws Exception {
+    RasterHistory history = new RasterHistory(raster);
+    DraftRenderer renderer = renderer(history, 10000);
+    int[] coords = stroke(7, 30);
+    onEdt(() -> {
+      draw(coords, 30, renderer::drawLine);
+      assertTrue(renderer.finish());
+      assertFalse(renderer.finish());
+    });
+    assertSamePixels(reference(coords, 30));
+  }
+
+  // with BRESENHAM lines there is nothing to draft
+  @Test
+  public void bresenham() throws Exception {
+    RasterHistory history = new RasterHistory(raster);
+    DraftRenderer renderer = renderer(history, 10000);
+    raster.setLineMode(LineMode.BRESENHAM);
+    onEdt(() -> renderer.drawLine(0, 0, 100, 37));
+    assertTrue(renderer.isSettled());
+  }
+
+  // the surface drafts while adaptive quality is on
+  @Test
+  public void surface() throws Exception {
+    CanvasModel model = new CanvasModel(SIZE, SIZE);
+    CanvasSurface.Observer observer = (minX, minY, maxX, maxY) -> {
+    };
+    CanvasSurface surface = CanvasSurface.acquire(model, observer);
+    int[] coords = stroke(3, 25);
+    onEdt(() -> {
+      surface.setAdaptiveQuality(true);
+      model.drawSegments(coords, 25);
+      assertFalse(surface.getDrafts().isSettled());
+      surface.setAdaptiveQuality(false);
+      assertTrue(surface.getDrafts().isSettled());
+    });
+    TiledRaster expected = reference(coords, 25);
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        assertEquals(expected.getRGB(x, y), surface.getRaster().getRGB(x, y));
+      }
+    }
+    surface.release(observer);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void nullHistory() {
+    new DraftRenderer(null, raster, (minX, minY, maxX, maxY) -> {
+    }, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void badIdleDelay() {
+    new DraftRenderer(new RasterHistory(raster), raster, (minX, minY, maxX, maxY) -> {
+    }, -1);
+  }
+
+}
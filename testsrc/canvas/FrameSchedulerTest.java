@@ -0,0 +1,84 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.awt.EventQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FrameSchedulerTest {
+
+  // every request made before the frame runs is served by that frame
+  @Test
+  public void coalesces() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    FrameScheduler scheduler = new FrameScheduler(60, runs::incrementAndGet);
+    for (int i = 0; i < 1000; i++) {
+      scheduler.request();
+    }
+    Thread.sleep(200);
+    assertEquals(1, runs.get());
+    assertEquals(1, scheduler.getFrameCount());
+  }
+
+  // requests far faster than the frame rate run at the frame rate
+  @Test
+  public void paced() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    FrameScheduler scheduler = new FrameScheduler(20, runs::incrementAndGet);
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+    while (System.nanoTime() < end) {
+      scheduler.request();
+      Thread.sleep(1);
+    }
+    scheduler.stop();
+    assertTrue(runs.get() >= 4);
+    assertTrue(runs.get() <= 12);
+  }
+
+  // long frames push the next ones further apart
+  @Test
+  public void adapts() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    FrameScheduler scheduler = new FrameScheduler(1000, () -> {
+      runs.incrementAndGet();
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1), scheduler.getEffectivePeriod());
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(600);
+    while (System.nanoTime() < end) {
+      scheduler.request();
+      Thread.sleep(1);
+    }
+    scheduler.stop();
+    assertTrue(scheduler.getEffectivePeriod() > TimeUnit.MILLISECONDS.toNanos(20));
+    // without adapting there would be one frame every 20 ms
+    assertTrue(runs.get() < 25);
+  }
+
+  @Test
+  public void runsOnEventDispatchThread() throws InterruptedException {
+    AtomicInteger onEdt = new AtomicInteger();
+    FrameScheduler scheduler = new FrameScheduler(60, () -> {
+      if (EventQueue.isDispatchThread()) {
+        onEdt.incrementAndGet();
+      }
+    });
+    scheduler.request();
+    Thread.sleep(100);
+    assertEquals(1, onEdt.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void badRate() {
+    new FrameScheduler(0, () -> {
+    });
+  }
+
+}
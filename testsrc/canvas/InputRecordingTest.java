@@ -0,0 +1,189 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class InputRecordingTest {
+
+  private static InputRecording record(int segments) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputRecorder recorder = new InputRecorder(bytes, 2000, 2000);
+    RecordingCanvasModel model = new RecordingCanvasModel(2000, 2000, recorder);
+    model.setStartPositions(1, 1);
+    for (int i = 2; i < segments + 2; i++) {
+      model.setEndPositions(i, i);
+    }
+    recorder.close();
+    return InputRecording.read(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  public void varints() throws IOException {
+    long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, -1L};
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (long value : values) {
+      Varint.writeUnsigned(out, value);
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    for (long value : values) {
+      assertEquals(value, Varint.readUnsigned(in));
+    }
+    for (int value : new int[] {0, -1, 1, -64, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+      assertEquals(value, Varint.unzigzag(Varint.zigzag(value)));
+    }
+  }
+
+  // every call is kept, including positions out of bounds
+  @Test
+  public void recordAndRead() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputRecorder recorder = new InputRecorder(bytes, 300, 200);
+    RecordingCanvasModel model = new RecordingCanvasModel(300, 200, recorder);
+    model.setStartPositions(10, 20);
+    model.setEndPositions(-5, 400);
+    model.clearCanvas();
+    recorder.close();
+    InputRecording recording = InputRecording.read(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(300, recording.getCanvasLength());
+    assertEquals(200, recording.getCanvasHeight());
+    assertEquals(3, recording.size());
+    assertEquals(InputRecording.START, recording.getType(0));
+    assertEquals(20, recording.getY(0));
+    assertEquals(InputRecording.END, recording.getType(1));
+    assertEquals(-5, recording.getX(1));
+    assertEquals(400, recording.getY(1));
+    assertEquals(InputRecording.CLEAR, recording.getType(2));
+    assertTrue(recording.getTime(2) >= recording.getTime(1));
+  }
+
+  @Test(expected = IOException.class)
+  public void notARecording() throws IOException {
+    InputRecording.read(new ByteArrayInputStream(new byte[16]));
+  }
+
+  @Test
+  public void replay() throws Exception {
+    InputRecording recording = record(50);
+    CanvasModel model = new CanvasModel(100, 100);
+    CanvasLogger logger = new CanvasLogger(model);
+    new ReplayDriver(model, ReplayDriver.MAX_SPEED).play(recording);
+    assertEquals(50, logger.getSegments().size());
+    assertEquals(50, logger.getLastLine().getStartX());
+    assertEquals(51, logger.getLastLine().getEndY());
+  }
+
+  @Test
+  public void playAllConcurrently() throws Exception {
+    InputRecording recording = record(1000);
+    CanvasModel model = new CanvasModel(2000, 2000);
+    CanvasLogger logger = new CanvasLogger(model);
+    long calls = new ReplayDriver(model, ReplayDriver.MAX_SPEED)
+        .playAll(Arrays.asList(recording, recording), 3);
+    assertEquals(6 * 1001, calls);
+    SegmentStore segments = logger.getSegments();
+    assertEquals(6 * 1000, segments.size());
+    // each replay has a position of its own, so no segment joins two of them
+    for (int i = 0; i < segments.size(); i++) {
+      assertEquals(segments.getStartX(i) + 1, segments.getEndX(i));
+    }
+  }
+
+  // a recording is played no faster than its recorded timing over the speed
+  @Test
+  public void paced() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputRecorder recorder = new InputRecorder(bytes, 100, 100);
+    recorder.recordStart(0, 0);
+    Thread.sleep(100);
+    recorder.recordEnd(1, 1);
+    recorder.close();
+    InputRecording recording = InputRecording.read(new ByteArrayInputStream(bytes.toByteArray()));
+    assertTrue(recording.getDurationNanos() >= 100000000L);
+    long start = System.nanoTime();
+    new ReplayDriver(new CanvasModel(100, 100), 2).play(recording);
+    assertTrue(System.nanoTime() - start >= 50000000L);
+  }
+
+  private static InputRecording read(ByteArrayOutputStream bytes) throws IOException {
+    return InputRecording.read(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  // undo and redo are recorded and replayed with the drawing
+  @Test
+  public void undoAndRedo() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputRecorder recorder = new InputRecorder(bytes, 100, 100);
+    RecordingCanvasModel model = new RecordingCanvasModel(100, 100, recorder);
+    model.enableUndo();
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.endStroke();
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 20);
+    model.setEndPositions(30, 30);
+    model.endStroke();
+    model.undo();
+    model.undo();
+    model.redo();
+    recorder.close();
+    InputRecording recording = read(bytes);
+    assertEquals(10, recording.size());
+    assertEquals(InputRecording.UNDO, recording.getType(8));
+    assertEquals(InputRecording.REDO, recording.getType(9));
+    CanvasModel replayed = new CanvasModel(100, 100);
+    replayed.enableUndo();
+    CanvasLogger logger = new CanvasLogger(replayed);
+    new ReplayDriver(replayed, ReplayDriver.MAX_SPEED).play(recording);
+    assertEquals(1, logger.getSegments().size());
+    assertEquals(2, logger.getLastLine().getEndX());
+  }
+
+  // calls from several threads are recorded in the order they were made on
+  // the model, so a replay draws the same segments
+  @Test
+  public void concurrentCalls() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    InputRecorder recorder = new InputRecorder(bytes, 1000, 1000);
+    RecordingCanvasModel model = new RecordingCanvasModel(1000, 1000, recorder);
+    CanvasLogger original = new CanvasLogger(model);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int row = t * 100;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 5000; i++) {
+          if (i % 50 == 0) {
+            model.setStartPositions(0, row);
+          }
+          model.setEndPositions(i % 1000, row + i % 3);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    recorder.close();
+    CanvasModel replayed = new CanvasModel(1000, 1000);
+    CanvasLogger logger = new CanvasLogger(replayed);
+    new ReplayDriver(replayed, ReplayDriver.MAX_SPEED).play(read(bytes));
+    SegmentStore expected = original.getSegments();
+    SegmentStore actual = logger.getSegments();
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getStartX(i), actual.getStartX(i));
+      assertEquals(expected.getStartY(i), actual.getStartY(i));
+      assertEquals(expected.getEndX(i), actual.getEndX(i));
+      assertEquals(expected.getEndY(i), actual.getEndY(i));
+    }
+  }
+
+}
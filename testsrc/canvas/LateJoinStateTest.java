@@ -0,0 +1,217 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class LateJoinStateTest {
+
+  /**
+   * A logger slow to take batches, so that events are fired while it
+   * catches up.
+   */
+  private static class SlowLogger extends CanvasLogger {
+
+    SlowLogger(CanvasModel model) {
+      super(model);
+    }
+
+    @Override
+    public void linesDrawn(int[] coords, int count) {
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.linesDrawn(coords, count);
+    }
+  }
+
+  private static void assertSame(SegmentStore expected, SegmentStore actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getStartX(i), actual.getStartX(i));
+      assertEquals(expected.getStartY(i), actual.getStartY(i));
+      assertEquals(expected.getEndX(i), actual.getEndX(i));
+      assertEquals(expected.getEndY(i), actual.getEndY(i));
+    }
+  }
+
+  private static void stroke(CanvasModel model, int y, int length) {
+    model.setStartPositions(0, y);
+    for (int x = 1; x <= length; x++) {
+      model.setEndPositions(x, y + x % 2);
+    }
+    model.endStroke();
+  }
+
+  // a listener registered late is given what is on the canvas, not what was
+  // undone or cleared
+  @Test
+  public void lateListener() {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    model.enableLateJoin();
+    CanvasLogger early = new CanvasLogger(model);
+    stroke(model, 10, 50);
+    model.clearCanvas();
+    stroke(model, 20, 30);
+    stroke(model, 30, 40);
+    stroke(model, 40, 20);
+    model.undo();
+    model.drawSegments(new int[] {5, 5, 6, 6, 6, 6, 7, 7}, 2);
+    CanvasLogger late = new CanvasLogger(model);
+    assertEquals(72, late.getSegments().size());
+    assertSame(early.getSegments(), late.getSegments());
+    // undo counts mean the same to it
+    model.undo();
+    model.undo();
+    assertSame(early.getSegments(), late.getSegments());
+    assertEquals(30, late.getSegments().size());
+  }
+
+  // without late join a late listener only sees what comes next
+  @Test
+  public void disabled() {
+    CanvasModel model = new CanvasModel(600, 600);
+    stroke(model, 10, 50);
+    CanvasLogger late = new CanvasLogger(model);
+    assertTrue(late.emptyCanvas());
+  }
+
+  // listeners that register while another thread draws, undoes and clears
+  // end up with the same segments as one that saw everything
+  @Test
+  public void whileDrawing() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    model.enableLateJoin();
+    CanvasLogger early = new CanvasLogger(model);
+    AtomicBoolean done = new AtomicBoolean();
+    Thread drawer = new Thread(() -> {
+      for (int round = 0; !done.get(); round++) {
+        stroke(model, round % 500, 1 + round % 200);
+        if (round % 7 == 0) {
+          model.undo();
+        }
+        if (round % 101 == 0) {
+          model.clearCanvas();
+        }
+      }
+    });
+    drawer.start();
+    CanvasLogger[] late = new CanvasLogger[20];
+    for (int i = 0; i < late.length; i++) {
+      Thread.sleep(5);
+      late[i] = new SlowLogger(model);
+    }
+    done.set(true);
+    drawer.join();
+    for (CanvasLogger logger : late) {
+      assertSame(early.getSegments(), logger.getSegments());
+    }
+  }
+
+  // a late listener of an asynchronous model catches up through its queue
+  @Test
+  public void asynchronous() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600, 64, OverflowPolicy.BLOCK);
+    model.enableLateJoin();
+    for (int y = 0; y < 10; y++) {
+      stroke(model, y * 10, 500);
+    }
+    CanvasLogger late = new CanvasLogger(model);
+    stroke(model, 200, 10);
+    assertTrue(model.awaitDispatch(5000));
+    assertEquals(5010, late.getSegments().size());
+    CanvasLine last = late.getLastLine();
+    assertEquals(10, last.getEndX());
+    assertEquals(200, last.getEndY());
+    model.deregisterListener(late);
+  }
+
+  private static void awaitCompaction(CanvasModel model, int segments)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (model.getJoinState().compactedSegments() < segments) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  // a listener registered after a compaction is given it as runs of pixels
+  // and the rest as drawn, and is given everything as drawn once an undo
+  // reaches into the runs
+  @Test
+  public void compacted() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    model.enableLateJoin();
+    CanvasLogger early = new CanvasLogger(model);
+    for (int y = 0; y < 80; y++) {
+      stroke(model, y, 500);
+    }
+    awaitCompaction(model, LateJoinState.COMPACT_EVERY);
+    int compacted = model.getJoinState().compactedSegments();
+    CanvasLogger late = new CanvasLogger(model);
+    SegmentStore all = early.getSegments();
+    SegmentStore given = late.getSegments();
+    int runs = given.size() - (all.size() - compacted);
+    // rows two strokes overlap on are one run of pixels, the first and last
+    // rows are single pixels
+    assertTrue(runs + " runs", runs < compacted / 50);
+    for (int i = 0; i < runs; i++) {
+      assertEquals(given.getStartY(i), given.getEndY(i));
+    }
+    model.undo();
+    for (int i = runs; i < given.size(); i++) {
+      int drawn = i - runs + compacted;
+      assertEquals(all.getEndX(drawn), given.getEndX(i));
+      assertEquals(all.getEndY(drawn), given.getEndY(i));
+    }
+    assertEquals(all.size() - compacted + runs, given.size());
+    while (all.size() >= compacted) {
+      model.undo();
+    }
+    assertSame(early.getSegments(), late.getSegments());
+  }
+
+  // listeners that register while drawing is compacted all end up with the
+  // segments as drawn once undo reaches below every compaction
+  @Test
+  public void compactedWhileDrawing() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    model.enableLateJoin();
+    CanvasLogger early = new CanvasLogger(model);
+    for (int y = 0; y < 80; y++) {
+      stroke(model, y, 500);
+    }
+    AtomicBoolean done = new AtomicBoolean();
+    Thread drawer = new Thread(() -> {
+      for (int round = 0; !done.get() && round < 2000; round++) {
+        stroke(model, round % 500, 1 + round % 100);
+        if (round % 7 == 0) {
+          model.undo();
+        }
+      }
+    });
+    drawer.start();
+    CanvasLogger[] late = new CanvasLogger[20];
+    for (int i = 0; i < late.length; i++) {
+      Thread.sleep(5);
+      late[i] = new SlowLogger(model);
+    }
+    done.set(true);
+    drawer.join();
+    while (early.getSegments().size() >= LateJoinState.COMPACT_EVERY) {
+      model.undo();
+    }
+    for (CanvasLogger logger : late) {
+      assertSame(early.getSegments(), logger.getSegments());
+    }
+  }
+
+}
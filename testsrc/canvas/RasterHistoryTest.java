@@ -0,0 +1,100 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RasterHistoryTest {
+
+  private static SegmentStore strokes(int count) {
+    SegmentStore segments = new SegmentStore();
+    int x = 100;
+    int y = 100;
+    for (int i = 0; i < count; i++) {
+      int nextX = 50 + (x + 37) % 900;
+      int nextY = 50 + (y * 7 + i) % 900;
+      segments.add(x, y, nextX, nextY);
+      x = nextX;
+      y = nextY;
+    }
+    return segments;
+  }
+
+  private static void assertSameRaster(TiledRaster expected, TiledRaster actual) {
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+          fail("pixel " + x + "," + y);
+        }
+      }
+    }
+  }
+
+  // undoing gives exactly the pixels of drawing only what is left
+  @Test
+  public void undoMatchesRedraw() {
+    SegmentStore segments = strokes(300);
+    TiledRaster raster = new TiledRaster(1000, 1000);
+    RasterHistory history = new RasterHistory(raster, 64);
+    segments.forEach(history::drawLine);
+    assertEquals(4, history.getCheckpointCount());
+    history.undo(70);
+    assertEquals(230, history.size());
+    assertEquals(3, history.getCheckpointCount());
+
+    TiledRaster expected = new TiledRaster(1000, 1000);
+    segments.forEach(0, 230, expected::drawLine);
+    assertSameRaster(expected, raster);
+
+    history.undo(229);
+    TiledRaster first = new TiledRaster(1000, 1000);
+    segments.forEach(0, 1, first::drawLine);
+    assertSameRaster(first, raster);
+  }
+
+  // drawing again after an undo takes new checkpoints that undo correctly too
+  @Test
+  public void drawAfterUndo() {
+    SegmentStore segments = strokes(200);
+    TiledRaster raster = new TiledRaster(1000, 1000);
+    RasterHistory history = new RasterHistory(raster, 32);
+    segments.forEach(0, 150, history::drawLine);
+    history.undo(100);
+    segments.forEach(150, 50, history::drawLine);
+    history.undo(10);
+
+    TiledRaster expected = new TiledRaster(1000, 1000);
+    segments.forEach(0, 50, expected::drawLine);
+    segments.forEach(150, 40, expected::drawLine);
+    assertSameRaster(expected, raster);
+  }
+
+  // tiles are only saved when they change, and saved compressed
+  @Test
+  public void checkpointsCompressed() {
+    TiledRaster raster = new TiledRaster(2000, 2000);
+    RasterHistory history = new RasterHistory(raster, 10);
+    for (int i = 0; i < 100; i++) {
+      history.drawLine(10, 10 + i, 200, 10 + i);
+    }
+    assertEquals(10, history.getCheckpointCount());
+    assertTrue(history.getSavedBytes() < 10L * 256 * 256 * 4 / 10);
+  }
+
+  @Test
+  public void clear() {
+    TiledRaster raster = new TiledRaster(500, 500);
+    RasterHistory history = new RasterHistory(raster, 2);
+    for (int i = 0; i < 10; i++) {
+      history.drawLine(0, i, 100, i);
+    }
+    history.clear();
+    assertEquals(0, history.size());
+    assertEquals(0, history.getCheckpointCount());
+    assertEquals(0xFFFFFF, raster.getRGB(50, 5));
+    history.drawLine(0, 0, 10, 10);
+    history.undo(1);
+    assertEquals(0xFFFFFF, raster.getRGB(5, 5));
+  }
+
+}
@@ -0,0 +1,73 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RasterPyramidTest {
+
+  @Test
+  public void levels() {
+    assertEquals(0, new RasterPyramid(new TiledRaster(200, 200)).getTopLevel());
+    assertEquals(2, new RasterPyramid(new TiledRaster(600, 300)).getTopLevel());
+    assertEquals(9, new RasterPyramid(new TiledRaster(100000, 100000)).getTopLevel());
+  }
+
+  // a black square stays black all the way up, with white around it
+  @Test
+  public void averages() {
+    TiledRaster raster = new TiledRaster(1024, 1024);
+    raster.setLineMode(LineMode.BRESENHAM);
+    RasterPyramid pyramid = new RasterPyramid(raster);
+    for (int y = 256; y < 264; y++) {
+      raster.drawLine(256, y, 263, y);
+    }
+    pyramid.refresh();
+    assertEquals(0, pyramid.getRGB(1, 128, 128));
+    assertEquals(0, pyramid.getRGB(2, 64, 65));
+    assertEquals(0, pyramid.getRGB(3, 32, 32));
+    assertEquals(0xFFFFFF, pyramid.getRGB(3, 33, 32));
+    // half covered: one black row of two
+    raster.drawLine(0, 0, 1, 0);
+    pyramid.refresh();
+    assertEquals(0x808080, pyramid.getRGB(1, 0, 0));
+    raster.close();
+  }
+
+  // only the pixels above a drawing are refreshed, on one tile per level
+  @Test
+  public void incremental() {
+    TiledRaster raster = new TiledRaster(100000, 100000);
+    RasterPyramid pyramid = new RasterPyramid(raster);
+    raster.drawLine(50000, 50000, 50010, 50000);
+    pyramid.refresh();
+    assertEquals(pyramid.getTopLevel(), pyramid.getTileCount());
+    assertTrue(pyramid.getRGB(1, 25002, 25000) != 0xFFFFFF);
+    raster.drawLine(50000, 50004, 50010, 50004);
+    assertEquals(0xFFFFFF, pyramid.getRGB(1, 25002, 25002));
+    pyramid.refresh();
+    assertTrue(pyramid.getRGB(1, 25002, 25002) != 0xFFFFFF);
+    raster.close();
+  }
+
+  @Test
+  public void undoAndClear() {
+    TiledRaster raster = new TiledRaster(2000, 2000);
+    RasterHistory history = new RasterHistory(raster, 4);
+    RasterPyramid pyramid = new RasterPyramid(raster);
+    for (int i = 0; i < 10; i++) {
+      history.drawLine(100, 100 + i * 10, 200, 100 + i * 10);
+    }
+    history.drawLine(1500, 1500, 1600, 1500);
+    pyramid.refresh();
+    assertTrue(pyramid.getRGB(2, 387, 375) != 0xFFFFFF);
+    history.undo(1);
+    pyramid.refresh();
+    assertEquals(0xFFFFFF, pyramid.getRGB(2, 387, 375));
+    assertTrue(pyramid.getRGB(2, 37, 25) != 0xFFFFFF);
+    history.clear();
+    assertEquals(0, pyramid.getTileCount());
+    raster.close();
+  }
+
+}
@@ -0,0 +1,98 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentIndexTest {
+  private CanvasModel model;
+  private SegmentIndex index;
+
+  @Before
+  public void setUp() {
+    model = new CanvasModel(1000, 1000);
+    index = new SegmentIndex(model, 32);
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 10);
+    model.setStartPositions(500, 500);
+    model.setEndPositions(600, 600);
+    model.setStartPositions(0, 900);
+    model.setEndPositions(999, 900);
+  }
+
+  @Test
+  public void queryRegion() {
+    int[] found = new int[1];
+    int count = index.query(540, 540, 20, 20, (startX, startY, endX, endY) -> found[0] = startX);
+    assertEquals(1, count);
+    assertEquals(500, found[0]);
+  }
+
+  // the long horizontal line is listed in many cells but is found once
+  @Test
+  public void queryLongLineOnce() {
+    assertEquals(1, index.query(0, 890, 1000, 20, (startX, startY, endX, endY) -> { }));
+  }
+
+  // the diagonal's bounding box covers this rectangle but the line misses it
+  @Test
+  public void queryMiss() {
+    assertEquals(0, index.query(580, 500, 15, 15, (startX, startY, endX, endY) -> { }));
+  }
+
+  @Test
+  public void nearest() {
+    assertEquals(0, index.nearest(15, 14, 10));
+    assertEquals(2, index.nearest(400, 880, 50));
+    assertEquals(-1, index.nearest(300, 300, 20));
+  }
+
+  // the search is bounded by the distance from the point itself, not from the
+  // cell it is clamped to
+  @Test
+  public void nearestOffCanvas() {
+    assertEquals(2, index.nearest(-300, 880, 400));
+    assertEquals(2, index.nearest(2000, 2000, 1500));
+    assertEquals(-1, index.nearest(2000, 2000, 1400));
+    assertEquals(0, index.nearest(-40, -40, 100));
+  }
+
+  // the segments a search looked at are forgotten when it ends
+  @Test
+  public void searchesIndependent() {
+    for (int i = 0; i < 2000; i++) {
+      model.setStartPositions(100, 200 + i % 100);
+      model.setEndPositions(300, 200 + i % 100);
+    }
+    assertEquals(2000, index.query(90, 190, 220, 120, (startX, startY, endX, endY) -> { }));
+    assertEquals(2000, index.query(90, 190, 220, 120, (startX, startY, endX, endY) -> { }));
+    assertEquals(0, index.nearest(15, 14, 10));
+    assertEquals(0, index.nearest(15, 14, 10));
+  }
+
+  @Test
+  public void undo() {
+    model.enableUndo();
+    model.setStartPositions(700, 100);
+    model.setEndPositions(800, 100);
+    assertEquals(1, index.query(680, 80, 200, 40, (startX, startY, endX, endY) -> { }));
+    model.undo();
+    assertEquals(3, index.getSegments().size());
+    assertEquals(0, index.query(680, 80, 200, 40, (startX, startY, endX, endY) -> { }));
+    model.redo();
+    assertEquals(1, index.query(680, 80, 200, 40, (startX, startY, endX, endY) -> { }));
+    assertEquals(3, index.nearest(750, 105, 10));
+  }
+
+  @Test
+  public void clear() {
+    model.clearCanvas();
+    assertEquals(0, index.query(0, 0, 1000, 1000, (startX, startY, endX, endY) -> { }));
+    model.setStartPositions(10, 10);
+    model.setEndPositions(12, 12);
+    assertEquals(1, index.query(0, 0, 1000, 1000, (startX, startY, endX, endY) -> { }));
+    assertEquals(0, index.nearest(11, 11, 5));
+  }
+
+}
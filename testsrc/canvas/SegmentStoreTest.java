@@ -0,0 +1,73 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SegmentStoreTest {
+
+  @Test
+  public void addAndRead() {
+    SegmentStore store = new SegmentStore();
+    store.add(1, 2, 3, 4);
+    store.add(5, 6, 7, 8);
+    assertEquals(2, store.size());
+    assertEquals(1, store.getStartX(0));
+    assertEquals(6, store.getStartY(1));
+    assertEquals(7, store.getEndX(1));
+    assertEquals(4, store.getEndY(0));
+  }
+
+  @Test
+  public void grows() {
+    SegmentStore store = new SegmentStore();
+    for (int i = 0; i < 5000; i++) {
+      store.add(i, i, i + 1, i + 1);
+    }
+    assertEquals(5000, store.size());
+    assertEquals(4321, store.getStartX(4321));
+  }
+
+  // a ring store keeps only the newest segments, still indexed oldest first
+  @Test
+  public void ring() {
+    SegmentStore store = new SegmentStore(3);
+    for (int i = 0; i < 5; i++) {
+      store.add(i, 0, 0, 0);
+    }
+    assertEquals(3, store.size());
+    assertEquals(2, store.getStartX(0));
+    assertEquals(4, store.getStartX(2));
+    int[] sum = new int[1];
+    store.forEach((startX, startY, endX, endY) -> sum[0] = sum[0] * 10 + startX);
+    assertEquals(234, sum[0]);
+  }
+
+  @Test
+  public void addAll() {
+    SegmentStore store = new SegmentStore();
+    store.addAll(new int[] {1, 1, 2, 2, 2, 2, 3, 3, 9}, 2);
+    assertEquals(2, store.size());
+    assertEquals(3, store.getEndY(1));
+  }
+
+  @Test
+  public void clear() {
+    SegmentStore store = new SegmentStore(2);
+    store.add(1, 1, 2, 2);
+    store.add(2, 2, 3, 3);
+    store.add(3, 3, 4, 4);
+    store.clear();
+    assertTrue(store.isEmpty());
+    store.add(7, 7, 8, 8);
+    assertEquals(7, store.getStartX(0));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void outOfRange() {
+    SegmentStore store = new SegmentStore();
+    store.add(1, 1, 2, 2);
+    store.getStartX(1);
+  }
+
+}
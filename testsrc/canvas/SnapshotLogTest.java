@@ -0,0 +1,126 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SnapshotLogTest {
+
+  // a snapshot keeps what was on the canvas when it was taken
+  @Test
+  public void unchanged() {
+    CanvasModel model = new CanvasModel(600, 600);
+    SnapshotLog log = new SnapshotLog(model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(3, 3);
+    CanvasSnapshot first = log.snapshot();
+    model.drawSegments(new int[] {10, 10, 20, 20}, 1);
+    model.clearCanvas();
+    model.setStartPositions(7, 7);
+    model.setEndPositions(8, 8);
+    assertEquals(2, first.size());
+    assertEquals(2, first.getEndX(0));
+    assertEquals(3, first.getEndY(1));
+    CanvasSnapshot second = log.snapshot();
+    assertEquals(1, second.size());
+    assertEquals(7, second.getStartX(0));
+    assertTrue(second.getVersion() > first.getVersion());
+  }
+
+  // undo then drawing again over slots a snapshot holds copies them first
+  @Test
+  public void copyOnWrite() {
+    CanvasModel model = new CanvasModel(600, 600);
+    SnapshotLog log = new SnapshotLog(model);
+    int count = SnapshotLog.CHUNK_SIZE * 3 + 1000;
+    for (int i = 0; i < count; i++) {
+      log.lineDrawn(i, 0, i, 1);
+    }
+    CanvasSnapshot before = log.snapshot();
+    log.linesUndone(3000);
+    for (int i = 0; i < 3000; i++) {
+      log.lineDrawn(-i, 0, -i, 1);
+    }
+    CanvasSnapshot after = log.snapshot();
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, before.getStartX(i));
+    }
+    assertEquals(count, after.size());
+    assertEquals(count - 3001, after.getStartX(count - 3001));
+    assertEquals(0, after.getStartX(count - 3000));
+    assertEquals(-2999, after.getStartX(count - 1));
+    SegmentStore store = after.toSegmentStore();
+    assertEquals(count, store.size());
+    assertEquals(-2999, store.getStartX(count - 1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void outOfRange() {
+    SnapshotLog log = new SnapshotLog(new CanvasModel(600, 600));
+    log.lineDrawn(1, 1, 2, 2);
+    log.snapshot().getStartX(1);
+  }
+
+  // segment i starts at x = i and y is the number of the draw call, which
+  // grows along every consistent snapshot
+  @Test
+  public void concurrentReaders() throws InterruptedException {
+    SnapshotLog log = new SnapshotLog(new CanvasModel(600, 600));
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> failure = new AtomicReference<String>();
+    Thread[] readers = new Thread[3];
+    for (int r = 0; r < readers.length; r++) {
+      readers[r] = new Thread(() -> {
+        long version = -1;
+        while (!done.get()) {
+          CanvasSnapshot snapshot = log.snapshot();
+          if (snapshot.getVersion() < version) {
+            failure.set("version went back");
+          }
+          version = snapshot.getVersion();
+          int[] next = {0, 0};
+          snapshot.forEach((startX, startY, endX, endY) -> {
+            if (startX != next[0] || endX != next[0] + 1 || startY < next[1]) {
+              failure.set("segment " + next[0] + " is " + startX + ", " + startY);
+            }
+            next[0]++;
+            next[1] = startY;
+          });
+        }
+      });
+      readers[r].start();
+    }
+    int[] coords = new int[64 * 4];
+    int size = 0;
+    for (int round = 0; round < 20000; round++) {
+      if (round % 97 == 0) {
+        log.clearCanvas();
+        size = 0;
+      } else if (round % 5 == 0) {
+        int undone = Math.min(size, round % 300);
+        log.linesUndone(undone);
+        size -= undone;
+      } else {
+        int count = 1 + round % 64;
+        for (int i = 0; i < count; i++) {
+          coords[i * 4] = size + i;
+          coords[i * 4 + 1] = round;
+          coords[i * 4 + 2] = size + i + 1;
+        }
+        log.linesDrawn(coords, count);
+        size += count;
+      }
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertNull(failure.get());
+    assertEquals(size, log.snapshot().size());
+  }
+
+}
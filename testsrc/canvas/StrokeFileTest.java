@@ -0,0 +1,233 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StrokeFileTest {
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("canvas", ".strokes");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  /**
+   * Draws count segments in strokes of 100 that wander a few pixels a step.
+   */
+  private static SegmentStore walk(int count) {
+    Random random = new Random(7);
+    SegmentStore segments = new SegmentStore();
+    int x = 0;
+    int y = 0;
+    for (int i = 0; i < count; i++) {
+      if (i % 100 == 0) {
+        x = random.nextInt(600);
+        y = random.nextInt(600);
+      }
+      int nextX = Math.max(0, Math.min(600, x + random.nextInt(9) - 4));
+      int nextY = Math.max(0, Math.min(600, y + random.nextInt(9) - 4));
+      segments.add(x, y, nextX, nextY);
+      x = nextX;
+      y = nextY;
+    }
+    return segments;
+  }
+
+  private static void assertSameSegments(SegmentStore expected, SegmentStore actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getStartX(i), actual.getStartX(i));
+      assertEquals(expected.getStartY(i), actual.getStartY(i));
+      assertEquals(expected.getEndX(i), actual.getEndX(i));
+      assertEquals(expected.getEndY(i), actual.getEndY(i));
+    }
+  }
+
+  @Test
+  public void saveAndLoad() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeFileWriter writer = StrokeFileWriter.attach(file, model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(4, 3);
+    model.setStartPositions(100, 100);
+    model.setEndPositions(90, 110);
+    assertEquals(3, writer.getSegmentCount());
+    writer.close();
+    model.setEndPositions(80, 120);
+
+    CanvasModel loaded = new CanvasModel(600, 600);
+    CanvasLogger loadedLogger = new CanvasLogger(loaded);
+    assertEquals(3, StrokeFileReader.load(file, loaded));
+    logger.getSegments().removeLast(1);
+    assertSameSegments(logger.getSegments(), loadedLogger.getSegments());
+  }
+
+  // clears and undos are saved and replayed in order
+  @Test
+  public void clearAndUndo() throws IOException {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeFileWriter writer = StrokeFileWriter.attach(file, model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.clearCanvas();
+    model.setStartPositions(5, 5);
+    model.setEndPositions(6, 6);
+    model.setEndPositions(7, 7);
+    model.setStartPositions(50, 50);
+    model.setEndPositions(60, 60);
+    model.undo();
+    writer.close();
+
+    CanvasModel loaded = new CanvasModel(600, 600);
+    loaded.enableUndo();
+    CanvasLogger loadedLogger = new CanvasLogger(loaded);
+    StrokeFileReader.load(file, loaded);
+    assertSameSegments(logger.getSegments(), loadedLogger.getSegments());
+    loaded.undo();
+    assertTrue(loadedLogger.emptyCanvas());
+  }
+
+  @Test
+  public void blocksAndIndex() throws IOException {
+    SegmentStore segments = walk(100000);
+    try (StrokeFileWriter writer = new StrokeFileWriter(Files.newOutputStream(file), 600,
+        600)) {
+      segments.forEach(writer::lineDrawn);
+    }
+    try (StrokeFileReader reader = StrokeFileReader.open(file)) {
+      assertEquals(600, reader.getCanvasLength());
+      assertEquals(100000, reader.getSegmentCount());
+      assertTrue(reader.getBlockCount() > 1);
+      CanvasModel model = new CanvasModel(600, 600);
+      CanvasLogger logger = new CanvasLogger(model);
+      reader.load(model);
+      assertSameSegments(segments, logger.getSegments());
+
+      // a single block in the middle decodes on its own
+      int block = reader.findBlock(50000);
+      long first = reader.getFirstSegment(block);
+      assertTrue(first <= 50000);
+      CanvasLogger partLogger = new CanvasLogger(new CanvasModel(600, 600));
+      long read = reader.readBlocks(block, block + 1, partLogger);
+      SegmentStore part = partLogger.getSegments();
+      assertEquals(read, part.size());
+      assertTrue(first + read > 50000);
+      for (int i = 0; i < part.size(); i++) {
+        assertEquals(segments.getEndX((int) first + i), part.getEndX(i));
+        assertEquals(segments.getEndY((int) first + i), part.getEndY(i));
+      }
+    }
+  }
+
+  // a mouse drawing comes out 5 to 10 times smaller than raw records of four
+  // ints a segment
+  @Test
+  public void compact() throws IOException {
+    SegmentStore segments = walk(100000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StrokeFileWriter writer = new StrokeFileWriter(bytes, 600, 600);
+    segments.forEach(writer::lineDrawn);
+    writer.close();
+    double ratio = segments.size() * 16.0 / bytes.size();
+    assertTrue("ratio " + ratio, ratio >= 5 && ratio <= 10);
+
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    long read = StrokeFileReader.read(new ByteArrayInputStream(bytes.toByteArray()),
+        logger);
+    assertEquals(100000, read);
+    assertSameSegments(segments, logger.getSegments());
+  }
+
+  @Test
+  public void empty() throws IOException {
+    new StrokeFileWriter(Files.newOutputStream(file), 10, 10).close();
+    try (StrokeFileReader reader = StrokeFileReader.open(file)) {
+      assertEquals(0, reader.getBlockCount());
+      assertEquals(0, reader.getSegmentCount());
+      assertEquals(-1, reader.findBlock(0));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void notAStrokeFile() throws IOException {
+    Files.write(file, new byte[64]);
+    StrokeFileReader.open(file);
+  }
+
+  // a file whose writer was not closed has no index but still streams
+  @Test
+  public void unclosed() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StrokeFileWriter writer = new StrokeFileWriter(bytes, 600, 600);
+    walk(50000).forEach(writer::lineDrawn);
+    writer.close();
+    byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 20);
+    Files.write(file, truncated);
+    try {
+      StrokeFileReader.open(file);
+      fail("opened a file without an index");
+    } catch (IOException e) {
+      // expected
+    }
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    assertEquals(50000, StrokeFileReader.load(file, model));
+    assertEquals(50000, logger.getSegments().size());
+  }
+
+  // a failed write stops the writer without cutting short the other
+  // listeners, and close reports it
+  @Test
+  public void writeFails() throws IOException {
+    OutputStream full = new OutputStream() {
+      private int written;
+
+      @Override
+      public void write(int b) throws IOException {
+        if (++written > 100000) {
+          throw new IOException("disk full");
+        }
+      }
+    };
+    CanvasModel model = new CanvasModel(600, 600);
+    StrokeFileWriter writer = new StrokeFileWriter(full, 600, 600);
+    model.registerListener(writer);
+    CanvasLogger logger = new CanvasLogger(model);
+    SegmentStore segments = walk(200000);
+    segments.forEach((startX, startY, endX, endY) -> {
+      model.setStartPositions(startX, startY);
+      model.setEndPositions(endX, endY);
+    });
+    assertEquals(200000, logger.getSegments().size());
+    assertEquals("disk full", writer.getError().getMessage());
+    try {
+      writer.close();
+      fail("close did not report the failed write");
+    } catch (IOException e) {
+      assertSame(writer.getError(), e);
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StrokeLogTest {
+  private CanvasModel model;
+  private CanvasLogger logger;
+
+  @Before
+  public void setUp() {
+    model = new CanvasModel(600, 600);
+    model.enableUndo();
+    logger = new CanvasLogger(model);
+    model.setStartPositions(1, 1);
+    model.setEndPositions(2, 2);
+    model.setEndPositions(3, 3);
+    model.setStartPositions(10, 10);
+    model.setEndPositions(20, 20);
+  }
+
+  @Test
+  public void undoStroke() {
+    model.undo();
+    assertEquals(2, logger.getSegments().size());
+    assertEquals(3, logger.getLastLine().getEndX());
+    model.undo();
+    assertTrue(logger.emptyCanvas());
+    model.undo();
+    assertTrue(logger.emptyCanvas());
+  }
+
+  @Test
+  public void redoStroke() {
+    model.undo();
+    model.undo();
+    model.redo();
+    assertEquals(2, logger.getSegments().size());
+    model.redo();
+    assertEquals(3, logger.getSegments().size());
+    assertEquals(20, logger.getLastLine().getEndX());
+    model.redo();
+    assertEquals(3, logger.getSegments().size());
+  }
+
+  // new drawing forgets the undone strokes
+  @Test
+  public void drawingForgetsRedo() {
+    model.undo();
+    model.setStartPositions(50, 50);
+    model.setEndPositions(60, 60);
+    model.redo();
+    assertEquals(3, logger.getSegments().size());
+    assertEquals(60, logger.getLastLine().getEndX());
+  }
+
+  // the mouse release ends a stroke, and a stroke is the segments after simplification
+  @Test
+  public void strokesOfSimplifiedSegments() {
+    model.clearCanvas();
+    model.enableSimplification(0);
+    model.setStartPositions(0, 0);
+    model.setEndPositions(1, 0);
+    model.setEndPositions(2, 0);
+    model.endStroke();
+    model.setEndPositions(2, 5);
+    model.endStroke();
+    assertEquals(2, logger.getSegments().size());
+    model.undo();
+    assertEquals(1, logger.getSegments().size());
+    assertEquals(2, logger.getLastLine().getEndX());
+  }
+
+  @Test
+  public void clearNotUndone() {
+    model.clearCanvas();
+    model.undo();
+    model.redo();
+    assertTrue(logger.emptyCanvas());
+  }
+
+  @Test
+  public void undoSegmentsAcrossStrokes() {
+    StrokeLog log = new StrokeLog();
+    Object owner = new Object();
+    log.add(owner, 0, 0, 1, 1);
+    log.endStroke();
+    log.add(owner, 1, 1, 2, 2);
+    log.add(owner, 2, 2, 3, 3);
+    assertEquals(2, log.getStrokeCount());
+    log.removeLast(2);
+    assertEquals(1, log.getStrokeCount());
+    assertEquals(1, log.undo());
+    assertEquals(1, log.getUndoneCount());
+    assertEquals(4, log.redo().length);
+  }
+
+  // segments of another owner start a new stroke
+  @Test
+  public void ownersSplitStrokes() {
+    StrokeLog log = new StrokeLog();
+    Object first = new Object();
+    Object second = new Object();
+    log.add(first, 0, 0, 1, 1);
+    log.add(second, 5, 5, 6, 6);
+    log.add(second, 6, 6, 7, 7);
+    log.endStroke(first);
+    log.add(second, 7, 7, 8, 8);
+    assertEquals(2, log.getStrokeCount());
+    assertEquals(3, log.undo());
+  }
+
+  // an owner's stroke takes in its segments whoever draws in between, and
+  // undoing it leaves the others' segments to be drawn again
+  @Test
+  public void interleavedOwners() {
+    StrokeLog log = new StrokeLog();
+    Object first = new Object();
+    Object second = new Object();
+    log.add(first, 0, 0, 1, 1);
+    log.add(second, 5, 5, 6, 6);
+    log.add(first, 1, 1, 2, 2);
+    log.add(second, 6, 6, 7, 7);
+    assertEquals(2, log.getStrokeCount());
+    assertEquals(3, log.undo());
+    assertArrayEquals(new int[] {1, 1, 2, 2}, log.getRedrawn());
+    assertArrayEquals(new int[] {5, 5, 6, 6, 6, 6, 7, 7}, log.redo());
+    // redone as a whole after the first stroke
+    assertEquals(2, log.undo());
+    assertEquals(0, log.getRedrawn().length);
+    assertEquals(2, log.undo());
+    assertEquals(0, log.getStrokeCount());
+  }
+
+  @Test
+  public void withoutUndo() {
+    CanvasModel plain = new CanvasModel(600, 600);
+    CanvasLogger plainLogger = new CanvasLogger(plain);
+    plain.setEndPositions(5, 5);
+    plain.undo();
+    assertEquals(1, plainLogger.getSegments().size());
+  }
+
+}
@@ -0,0 +1,265 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class StrokeSessionTest {
+
+  /**
+   * Keeps the segments of each session in order.
+   */
+  private static class SessionRecorder implements CanvasListener {
+    final List<List<int[]>> bySession = new ArrayList<List<int[]>>();
+
+    public void canvasReady() {
+    }
+
+    public void lineDrawn(int startX, int startY, int endX, int endY) {
+      fail("untagged segment");
+    }
+
+    @Override
+    public void sessionLinesDrawn(int session, int[] coords, int count) {
+      while (bySession.size() <= session) {
+        bySession.add(new ArrayList<int[]>());
+      }
+      for (int i = 0; i < count * 4; i += 4) {
+        bySession.get(session).add(new int[] {coords[i], coords[i + 1], coords[i + 2],
+            coords[i + 3]});
+      }
+    }
+
+    public void clearCanvas() {
+      bySession.clear();
+    }
+  }
+
+  // two drawers at once draw two separate strokes
+  @Test
+  public void sessionsDoNotJoin() {
+    CanvasModel model = new CanvasModel(600, 600);
+    SessionRecorder recorder = new SessionRecorder();
+    model.registerListener(recorder);
+    StrokeSession first = model.openSession(0, 1);
+    StrokeSession second = model.openSession(1, 1);
+    first.begin(10, 10);
+    second.begin(300, 300);
+    first.extend(20, 10);
+    second.extend(300, 320);
+    first.extend(30, 10);
+    assertEquals(2, recorder.bySession.get(0).size());
+    assertArrayEquals(new int[] {20, 10, 30, 10}, recorder.bySession.get(0).get(1));
+    assertArrayEquals(new int[] {300, 300, 300, 320}, recorder.bySession.get(1).get(0));
+  }
+
+  // segments are held until the batch is full or the stroke ends
+  @Test
+  public void batched() {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeSession session = model.openSession(7, 3);
+    session.begin(0, 0);
+    session.extend(1, 1);
+    session.extend(2, 2);
+    assertTrue(logger.emptyCanvas());
+    session.extend(3, 3);
+    assertEquals(3, logger.getSegments().size());
+    session.extend(4, 4);
+    session.extend(700, 4);
+    session.end();
+    assertEquals(4, logger.getSegments().size());
+  }
+
+  @Test
+  public void clearDropsHeldSegments() {
+    CanvasModel model = new CanvasModel(600, 600);
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeSession session = model.openSession(0);
+    session.begin(0, 0);
+    session.extend(5, 5);
+    model.clearCanvas();
+    session.extend(6, 6);
+    session.end();
+    assertEquals(1, logger.getSegments().size());
+    assertEquals(6, logger.getLastLine().getEndX());
+  }
+
+  // each session's stroke is undone on its own even when batches interleave
+  @Test
+  public void undoSessionStroke() {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeSession first = model.openSession(0, 1);
+    StrokeSession second = model.openSession(1, 1);
+    first.begin(0, 0);
+    first.extend(1, 1);
+    first.extend(2, 2);
+    first.end();
+    second.begin(100, 100);
+    second.extend(101, 101);
+    second.end();
+    model.undo();
+    assertEquals(2, logger.getSegments().size());
+    assertEquals(2, logger.getLastLine().getEndX());
+  }
+
+  // strokes drawn at the same time stay whole: undo takes back the newest
+  // one, all of it, and leaves the other one as drawn
+  @Test
+  public void undoInterleavedStrokes() {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableUndo();
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeSession first = model.openSession(0, 1);
+    StrokeSession second = model.openSession(1, 1);
+    first.begin(0, 0);
+    second.begin(100, 100);
+    for (int i = 1; i <= 200; i++) {
+      first.extend(i, i);
+      second.extend(100 + i, 100);
+    }
+    model.undo();
+    SegmentStore segments = logger.getSegments();
+    assertEquals(200, segments.size());
+    for (int i = 0; i < 200; i++) {
+      assertEquals(i, segments.getStartX(i));
+      assertEquals(i + 1, segments.getEndY(i));
+    }
+    // the first stroke was ended by the undo, and is the next one undone
+    first.extend(300, 300);
+    model.undo();
+    assertEquals(200, logger.getSegments().size());
+    model.undo();
+    assertTrue(logger.emptyCanvas());
+    model.redo();
+    assertEquals(200, logger.getSegments().size());
+  }
+
+  @Test
+  public void simplified() {
+    CanvasModel model = new CanvasModel(600, 600);
+    model.enableSimplification(0);
+    CanvasLogger logger = new CanvasLogger(model);
+    StrokeSession session = model.openSession(0);
+    session.begin(0, 0);
+    for (int x = 1; x <= 10; x++) {
+      session.extend(x, 0);
+    }
+    session.end();
+    assertEquals(1, logger.getSegments().size());
+  }
+
+  // many threads drawing at once lose no segment and never join strokes
+  @Test
+  public void concurrentDrawers() throws InterruptedException {
+    CanvasModel model = new CanvasModel(1000, 1000);
+    SessionRecorder recorder = new SessionRecorder();
+    model.registerListener(recorder);
+    Thread[] threads = new Thread[16];
+    for (int t = 0; t < threads.length; t++) {
+      int id = t;
+      threads[t] = new Thread(() -> {
+        StrokeSession session = model.openSession(id, 16);
+        session.begin(id * 50, 0);
+        for (int y = 1; y <= 1000; y++) {
+          session.extend(id * 50 + y % 7, y);
+        }
+        session.end();
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int t = 0; t < threads.length; t++) {
+      List<int[]> segments = recorder.bySession.get(t);
+      assertEquals(1000, segments.size());
+      for (int i = 1; i < segments.size(); i++) {
+        assertEquals(segments.get(i - 1)[2], segments.get(i)[0]);
+        assertEquals(segments.get(i - 1)[3], segments.get(i)[1]);
+      }
+    }
+  }
+
+  // the single pointer, sessions, drawSegments and undo fire under the same
+  // lock, so a listener is never called by two threads at once
+  @Test
+  public void listenersTakeTurns() throws InterruptedException {
+    CanvasModel model = new CanvasModel(1000, 1000);
+    model.enableUndo();
+    AtomicInteger inside = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    new CanvasLogger(model) {
+      @Override
+      public void lineDrawn(int startX, int startY, int endX, int endY) {
+        enter();
+      }
+
+      @Override
+      public void linesDrawn(int[] coords, int count) {
+        enter();
+      }
+
+      @Override
+      public void linesUndone(int count) {
+        enter();
+      }
+
+      private void enter() {
+        if (inside.incrementAndGet() > 1) {
+          overlaps.incrementAndGet();
+        }
+        Thread.yield();
+        inside.decrementAndGet();
+      }
+    };
+    Thread pointer = new Thread(() -> {
+      model.setStartPositions(0, 0);
+      for (int i = 1; i <= 2000; i++) {
+        model.setEndPositions(i % 1000, i / 1000);
+      }
+    });
+    Thread session = new Thread(() -> {
+      StrokeSession drawer = model.openSession(0, 1);
+      drawer.begin(500, 500);
+      for (int i = 1; i <= 2000; i++) {
+        drawer.extend(500 + i % 300, 500);
+      }
+      drawer.end();
+    });
+    Thread other = new Thread(() -> {
+      for (int i = 0; i < 500; i++) {
+        model.drawSegments(new int[] {1, 1, 2, 2}, 1);
+        model.undo();
+      }
+    });
+    pointer.start();
+    session.start();
+    other.start();
+    pointer.join();
+    session.join();
+    other.join();
+    assertEquals(0, overlaps.get());
+  }
+
+  @Test
+  public void asyncKeepsTags() throws InterruptedException {
+    CanvasModel model = new CanvasModel(600, 600, 16, OverflowPolicy.BLOCK);
+    SessionRecorder recorder = new SessionRecorder();
+    model.registerListener(recorder);
+    StrokeSession session = model.openSession(2);
+    session.begin(0, 0);
+    session.extend(1, 1);
+    session.extend(2, 2);
+    session.end();
+    assertTrue(model.awaitDispatch(1000));
+    assertEquals(2, recorder.bySession.get(2).size());
+  }
+
+}
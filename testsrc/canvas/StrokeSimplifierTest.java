@@ -0,0 +1,118 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class StrokeSimplifierTest {
+
+  private static void drag(CanvasModel model, int[] xs, int[] ys) {
+    model.setStartPositions(xs[0], ys[0]);
+    for (int i = 1; i < xs.length; i++) {
+      model.setEndPositions(xs[i], ys[i]);
+    }
+    model.endStroke();
+  }
+
+  @Test
+  public void zeroLengthDropped() {
+    CanvasModel model = new CanvasModel(100, 100);
+    model.enableSimplification(0);
+    CanvasLogger logger = new CanvasLogger(model);
+    drag(model, new int[] {5, 5, 5, 9}, new int[] {5, 5, 5, 5});
+    assertEquals(1, logger.getSegments().size());
+    assertEquals(9, logger.getLastLine().getEndX());
+  }
+
+  @Test
+  public void collinearMerged() {
+    CanvasModel model = new CanvasModel(100, 100);
+    model.enableSimplification(0);
+    CanvasLogger logger = new CanvasLogger(model);
+    // right along a line, then a corner, then down
+    drag(model, new int[] {0, 2, 4, 6, 6, 6}, new int[] {0, 1, 2, 3, 10, 20});
+    SegmentStore segments = logger.getSegments();
+    assertEquals(2, segments.size());
+    assertEquals(6, segments.getEndX(0));
+    assertEquals(3, segments.getEndY(0));
+    assertEquals(20, segments.getEndY(1));
+  }
+
+  // going back over a line is not merged away
+  @Test
+  public void reversalKept() {
+    CanvasModel model = new CanvasModel(100, 100);
+    model.enableSimplification(0);
+    CanvasLogger logger = new CanvasLogger(model);
+    drag(model, new int[] {0, 10, 5}, new int[] {0, 0, 0});
+    assertEquals(2, logger.getSegments().size());
+  }
+
+  // the tail of a stroke is held back until the stroke ends
+  @Test
+  public void heldUntilStrokeEnds() {
+    CanvasModel model = new CanvasModel(100, 100);
+    model.enableSimplification(1);
+    CanvasLogger logger = new CanvasLogger(model);
+    model.setStartPositions(0, 0);
+    model.setEndPositions(1, 1);
+    model.setEndPositions(2, 2);
+    assertEquals(0, logger.getSegments().size());
+    model.setStartPositions(50, 50);
+    assertEquals(1, logger.getSegments().size());
+    model.setEndPositions(60, 50);
+    model.clearCanvas();
+    assertEquals(0, logger.getSegments().size());
+  }
+
+  @Test
+  public void longRunsPassedOn() {
+    CanvasModel model = new CanvasModel(1000, 100);
+    model.enableSimplification(0);
+    CanvasLogger logger = new CanvasLogger(model);
+    model.setStartPositions(0, 0);
+    for (int x = 1; x <= StrokeSimplifier.MAX_RUN + 1; x++) {
+      model.setEndPositions(x, 0);
+    }
+    assertEquals(1, logger.getSegments().size());
+  }
+
+  // a jittery drag keeps every drawn point within tolerance of far fewer segments
+  @Test
+  public void withinTolerance() {
+    int points = 2000;
+    int[] xs = new int[points];
+    int[] ys = new int[points];
+    SplittableRandom random = new SplittableRandom(7);
+    for (int i = 0; i < points; i++) {
+      xs[i] = i / 4;
+      ys[i] = 300 + (int) (100 * Math.sin(i / 300.0)) + random.nextInt(2);
+    }
+    CanvasModel model = new CanvasModel(1000, 1000);
+    model.enableSimplification(1.5);
+    CanvasLogger logger = new CanvasLogger(model);
+    drag(model, xs, ys);
+    SegmentStore segments = logger.getSegments();
+    assertTrue(segments.size() < points / 8);
+    for (int i = 0; i < points; i++) {
+      double best = Double.MAX_VALUE;
+      for (int s = 0; s < segments.size(); s++) {
+        best = Math.min(best, distance(xs[i], ys[i], segments.getStartX(s),
+            segments.getStartY(s), segments.getEndX(s), segments.getEndY(s)));
+      }
+      assertTrue("point " + i + " is " + best + " away", best <= 1.5);
+    }
+  }
+
+  private static double distance(int x, int y, int startX, int startY, int endX, int endY) {
+    double dx = endX - startX;
+    double dy = endY - startY;
+    double length = dx * dx + dy * dy;
+    double t = length == 0 ? 0 : ((x - startX) * dx + (y - startY) * dy) / length;
+    t = Math.max(0, Math.min(1, t));
+    return Math.hypot(x - startX - t * dx, y - startY - t * dy);
+  }
+
+}
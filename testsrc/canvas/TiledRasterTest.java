@@ -0,0 +1,119 @@
+package canvas;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TiledRasterTest {
+
+  // a short line on a huge canvas only allocates the tile it is on
+  @Test
+  public void lazyTiles() {
+    TiledRaster raster = new TiledRaster(100000, 100000);
+    raster.drawLine(50000, 50000, 50010, 50000);
+    assertEquals(1, raster.getAllocatedTileCount());
+    assertEquals(0, raster.getRGB(50005, 50000));
+    assertEquals(0xFFFFFF, raster.getRGB(10, 10));
+    raster.close();
+  }
+
+  // a long diagonal only allocates tiles along the line, not its bounding box
+  @Test
+  public void diagonal() {
+    TiledRaster raster = new TiledRaster(10000, 10000);
+    raster.drawLine(0, 0, 10000, 10000);
+    int tilesPerSide = 10000 / TiledRaster.TILE_SIZE + 1;
+    assertTrue(raster.getAllocatedTileCount() < tilesPerSide * 4);
+    raster.close();
+  }
+
+  @Test
+  public void spillAndReload() {
+    TiledRaster raster = new TiledRaster(4096, 256, 2);
+    for (int tile = 0; tile < 8; tile++) {
+      int x = tile * TiledRaster.TILE_SIZE + 10;
+      raster.drawLine(x, 100, x + 20, 100);
+    }
+    assertEquals(2, raster.getResidentTileCount());
+    assertEquals(8, raster.getAllocatedTileCount());
+    assertEquals(0, raster.getRGB(20, 100));
+    assertEquals(0xFFFFFF, raster.getRGB(20, 50));
+    raster.close();
+  }
+
+  @Test
+  public void clear() {
+    TiledRaster raster = new TiledRaster(2048, 256, 1);
+    raster.drawLine(10, 10, 1000, 10);
+    raster.clear();
+    assertEquals(0, raster.getAllocatedTileCount());
+    assertEquals(0xFFFFFF, raster.getRGB(20, 10));
+    raster.close();
+  }
+
+  // a Bresenham line across a tile edge blackens exactly one pixel per column
+  @Test
+  public void bresenham() {
+    TiledRaster raster = new TiledRaster(1024, 1024);
+    raster.setLineMode(LineMode.BRESENHAM);
+    raster.drawLine(200, 10, 300, 60);
+    assertEquals(2, raster.getAllocatedTileCount());
+    for (int x = 200; x <= 300; x++) {
+      int black = 0;
+      for (int y = 0; y < 80; y++) {
+        if (raster.getRGB(x, y) == 0) {
+          black++;
+        }
+      }
+      assertEquals(1, black);
+    }
+    assertEquals(0, raster.getRGB(200, 10));
+    assertEquals(0, raster.getRGB(300, 60));
+    raster.close();
+  }
+
+  // a Wu line splits its ink between two pixels in each column
+  @Test
+  public void wu() {
+    TiledRaster raster = new TiledRaster(1024, 1024);
+    raster.setLineMode(LineMode.WU);
+    raster.drawLine(10, 10, 110, 43);
+    assertEquals(0, raster.getRGB(10, 10));
+    assertEquals(0, raster.getRGB(110, 43));
+    boolean partial = false;
+    for (int x = 11; x < 110; x++) {
+      int ink = 0;
+      for (int y = 0; y < 60; y++) {
+        int blue = raster.getRGB(x, y) & 0xFF;
+        ink += 255 - blue;
+        partial |= blue != 0 && blue != 255;
+      }
+      assertTrue(Math.abs(ink - 255) <= 2);
+    }
+    assertTrue(partial);
+    raster.close();
+  }
+
+  // direct lines report their tiles as changed and survive spilling
+  @Test
+  public void directChangedAndSpilled() {
+    TiledRaster raster = new TiledRaster(4096, 256, 2);
+    raster.setLineMode(LineMode.WU);
+    raster.drawLine(10, 100, 20, 105);
+    assertEquals(1, raster.takeChangedTiles().length);
+    raster.drawLine(20, 105, 30, 100);
+    assertEquals(1, raster.takeChangedTiles().length);
+    for (int tile = 1; tile < 8; tile++) {
+      int x = tile * TiledRaster.TILE_SIZE + 10;
+      raster.drawLine(x, 100, x + 20, 100);
+    }
+    raster.drawLine(40, 100, 50, 100);
+    assertEquals(2, raster.getResidentTileCount());
+    assertEquals(8, raster.getAllocatedTileCount());
+    assertEquals(0, raster.getRGB(10, 100));
+    assertEquals(0, raster.getRGB(45, 100));
+    assertEquals(0, raster.getRGB(7 * TiledRaster.TILE_SIZE + 15, 100));
+    raster.close();
+  }
+
+}